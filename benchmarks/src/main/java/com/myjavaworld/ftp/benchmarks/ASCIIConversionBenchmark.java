@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.myjavaworld.ftp.FromNetASCIIInputStream;
+import com.myjavaworld.ftp.FromNetASCIIOutputStream;
+import com.myjavaworld.ftp.ToNetASCIIInputStream;
+import com.myjavaworld.ftp.ToNetASCIIOutputStream;
+
+/**
+ * Measures the streams that convert line separators in ASCII transfers. The
+ * data is read and written in chunks of the default buffer size of the
+ * client. The text repeats a block of mixed line lengths, so that sizes up to
+ * a gigabyte need no array of that size. The <code>legacy</code> benchmarks
+ * run copies of the classes as they were before the bulk conversion, as a
+ * baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ASCIIConversionBenchmark {
+
+	/**
+	 * Size of the block the text repeats, in bytes.
+	 */
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * Size of the text, in bytes.
+	 */
+	@Param( { "1048576", "1073741824" })
+	public long size;
+
+	/**
+	 * Block of text with CRLF line separators, as sent on the network.
+	 */
+	private byte[] netText;
+	/**
+	 * Block of text with LF line separators, as stored locally.
+	 */
+	private byte[] localText;
+	private byte[] buffer;
+
+	@Setup
+	public void setUp() {
+		netText = createText(BLOCK_SIZE, "\r\n");
+		localText = createText(BLOCK_SIZE, "\n");
+		buffer = new byte[8 * 1024];
+	}
+
+	@Benchmark
+	public long fromNetInputStream() throws IOException {
+		return drain(new FromNetASCIIInputStream(new TextInputStream(netText,
+				size)));
+	}
+
+	@Benchmark
+	public long legacyFromNetInputStream() throws IOException {
+		return drain(new LegacyFromNetASCIIInputStream(new TextInputStream(
+				netText, size)));
+	}
+
+	@Benchmark
+	public long toNetInputStream() throws IOException {
+		return drain(new ToNetASCIIInputStream(new TextInputStream(localText,
+				size)));
+	}
+
+	@Benchmark
+	public long legacyToNetInputStream() throws IOException {
+		return drain(new LegacyToNetASCIIInputStream(new TextInputStream(
+				localText, size)));
+	}
+
+	@Benchmark
+	public long fromNetOutputStream() throws IOException {
+		return fill(new FromNetASCIIOutputStream(new NullOutputStream()),
+				netText);
+	}
+
+	@Benchmark
+	public long toNetOutputStream() throws IOException {
+		return fill(new ToNetASCIIOutputStream(new NullOutputStream()),
+				localText);
+	}
+
+	@Benchmark
+	public long legacyToNetOutputStream() throws IOException {
+		return fill(new LegacyToNetASCIIOutputStream(new NullOutputStream()),
+				localText);
+	}
+
+	private long drain(InputStream in) throws IOException {
+		long total = 0L;
+		int count = 0;
+		while ((count = in.read(buffer)) != -1) {
+			total += count;
+		}
+		in.close();
+		return total;
+	}
+
+	/**
+	 * Writes <code>size</code> bytes of the given block, repeated, to the
+	 * given stream.
+	 */
+	private long fill(OutputStream out, byte[] text) throws IOException {
+		long remaining = size;
+		int offset = 0;
+		while (remaining > 0) {
+			int count = (int) Math.min(remaining, Math.min(buffer.length,
+					text.length - offset));
+			out.write(text, offset, count);
+			remaining -= count;
+			offset += count;
+			if (offset == text.length) {
+				offset = 0;
+			}
+		}
+		out.close();
+		return size;
+	}
+
+	/**
+	 * Creates text of the given size, in lines of varying length. The block
+	 * ends with a line separator, so that it can be repeated.
+	 */
+	private static byte[] createText(int size, String separator) {
+		StringBuilder builder = new StringBuilder(size + 128);
+		int line = 0;
+		while (builder.length() < size) {
+			for (int i = 0; i < 20 + line % 60; i++) {
+				builder.append((char) ('a' + (i + line) % 26));
+			}
+			builder.append(separator);
+			line++;
+		}
+		builder.setLength(builder.lastIndexOf(separator, size
+				- separator.length())
+				+ separator.length());
+		byte[] text = new byte[builder.length()];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) builder.charAt(i);
+		}
+		return text;
+	}
+
+	/**
+	 * A stream of the given number of bytes of a block, repeated.
+	 */
+	private static class TextInputStream extends InputStream {
+
+		private byte[] text;
+		private long remaining;
+		private int offset;
+
+		TextInputStream(byte[] text, long size) {
+			this.text = text;
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() {
+			if (remaining == 0) {
+				return -1;
+			}
+			int b = text[offset++] & 0xFF;
+			if (offset == text.length) {
+				offset = 0;
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (remaining == 0) {
+				return -1;
+			}
+			int count = (int) Math.min(remaining, Math.min(len, text.length
+					- offset));
+			System.arraycopy(text, offset, b, off, count);
+			offset += count;
+			if (offset == text.length) {
+				offset = 0;
+			}
+			remaining -= count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * A stream that discards everything written to it.
+	 */
+	private static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.myjavaworld.ftp.DefaultFTPClient;
+
+/**
+ * Measures command round trips over the control connection, and the cost of
+ * setting up a session, against the loopback server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ControlRoundTripBenchmark {
+
+	@Param( { "PLAIN", "TLS_SOCKET", "TLS_ENGINE" })
+	public Transport transport;
+
+	private LoopbackFTPServer server;
+	private DefaultFTPClient client;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LoopbackFTPServer(LoopbackFTPServer.createSSLContext());
+		client = transport.connect(server);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Transport.disconnect(client);
+		server.close();
+	}
+
+	@Benchmark
+	public void noop() throws Exception {
+		client.noop();
+	}
+
+	@Benchmark
+	public String systemInfo() throws Exception {
+		return client.getSystemInfo();
+	}
+
+	/**
+	 * Connects, logs in and disconnects, including the SSL handshake if the
+	 * transport uses SSL.
+	 */
+	@Benchmark
+	public void connectAndLogin() throws Exception {
+		Transport.disconnect(transport.connect(server));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.myjavaworld.ftp.DefaultListParser;
+import com.myjavaworld.ftp.DosListParser;
+import com.myjavaworld.ftp.ListParser;
+import com.myjavaworld.ftp.RemoteFile;
+
+/**
+ * Measures parsing of UNIX and DOS style directory listings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListParserBenchmark {
+
+	/**
+	 * Number of entries in the listing.
+	 */
+	@Param( { "10", "1000" })
+	public int entries;
+
+	private ListParser unixParser;
+	private ListParser dosParser;
+	private RemoteFile unixParent;
+	private RemoteFile dosParent;
+	private String unixListing;
+	private String dosListing;
+
+	@Setup
+	public void setUp() {
+		unixParser = new DefaultListParser();
+		dosParser = new DosListParser();
+		unixParent = unixParser.createRemoteFile("/", true);
+		dosParent = dosParser.createRemoteFile("/", true);
+		unixListing = LoopbackFTPServer.createListing(entries);
+		StringBuilder builder = new StringBuilder(entries * 48);
+		for (int i = 0; i < entries; i++) {
+			if (i % 10 == 0) {
+				builder.append("01-12-11  10:15AM       <DIR>          directory")
+						.append(i);
+			} else {
+				builder.append("03-03-11  02:40PM             ").append(
+						i * 1031L).append(" file").append(i).append(".txt");
+			}
+			builder.append("\r\n");
+		}
+		dosListing = builder.toString();
+	}
+
+	@Benchmark
+	public RemoteFile[] unix() throws Exception {
+		return parse(unixParser, unixParent, unixListing);
+	}
+
+	@Benchmark
+	public RemoteFile[] dos() throws Exception {
+		return parse(dosParser, dosParent, dosListing);
+	}
+
+	private static RemoteFile[] parse(ListParser parser, RemoteFile parent,
+			String listing) throws ParseException, IOException {
+		return parser.parse(parent, new BufferedReader(new StringReader(
+				listing)));
+	}
+}
\ No newline at end of file
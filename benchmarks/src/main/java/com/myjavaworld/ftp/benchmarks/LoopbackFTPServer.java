@@ -0,0 +1,541 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * A minimal FTP server that listens on the loopback interface, so that the
+ * benchmarks do not depend on an external server or the network. It accepts
+ * any user, supports passive data connections and explicit SSL, and serves
+ * generated content instead of files:
+ * <ul>
+ * <li><code>RETR /&lt;n&gt;</code> sends <code>n</code> bytes. In ASCII mode,
+ * the bytes are lines of text ending with CRLF.</li>
+ * <li><code>STOR</code> reads and discards the data.</li>
+ * <li><code>LIST /&lt;n&gt;</code> sends a UNIX style listing of
+ * <code>n</code> entries, 100 if the path is not a number.</li>
+ * </ul>
+ * Active mode, STAT listings and the other file system commands are not
+ * supported. The server keeps no state between sessions.
+ */
+public class LoopbackFTPServer implements Closeable {
+
+	/**
+	 * Name of the keystore resource holding the self-signed key of the
+	 * server.
+	 */
+	private static final String KEYSTORE = "loopback.jks";
+	/**
+	 * Password of the keystore and the key.
+	 */
+	private static final char[] KEYSTORE_PASSWORD = "loopback".toCharArray();
+	/**
+	 * Timeout for accepting data connections, in milliseconds.
+	 */
+	private static final int ACCEPT_TIMEOUT = 30000;
+	/**
+	 * Size of the chunks data is sent and received in.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+	/**
+	 * Line of text repeated by ASCII downloads.
+	 */
+	private static final byte[] TEXT_LINE = "The quick brown fox jumps over the lazy dog.\r\n"
+			.getBytes();
+
+	/**
+	 * Socket accepting control connections.
+	 */
+	private final ServerSocket serverSocket;
+	/**
+	 * Context used to secure the connections when the client sends AUTH.
+	 */
+	private final SSLContext sslContext;
+	/**
+	 * Runs the acceptor and the sessions.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Whether or not this server was closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Starts a new server on an ephemeral port of the loopback interface.
+	 * 
+	 * @param sslContext
+	 *            context used to secure connections, usually the one returned
+	 *            by <code>createSSLContext</code>, or <code>null</code> to
+	 *            reject AUTH.
+	 * @exception IOException
+	 *                if the server socket cannot be bound.
+	 */
+	public LoopbackFTPServer(SSLContext sslContext) throws IOException {
+		this.sslContext = sslContext;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress
+				.getByName("127.0.0.1"));
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Loopback FTP Server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.execute(new Runnable() {
+
+			public void run() {
+				acceptSessions();
+			}
+		});
+	}
+
+	/**
+	 * Returns the address this server listens on.
+	 * 
+	 * @return the loopback address.
+	 */
+	public String getHost() {
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+
+	/**
+	 * Returns the port this server listens on.
+	 * 
+	 * @return port number of the control connections.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections and ends all sessions.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Creates an SSL context that holds the self-signed key of the server and
+	 * trusts it. The same context is used by the server and the clients.
+	 * 
+	 * @return a new SSL context.
+	 * @exception IOException
+	 *                if the keystore cannot be read.
+	 * @exception GeneralSecurityException
+	 *                if the context cannot be initialized.
+	 */
+	public static SSLContext createSSLContext() throws IOException,
+			GeneralSecurityException {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = LoopbackFTPServer.class.getResourceAsStream(KEYSTORE);
+		if (in == null) {
+			throw new IOException("Keystore not found: " + KEYSTORE);
+		}
+		try {
+			keyStore.load(in, KEYSTORE_PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory
+				.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, KEYSTORE_PASSWORD);
+		TrustManagerFactory tmf = TrustManagerFactory
+				.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(keyStore);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+		return context;
+	}
+
+	/**
+	 * Returns a UNIX style directory listing.
+	 * 
+	 * @param count
+	 *            number of entries.
+	 * @return the listing, one entry per line, each line ending with CRLF.
+	 */
+	public static String createListing(int count) {
+		StringBuilder builder = new StringBuilder(count * 64);
+		for (int i = 0; i < count; i++) {
+			if (i % 10 == 0) {
+				builder.append("drwxr-xr-x   2 ftp      ftp          4096 ");
+				builder.append("Jan 12 10:15 directory").append(i);
+			} else {
+				builder.append("-rw-r--r--   1 ftp      ftp      ");
+				String size = String.valueOf(i * 1031L);
+				for (int j = size.length(); j < 8; j++) {
+					builder.append(' ');
+				}
+				builder.append(size).append(" Mar  3  2011 file").append(i)
+						.append(".txt");
+			}
+			builder.append("\r\n");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Accepts control connections until the server is closed.
+	 */
+	private void acceptSessions() {
+		while (!closed) {
+			try {
+				executor.execute(new Session(serverSocket.accept()));
+			} catch (IOException exp) {
+				// Closed, or the session could not be started.
+			}
+		}
+	}
+
+	/**
+	 * Parses the size in the given path.
+	 * 
+	 * @return the size, or -1 if the last segment of the path is not a
+	 *         number.
+	 */
+	private static long parseSize(String path) {
+		try {
+			return Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+		} catch (NumberFormatException exp) {
+			return -1L;
+		}
+	}
+
+	/**
+	 * A control connection and the state of its session.
+	 */
+	private class Session implements Runnable {
+
+		/**
+		 * The control connection.
+		 */
+		private Socket socket;
+		/**
+		 * Reads commands from the control connection.
+		 */
+		private BufferedReader reader;
+		/**
+		 * Writes replies to the control connection.
+		 */
+		private Writer writer;
+		/**
+		 * Listens for the next data connection.
+		 */
+		private ServerSocket passiveSocket = null;
+		/**
+		 * Whether or not data connections are secured.
+		 */
+		private boolean dataProtected = false;
+		/**
+		 * Whether or not the ASCII type is in use.
+		 */
+		private boolean ascii = true;
+		/**
+		 * Offset set by REST for the next transfer.
+		 */
+		private long restart = 0L;
+
+		Session(Socket socket) throws IOException {
+			this.socket = socket;
+			// The final reply of a transfer follows the preliminary reply
+			// without a command in between. With Nagle's algorithm, it would
+			// wait for the delayed acknowledgement of the first.
+			socket.setTcpNoDelay(true);
+			openStreams();
+		}
+
+		public void run() {
+			try {
+				reply("220 Loopback FTP server ready");
+				String line = null;
+				while (!closed && (line = reader.readLine()) != null) {
+					int index = line.indexOf(' ');
+					String command = (index < 0 ? line : line.substring(0,
+							index)).toUpperCase();
+					String argument = index < 0 ? "" : line.substring(
+							index + 1).trim();
+					if (!execute(command, argument)) {
+						break;
+					}
+				}
+			} catch (IOException exp) {
+				// The client went away.
+			} finally {
+				closePassiveSocket();
+				try {
+					socket.close();
+				} catch (IOException exp) {
+					// Ignore
+				}
+			}
+		}
+
+		/**
+		 * Executes a command.
+		 * 
+		 * @return <code>false</code>, if the session is over.
+		 */
+		private boolean execute(String command, String argument)
+				throws IOException {
+			if (command.equals("USER")) {
+				reply("331 Password required");
+			} else if (command.equals("PASS")) {
+				reply("230 Logged in");
+			} else if (command.equals("SYST")) {
+				reply("215 UNIX Type: L8");
+			} else if (command.equals("FEAT")) {
+				reply("211-Features:\r\n EPSV\r\n PASV\r\n REST STREAM\r\n"
+						+ " SIZE\r\n UTF8\r\n AUTH TLS\r\n PBSZ\r\n PROT\r\n"
+						+ "211 End");
+			} else if (command.equals("PWD")) {
+				reply("257 \"/\" is the current directory");
+			} else if (command.equals("CWD") || command.equals("CDUP")) {
+				reply("250 Directory changed");
+			} else if (command.equals("TYPE")) {
+				ascii = argument.toUpperCase().startsWith("A");
+				reply("200 Type set");
+			} else if (command.equals("NOOP") || command.equals("OPTS")
+					|| command.equals("MODE") || command.equals("STRU")
+					|| command.equals("PBSZ")) {
+				reply("200 OK");
+			} else if (command.equals("AUTH")) {
+				if (sslContext == null) {
+					reply("502 SSL not supported");
+				} else {
+					reply("234 Proceed with negotiation");
+					secure();
+				}
+			} else if (command.equals("PROT")) {
+				dataProtected = argument.equalsIgnoreCase("P");
+				reply("200 Protection level set");
+			} else if (command.equals("PASV")) {
+				int port = listen();
+				reply("227 Entering Passive Mode (127,0,0,1," + (port >> 8)
+						+ "," + (port & 0xFF) + ")");
+			} else if (command.equals("EPSV")) {
+				reply("229 Entering Extended Passive Mode (|||" + listen()
+						+ "|)");
+			} else if (command.equals("REST")) {
+				restart = Long.parseLong(argument);
+				reply("350 Restarting at " + restart);
+			} else if (command.equals("SIZE")) {
+				long size = parseSize(argument);
+				reply(size < 0 ? "550 No such file" : "213 " + size);
+			} else if (command.equals("RETR")) {
+				retrieve(parseSize(argument));
+			} else if (command.equals("STOR") || command.equals("APPE")) {
+				store();
+			} else if (command.equals("LIST") || command.equals("NLST")) {
+				long count = parseSize(argument);
+				list(count < 0 ? 100 : (int) count);
+			} else if (command.equals("ABOR")) {
+				reply("226 No transfer to abort");
+			} else if (command.equals("QUIT")) {
+				reply("221 Goodbye");
+				return false;
+			} else {
+				reply("502 Command not implemented");
+			}
+			return true;
+		}
+
+		/**
+		 * Sends a reply. Multi-line replies are given with CRLF between the
+		 * lines.
+		 */
+		private void reply(String reply) throws IOException {
+			writer.write(reply);
+			writer.write("\r\n");
+			writer.flush();
+		}
+
+		/**
+		 * Creates the reader and writer of the control connection.
+		 */
+		private void openStreams() throws IOException {
+			reader = new BufferedReader(new InputStreamReader(socket
+					.getInputStream(), "ISO-8859-1"));
+			writer = new OutputStreamWriter(socket.getOutputStream(),
+					"ISO-8859-1");
+		}
+
+		/**
+		 * Layers SSL over the control connection.
+		 */
+		private void secure() throws IOException {
+			SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory()
+					.createSocket(socket, socket.getInetAddress()
+							.getHostAddress(), socket.getPort(), true);
+			sslSocket.setUseClientMode(false);
+			sslSocket.startHandshake();
+			socket = sslSocket;
+			openStreams();
+		}
+
+		/**
+		 * Starts listening for a data connection.
+		 * 
+		 * @return the port to connect to.
+		 */
+		private int listen() throws IOException {
+			closePassiveSocket();
+			passiveSocket = new ServerSocket(0, 1, socket.getLocalAddress());
+			passiveSocket.setSoTimeout(ACCEPT_TIMEOUT);
+			return passiveSocket.getLocalPort();
+		}
+
+		/**
+		 * Accepts the data connection of a transfer, securing it if needed.
+		 * 
+		 * @return the data connection, or <code>null</code> if no passive
+		 *         port is open.
+		 */
+		private Socket openDataConnection() throws IOException {
+			if (passiveSocket == null) {
+				reply("425 Use PASV or EPSV first");
+				return null;
+			}
+			reply("150 Opening data connection");
+			Socket data = null;
+			try {
+				data = passiveSocket.accept();
+				data.setTcpNoDelay(true);
+			} finally {
+				closePassiveSocket();
+			}
+			if (dataProtected) {
+				SSLSocket sslSocket = (SSLSocket) sslContext
+						.getSocketFactory().createSocket(data,
+								data.getInetAddress().getHostAddress(),
+								data.getPort(), true);
+				sslSocket.setUseClientMode(false);
+				sslSocket.startHandshake();
+				data = sslSocket;
+			}
+			return data;
+		}
+
+		/**
+		 * Closes the passive socket, if any.
+		 */
+		private void closePassiveSocket() {
+			if (passiveSocket != null) {
+				try {
+					passiveSocket.close();
+				} catch (IOException exp) {
+					// Ignore
+				}
+				passiveSocket = null;
+			}
+		}
+
+		/**
+		 * Sends the given number of bytes, less the restart offset.
+		 */
+		private void retrieve(long size) throws IOException {
+			if (size < 0) {
+				reply("550 No such file");
+				return;
+			}
+			Socket data = openDataConnection();
+			if (data == null) {
+				return;
+			}
+			try {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				for (int i = 0; i < chunk.length; i++) {
+					chunk[i] = ascii ? TEXT_LINE[i % TEXT_LINE.length]
+							: (byte) i;
+				}
+				OutputStream out = data.getOutputStream();
+				long remaining = Math.max(0L, size - restart);
+				while (remaining > 0) {
+					int length = (int) Math.min(chunk.length, remaining);
+					out.write(chunk, 0, length);
+					remaining -= length;
+				}
+				out.flush();
+			} finally {
+				restart = 0L;
+				data.close();
+			}
+			reply("226 Transfer complete");
+		}
+
+		/**
+		 * Receives and discards the data of an upload.
+		 */
+		private void store() throws IOException {
+			Socket data = openDataConnection();
+			if (data == null) {
+				return;
+			}
+			try {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				InputStream in = data.getInputStream();
+				while (in.read(chunk) != -1) {
+					// Discard
+				}
+			} finally {
+				restart = 0L;
+				data.close();
+			}
+			reply("226 Transfer complete");
+		}
+
+		/**
+		 * Sends a listing of the given number of entries.
+		 */
+		private void list(int count) throws IOException {
+			Socket data = openDataConnection();
+			if (data == null) {
+				return;
+			}
+			try {
+				OutputStream out = data.getOutputStream();
+				out.write(createListing(count).getBytes("ISO-8859-1"));
+				out.flush();
+			} finally {
+				data.close();
+			}
+			reply("226 Transfer complete");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.myjavaworld.ftp.DefaultFTPClient;
+import com.myjavaworld.ftp.FTPConstants;
+import com.myjavaworld.ftp.RemoteFile;
+import com.myjavaworld.ftp.RemoteInputStream;
+import com.myjavaworld.ftp.RemoteOutputStream;
+
+/**
+ * Measures binary transfers against the loopback server, in plain and SSL
+ * modes. Each operation transfers <code>size</code> bytes, so the throughput
+ * is <code>size</code> divided by the reported time. Transfers to and from
+ * files go through <code>DataConnection</code>, while the stream transfers
+ * go through <code>RemoteInputStream</code> and
+ * <code>RemoteOutputStream</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+	@Param( { "PLAIN", "TLS_SOCKET", "TLS_ENGINE" })
+	public Transport transport;
+
+	/**
+	 * Number of bytes per transfer.
+	 */
+	@Param( { "1048576", "67108864" })
+	public long size;
+
+	private LoopbackFTPServer server;
+	private DefaultFTPClient client;
+	private RemoteFile remoteFile;
+	private File localFile;
+	private byte[] buffer;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LoopbackFTPServer(LoopbackFTPServer.createSSLContext());
+		client = transport.connect(server);
+		remoteFile = client.getListParser().createRemoteFile("/" + size,
+				false);
+		buffer = new byte[client.getBufferSize()];
+		localFile = File.createTempFile("ftpapi-benchmark", ".dat");
+		localFile.deleteOnExit();
+		OutputStream out = new FileOutputStream(localFile);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Transport.disconnect(client);
+		server.close();
+		localFile.delete();
+	}
+
+	@Benchmark
+	public void downloadFile() throws Exception {
+		client.download(remoteFile, localFile, FTPConstants.TYPE_BINARY,
+				false);
+	}
+
+	@Benchmark
+	public void uploadFile() throws Exception {
+		client.upload(localFile, remoteFile, FTPConstants.TYPE_BINARY, false,
+				0L);
+	}
+
+	@Benchmark
+	public long retrieve() throws Exception {
+		RemoteInputStream in = client.retrieve(remoteFile,
+				FTPConstants.TYPE_BINARY);
+		long total = 0L;
+		try {
+			int count = 0;
+			while ((count = in.read(buffer)) != -1) {
+				total += count;
+			}
+		} finally {
+			in.close();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long store() throws Exception {
+		RemoteOutputStream out = client.store(remoteFile,
+				FTPConstants.TYPE_BINARY, false);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+		return size;
+	}
+
+	/**
+	 * Writes <code>size</code> bytes to the given stream.
+	 */
+	private void write(OutputStream out) throws IOException {
+		for (long remaining = size; remaining > 0; remaining -= buffer.length) {
+			out.write(buffer, 0, (int) Math.min(buffer.length, remaining));
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp.benchmarks;
+
+import com.myjavaworld.ftp.ConnectionException;
+import com.myjavaworld.ftp.DefaultFTPClient;
+import com.myjavaworld.ftp.DefaultListParser;
+import com.myjavaworld.ftp.FTPConstants;
+import com.myjavaworld.ftp.FTPException;
+
+/**
+ * The ways a benchmark client connects to the loopback server.
+ */
+public enum Transport {
+
+	/**
+	 * No SSL.
+	 */
+	PLAIN,
+	/**
+	 * Explicit SSL over <code>SSLSocket</code>.
+	 */
+	TLS_SOCKET,
+	/**
+	 * Explicit SSL over <code>SSLEngine</code>.
+	 */
+	TLS_ENGINE;
+
+	/**
+	 * Creates a client using this transport, and connects and logs in to the
+	 * given server. The client uses passive, binary transfers.
+	 * 
+	 * @param server
+	 *            the server to connect to.
+	 * @return the logged in client.
+	 * @exception Exception
+	 *                if the client cannot connect or log in.
+	 */
+	public DefaultFTPClient connect(LoopbackFTPServer server) throws Exception {
+		DefaultFTPClient client = new DefaultFTPClient();
+		client.setListParser(new DefaultListParser());
+		client.setPassive(true);
+		if (this != PLAIN) {
+			client.setSSLUsage(FTPConstants.USE_EXPLICIT_SSL);
+			client.setSSLContext(LoopbackFTPServer.createSSLContext());
+			client.setSSLTransport(this == TLS_ENGINE ? FTPConstants.SSL_TRANSPORT_ENGINE
+					: FTPConstants.SSL_TRANSPORT_SOCKET);
+		}
+		client.connect(server.getHost(), server.getPort());
+		client.login("benchmark", "benchmark");
+		client.setType(FTPConstants.TYPE_BINARY);
+		return client;
+	}
+
+	/**
+	 * Disconnects the given client, ignoring errors.
+	 * 
+	 * @param client
+	 *            the client to disconnect, may be <code>null</code>.
+	 */
+	public static void disconnect(DefaultFTPClient client) {
+		if (client == null) {
+			return;
+		}
+		try {
+			client.disconnect();
+		} catch (FTPException exp) {
+			// Ignore
+		} catch (ConnectionException exp) {
+			// Ignore
+		}
+	}
+}
\ No newline at end of file
@@ -16,7 +16,9 @@
 package com.myjavaworld.ftp;
 
 /**
- * An FTP client implementation that can be used with AS/400 systems.
+ * An FTP client implementation that can be used with AS/400 systems. Unlike
+ * <code>DefaultFTPClient</code>, which detects AS/400 systems with SYST, this
+ * client always asks for UNIX style listings and path names after login.
  * 
  * @author Sai Pullabhotla, psai [at] jMethods [dot] com
  * @version 2.0
@@ -31,10 +33,7 @@ public class AS400FTPClient extends DefaultFTPClient {
 	}
 
 	@Override
-	public void login(String user, String password, String account)
-			throws FTPException, ConnectionException {
-		super.login(user, password, account);
-		executeCommand("SITE LISTFMT 1");
-		executeCommand("SITE NAMEFMT 1");
+	protected String[] getPostLoginCommands() {
+		return new String[] { "SITE LISTFMT 1", "SITE NAMEFMT 1" };
 	}
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A cache of resolved host names, shared by all FTP clients. Control
+ * connections resolve the host name through this cache, so connecting to the
+ * same host again does not wait for a DNS lookup. Entries expire after the
+ * time to live, and an entry is dropped when none of its addresses could be
+ * connected to, so that changed DNS records are picked up. Failed lookups are
+ * not cached.
+ */
+public class AddressCache {
+
+	/**
+	 * Default time to live of cached entries, in seconds. Value is 60.
+	 */
+	public static final int DEFAULT_TIME_TO_LIVE = 60;
+	/**
+	 * Maximum number of cached host names.
+	 */
+	private static final int MAX_ENTRIES = 1024;
+	/**
+	 * Time to live of cached entries, in seconds.
+	 */
+	private static int timeToLive = DEFAULT_TIME_TO_LIVE;
+	/**
+	 * Cached entries by lower case host name, in the order they were added.
+	 */
+	private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>();
+
+	private AddressCache() {
+		super();
+	}
+
+	/**
+	 * Returns all addresses of the given host, from the cache if possible.
+	 * 
+	 * @param host
+	 *            host name or IP address.
+	 * @return the addresses of the host, in the order given by the resolver.
+	 * @exception UnknownHostException
+	 *                if the host could not be resolved.
+	 */
+	public static InetAddress[] getAllByName(String host)
+			throws UnknownHostException {
+		String key = host.toLowerCase(Locale.ENGLISH);
+		long now = System.currentTimeMillis();
+		synchronized (cache) {
+			Entry entry = cache.get(key);
+			if (entry != null) {
+				if (entry.expires > now) {
+					return entry.addresses.clone();
+				}
+				cache.remove(key);
+			}
+		}
+		InetAddress[] addresses = InetAddress.getAllByName(host);
+		synchronized (cache) {
+			if (timeToLive > 0) {
+				purge(now);
+				cache.put(key, new Entry(addresses, now + timeToLive * 1000L));
+			}
+		}
+		return addresses.clone();
+	}
+
+	/**
+	 * Removes the given host from the cache.
+	 * 
+	 * @param host
+	 *            host name or IP address.
+	 */
+	public static void remove(String host) {
+		synchronized (cache) {
+			cache.remove(host.toLowerCase(Locale.ENGLISH));
+		}
+	}
+
+	/**
+	 * Removes all hosts from the cache.
+	 */
+	public static void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Sets the time to live of cached entries. Entries that are already
+	 * cached keep their expiry time.
+	 * 
+	 * @param seconds
+	 *            time to live in seconds, 0 to disable caching.
+	 */
+	public static void setTimeToLive(int seconds) {
+		if (seconds < 0) {
+			throw new IllegalArgumentException("Invalid time to live: "
+					+ seconds);
+		}
+		synchronized (cache) {
+			timeToLive = seconds;
+			if (seconds == 0) {
+				cache.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the time to live of cached entries.
+	 * 
+	 * @return time to live in seconds, 0 if caching is disabled.
+	 */
+	public static int getTimeToLive() {
+		synchronized (cache) {
+			return timeToLive;
+		}
+	}
+
+	/**
+	 * Drops expired entries, and the oldest entries if the cache is full.
+	 */
+	private static void purge(long now) {
+		Iterator<Entry> entries = cache.values().iterator();
+		int size = cache.size();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (entry.expires <= now || size >= MAX_ENTRIES) {
+				entries.remove();
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * A cached host.
+	 */
+	private static class Entry {
+
+		final InetAddress[] addresses;
+		final long expires;
+
+		Entry(InetAddress[] addresses, long expires) {
+			this.addresses = addresses;
+			this.expires = expires;
+		}
+	}
+}
\ No newline at end of file
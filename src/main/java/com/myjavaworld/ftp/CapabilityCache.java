@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the capabilities of remote hosts, so that FEAT and SYST are sent
+ * once per host rather than once per session. Entries expire after a time to
+ * live, so that upgrades of the remote host are noticed. The cache is shared
+ * by all clients.
+ */
+class CapabilityCache {
+
+	/**
+	 * Maximum number of hosts to remember.
+	 */
+	private static final int MAX_HOSTS = 256;
+	/**
+	 * Capabilities by <code>host:port</code>, least recently used first.
+	 */
+	private static final Map<String, FTPCapabilities> capabilities = new LinkedHashMap<String, FTPCapabilities>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = -6320734517318092651L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, FTPCapabilities> eldest) {
+			return size() > MAX_HOSTS;
+		}
+	};
+
+	private CapabilityCache() {
+		super();
+	}
+
+	/**
+	 * Returns the cached capabilities of the given host.
+	 * 
+	 * @param host
+	 *            the host, as <code>host:port</code>.
+	 * @param ttl
+	 *            time to live of the entries, in seconds.
+	 * @return the capabilities, or <code>null</code> if they are not cached
+	 *         or older than the time to live.
+	 */
+	static FTPCapabilities get(String host, int ttl) {
+		synchronized (capabilities) {
+			FTPCapabilities entry = capabilities.get(host);
+			if (entry == null) {
+				return null;
+			}
+			if (System.currentTimeMillis() - entry.getDiscoveryTime() >= ttl * 1000L) {
+				capabilities.remove(host);
+				return null;
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * Caches the capabilities of the given host.
+	 * 
+	 * @param host
+	 *            the host, as <code>host:port</code>.
+	 * @param entry
+	 *            the capabilities.
+	 */
+	static void put(String host, FTPCapabilities entry) {
+		synchronized (capabilities) {
+			capabilities.put(host, entry);
+		}
+	}
+}
\ No newline at end of file
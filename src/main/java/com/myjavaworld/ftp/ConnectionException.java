@@ -29,6 +29,10 @@ public class ConnectionException extends Exception {
 	 * Serial version UID
 	 */
 	private static final long serialVersionUID = 2025718852007883661L;
+	/**
+	 * Dump of the wire trace of the session, if any.
+	 */
+	private String wireTrace = null;
 
 	/**
 	 * Constructs a <code>ConnectionException</code> object with no detailed
@@ -48,4 +52,25 @@ public class ConnectionException extends Exception {
 	public ConnectionException(String message) {
 		super(message);
 	}
+
+	/**
+	 * Returns the latest commands and replies of the session in which this
+	 * exception occurred.
+	 * 
+	 * @return dump of the wire trace, or <code>null</code> if tracing was off
+	 *         or the exception was not thrown by a client.
+	 */
+	public String getWireTrace() {
+		return wireTrace;
+	}
+
+	/**
+	 * Attaches the dump of the wire trace of the session.
+	 * 
+	 * @param wireTrace
+	 *            dump of the wire trace.
+	 */
+	void setWireTrace(String wireTrace) {
+		this.wireTrace = wireTrace;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads replies from and writes commands to the streams of a control
+ * connection. Replies are assembled from raw bytes and only the reply code is
+ * decoded eagerly. Each command is encoded into a reusable buffer and sent
+ * with a single write. Commands and replies are recorded in the wire trace,
+ * if any, from the same buffers.
+ */
+class ControlCodec {
+
+	/**
+	 * The stream replies are read from.
+	 */
+	private InputStream in = null;
+	/**
+	 * The stream commands are written to.
+	 */
+	private OutputStream out = null;
+	/**
+	 * Character encoding of commands and replies, <code>null</code> for the
+	 * platform default.
+	 */
+	private String encoding = null;
+	/**
+	 * Bytes read from the input stream but not consumed yet.
+	 */
+	private byte[] input = new byte[4096];
+	/**
+	 * Position of the next unconsumed byte in <code>input</code>.
+	 */
+	private int position = 0;
+	/**
+	 * Number of valid bytes in <code>input</code>.
+	 */
+	private int limit = 0;
+	/**
+	 * Bytes of the reply being read.
+	 */
+	private byte[] reply = new byte[256];
+	/**
+	 * Number of valid bytes in <code>reply</code>.
+	 */
+	private int length = 0;
+	/**
+	 * Offsets at which each line of the reply being read starts.
+	 */
+	private int[] lineStarts = new int[8];
+	/**
+	 * Number of lines in the reply being read.
+	 */
+	private int lineCount = 0;
+	/**
+	 * Buffer for encoding commands.
+	 */
+	private byte[] command = new byte[128];
+	/**
+	 * Trace the commands and replies are recorded in, may be
+	 * <code>null</code>.
+	 */
+	private WireTrace trace = null;
+
+	/**
+	 * Creates a new instance of <code>ControlCodec</code>.
+	 * 
+	 * @param in
+	 *            the stream replies are read from.
+	 * @param out
+	 *            the stream commands are written to.
+	 * @param encoding
+	 *            character encoding to use, or <code>null</code> for the
+	 *            platform default.
+	 * @param trace
+	 *            trace to record the commands and replies in, or
+	 *            <code>null</code>.
+	 */
+	ControlCodec(InputStream in, OutputStream out, String encoding,
+			WireTrace trace) {
+		this.in = in;
+		this.out = out;
+		this.encoding = encoding;
+		this.trace = trace;
+	}
+
+	/**
+	 * Sets the character encoding of commands and replies.
+	 * 
+	 * @param encoding
+	 *            character encoding to use, or <code>null</code> for the
+	 *            platform default.
+	 */
+	void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Writes the given command followed by the Telnet end of line.
+	 * 
+	 * @param cmd
+	 *            the command to write.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	void writeCommand(String cmd) throws IOException {
+		int n = encode(cmd, 0);
+		out.write(command, 0, n);
+		out.flush();
+	}
+
+	/**
+	 * Writes the given commands, each followed by the Telnet end of line, with
+	 * a single write, so that they travel in as few packets as possible.
+	 * 
+	 * @param cmds
+	 *            the commands to write.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	void writeCommands(String[] cmds) throws IOException {
+		int n = 0;
+		for (int i = 0; i < cmds.length; i++) {
+			n = encode(cmds[i], n);
+		}
+		out.write(command, 0, n);
+		out.flush();
+	}
+
+	/**
+	 * Writes the given Telnet control sequence as is.
+	 * 
+	 * @param sequence
+	 *            the bytes to write.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	void writeTelnet(byte[] sequence) throws IOException {
+		out.write(sequence);
+		out.flush();
+	}
+
+	/**
+	 * Encodes the given command followed by the Telnet end of line into the
+	 * command buffer at the given offset, and records it in the wire trace.
+	 * 
+	 * @return the offset after the encoded command.
+	 */
+	private int encode(String cmd, int offset) throws IOException {
+		int n = cmd.length();
+		ensureCommandCapacity(offset + n + 2);
+		int i = 0;
+		for (; i < n; i++) {
+			char ch = cmd.charAt(i);
+			if (ch >= 0x80) {
+				break;
+			}
+			command[offset + i] = (byte) ch;
+		}
+		if (i < n) {
+			byte[] bytes = encoding == null ? cmd.getBytes() : cmd
+					.getBytes(encoding);
+			n = bytes.length;
+			ensureCommandCapacity(offset + n + 2);
+			System.arraycopy(bytes, 0, command, offset, n);
+		}
+		if (trace != null) {
+			trace.record(WireTrace.SENT, 0, command, offset, n);
+		}
+		n += offset;
+		command[n++] = '\r';
+		command[n++] = '\n';
+		return n;
+	}
+
+	/**
+	 * Reads a complete reply. For a multi-line reply, lines are read until the
+	 * line that starts with the reply code followed by a space.
+	 * 
+	 * @return the reply.
+	 * @exception IOException
+	 *                if an IO error occurs or if the connection was closed.
+	 */
+	FTPReply readReply() throws IOException {
+		length = 0;
+		lineCount = 0;
+		if (!readLine()) {
+			throw new IOException("Connection Dropped. ");
+		}
+		if (length < 3 || !isDigit(reply[0]) || !isDigit(reply[1])
+				|| !isDigit(reply[2])) {
+			if (trace != null) {
+				trace.record(WireTrace.RECEIVED, 0, reply, 0, length);
+			}
+			String line = decode(0, length);
+			return new FTPReply(0,
+					"000 Invalid Response Received from your FTP server. "
+							+ "The actual response is: [" + line + "]");
+		}
+		int code = (reply[0] - '0') * 100 + (reply[1] - '0') * 10
+				+ (reply[2] - '0');
+		if (length > 3 && reply[3] == '-') {
+			int start;
+			do {
+				start = length + 2;
+				if (!readLine()) {
+					throw new IOException("Connection Dropped. ");
+				}
+			} while (!isLastLine(start));
+		}
+		if (trace != null) {
+			trace.record(WireTrace.RECEIVED, code, reply, 0, length);
+		}
+		byte[] data = new byte[length];
+		System.arraycopy(reply, 0, data, 0, length);
+		int[] starts = new int[lineCount];
+		System.arraycopy(lineStarts, 0, starts, 0, lineCount);
+		return new FTPReply(code, data, length, starts, encoding);
+	}
+
+	/**
+	 * Tells whether the line starting at <code>start</code> ends a multi-line
+	 * reply.
+	 */
+	private boolean isLastLine(int start) {
+		int n = length - start;
+		if (n < 3 || reply[start] != reply[0] || reply[start + 1] != reply[1]
+				|| reply[start + 2] != reply[2]) {
+			return false;
+		}
+		return n == 3 || reply[start + 3] == ' ';
+	}
+
+	/**
+	 * Appends the next line, without its line terminator, to the reply being
+	 * read. Lines after the first one are preceded by the Telnet end of line.
+	 * 
+	 * @return <code>false</code>, if the end of the stream was reached before
+	 *         any byte of the line was read.
+	 */
+	private boolean readLine() throws IOException {
+		if (lineCount > 0) {
+			ensureReplyCapacity(2);
+			reply[length++] = '\r';
+			reply[length++] = '\n';
+		}
+		if (lineCount == lineStarts.length) {
+			int[] newStarts = new int[lineCount << 1];
+			System.arraycopy(lineStarts, 0, newStarts, 0, lineCount);
+			lineStarts = newStarts;
+		}
+		int start = length;
+		lineStarts[lineCount++] = start;
+		while (true) {
+			if (position == limit) {
+				limit = in.read(input);
+				position = 0;
+				if (limit == -1) {
+					limit = 0;
+					return length > start;
+				}
+			}
+			int end = position;
+			while (end < limit && input[end] != '\n') {
+				end++;
+			}
+			ensureReplyCapacity(end - position);
+			System.arraycopy(input, position, reply, length, end - position);
+			length += end - position;
+			if (end < limit) {
+				position = end + 1;
+				if (length > start && reply[length - 1] == '\r') {
+					length--;
+				}
+				return true;
+			}
+			position = end;
+		}
+	}
+
+	private void ensureReplyCapacity(int n) {
+		if (length + n > reply.length) {
+			byte[] newReply = new byte[Math.max(reply.length << 1, length + n)];
+			System.arraycopy(reply, 0, newReply, 0, length);
+			reply = newReply;
+		}
+	}
+
+	private void ensureCommandCapacity(int n) {
+		if (n > command.length) {
+			byte[] newCommand = new byte[Math.max(command.length << 1, n)];
+			System.arraycopy(command, 0, newCommand, 0, command.length);
+			command = newCommand;
+		}
+	}
+
+	private String decode(int start, int end) throws IOException {
+		if (encoding == null) {
+			return new String(reply, start, end - start);
+		}
+		return new String(reply, start, end - start, encoding);
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
\ No newline at end of file
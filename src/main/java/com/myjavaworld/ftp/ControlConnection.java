@@ -15,30 +15,72 @@
  */
 package com.myjavaworld.ftp;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.NoRouteToHostException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-import javax.net.SocketFactory;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
-import javax.swing.event.EventListenerList;
 
 /**
  * This class represents a Control Connection as specified in the FTP protocol
  * specification. For more details refer to RFC 959.
+ * <p>
+ * A control connection can keep itself alive by sending NOOP commands when it
+ * has been silent for the keepalive interval of the client. The commands are
+ * sent from a thread shared by all connections, which never waits for a
+ * reply. The replies are drained by the next calls to <code>readReply</code>.
+ * While a transfer is in progress, which is while the final reply to a
+ * transfer command is awaited, NOOP is sent only if the client allows it, and
+ * its replies are skipped whether they arrive before or after the final reply
+ * of the transfer.
  * 
  * @author Sai Pullabhotla, psai [at] jMethods [dot] com
  * @version 2.0
  */
 public class ControlConnection implements FTPConstants {
 
+	/**
+	 * Smallest time to wait for the reply to a pipelined command, in
+	 * milliseconds.
+	 */
+	private static final int PIPELINE_TIMEOUT = 2000;
+	/**
+	 * Time to wait for the reply to a pipelined command that may be delayed,
+	 * in milliseconds.
+	 */
+	private static final int PIPELINE_SLOW_TIMEOUT = 15000;
+	/**
+	 * Telnet Interpret As Command.
+	 */
+	private static final int TELNET_IAC = 255;
+	/**
+	 * Telnet Interrupt Process, preceded by IAC.
+	 */
+	private static final byte[] TELNET_IP = { (byte) TELNET_IAC, (byte) 244 };
+	/**
+	 * Telnet Data Mark, which ends the Synch sequence.
+	 */
+	private static final byte[] TELNET_DM = { (byte) 242 };
+	/**
+	 * Maximum number of replies to NOOP commands left unread, beyond which no
+	 * keepalive is sent, so that the replies never fill the socket buffers.
+	 */
+	private static final int MAX_UNREAD_KEEPALIVES = 1000;
 	/**
 	 * <code>FTPClient</code> object that created this
 	 * <code>ControlConnection</code>.
@@ -49,18 +91,98 @@ public class ControlConnection implements FTPConstants {
 	 */
 	protected Socket socket = null;
 	/**
-	 * A Reader object for receiving replies from the remote host.
+	 * Host name or IP address this connection was made to, as given to the
+	 * <code>connect</code> method.
+	 */
+	protected String host = null;
+	/**
+	 * Time taken to establish the TCP connection, in nanoseconds.
 	 */
-	protected BufferedReader reader = null;
+	protected long connectTime = -1L;
 	/**
-	 * A Writer object that sends commands to the remote host.
+	 * Codec for sending commands to and receiving replies from the remote
+	 * host.
 	 */
-	protected PrintStream writer = null;
+	private ControlCodec codec = null;
+	/**
+	 * The encrypted channel, if this connection is secured with the
+	 * <code>SSLEngine</code> transport.
+	 */
+	private volatile SSLEngineChannel sslChannel = null;
 	/**
 	 * List of registered listeners that are willing to get notifications about
 	 * the activity of this <code>ControlConnection</code>.
 	 */
-	protected EventListenerList listenerList = null;
+	protected ListenerList listenerList = null;
+	/**
+	 * Lock held while writing a command.
+	 */
+	private final Object writeLock = new Object();
+	/**
+	 * Lock held while reading a reply.
+	 */
+	private final ReentrantLock replyLock = new ReentrantLock();
+	/**
+	 * Commands sent whose final reply was not read yet, oldest first, not
+	 * counting the NOOP commands sent during transfers. Guarded by
+	 * <code>writeLock</code>.
+	 */
+	private final LinkedList<PendingCommand> pendingCommands = new LinkedList<PendingCommand>();
+	/**
+	 * Whether or not a preliminary reply was read and the final reply is
+	 * awaited. Guarded by <code>writeLock</code>.
+	 */
+	private boolean transferring = false;
+	/**
+	 * Number of NOOP commands sent during the current transfer whose replies
+	 * were not read yet. Guarded by <code>writeLock</code>.
+	 */
+	private int transferNoops = 0;
+	/**
+	 * Number of replies to NOOP commands that are to be skipped before the
+	 * next reply is returned. Guarded by <code>writeLock</code>.
+	 */
+	private int skipReplies = 0;
+	/**
+	 * Time of the last command or reply, in milliseconds.
+	 */
+	private volatile long lastActivity = 0L;
+	/**
+	 * Time taken by the SSL handshake of this connection, in nanoseconds.
+	 */
+	protected long handshakeTime = -1L;
+	/**
+	 * The timeout that shut this connection down, if any.
+	 */
+	private volatile FTPTimeoutException timeoutCause = null;
+	/**
+	 * Whether or not the setup commands after the handshake are deferred, to
+	 * be pipelined with the login commands.
+	 */
+	private boolean commandPipelining = false;
+	/**
+	 * Commands deferred to be pipelined with the login commands.
+	 */
+	private final List<String> deferredCommands = new ArrayList<String>();
+	/**
+	 * Shortest time between sending a command and receiving its reply, in
+	 * nanoseconds, 0 if not measured yet.
+	 */
+	private volatile long roundTripTime = 0L;
+	/**
+	 * The scheduled keepalive, if any.
+	 */
+	private ScheduledFuture<?> keepAlive = null;
+	/**
+	 * Incremented whenever the keepalive is started or stopped, so that a
+	 * check that is already running does not schedule another one.
+	 */
+	private int keepAliveGeneration = 0;
+	/**
+	 * Thread shared by all connections to send keepalive commands, created on
+	 * demand.
+	 */
+	private static ScheduledExecutorService keepAliveScheduler = null;
 
 	/**
 	 * Constructs a <code>ControlConnection</code> object.
@@ -102,12 +224,15 @@ public class ControlConnection implements FTPConstants {
 	 */
 	public void connect(String host, int port) throws ConnectionException,
 			FTPException {
+		this.host = host;
 		try {
-			SocketFactory factory = new CustomSocketFactory(client);
-			socket = factory.createSocket(host, port);
-			reader = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()));
-			writer = new PrintStream(socket.getOutputStream(), true);
+			socket = createSocket(host, port);
+			if (timeoutCause != null) {
+				// Shut down while connecting
+				socket.close();
+				throw timeoutCause;
+			}
+			openStreams();
 		} catch (UnknownHostException exp) {
 			throw new ConnectionException(exp.toString());
 		} catch (NoRouteToHostException exp) {
@@ -127,12 +252,107 @@ public class ControlConnection implements FTPConstants {
 					+ "below. \n" + exp.getMessage());
 		}
 
-		String reply = getReply();
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
+		FTPReply reply = readReply();
+		if (reply.isNegative()) {
 			throw new FTPException(reply);
 		}
 	}
 
+	/**
+	 * Sets up the streams for sending commands and receiving replies over the
+	 * current <code>socket</code>. Subclasses that replace the socket, for
+	 * example to layer SSL over it, must call this method afterwards.
+	 * 
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	protected void openStreams() throws IOException {
+		if (sslChannel != null) {
+			codec = new ControlCodec(Channels.newInputStream(sslChannel),
+					Channels.newOutputStream(sslChannel), client
+							.getControlEncoding(), client.getWireTrace());
+			return;
+		}
+		codec = new ControlCodec(socket.getInputStream(),
+				socket.getOutputStream(), client.getControlEncoding(), client
+						.getWireTrace());
+	}
+
+	/**
+	 * Creates the plain socket for this connection. If the host has several
+	 * addresses, they are tried in parallel and the first to answer is used.
+	 * If the client uses the <code>SSLEngine</code> transport for SSL, the
+	 * socket is the socket of a connected socket channel, so that
+	 * <code>startSSLEngine</code> can be used later. The time taken is
+	 * available from <code>getConnectTime</code>.
+	 * 
+	 * @param host
+	 *            Host name or IP address of the remote host.
+	 * @param port
+	 *            Port number to connect to.
+	 * @return the connected socket.
+	 * @exception IOException
+	 *                if a network or IO error occurs.
+	 */
+	protected Socket createSocket(String host, int port) throws IOException {
+		boolean channel = client.getSSLUsage() != USE_NO_SSL
+				&& SSLEngineChannel.isEnabled(client);
+		CustomSocketFactory factory = new CustomSocketFactory(client);
+		int deadline = client.getDeadline(DEADLINE_CONNECT);
+		if (deadline > 0
+				&& (client.getTimeout() == 0 || deadline < client.getTimeout())) {
+			factory.setConnectTimeout(deadline);
+		}
+		long start = System.nanoTime();
+		Socket socket = factory.createSocket(host, port, channel);
+		connectTime = System.nanoTime() - start;
+		return socket;
+	}
+
+	/**
+	 * Secures this connection by running an <code>SSLEngine</code> over the
+	 * socket channel of the current socket, and performs the handshake. The
+	 * socket must have been created by <code>createSocket</code> with the
+	 * <code>SSLEngine</code> transport.
+	 * 
+	 * @param host
+	 *            Host name or IP address of the remote host, used to find the
+	 *            SSL session to resume.
+	 * @param port
+	 *            Port number of the remote host.
+	 * @exception IOException
+	 *                if the handshake fails.
+	 */
+	protected void startSSLEngine(String host, int port) throws IOException {
+		SSLEngine engine = client.getSSLContext().createSSLEngine(host, port);
+		engine.setUseClientMode(true);
+		SSLEngineChannel channel = new SSLEngineChannel(socket.getChannel(),
+				engine, client.getTimeout());
+		sslChannel = channel;
+		try {
+			channel.handshake();
+		} catch (IOException exp) {
+			sslChannel = null;
+			FTPUtil.close(channel);
+			throw exp;
+		}
+		handshakeTime = channel.getHandshakeTime();
+		openStreams();
+	}
+
+	/**
+	 * Sets the character encoding used for commands and replies.
+	 * 
+	 * @param encoding
+	 *            name of the character encoding, or <code>null</code> to use
+	 *            the platform default.
+	 */
+	public void setEncoding(String encoding) {
+		if (codec != null) {
+			codec.setEncoding(encoding);
+		}
+	}
+
 	/**
 	 * Sends the given command <code>command</code>, to the remote host over
 	 * this <code>ControlConnection</code>. All commands will be appended with
@@ -144,20 +364,87 @@ public class ControlConnection implements FTPConstants {
 	 *                if a network or IO error occurs while sending the command.
 	 */
 	public void sendCommand(String command) throws ConnectionException {
-		try {
-			writer.print(command + EOL);
-			// writer.flush();
-			if (command.startsWith("PASS ")) {
-				fireCommandSent(new ControlConnectionEvent(client,
-						"PASS **********"));
-			} else {
-				fireCommandSent(new ControlConnectionEvent(client, command));
+		synchronized (writeLock) {
+			try {
+				codec.writeCommand(command);
+			} catch (IOException exp) {
+				throw new ConnectionException(exp.toString());
 			}
-			if (writer.checkError()) {
-				throw new IOException("Could not send command: " + command);
+			pendingCommands.add(new PendingCommand(command, System.nanoTime()));
+			lastActivity = System.currentTimeMillis();
+		}
+		fireCommandSent(command);
+	}
+
+	/**
+	 * Sends the given commands to the remote host with a single write, without
+	 * waiting for the replies in between. The replies must be read in order
+	 * with <code>readReply</code>.
+	 * 
+	 * @param commands
+	 *            Commands to send to the remote host.
+	 * @exception ConnectionException
+	 *                if a network or IO error occurs while sending the
+	 *                commands.
+	 */
+	public void sendCommands(String[] commands) throws ConnectionException {
+		synchronized (writeLock) {
+			try {
+				codec.writeCommands(commands);
+			} catch (IOException exp) {
+				throw new ConnectionException(exp.toString());
 			}
-		} catch (IOException exp) {
-			throw new ConnectionException(exp.toString());
+			long sent = System.nanoTime();
+			for (int i = 0; i < commands.length; i++) {
+				pendingCommands.add(new PendingCommand(commands[i], sent));
+			}
+			lastActivity = System.currentTimeMillis();
+		}
+		for (int i = 0; i < commands.length; i++) {
+			fireCommandSent(commands[i]);
+		}
+	}
+
+	/**
+	 * Notifies the registered listeners that the given command was sent,
+	 * hiding the password.
+	 */
+	private void fireCommandSent(String command) {
+		if (command.startsWith("PASS ")) {
+			fireCommandSent(new ControlConnectionEvent(client,
+					"PASS **********"));
+		} else {
+			fireCommandSent(new ControlConnectionEvent(client, command));
+		}
+	}
+
+	/**
+	 * Sends ABOR to abort the transfer in progress. On a plain connection, ABOR
+	 * is preceded by the Telnet Interrupt Process signal and the Synch
+	 * sequence, an IAC sent as TCP urgent data followed by Data Mark, as per
+	 * RFC 959, so that servers that do not read commands during a transfer
+	 * notice it. A secured connection can not carry urgent data, so ABOR is
+	 * sent alone. This method may be called while another thread waits for a
+	 * reply.
+	 * 
+	 * @exception ConnectionException
+	 *                if a network or IO error occurs while sending ABOR.
+	 */
+	public void sendAbort() throws ConnectionException {
+		synchronized (writeLock) {
+			if (codec == null) {
+				throw new ConnectionException("Connection Closed. ");
+			}
+			if (!isSecured()) {
+				try {
+					codec.writeTelnet(TELNET_IP);
+					socket.sendUrgentData(TELNET_IAC);
+					codec.writeTelnet(TELNET_DM);
+				} catch (IOException exp) {
+					throw new ConnectionException(exp.toString());
+				}
+			}
+			sendCommand("ABOR");
 		}
 	}
 
@@ -192,37 +479,237 @@ public class ControlConnection implements FTPConstants {
 	 *                if a network or IO error occurs while reading the
 	 *                response.
 	 */
-	public synchronized String getReply() throws ConnectionException {
-		String line = null;
+	public String getReply() throws ConnectionException {
+		return readReply().getText();
+	}
+
+	/**
+	 * Reads a single FTP reply from the remote host. If the reply is a
+	 * multi-line reply, all lines will be read until the reply is completely
+	 * retrieved.
+	 * 
+	 * @return reply from the remote host.
+	 * @exception ConnectionException
+	 *                if a network or IO error occurs while reading the reply.
+	 */
+	public FTPReply readReply() throws ConnectionException {
+		replyLock.lock();
 		try {
-			line = reader.readLine();
-			if (line == null) {
-				throw new IOException("Connection Dropped. ");
+			while (true) {
+				FTPReply reply = null;
+				try {
+					reply = codec.readReply();
+				} catch (IOException exp) {
+					throw new ConnectionException(exp.toString());
+				}
+				fireReplyReceived(new ControlConnectionEvent(client, reply));
+				if (!isKeepAliveReply(reply)) {
+					return reply;
+				}
+			}
+		} finally {
+			replyLock.unlock();
+		}
+	}
+
+	/**
+	 * Updates the state of this connection after the given reply was read.
+	 * 
+	 * @return <code>true</code>, if the reply is the reply to a keepalive
+	 *         NOOP command and is to be skipped.
+	 */
+	private boolean isKeepAliveReply(FTPReply reply) {
+		synchronized (writeLock) {
+			lastActivity = System.currentTimeMillis();
+			if (skipReplies > 0) {
+				skipReplies--;
+				return true;
 			}
-			String replyCode = "000";
-			replyCode = line.substring(0, 3);
-			StringBuffer buffer = new StringBuffer();
-			buffer.append(line);
-			if (line.charAt(3) == '-') {
-				do {
-					buffer.append(EOL);
-					line = reader.readLine();
-					buffer.append(line);
-				} while (!line.startsWith(replyCode + " "));
+			if (transferring && transferNoops > 0
+					&& !isTransferReply(reply.getCode())) {
+				// Servers answer NOOP during a transfer with 200, but also with
+				// 202 or a refusal, such as 500 or 502.
+				transferNoops--;
+				return true;
 			}
-			String reply = buffer.toString();
-			fireReplyReceived(new ControlConnectionEvent(client, reply));
-			return reply;
-		} catch (StringIndexOutOfBoundsException exp) {
-			line = "000 Invalid Response Received from your FTP server. "
-					+ "The actual response is: [" + line + "]";
-			fireReplyReceived(new ControlConnectionEvent(client, line));
-			return line;
-		} catch (IOException exp) {
-			throw new ConnectionException(exp.toString());
+			if (reply.isPositivePreliminary()) {
+				transferring = true;
+				return false;
+			}
+			if (!pendingCommands.isEmpty()) {
+				PendingCommand command = pendingCommands.removeFirst();
+				long time = System.nanoTime() - command.sent;
+				if (pendingCommands.isEmpty() && !transferring) {
+					if (roundTripTime == 0L || time < roundTripTime) {
+						roundTripTime = time;
+					}
+				}
+				client.getMetrics().commandCompleted(command.name,
+						reply.getCode(), time);
+			}
+			if (transferring) {
+				// Replies to NOOP commands that are still to come follow the
+				// final reply of the transfer.
+				transferring = false;
+				skipReplies += transferNoops;
+				transferNoops = 0;
+			}
+			return false;
 		}
 	}
 
+	/**
+	 * Tells whether a reply with the given code can be the final reply of a
+	 * transfer command, rather than a reply to a NOOP command sent during the
+	 * transfer.
+	 */
+	private static boolean isTransferReply(int code) {
+		switch (code) {
+		case 226:
+		case 250:
+		case 425:
+		case 426:
+		case 450:
+		case 451:
+		case 452:
+		case 550:
+		case 551:
+		case 552:
+		case 553:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Starts sending NOOP commands when this connection is silent for the
+	 * keepalive interval of the client, or stops sending them if the
+	 * interval is 0. This method may be called again after the interval is
+	 * changed.
+	 */
+	public void startKeepAlive() {
+		synchronized (writeLock) {
+			stopKeepAlive();
+			if (client.getKeepAliveInterval() > 0) {
+				if (lastActivity == 0L) {
+					lastActivity = System.currentTimeMillis();
+				}
+				scheduleKeepAlive(client.getKeepAliveInterval() * 1000L,
+						keepAliveGeneration);
+			}
+		}
+	}
+
+	/**
+	 * Stops sending NOOP commands.
+	 */
+	public void stopKeepAlive() {
+		synchronized (writeLock) {
+			keepAliveGeneration++;
+			if (keepAlive != null) {
+				keepAlive.cancel(false);
+				keepAlive = null;
+			}
+		}
+	}
+
+	/**
+	 * Schedules the next keepalive check.
+	 */
+	private void scheduleKeepAlive(long delay, final int generation) {
+		keepAlive = getKeepAliveScheduler().schedule(new Runnable() {
+
+			public void run() {
+				checkKeepAlive(generation);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends a NOOP command if this connection was silent for the keepalive
+	 * interval, and schedules the next check.
+	 */
+	private void checkKeepAlive(int generation) {
+		long interval = client.getKeepAliveInterval() * 1000L;
+		if (interval <= 0 || socket == null) {
+			return;
+		}
+		long delay = interval
+				- (System.currentTimeMillis() - lastActivity);
+		if (delay <= 0) {
+			try {
+				sendKeepAlive();
+			} catch (ConnectionException exp) {
+				stderr("Keepalive failed, giving up. " + exp.getMessage());
+				return;
+			} catch (RuntimeException exp) {
+				stderr("Keepalive failed, giving up. " + exp);
+				return;
+			}
+			delay = interval;
+		}
+		synchronized (writeLock) {
+			if (generation == keepAliveGeneration) {
+				scheduleKeepAlive(delay, generation);
+			}
+		}
+	}
+
+	/**
+	 * Sends a NOOP command, unless a command is awaiting its reply. During a
+	 * transfer, the command is sent only if the client allows it. The reply is
+	 * never read here, as the keepalive thread is shared by all connections,
+	 * but left to the next reader, who skips it.
+	 */
+	private void sendKeepAlive() throws ConnectionException {
+		synchronized (writeLock) {
+			if (codec == null) {
+				return;
+			}
+			if (transferring) {
+				if (!client.isKeepAliveDuringTransfer()) {
+					return;
+				}
+			} else if (!pendingCommands.isEmpty()
+					|| skipReplies >= MAX_UNREAD_KEEPALIVES) {
+				return;
+			}
+			try {
+				codec.writeCommand("NOOP");
+			} catch (IOException exp) {
+				throw new ConnectionException(exp.toString());
+			}
+			if (transferring) {
+				transferNoops++;
+			} else {
+				// The reply comes before that of the next command
+				skipReplies++;
+			}
+			lastActivity = System.currentTimeMillis();
+			fireCommandSent(new ControlConnectionEvent(client, "NOOP"));
+		}
+	}
+
+	/**
+	 * Returns the thread that sends the keepalive commands, creating it if
+	 * needed.
+	 */
+	private static synchronized ScheduledExecutorService getKeepAliveScheduler() {
+		if (keepAliveScheduler == null) {
+			keepAliveScheduler = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "FTP Keepalive");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return keepAliveScheduler;
+	}
+
 	/**
 	 * Executes the given command <code>command</code>. This method is similar
 	 * to calling the <code>sendCommand</code> and <code>getReply</code> methods
@@ -235,8 +722,142 @@ public class ControlConnection implements FTPConstants {
 	 *                if a network or IO error occurs.
 	 */
 	public String executeCommand(String command) throws ConnectionException {
+		return execute(command).getText();
+	}
+
+	/**
+	 * Executes the given command <code>command</code>. This method is similar
+	 * to calling the <code>sendCommand</code> and <code>readReply</code>
+	 * methods sequentially.
+	 * 
+	 * @param command
+	 *            The command to be sent to the remote host.
+	 * @return Reply from the remote host.
+	 * @exception ConnectionException
+	 *                if a network or IO error occurs.
+	 */
+	public FTPReply execute(String command) throws ConnectionException {
 		sendCommand(command);
-		return getReply();
+		return readReply();
+	}
+
+	/**
+	 * Sends the given commands with a single write and reads their replies in
+	 * order. A server that does not tolerate pipelined commands typically
+	 * drops the commands after the first, so the replies are awaited with a
+	 * short timeout, derived from the time taken to connect. The reply to the
+	 * command at <code>slowCommand</code> may legitimately be delayed, as
+	 * servers delay the reply to a wrong password, and is awaited longer. The
+	 * timeout of the client is never exceeded.
+	 * 
+	 * @param commands
+	 *            The commands to be sent to the remote host.
+	 * @param slowCommand
+	 *            index of the command whose reply may be delayed, or -1.
+	 * @return the replies, or <code>null</code> if a reply did not arrive in
+	 *         time or the connection was closed by the remote host. In that
+	 *         case the state of this connection is not known, and it must be
+	 *         closed.
+	 * @exception ConnectionException
+	 *                if a network or IO error occurs while sending the
+	 *                commands.
+	 */
+	public FTPReply[] executePipelined(String[] commands, int slowCommand)
+			throws ConnectionException {
+		sendCommands(commands);
+		int timeout = client.getTimeout();
+		int pipelineTimeout = (int) Math.max(PIPELINE_TIMEOUT,
+				connectTime / 100000L);
+		int slowTimeout = Math.max(PIPELINE_SLOW_TIMEOUT, pipelineTimeout);
+		if (timeout > 0) {
+			pipelineTimeout = Math.min(pipelineTimeout, timeout);
+			slowTimeout = Math.min(slowTimeout, timeout);
+		}
+		FTPReply[] replies = new FTPReply[commands.length];
+		try {
+			for (int i = 0; i < commands.length; i++) {
+				setReadTimeout(i == slowCommand ? slowTimeout
+						: pipelineTimeout);
+				replies[i] = readReply();
+			}
+		} catch (ConnectionException exp) {
+			return null;
+		} finally {
+			setReadTimeout(timeout);
+		}
+		return replies;
+	}
+
+	/**
+	 * Sets the timeout for reading replies.
+	 * 
+	 * @param timeout
+	 *            timeout in milliseconds, 0 for no timeout.
+	 */
+	void setReadTimeout(int timeout) {
+		if (sslChannel != null) {
+			sslChannel.setTimeout(timeout);
+			return;
+		}
+		try {
+			socket.setSoTimeout(timeout);
+		} catch (SocketException exp) {
+			// Ignore, as in connect
+		}
+	}
+
+	/**
+	 * Sets whether or not the setup commands that follow the SSL handshake,
+	 * such as PBSZ and PROT, are deferred, to be pipelined with the login
+	 * commands. This must be set before connecting.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to defer the setup commands.
+	 */
+	public void setCommandPipelining(boolean enabled) {
+		this.commandPipelining = enabled;
+	}
+
+	/**
+	 * Tells whether or not the setup commands that follow the SSL handshake
+	 * are deferred, to be pipelined with the login commands.
+	 * 
+	 * @return <code>true</code>, if the setup commands are deferred.
+	 */
+	public boolean isCommandPipelining() {
+		return commandPipelining;
+	}
+
+	/**
+	 * Defers the given setup command, to be pipelined with the login commands.
+	 * 
+	 * @param command
+	 *            the command to defer.
+	 */
+	protected void deferCommand(String command) {
+		deferredCommands.add(command);
+	}
+
+	/**
+	 * Tells whether there are deferred setup commands that were not sent yet.
+	 * 
+	 * @return <code>true</code>, if there are deferred commands.
+	 */
+	public boolean hasDeferredCommands() {
+		return !deferredCommands.isEmpty();
+	}
+
+	/**
+	 * Returns and forgets the deferred setup commands. The caller is
+	 * responsible for sending them.
+	 * 
+	 * @return the deferred commands, in the order they were deferred.
+	 */
+	public String[] takeDeferredCommands() {
+		String[] commands = new String[deferredCommands.size()];
+		commands = deferredCommands.toArray(commands);
+		deferredCommands.clear();
+		return commands;
 	}
 
 	/**
@@ -248,20 +869,92 @@ public class ControlConnection implements FTPConstants {
 	 *                <code>ControlConnection</code>.
 	 */
 	public void close() throws IOException {
-		if (reader != null) {
-			reader.close();
-		}
-		if (writer != null) {
-			writer.close();
+		stopKeepAlive();
+		if (sslChannel != null) {
+			FTPUtil.close(sslChannel);
 		}
 		if (socket != null) {
 			socket.close();
 		}
-		reader = null;
-		writer = null;
+		codec = null;
+		sslChannel = null;
 		socket = null;
 	}
 
+	/**
+	 * Closes the socket of this connection because of the given timeout, so
+	 * that a thread blocked on it fails right away. With the
+	 * <code>SSLEngine</code> transport, the encrypted channel is shut down,
+	 * which also wakes up a thread waiting in its selectors. Unlike
+	 * <code>close</code>, this method takes no lock and may be called from any
+	 * thread, and the connection must still be closed by its user.
+	 * 
+	 * @param cause
+	 *            the timeout.
+	 */
+	void shutdown(FTPTimeoutException cause) {
+		timeoutCause = cause;
+		SSLEngineChannel sslChannel = this.sslChannel;
+		if (sslChannel != null) {
+			sslChannel.shutdown();
+		}
+		Socket socket = this.socket;
+		if (socket != null) {
+			FTPUtil.close(socket);
+		}
+	}
+
+	/**
+	 * Returns the timeout that shut this connection down, if any.
+	 * 
+	 * @return the timeout, or <code>null</code>.
+	 */
+	FTPTimeoutException getTimeoutCause() {
+		return timeoutCause;
+	}
+
+	/**
+	 * Returns the host name or IP address this connection was made to, exactly
+	 * as it was given to the <code>connect</code> method. Unlike
+	 * <code>getRemoteHost</code>, no name lookup is done.
+	 * 
+	 * @return host name or IP address of the remote host.
+	 */
+	public String getHostName() {
+		return host;
+	}
+
+	/**
+	 * Returns the time taken to establish the TCP connection to the remote
+	 * host, not counting the SSL handshake or the greeting.
+	 * 
+	 * @return connect time in nanoseconds, or -1 if not connected.
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Returns the time taken by the SSL handshake of this connection.
+	 * 
+	 * @return handshake time in nanoseconds, or -1 if this connection is not
+	 *         secured.
+	 */
+	public long getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	/**
+	 * Returns an estimate of the round trip time to the remote host, which is
+	 * the shortest time taken by a command exchange that did not involve a
+	 * data transfer.
+	 * 
+	 * @return round trip time in nanoseconds, or 0 if not measured yet.
+	 */
+	public long getRoundTripTime() {
+		return roundTripTime;
+	}
+
 	/**
 	 * Returns the remote host's <code>InetAddress</code>.
 	 * 
@@ -345,7 +1038,7 @@ public class ControlConnection implements FTPConstants {
 	 */
 	public boolean isSecured() {
 		if (socket != null) {
-			if (socket instanceof SSLSocket) {
+			if (socket instanceof SSLSocket || sslChannel != null) {
 				return true;
 			}
 		}
@@ -362,6 +1055,9 @@ public class ControlConnection implements FTPConstants {
 		if (!isSecured()) {
 			return null;
 		}
+		if (sslChannel != null) {
+			return sslChannel.getSession();
+		}
 		return ((SSLSocket) socket).getSession();
 	}
 
@@ -418,4 +1114,26 @@ public class ControlConnection implements FTPConstants {
 	protected void stderr(String message) {
 		System.err.println(message);
 	}
+
+	/**
+	 * A command whose final reply is awaited.
+	 */
+	private static class PendingCommand {
+
+		/**
+		 * The command, without arguments, in upper case.
+		 */
+		final String name;
+		/**
+		 * Time the command was sent, from <code>System.nanoTime</code>.
+		 */
+		final long sent;
+
+		PendingCommand(String command, long sent) {
+			int index = command.indexOf(' ');
+			this.name = (index < 0 ? command : command.substring(0, index))
+					.toUpperCase();
+			this.sent = sent;
+		}
+	}
 }
\ No newline at end of file
@@ -35,6 +35,10 @@ public class ControlConnectionEvent extends EventObject {
 	 * The description of the event.
 	 */
 	private String message = null;
+	/**
+	 * The reply, if this event was generated for a reply.
+	 */
+	private FTPReply reply = null;
 
 	/**
 	 * Constructs a <code>ControlConnectionEvent</code> object with the
@@ -50,15 +54,43 @@ public class ControlConnectionEvent extends EventObject {
 		this.message = message;
 	}
 
+	/**
+	 * Constructs a <code>ControlConnectionEvent</code> object for a reply
+	 * received from the remote host. The text of the reply becomes the
+	 * message of this event.
+	 * 
+	 * @param source
+	 *            The object that generated this event.
+	 * @param reply
+	 *            the reply received from the remote host.
+	 */
+	public ControlConnectionEvent(Object source, FTPReply reply) {
+		super(source);
+		this.reply = reply;
+	}
+
 	/**
 	 * Gets the descriptive message of this event.
 	 * 
 	 * @return message Description of this event.
 	 */
 	public String getMessage() {
+		if (message == null && reply != null) {
+			message = reply.getText();
+		}
 		return message;
 	}
 
+	/**
+	 * Returns the reply for which this event was generated.
+	 * 
+	 * @return the reply, or <code>null</code> if this event was generated for
+	 *         a command.
+	 */
+	public FTPReply getReply() {
+		return reply;
+	}
+
 	/**
 	 * Converts this event object to a <code>String</code> and returns it.
 	 * 
@@ -66,6 +98,6 @@ public class ControlConnectionEvent extends EventObject {
 	 */
 	@Override
 	public String toString() {
-		return message;
+		return getMessage();
 	}
 }
\ No newline at end of file
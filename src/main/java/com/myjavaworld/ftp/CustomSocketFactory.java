@@ -16,16 +16,32 @@
 package com.myjavaworld.ftp;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.net.SocketFactory;
 
 /**
  * Custom socket factory to connect through any proxy servers.
+ * <p>
+ * When connecting to a host name without a proxy, the addresses of the host
+ * are taken from the <code>AddressCache</code> and tried in parallel, as
+ * described in RFC 8305 (Happy Eyeballs). The addresses are ordered to
+ * alternate between IPv6 and IPv4, a new attempt is started every
+ * <code>CONNECTION_ATTEMPT_DELAY</code> milliseconds or as soon as an attempt
+ * fails, and the first connection to succeed is kept.
  * 
  * @author Sai Pullabhotla
  * 
@@ -36,6 +52,15 @@ class CustomSocketFactory extends SocketFactory {
 	 * The proxy, if any
 	 */
 	private Proxy proxy = null;
+	/**
+	 * Delay between starting connection attempts to the addresses of a host,
+	 * in milliseconds.
+	 */
+	static final int CONNECTION_ATTEMPT_DELAY = 250;
+	/**
+	 * Connect timeout in milliseconds, 0 for no timeout.
+	 */
+	private int timeout = 0;
 
 	/**
 	 * Creates a new instance of <code>CustomSocketFactory</code>.
@@ -45,12 +70,52 @@ class CustomSocketFactory extends SocketFactory {
 	 */
 	public CustomSocketFactory(FTPClient client) {
 		this.proxy = client.getProxy();
+		this.timeout = client.getTimeout();
+	}
+
+	/**
+	 * Sets the connect timeout, which defaults to the timeout of the client.
+	 * 
+	 * @param timeout
+	 *            connect timeout in milliseconds, 0 for no timeout.
+	 */
+	void setConnectTimeout(int timeout) {
+		this.timeout = timeout;
 	}
 
 	@Override
 	public Socket createSocket(String host, int port) throws IOException,
 			UnknownHostException {
-		return createSocket(host, port, null, 0);
+		return createSocket(host, port, false);
+	}
+
+	/**
+	 * Connects to the given host. Without a proxy, all addresses of the host
+	 * are tried in parallel.
+	 * 
+	 * @param host
+	 *            host name or IP address.
+	 * @param port
+	 *            port number to connect to.
+	 * @param channel
+	 *            whether the socket must have a <code>SocketChannel</code>.
+	 *            This is not supported with a proxy.
+	 * @return the connected socket.
+	 * @exception IOException
+	 *                if the host could not be resolved or connected to.
+	 */
+	Socket createSocket(String host, int port, boolean channel)
+			throws IOException {
+		InetAddress[] addresses = AddressCache.getAllByName(host);
+		if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+			return createSocket(addresses[0], port, null, 0);
+		}
+		try {
+			return connect(addresses, port, channel);
+		} catch (IOException exp) {
+			AddressCache.remove(host);
+			throw exp;
+		}
 	}
 
 	@Override
@@ -85,4 +150,173 @@ class CustomSocketFactory extends SocketFactory {
 					+ proxy.type());
 		}
 	}
-}
+
+	/**
+	 * Connects to the given address, through the proxy if any, with the
+	 * given socket buffer size. The buffers are sized before connecting, so
+	 * that the TCP window can be scaled to the size.
+	 * 
+	 * @param address
+	 *            address to connect to.
+	 * @param port
+	 *            port number to connect to.
+	 * @param bufferSize
+	 *            size of the send and receive buffers, 0 for the default.
+	 * @return the connected socket.
+	 * @exception IOException
+	 *                if the address could not be connected to.
+	 */
+	Socket createSocket(InetAddress address, int port, int bufferSize)
+			throws IOException {
+		Socket socket = null;
+		if (proxy == null || proxy.type() == Proxy.Type.DIRECT) {
+			socket = new Socket();
+		} else if (proxy.type() == Proxy.Type.SOCKS) {
+			socket = new Socket(proxy);
+		} else {
+			throw new RuntimeException("Invalid or unimplemented proxy type: "
+					+ proxy.type());
+		}
+		try {
+			if (bufferSize > 0) {
+				socket.setReceiveBufferSize(bufferSize);
+				socket.setSendBufferSize(bufferSize);
+			}
+			socket.connect(new InetSocketAddress(address, port), timeout);
+		} catch (IOException exp) {
+			FTPUtil.close(socket);
+			throw exp;
+		}
+		return socket;
+	}
+
+	/**
+	 * Connects to the first of the given addresses that answers. A single
+	 * address is connected to directly. Otherwise, connection attempts are
+	 * staggered over non-blocking socket channels, and the socket of the
+	 * winning channel is returned in blocking mode.
+	 */
+	private Socket connect(InetAddress[] addresses, int port, boolean channel)
+			throws IOException {
+		if (addresses.length == 1) {
+			InetSocketAddress address = new InetSocketAddress(addresses[0],
+					port);
+			Socket socket = channel ? SocketChannel.open().socket()
+					: new Socket();
+			try {
+				socket.connect(address, timeout);
+			} catch (IOException exp) {
+				FTPUtil.close(socket);
+				throw exp;
+			}
+			return socket;
+		}
+		addresses = interleave(addresses);
+		List<SocketChannel> attempts = new ArrayList<SocketChannel>();
+		SocketChannel winner = null;
+		IOException failure = null;
+		Selector selector = Selector.open();
+		try {
+			long now = System.currentTimeMillis();
+			long deadline = timeout > 0 ? now + timeout : Long.MAX_VALUE;
+			long nextAttempt = now;
+			int next = 0;
+			while (winner == null) {
+				now = System.currentTimeMillis();
+				if (next < addresses.length
+						&& (now >= nextAttempt || attempts.isEmpty())) {
+					SocketChannel attempt = SocketChannel.open();
+					try {
+						attempt.configureBlocking(false);
+						if (attempt.connect(new InetSocketAddress(
+								addresses[next], port))) {
+							winner = attempt;
+						} else {
+							attempt.register(selector,
+									SelectionKey.OP_CONNECT);
+							attempts.add(attempt);
+						}
+					} catch (IOException exp) {
+						failure = exp;
+						FTPUtil.close(attempt);
+					}
+					next++;
+					nextAttempt = now + CONNECTION_ATTEMPT_DELAY;
+					continue;
+				}
+				if (attempts.isEmpty()) {
+					break;
+				}
+				if (now >= deadline) {
+					throw new SocketTimeoutException("connect timed out");
+				}
+				long wait = deadline - now;
+				if (next < addresses.length) {
+					wait = Math.min(wait, nextAttempt - now);
+				}
+				selector.select(Math.max(wait, 1L));
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext() && winner == null) {
+					SelectionKey key = keys.next();
+					SocketChannel attempt = (SocketChannel) key.channel();
+					try {
+						if (attempt.finishConnect()) {
+							key.cancel();
+							attempts.remove(attempt);
+							winner = attempt;
+						}
+					} catch (IOException exp) {
+						failure = exp;
+						key.cancel();
+						attempts.remove(attempt);
+						FTPUtil.close(attempt);
+						nextAttempt = now;
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} finally {
+			for (int i = 0; i < attempts.size(); i++) {
+				FTPUtil.close(attempts.get(i));
+			}
+			selector.close();
+		}
+		if (winner == null) {
+			if (failure != null) {
+				throw failure;
+			}
+			throw new ConnectException("Connection refused");
+		}
+		winner.configureBlocking(true);
+		return winner.socket();
+	}
+
+	/**
+	 * Orders the given addresses to alternate between the address families,
+	 * starting with the family of the first address.
+	 */
+	private static InetAddress[] interleave(InetAddress[] addresses) {
+		boolean first = addresses[0] instanceof Inet6Address;
+		List<InetAddress> preferred = new ArrayList<InetAddress>();
+		List<InetAddress> other = new ArrayList<InetAddress>();
+		for (int i = 0; i < addresses.length; i++) {
+			if ((addresses[i] instanceof Inet6Address) == first) {
+				preferred.add(addresses[i]);
+			} else {
+				other.add(addresses[i]);
+			}
+		}
+		InetAddress[] ordered = new InetAddress[addresses.length];
+		int count = 0;
+		for (int i = 0; count < ordered.length; i++) {
+			if (i < preferred.size()) {
+				ordered[count++] = preferred.get(i);
+			}
+			if (i < other.size()) {
+				ordered[count++] = other.get(i);
+			}
+		}
+		return ordered;
+	}
+}
\ No newline at end of file
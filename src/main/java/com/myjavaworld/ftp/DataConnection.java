@@ -15,7 +15,6 @@
  */
 package com.myjavaworld.ftp;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
@@ -24,17 +23,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
-import javax.net.SocketFactory;
-import javax.swing.event.EventListenerList;
+import com.myjavaworld.util.BufferPool;
 
 /**
  * A <code>DataConnection</code> object is used to transfer data over the data
@@ -72,11 +73,100 @@ public class DataConnection implements FTPConstants {
 	 * A List of registered listeners that are interested in receiving
 	 * notifications about the activities of this <code>DataConnection</code>.
 	 */
-	protected EventListenerList listenerList = null;
+	protected ListenerList listenerList = null;
 	/**
 	 * A flag for aborting the data transfer.
 	 */
-	protected boolean abort = false;
+	protected volatile boolean abort = false;
+	/**
+	 * Whether the transfer command was accepted, so that the transfer can be
+	 * aborted with ABOR. Guarded by this connection.
+	 */
+	private boolean started = false;
+	/**
+	 * Whether ABOR was sent to abort the transfer. Guarded by this
+	 * connection.
+	 */
+	private boolean abortSent = false;
+	/**
+	 * Whether the final reply of the transfer is being read, after which ABOR
+	 * must not be sent. Guarded by this connection.
+	 */
+	private boolean finished = false;
+	/**
+	 * The deadline of the transfer, cancelled once its final reply is read.
+	 * Guarded by this connection.
+	 */
+	private Watchdog.Timeout deadline = null;
+	/**
+	 * The timeout that aborted the transfer, if any.
+	 */
+	private volatile FTPTimeoutException timeoutCause = null;
+	/**
+	 * Size of the socket send and receive buffers.
+	 */
+	protected int socketBufferSize = 0;
+	/**
+	 * Learns the socket buffer size from the transfer, if adaptive socket
+	 * buffers are enabled.
+	 */
+	private SocketBufferTuner tuner = null;
+	/**
+	 * Time the transfer started, from <code>System.nanoTime</code>.
+	 */
+	private long transferStart = 0L;
+	/**
+	 * Time this connection was created, from <code>System.nanoTime</code>.
+	 */
+	private long created = 0L;
+	/**
+	 * Whether or not the first byte of the transfer was reported to the
+	 * metrics.
+	 */
+	private boolean firstByte = false;
+	/**
+	 * Time the first byte was transferred, relative to the creation of this
+	 * connection.
+	 */
+	private long firstByteTime = -1L;
+	/**
+	 * Time the transfer finished, from <code>System.nanoTime</code>.
+	 */
+	private long transferEnd = 0L;
+	/**
+	 * Time data was last transferred, from <code>System.nanoTime</code>.
+	 */
+	private long lastTransfer = 0L;
+	/**
+	 * Sum of the gaps between consecutive reads or writes that were longer
+	 * than <code>STALL_THRESHOLD</code>.
+	 */
+	private long stallTime = 0L;
+	/**
+	 * Direction of the transfer, as reported to the listeners.
+	 */
+	private int direction = 0;
+	/**
+	 * Number of bytes transferred so far.
+	 */
+	private volatile long bytesTransferred = 0L;
+	/**
+	 * The command that started the transfer.
+	 */
+	private String command = null;
+	/**
+	 * Time taken by PASV/EPSV or PORT/EPRT.
+	 */
+	private long setupTime = -1L;
+	/**
+	 * Time taken to establish this connection.
+	 */
+	private long connectTime = -1L;
+	/**
+	 * Gaps in the transfer longer than this many nanoseconds count as stall
+	 * time.
+	 */
+	private static final long STALL_THRESHOLD = 100000000L;
 
 	/**
 	 * Constructs a <code>DataConnection</code> object.
@@ -88,6 +178,37 @@ public class DataConnection implements FTPConstants {
 		this.client = client;
 		this.listenerList = client.getListenerList();
 		this.abort = false;
+		this.created = System.nanoTime();
+		this.socketBufferSize = client.getSocketBufferSize() > 0 ? client
+				.getSocketBufferSize() : client.getBufferSize();
+	}
+
+	/**
+	 * Sets the size of the socket send and receive buffers. This must be
+	 * called before the connection is made, so that the TCP window can be
+	 * scaled to the size.
+	 * 
+	 * @param socketBufferSize
+	 *            size of the socket buffers.
+	 */
+	public void setSocketBufferSize(int socketBufferSize) {
+		this.socketBufferSize = socketBufferSize;
+	}
+
+	/**
+	 * Returns the size of the socket send and receive buffers.
+	 * 
+	 * @return size of the socket buffers.
+	 */
+	public int getSocketBufferSize() {
+		return socketBufferSize;
+	}
+
+	/**
+	 * Sets the tuner that learns the socket buffer size from the transfer.
+	 */
+	void setSocketBufferTuner(SocketBufferTuner tuner) {
+		this.tuner = tuner;
 	}
 
 	/**
@@ -100,9 +221,16 @@ public class DataConnection implements FTPConstants {
 	 */
 	public synchronized int bind() throws ConnectionException {
 		try {
-			server = new ServerSocket(0, 0, client.getLocalAddress());
+			server = new ServerSocket();
+			// Accepted sockets inherit the receive buffer, which must be set
+			// before the connection is made.
+			if (socketBufferSize > 0) {
+				server.setReceiveBufferSize(socketBufferSize);
+			}
+			server.bind(new InetSocketAddress(client.getLocalAddress(), 0));
 			return server.getLocalPort();
 		} catch (IOException exp) {
+			FTPUtil.close(server);
 			throw new ConnectionException(exp.toString());
 		}
 	}
@@ -131,8 +259,9 @@ public class DataConnection implements FTPConstants {
 			// Let's ignore this.
 		}
 		try {
-			socket.setSendBufferSize(client.getBufferSize());
-			socket.setReceiveBufferSize(client.getBufferSize());
+			if (socketBufferSize > 0) {
+				socket.setSendBufferSize(socketBufferSize);
+			}
 		} catch (SocketException exp) {
 			// Let's ignore this.
 		}
@@ -178,21 +307,12 @@ public class DataConnection implements FTPConstants {
 	public synchronized void connect(InetAddress address, int port)
 			throws ConnectionException {
 		try {
-			SocketFactory factory = new CustomSocketFactory(client);
-			socket = factory.createSocket(address, port);
-
-			// socket = new Socket(address, port);
+			socket = createSocket(address, port);
 			try {
 				socket.setSoTimeout(client.getTimeout());
 			} catch (SocketException exp) {
 				// Let's ignore this.
 			}
-			try {
-				socket.setSendBufferSize(client.getBufferSize());
-				socket.setReceiveBufferSize(client.getBufferSize());
-			} catch (SocketException exp) {
-				// Let's ignore this.
-			}
 		} catch (UnknownHostException exp) {
 			throw new ConnectionException(exp.toString());
 		} catch (NoRouteToHostException exp) {
@@ -204,6 +324,47 @@ public class DataConnection implements FTPConstants {
 		}
 	}
 
+	/**
+	 * Creates the socket for a data connection in passive mode. The default
+	 * implementation connects through the proxy of the client, if any. The
+	 * socket buffers are sized before connecting.
+	 * 
+	 * @param address
+	 *            Internet address of the remote host.
+	 * @param port
+	 *            Port number to connect to.
+	 * @return the connected socket.
+	 * @exception IOException
+	 *                if a network or IO error occurs.
+	 */
+	protected Socket createSocket(InetAddress address, int port)
+			throws IOException {
+		return new CustomSocketFactory(client).createSocket(address, port,
+				socketBufferSize);
+	}
+
+	/**
+	 * Returns the stream for reading the raw data of this data connection.
+	 * 
+	 * @return the input stream of the socket.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	protected InputStream getSocketInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	/**
+	 * Returns the stream for writing the raw data of this data connection.
+	 * 
+	 * @return the output stream of the socket.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	protected OutputStream getSocketOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
 	/**
 	 * Closes this data connection and open streams, if any.
 	 */
@@ -215,10 +376,26 @@ public class DataConnection implements FTPConstants {
 	}
 
 	/**
-	 * Sets the abort flag to <code>true</code>.
+	 * Sets the abort flag to <code>true</code> and closes this connection, so
+	 * that a read or write blocked on it fails right away. This method may be
+	 * called from any thread.
 	 */
 	public void abort() {
+		shutdown();
+		close();
+	}
+
+	/**
+	 * Sets the abort flag to <code>true</code> and closes the sockets of this
+	 * connection, so that a read or write blocked on it fails right away.
+	 * Unlike <code>abort</code>, this method does not close the streams, which
+	 * may flush, and never blocks, so that the watchdog may call it. The
+	 * connection must still be closed by its user.
+	 */
+	void shutdown() {
 		this.abort = true;
+		FTPUtil.close(socket);
+		FTPUtil.close(server);
 	}
 
 	/**
@@ -231,6 +408,129 @@ public class DataConnection implements FTPConstants {
 		return abort;
 	}
 
+	/**
+	 * Records that the remote host accepted the transfer command, so that the
+	 * transfer can be aborted with ABOR from now on.
+	 * 
+	 * @return <code>true</code>, if an abort was requested meanwhile.
+	 */
+	synchronized boolean transferStarted() {
+		started = true;
+		return abort;
+	}
+
+	/**
+	 * Requests to abort the transfer, and tells whether ABOR is to be sent for
+	 * it. ABOR is sent at most once, and only after the transfer command was
+	 * accepted and before its final reply is read, so that the replies to ABOR
+	 * can be told apart from the others.
+	 * 
+	 * @return <code>true</code>, if the caller is to send ABOR.
+	 */
+	synchronized boolean startAbort() {
+		abort = true;
+		if (!started || finished || abortSent) {
+			return false;
+		}
+		abortSent = true;
+		return true;
+	}
+
+	/**
+	 * Records that the final reply of the transfer is about to be read, after
+	 * which ABOR is no longer sent.
+	 * 
+	 * @return <code>true</code>, if ABOR was sent, and its reply follows the
+	 *         final reply of the transfer.
+	 */
+	synchronized boolean transferFinished() {
+		finished = true;
+		if (deadline != null) {
+			deadline.cancel();
+			deadline = null;
+		}
+		return abortSent;
+	}
+
+	/**
+	 * Tells whether the final reply of the transfer is being read.
+	 * 
+	 * @return <code>true</code>, if the transfer is finished.
+	 */
+	synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Sets the deadline of the transfer, which is cancelled once the final
+	 * reply of the transfer is read.
+	 */
+	synchronized void setDeadline(Watchdog.Timeout deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Records the timeout that is about to abort the transfer, unless the
+	 * transfer is finished.
+	 * 
+	 * @param cause
+	 *            the timeout.
+	 * @return <code>true</code>, if the transfer is to be aborted.
+	 */
+	synchronized boolean timedOut(FTPTimeoutException cause) {
+		if (finished || timeoutCause != null) {
+			return false;
+		}
+		timeoutCause = cause;
+		return true;
+	}
+
+	/**
+	 * Returns the timeout that aborted the transfer, if any.
+	 * 
+	 * @return the timeout, or <code>null</code>.
+	 */
+	FTPTimeoutException getTimeoutCause() {
+		return timeoutCause;
+	}
+
+	/**
+	 * Returns the number of bytes transferred so far.
+	 * 
+	 * @return number of bytes transferred.
+	 */
+	long getBytesTransferred() {
+		return bytesTransferred;
+	}
+
+	/**
+	 * Returns the exception to throw for the given exception that ended the
+	 * transfer. If the transfer was aborted, the listeners are notified, and
+	 * the exception is replaced with an <code>InterruptedIOException</code>,
+	 * as it is most likely caused by closing the connection.
+	 * 
+	 * @param exp
+	 *            the exception that ended the transfer.
+	 * @param direction
+	 *            <code>DataConnectionEvent.RECEIVE</code> or
+	 *            <code>DataConnectionEvent.SEND</code>.
+	 * @param totalBytes
+	 *            number of bytes transferred.
+	 * @return the exception to throw.
+	 */
+	protected IOException transferFailed(IOException exp, int direction,
+			long totalBytes) {
+		if (!abort) {
+			return exp;
+		}
+		fireDataTransferAborted(new DataConnectionEvent(this, direction,
+				totalBytes));
+		if (exp instanceof InterruptedIOException) {
+			return exp;
+		}
+		return new InterruptedIOException("Transfer aborted");
+	}
+
 	/**
 	 * Parses the data received over this data connection to an array of
 	 * <code>RemoteFile</code> objects.
@@ -250,7 +550,7 @@ public class DataConnection implements FTPConstants {
 		BufferedReader reader = null;
 		try {
 			reader = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()), client.getBufferSize());
+					getSocketInputStream()));
 			ListParser parser = client.getListParser();
 			return parser.parse(dir, reader);
 		} catch (IOException exp) {
@@ -261,6 +561,43 @@ public class DataConnection implements FTPConstants {
 		}
 	}
 
+	/**
+	 * Returns an <code>InputStream</code> for reading the data sent by the
+	 * remote host over this data connection. If the current data type of the
+	 * client is ASCII, the returned stream converts the NETASCII line
+	 * separators to the local line separator.
+	 * 
+	 * @return the input stream of this data connection.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	public InputStream getInputStream() throws IOException {
+		in = getSocketInputStream();
+		if (client.getType() == TYPE_ASCII) {
+			in = new FromNetASCIIInputStream(in);
+		}
+		return in;
+	}
+
+	/**
+	 * Returns an <code>OutputStream</code> for sending data to the remote host
+	 * over this data connection. If the current data type of the client is
+	 * ASCII, the returned stream converts the local line separators to the
+	 * NETASCII line separator.
+	 * 
+	 * @return the output stream of this data connection.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	public OutputStream getOutputStream() throws IOException {
+		out = getSocketOutputStream();
+		if (client.getType() == TYPE_ASCII) {
+			out = new ToNetASCIIOutputStream(new BufferedOutputStream(out,
+					client.getBufferSize()));
+		}
+		return out;
+	}
+
 	/**
 	 * Reads the stream over this data connection and saves it in the specified
 	 * local file <code>destination</code>.
@@ -275,7 +612,6 @@ public class DataConnection implements FTPConstants {
 	 *                if an IO error occurs.
 	 */
 	public void download(File destination, boolean append) throws IOException {
-		abort = false;
 		download(destination, append, (client.getType() == TYPE_ASCII));
 	}
 
@@ -293,7 +629,6 @@ public class DataConnection implements FTPConstants {
 	 *                if an IO error occurs.
 	 */
 	public void upload(File source, long skip) throws IOException {
-		abort = false;
 		upload(source, skip, (client.getType() == TYPE_ASCII));
 	}
 
@@ -313,33 +648,44 @@ public class DataConnection implements FTPConstants {
 	private void download(File destination, boolean append, boolean ascii)
 			throws IOException {
 		long totalBytes = 0L;
+		BufferPool pool = BufferPool.getPool(client.getBufferSize(), false);
+		ByteBuffer buffer = pool.acquire();
 		try {
-			int bufferSize = client.getBufferSize();
-			in = new BufferedInputStream(socket.getInputStream(), bufferSize);
+			in = getSocketInputStream();
 			if (ascii) {
 				in = new FromNetASCIIInputStream(in);
 			}
-			out = new BufferedOutputStream(new FileOutputStream(
-					destination.getAbsolutePath(), append), bufferSize);
-			byte[] bytes = new byte[bufferSize];
+			out = new FileOutputStream(destination.getAbsolutePath(), append);
+			byte[] bytes = buffer.array();
 			int bytesRead = 0;
 			fireDataTransferStarted(new DataConnectionEvent(client,
 					DataConnectionEvent.RECEIVE, totalBytes));
 			while ((bytesRead = in.read(bytes)) != -1) {
 				if (abort) {
-					fireDataTransferAborted(new DataConnectionEvent(this,
-							DataConnectionEvent.RECEIVE, totalBytes));
-					break;
+					throw new InterruptedIOException("Transfer aborted");
 				}
-				out.write(bytes, 0, bytesRead);
-				totalBytes += bytesRead;
+				// Coalesce whatever is already available so that the local
+				// file is written in large chunks.
+				int count = bytesRead;
+				while (count < bytes.length && in.available() > 0) {
+					bytesRead = in.read(bytes, count, bytes.length - count);
+					if (bytesRead == -1) {
+						break;
+					}
+					count += bytesRead;
+				}
+				out.write(bytes, 0, count);
+				totalBytes += count;
 				fireDataTransferProgress(new DataConnectionEvent(client,
 						DataConnectionEvent.RECEIVE, totalBytes));
 			}
+		} catch (IOException exp) {
+			throw transferFailed(exp, DataConnectionEvent.RECEIVE, totalBytes);
 		} finally {
 			fireDataTransferFinished(new DataConnectionEvent(client,
 					DataConnectionEvent.RECEIVE, totalBytes));
 			close();
+			pool.release(buffer);
 		}
 	}
 
@@ -357,15 +703,15 @@ public class DataConnection implements FTPConstants {
 	private void upload(File source, long skip, boolean ascii)
 			throws IOException {
 		long totalBytes = 0L;
+		BufferPool pool = BufferPool.getPool(client.getBufferSize(), false);
+		ByteBuffer buffer = pool.acquire();
 		try {
-			int bufferSize = client.getBufferSize();
-			in = new BufferedInputStream(new FileInputStream(source),
-					bufferSize);
+			in = new FileInputStream(source);
 			if (ascii) {
 				in = new ToNetASCIIInputStream(in);
 			}
-			out = new BufferedOutputStream(socket.getOutputStream(), bufferSize);
-			byte[] bytes = new byte[bufferSize];
+			out = getSocketOutputStream();
+			byte[] bytes = buffer.array();
 			int bytesRead = 0;
 			if (skip > 0) {
 				in.skip(skip);
@@ -374,20 +720,21 @@ public class DataConnection implements FTPConstants {
 					DataConnectionEvent.SEND, totalBytes));
 			while ((bytesRead = in.read(bytes)) != -1) {
 				if (abort) {
-					fireDataTransferAborted(new DataConnectionEvent(this,
-							DataConnectionEvent.RECEIVE, totalBytes));
-					break;
+					throw new InterruptedIOException("Transfer aborted");
 				}
 				out.write(bytes, 0, bytesRead);
-				out.flush();
 				totalBytes += bytesRead;
 				fireDataTransferProgress(new DataConnectionEvent(client,
 						DataConnectionEvent.SEND, totalBytes));
 			}
+			out.flush();
+		} catch (IOException exp) {
+			throw transferFailed(exp, DataConnectionEvent.SEND, totalBytes);
 		} finally {
 			fireDataTransferFinished(new DataConnectionEvent(client,
 					DataConnectionEvent.SEND, totalBytes));
 			close();
+			pool.release(buffer);
 		}
 	}
 
@@ -398,6 +745,9 @@ public class DataConnection implements FTPConstants {
 	 *            <code>DataConnectionEvent</code>.
 	 */
 	protected void fireDataTransferStarted(DataConnectionEvent evt) {
+		transferStart = System.nanoTime();
+		lastTransfer = transferStart;
+		direction = evt.getId();
 		Object[] listeners = listenerList.getListenerList();
 		for (int i = listeners.length - 2; i >= 0; i -= 2) {
 			if (listeners[i] == DataConnectionListener.class) {
@@ -414,6 +764,18 @@ public class DataConnection implements FTPConstants {
 	 *            <code>DataConnectionEvent</code>.
 	 */
 	protected void fireDataTransferFinished(DataConnectionEvent evt) {
+		transferEnd = System.nanoTime();
+		bytesTransferred = evt.getBytesTransferred();
+		if (tuner != null && transferStart != 0L) {
+			tuner.update(socketBufferSize, evt.getBytesTransferred(), System
+					.nanoTime()
+					- transferStart);
+		}
+		if (transferStart != 0L) {
+			client.getMetrics().transferCompleted(evt.getId(),
+					evt.getBytesTransferred(),
+					System.nanoTime() - transferStart);
+		}
 		Object[] listeners = listenerList.getListenerList();
 		for (int i = listeners.length - 2; i >= 0; i -= 2) {
 			if (listeners[i] == DataConnectionListener.class) {
@@ -439,6 +801,74 @@ public class DataConnection implements FTPConstants {
 		}
 	}
 
+	/**
+	 * Records that data was just transferred. The first call reports the time
+	 * from creating this connection to the first byte to the metrics of the
+	 * client. Gaps between calls longer than <code>STALL_THRESHOLD</code> are
+	 * added to the stall time of the transfer.
+	 * 
+	 * @param direction
+	 *            <code>DataConnectionEvent.RECEIVE</code> or
+	 *            <code>DataConnectionEvent.SEND</code>.
+	 * @param totalBytes
+	 *            number of bytes transferred so far.
+	 */
+	void dataTransferred(int direction, long totalBytes) {
+		bytesTransferred = totalBytes;
+		long now = System.nanoTime();
+		if (!firstByte) {
+			firstByte = true;
+			firstByteTime = now - created;
+			client.getMetrics().firstByteTransferred(direction, firstByteTime);
+		} else if (lastTransfer != 0L && now - lastTransfer > STALL_THRESHOLD) {
+			stallTime += now - lastTransfer;
+		}
+		lastTransfer = now;
+	}
+
+	/**
+	 * Records the command that started the transfer over this connection and
+	 * the time taken to set it up.
+	 * 
+	 * @param command
+	 *            the transfer command.
+	 * @param setupTime
+	 *            time taken by PASV/EPSV or PORT/EPRT.
+	 * @param connectTime
+	 *            time taken to establish this connection.
+	 */
+	void setSetupTimes(String command, long setupTime, long connectTime) {
+		this.command = command;
+		this.setupTime = setupTime;
+		this.connectTime = connectTime;
+	}
+
+	/**
+	 * Returns the statistics of the transfer over this connection. This must
+	 * be called after the final reply of the transfer is read.
+	 * 
+	 * @param replyTime
+	 *            time taken to read the final reply.
+	 * @return the statistics of the transfer.
+	 */
+	TransferStats getTransferStats(long replyTime) {
+		long handshakeTime = -1L;
+		if (this instanceof SSLDataConnection) {
+			handshakeTime = ((SSLDataConnection) this).getHandshakeTime();
+		}
+		long transferTime = -1L;
+		if (transferStart != 0L && transferEnd != 0L) {
+			transferTime = transferEnd - transferStart;
+		}
+		long stall = stallTime;
+		if (transferEnd != 0L && transferEnd - lastTransfer > STALL_THRESHOLD) {
+			stall += transferEnd - lastTransfer;
+		}
+		return new TransferStats(command, direction, bytesTransferred,
+				setupTime, connectTime, handshakeTime, firstByteTime,
+				transferTime, stall, replyTime, System.nanoTime() - created);
+	}
+
 	/**
 	 * Notifies the registered listeners that the data transfer is in progress.
 	 * 
@@ -446,6 +876,9 @@ public class DataConnection implements FTPConstants {
 	 *            <code>DataConnectionEvent</code>.
 	 */
 	protected void fireDataTransferProgress(DataConnectionEvent evt) {
+		if (evt.getBytesTransferred() > 0) {
+			dataTransferred(evt.getId(), evt.getBytesTransferred());
+		}
 		Object[] listeners = listenerList.getListenerList();
 		for (int i = listeners.length - 2; i >= 0; i -= 2) {
 			if (listeners[i] == DataConnectionListener.class) {
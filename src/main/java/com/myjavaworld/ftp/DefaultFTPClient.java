@@ -15,17 +15,24 @@
  */
 package com.myjavaworld.ftp;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
-import javax.swing.event.EventListenerList;
+import javax.net.ssl.SSLSessionContext;
 
 import com.myjavaworld.util.Filter;
 
@@ -42,6 +49,15 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 	 * Timeout for this <code>FTPClient</code>.
 	 */
 	protected int timeout = 0;
+	/**
+	 * Deadlines of the operations in milliseconds, indexed by the
+	 * <code>DEADLINE_</code> constants, 0 for no deadline.
+	 */
+	protected int[] deadlines = new int[DEADLINE_TRANSFER + 1];
+	/**
+	 * Minimum throughput of transfers in bytes per second, 0 for none.
+	 */
+	protected int minThroughput = 0;
 	/**
 	 * Buffer size for transferring data over the network.
 	 */
@@ -77,7 +93,7 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 	/**
 	 * Stores that last reply received from the remote host.
 	 */
-	protected String reply = null;
+	protected FTPReply reply = null;
 	/**
 	 * A Control Connection object for sending commands and receiving replies.
 	 */
@@ -86,7 +102,7 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 	 * A DataConnection object used for transferring data to/from the remote
 	 * system.
 	 */
-	protected DataConnection dataConnection = null;
+	protected volatile DataConnection dataConnection = null;
 	/**
 	 * A ListParser object used to parse the directory listing produced by the
 	 * remote host.
@@ -100,6 +116,71 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 	 * SSL context
 	 */
 	protected SSLContext sslContext = null;
+	/**
+	 * Maximum number of cached SSL sessions, -1 to leave the SSL context
+	 * unchanged.
+	 */
+	protected int sslSessionCacheSize = -1;
+	/**
+	 * Timeout of cached SSL sessions in seconds, -1 to leave the SSL context
+	 * unchanged.
+	 */
+	protected int sslSessionTimeout = -1;
+	/**
+	 * Whether or not encrypted data connections resume the control session.
+	 */
+	protected boolean dataSessionReuseEnabled = true;
+	/**
+	 * Handshake time of the last encrypted data connection, in nanoseconds.
+	 */
+	protected long dataHandshakeTime = -1L;
+	/**
+	 * Whether or not the last encrypted data connection resumed the control
+	 * session.
+	 */
+	protected boolean dataSessionResumed = false;
+	/**
+	 * Statistics of the last completed transfer.
+	 */
+	protected TransferStats lastTransferStats = null;
+	/**
+	 * Transport used for SSL connections.
+	 */
+	protected int sslTransport = DEFAULT_SSL_TRANSPORT;
+	/**
+	 * Keepalive interval of the control connection in seconds, 0 if disabled.
+	 */
+	protected int keepAliveInterval = 0;
+	/**
+	 * Whether or not keepalive commands are sent during transfers.
+	 */
+	protected boolean keepAliveDuringTransfer = false;
+	/**
+	 * Size of the socket buffers of data connections, 0 to use the buffer
+	 * size.
+	 */
+	protected int socketBufferSize = 0;
+	/**
+	 * Whether or not the socket buffers of data connections adapt to the
+	 * host.
+	 */
+	protected boolean adaptiveSocketBufferEnabled = false;
+	/**
+	 * Largest size adaptive socket buffers grow to.
+	 */
+	protected int maxSocketBufferSize = DEFAULT_MAX_SOCKET_BUFFER_SIZE;
+	/**
+	 * Metrics that receive the measurements of this client.
+	 */
+	protected FTPMetrics metrics = FTPMetrics.NONE;
+	/**
+	 * Number of commands and replies kept in the wire trace.
+	 */
+	protected int wireTraceSize = DEFAULT_WIRE_TRACE_SIZE;
+	/**
+	 * Trace of the commands and replies of the current or last session.
+	 */
+	protected WireTrace wireTrace = null;
 	/**
 	 * A flag to determine if the data channel will be encrypted or not.
 	 */
@@ -111,7 +192,7 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 	/**
 	 * List of registered listeners.
 	 */
-	protected EventListenerList listenerList = null;
+	protected ListenerList listenerList = null;
 	/**
 	 * Flag that determines if passive connections IP address should be
 	 * substituted with the original server's IP address.
@@ -121,6 +202,104 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 	 * The proxy server to use when connecting to the FTP server
 	 */
 	protected Proxy proxy = null;
+	/**
+	 * Character encoding of the control connection.
+	 */
+	protected String controlEncoding = null;
+	/**
+	 * Maximum number of entries of directories that are listed using STAT. 0
+	 * disables STAT listings.
+	 */
+	protected int statListingThreshold = 0;
+	/**
+	 * Whether or not the remote host supports listing directories using STAT.
+	 */
+	protected boolean statListingSupported = true;
+	/**
+	 * Whether or not to use EPSV and EPRT instead of PASV and PORT.
+	 */
+	protected int extendedMode = DEFAULT_EXTENDED_MODE;
+	/**
+	 * Whether or not commands whose effect is already known are skipped.
+	 */
+	protected boolean commandElisionEnabled = true;
+	/**
+	 * Data representation type last sent to the remote host, or 0 if not
+	 * known.
+	 */
+	protected int remoteType = 0;
+	/**
+	 * Whether or not the working directory after CWD and CDUP can be computed
+	 * on the client, or <code>null</code> if not known yet.
+	 */
+	protected Boolean pathResolvable = null;
+	/**
+	 * Number of commands skipped in this session.
+	 */
+	protected int commandsAvoided = 0;
+	/**
+	 * Capabilities of the remote host, or <code>null</code> if not known yet.
+	 */
+	protected FTPCapabilities capabilities = null;
+	/**
+	 * Time to live of cached host capabilities, in seconds.
+	 */
+	protected int capabilityTTL = DEFAULT_CAPABILITY_TTL;
+	/**
+	 * Whether or not the remote host supports EPSV.
+	 */
+	protected boolean epsvSupported = false;
+	/**
+	 * Whether or not the remote host supports EPRT.
+	 */
+	protected boolean eprtSupported = false;
+	/**
+	 * Directories known to have more entries than the STAT listing threshold.
+	 */
+	protected Map<String, Boolean> largeDirectories = new LinkedHashMap<String, Boolean>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 5310981426215932740L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > 256;
+		}
+	};
+	/**
+	 * Whether or not the login commands are pipelined.
+	 */
+	protected boolean fastLoginEnabled = false;
+	/**
+	 * Hosts, as <code>host:port</code>, known not to tolerate pipelined
+	 * commands. Shared by all clients.
+	 */
+	private static final Map<String, Boolean> pipeliningRefused = new LinkedHashMap<String, Boolean>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = -2213597417005868329L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > 256;
+		}
+	};
+	/**
+	 * Names of the operations, indexed by the <code>DEADLINE_</code>
+	 * constants.
+	 */
+	private static final String[] DEADLINE_NAMES = { null, "Connect",
+			"Login", "Command", "List", "Transfer" };
+	/**
+	 * Period over which the throughput of transfers is measured, in
+	 * milliseconds.
+	 */
+	private static final int THROUGHPUT_WINDOW = 10000;
+	/**
+	 * Time to wait for the replies to a transfer aborted because of a
+	 * timeout, in milliseconds.
+	 */
+	private static final int TIMED_OUT_REPLY_TIMEOUT = 10000;
 
 	/**
 	 * Constructs an <code>DefaultFTPClient</code> object that is not connected
@@ -132,8 +311,7 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		this.type = DEFAULT_TYPE;
 		this.mode = DEFAULT_MODE;
 		this.structure = DEFAULT_STRUCTURE;
-		this.reply = "";
-		listenerList = new EventListenerList();
+		listenerList = new ListenerList();
 		sslUsage = USE_NO_SSL;
 		dataChannelUnencrypted = false;
 		explicitSSLProtocol = "SSL";
@@ -148,6 +326,42 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return timeout;
 	}
 
+	public void setDeadline(int operation, int millis) {
+		checkDeadline(operation);
+		if (millis < 0) {
+			throw new IllegalArgumentException("Invalid deadline: " + millis);
+		}
+		deadlines[operation] = millis;
+	}
+
+	public int getDeadline(int operation) {
+		checkDeadline(operation);
+		return deadlines[operation];
+	}
+
+	/**
+	 * Checks that the given operation is one of the <code>DEADLINE_</code>
+	 * constants.
+	 */
+	private static void checkDeadline(int operation) {
+		if (operation < DEADLINE_CONNECT || operation > DEADLINE_TRANSFER) {
+			throw new IllegalArgumentException("Invalid operation: "
+					+ operation);
+		}
+	}
+
+	public void setMinThroughput(int bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("Invalid throughput: "
+					+ bytesPerSecond);
+		}
+		this.minThroughput = bytesPerSecond;
+	}
+
+	public int getMinThroughput() {
+		return minThroughput;
+	}
+
 	public void setBufferSize(int bufferSize) {
 		this.bufferSize = bufferSize;
 	}
@@ -156,6 +370,70 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return bufferSize;
 	}
 
+	public void setSocketBufferSize(int socketBufferSize) {
+		if (socketBufferSize < 0) {
+			throw new IllegalArgumentException("Invalid socket buffer size: "
+					+ socketBufferSize);
+		}
+		this.socketBufferSize = socketBufferSize;
+	}
+
+	public int getSocketBufferSize() {
+		return socketBufferSize;
+	}
+
+	public void setAdaptiveSocketBufferEnabled(boolean enabled) {
+		this.adaptiveSocketBufferEnabled = enabled;
+	}
+
+	public boolean isAdaptiveSocketBufferEnabled() {
+		return adaptiveSocketBufferEnabled;
+	}
+
+	public void setMaxSocketBufferSize(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Invalid socket buffer size: "
+					+ size);
+		}
+		this.maxSocketBufferSize = size;
+	}
+
+	public int getMaxSocketBufferSize() {
+		return maxSocketBufferSize;
+	}
+
+	public void setMetrics(FTPMetrics metrics) {
+		this.metrics = metrics == null ? FTPMetrics.NONE : metrics;
+	}
+
+	public FTPMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setEventQueueSize(int size) {
+		listenerList.setQueueSize(size);
+	}
+
+	public int getEventQueueSize() {
+		return listenerList.getQueueSize();
+	}
+
+	public void setWireTraceSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Invalid wire trace size: "
+					+ size);
+		}
+		this.wireTraceSize = size;
+	}
+
+	public int getWireTraceSize() {
+		return wireTraceSize;
+	}
+
+	public WireTrace getWireTrace() {
+		return wireTrace;
+	}
+
 	public void setListParser(ListParser listParser) {
 		this.listParser = listParser;
 	}
@@ -195,6 +473,111 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return controlConnection.isSecured();
 	}
 
+	public SSLSession getSSLSession() {
+		if (controlConnection == null) {
+			return null;
+		}
+		return controlConnection.getSSLSession();
+	}
+
+	public void setSSLSessionCacheSize(int size) {
+		if (size < -1) {
+			throw new IllegalArgumentException("Invalid cache size: " + size);
+		}
+		this.sslSessionCacheSize = size;
+	}
+
+	public int getSSLSessionCacheSize() {
+		return sslSessionCacheSize;
+	}
+
+	public void setSSLSessionTimeout(int seconds) {
+		if (seconds < -1) {
+			throw new IllegalArgumentException("Invalid timeout: " + seconds);
+		}
+		this.sslSessionTimeout = seconds;
+	}
+
+	public int getSSLSessionTimeout() {
+		return sslSessionTimeout;
+	}
+
+	public void setDataSessionReuseEnabled(boolean enabled) {
+		this.dataSessionReuseEnabled = enabled;
+	}
+
+	public boolean isDataSessionReuseEnabled() {
+		return dataSessionReuseEnabled;
+	}
+
+	public long getDataHandshakeTime() {
+		return dataHandshakeTime;
+	}
+
+	public boolean isDataSessionResumed() {
+		return dataSessionResumed;
+	}
+
+	public TransferStats getLastTransferStats() {
+		return lastTransferStats;
+	}
+
+	public void setCommandElisionEnabled(boolean enabled) {
+		this.commandElisionEnabled = enabled;
+	}
+
+	public boolean isCommandElisionEnabled() {
+		return commandElisionEnabled;
+	}
+
+	public int getCommandsAvoided() {
+		return commandsAvoided;
+	}
+
+	public void setFastLoginEnabled(boolean enabled) {
+		this.fastLoginEnabled = enabled;
+	}
+
+	public boolean isFastLoginEnabled() {
+		return fastLoginEnabled;
+	}
+
+	public void setSSLTransport(int transport) {
+		if (transport != SSL_TRANSPORT_SOCKET
+				&& transport != SSL_TRANSPORT_ENGINE) {
+			throw new IllegalArgumentException("Invalid SSL transport: "
+					+ transport);
+		}
+		this.sslTransport = transport;
+	}
+
+	public int getSSLTransport() {
+		return sslTransport;
+	}
+
+	public void setKeepAliveInterval(int seconds) {
+		if (seconds < 0) {
+			throw new IllegalArgumentException("Invalid interval: " + seconds);
+		}
+		this.keepAliveInterval = seconds;
+		ControlConnection connection = controlConnection;
+		if (connection != null) {
+			connection.startKeepAlive();
+		}
+	}
+
+	public int getKeepAliveInterval() {
+		return keepAliveInterval;
+	}
+
+	public void setKeepAliveDuringTransfer(boolean enabled) {
+		this.keepAliveDuringTransfer = enabled;
+	}
+
+	public boolean isKeepAliveDuringTransfer() {
+		return keepAliveDuringTransfer;
+	}
+
 	public void setExplicitSSLProtocol(String protocol) {
 		if (protocol == null) {
 			throw new NullPointerException();
@@ -209,6 +592,29 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return explicitSSLProtocol;
 	}
 
+	public void setControlEncoding(String encoding) {
+		if (encoding != null && !Charset.isSupported(encoding)) {
+			throw new IllegalArgumentException("Unsupported encoding: "
+					+ encoding);
+		}
+		this.controlEncoding = encoding;
+		if (controlConnection != null) {
+			controlConnection.setEncoding(encoding);
+		}
+	}
+
+	public String getControlEncoding() {
+		return controlEncoding;
+	}
+
+	/**
+	 * Tells whether the given encoding is UTF-8.
+	 */
+	private static boolean isUTF8(String encoding) {
+		return encoding != null
+				&& Charset.forName(encoding).name().equals("UTF-8");
+	}
+
 	public synchronized void connect(String host) throws FTPException,
 			ConnectionException {
 		connect(host, DEFAULT_PORT);
@@ -224,8 +630,71 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		} else {
 			controlConnection = new ControlConnection(this);
 		}
-		controlConnection.connect(host, port);
-		// reply = controlConnection.getReply();
+		if (fastLoginEnabled) {
+			synchronized (pipeliningRefused) {
+				controlConnection.setCommandPipelining(!pipeliningRefused
+						.containsKey(host + ":" + port));
+			}
+		}
+		if (sslUsage != USE_NO_SSL && sslContext != null) {
+			SSLSessionContext sessionContext = sslContext
+					.getClientSessionContext();
+			if (sslSessionCacheSize >= 0) {
+				sessionContext.setSessionCacheSize(sslSessionCacheSize);
+			}
+			if (sslSessionTimeout >= 0) {
+				sessionContext.setSessionTimeout(sslSessionTimeout);
+			}
+		}
+		statListingSupported = true;
+		largeDirectories.clear();
+		capabilities = null;
+		type = 0;
+		remoteType = 0;
+		pathResolvable = null;
+		commandsAvoided = 0;
+		workingDirectory = null;
+		if (wireTraceSize == 0) {
+			wireTrace = null;
+		} else if (wireTrace == null || wireTrace.getCapacity() != wireTraceSize) {
+			wireTrace = new WireTrace(wireTraceSize);
+		} else {
+			wireTrace.clear();
+		}
+		ControlConnection connection = controlConnection;
+		long start = System.nanoTime();
+		Watchdog.Timeout deadline = startDeadline(DEADLINE_CONNECT);
+		try {
+			connection.connect(host, port);
+		} catch (FTPException exp) {
+			throw traced(exp);
+		} catch (ConnectionException exp) {
+			ConnectionException cause = timedOut(connection, exp);
+			int limit = deadlines[DEADLINE_CONNECT];
+			if (cause == exp && limit > 0
+					&& System.nanoTime() - start >= limit * 1000000L) {
+				// The connect timeout, which is the deadline, ran out first
+				cause = deadlineExceeded(DEADLINE_CONNECT);
+			}
+			throw traced(cause);
+		} finally {
+			cancel(deadline);
+		}
+		if (capabilityTTL > 0) {
+			FTPCapabilities cached = CapabilityCache.get(getHostKey(),
+					capabilityTTL);
+			if (cached != null) {
+				setCapabilities(cached);
+			}
+		}
+		controlConnection.startKeepAlive();
+		metrics.connected(controlConnection.getRemoteAddress(),
+				controlConnection.getConnectTime());
+		if (controlConnection.getHandshakeTime() >= 0) {
+			metrics.controlHandshakeCompleted(controlConnection
+					.getHandshakeTime());
+		}
+		// reply = controlConnection.readReply();
 		// if (reply.charAt(0) == '5' || reply.charAt(0) == '4')
 		// throw new FTPException(reply);
 		connected = true;
@@ -249,19 +718,63 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 
 	public synchronized void login(String user, String password, String account)
 			throws FTPException, ConnectionException {
-		executeCommand("USER " + user);
-		if (reply.charAt(0) == '3') {
-			executeCommand("PASS " + password);
+		ControlConnection connection = controlConnection;
+		Watchdog.Timeout deadline = startDeadline(DEADLINE_LOGIN);
+		try {
+			login(connection, user, password, account);
+		} catch (ConnectionException exp) {
+			throw traced(timedOut(connection, exp));
+		} finally {
+			cancel(deadline);
 		}
-		if (reply.charAt(0) == '3') {
-			if (account.trim().length() > 0) {
-				executeCommand("ACCT " + account);
-			} else {
-				throw new FTPException(
-						"Account information required to login. ");
+	}
+
+	/**
+	 * Logs in over the given control connection, which is the current one.
+	 */
+	private void login(ControlConnection connection, String user,
+			String password, String account) throws FTPException,
+			ConnectionException {
+		long start = System.nanoTime();
+		boolean pipelined = controlConnection.isCommandPipelining();
+		if (pipelined) {
+			if (!loginPipelined(user, password, account)) {
+				if (connection.getTimeoutCause() != null) {
+					// Not refused, but shut down by a deadline
+					close();
+					throw traced(connection.getTimeoutCause());
+				}
+				// The remote host does not tolerate pipelined commands, so
+				// connect again and log in one command at a time.
+				String host = controlConnection.getHostName();
+				int port = controlConnection.getRemotePort();
+				synchronized (pipeliningRefused) {
+					pipeliningRefused.put(host + ":" + port, Boolean.TRUE);
+				}
+				try {
+					controlConnection.close();
+				} catch (IOException exp) {
+					// Ignore, the connection is discarded anyway
+				}
+				connect(host, port);
+				login(user, password, account);
+				return;
+			}
+		} else {
+			execute("USER " + user);
+			if (reply.isPositiveIntermediate()) {
+				execute("PASS " + password);
+			}
+			if (reply.isPositiveIntermediate()) {
+				sendAccount(account);
 			}
 		}
 		loggedIn = true;
+		metrics.loggedIn(System.nanoTime() - start);
+		if (!pipelined) {
+			getCapabilities();
+			sendPostLoginCommands(getPostLoginCommands());
+		}
 		String connectionMessage = "Connected to " + getRemoteHost() + "/"
 				+ getRemoteIPAddress() + "\n";
 		// fireConnectionOpened(
@@ -280,83 +793,388 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 					+ (isDataChannelUnencrypted() ? "OFF" : "ON") + "\n";
 		}
 
-		fireConnectionOpened(new FTPConnectionEvent(this, connectionMessage));
+		fireConnectionOpened(new FTPConnectionEvent(this, connectionMessage,
+				controlConnection.getRemoteAddress(), controlConnection
+						.getConnectTime()));
 
 		setType(TYPE_ASCII);
 	}
 
-	public boolean isLoggedIn() {
-		return loggedIn;
-	}
-
-	public synchronized RemoteFile setWorkingDirectory(RemoteFile dir)
-			throws FTPException, ConnectionException {
-		executeCommand("CWD " + dir.getNormalizedPath());
-		// Though RFC 959 says that response to CWD command must include
-		// The new working directory name, some FTP servers like personal
-		// web server do not include the path. So execute PWD command to
-		// update the current working directory.
-		executeCommand("PWD");
-		workingDirectory = listParser
-				.createRemoteFile(FTPUtil.parsePath(reply));
-		return workingDirectory;
-	}
-
-	public synchronized RemoteFile setToParentDirectory() throws FTPException,
-			ConnectionException {
-		executeCommand("CDUP");
-		// Though RFC 959 says that response to CDUP command must include
-		// The new working directory name, some FTP servers like personal
-		// web server do not include the path. So execute PWD command to
-		// update the current working directory.
-		executeCommand("PWD");
-		workingDirectory = listParser
-				.createRemoteFile(FTPUtil.parsePath(reply));
-		return workingDirectory;
-	}
-
-	public synchronized RemoteFile getWorkingDirectory() throws FTPException,
-			ConnectionException {
-		// This happens for the first time after login.
-		if (workingDirectory == null) {
-			executeCommand("PWD");
-			workingDirectory = listParser.createRemoteFile(FTPUtil
-					.parsePath(reply));
-		}
-		// Otherwise, we always have the updated working directory.
-		return workingDirectory;
-	}
-
-	public synchronized void setType(int type) throws FTPException,
+	/**
+	 * Sends the ACCT command, after PASS asked for account information.
+	 */
+	private void sendAccount(String account) throws FTPException,
 			ConnectionException {
-		// Send TYPE command only if the current type is not same as
-		// the requested type.
-		if (this.type != type) {
-			executeCommand("TYPE " + FTPUtil.getType(type));
-			this.type = type;
+		if (account.trim().length() > 0) {
+			execute("ACCT " + account);
+		} else {
+			throw traced(new FTPException(
+					"Account information required to login. "));
 		}
 	}
 
-	public int getType() {
-		return type;
+	/**
+	 * Tells whether OPTS UTF8 ON is to be sent, which is if the control
+	 * encoding is UTF-8 and the remote host is not known to lack UTF-8
+	 * support.
+	 */
+	private boolean isUTF8Wanted() {
+		return isUTF8(controlEncoding)
+				&& (capabilities == null || !capabilities.isFeatSupported() || capabilities
+						.isSupported("UTF8"));
 	}
 
-	public synchronized void setStructure(int structure) throws FTPException,
-			ConnectionException {
-		if (this.structure != structure) {
-			executeCommand("STRU " + FTPUtil.getStructure(structure));
-			this.structure = structure;
+	/**
+	 * Sends OPTS UTF8 ON, if the control encoding is UTF-8, and the given
+	 * commands one at a time.
+	 */
+	private void sendPostLoginCommands(String[] postLoginCommands)
+			throws FTPException, ConnectionException {
+		if (isUTF8Wanted()) {
+			// Servers that do not support UTF-8 reject this with a negative
+			// reply, which is simply ignored.
+			executeQuietly("OPTS UTF8 ON");
+		}
+		for (int i = 0; i < postLoginCommands.length; i++) {
+			execute(postLoginCommands[i]);
 		}
 	}
 
-	public int getStructure() {
-		return structure;
-	}
+	/**
+	 * Logs in by sending the setup commands deferred by the control
+	 * connection (PBSZ and PROT), USER, PASS and the commands that follow
+	 * login in a single write, and checks the replies in order. This takes a
+	 * single round trip instead of one per command. If the capabilities of the
+	 * remote host are not known yet, FEAT and SYST follow PASS, and the post
+	 * login commands, which may depend on the capabilities, are sent one at a
+	 * time afterwards.
+	 * 
+	 * @param user
+	 *            the user name.
+	 * @param password
+	 *            the password.
+	 * @param account
+	 *            the account, sent separately if the remote host asks for
+	 *            it.
+	 * @return <code>false</code>, if the replies show that the remote host
+	 *         does not tolerate pipelined commands. The control connection
+	 *         must then be discarded.
+	 * @exception FTPException
+	 *                if the login failed.
+	 * @exception ConnectionException
+	 */
+	protected boolean loginPipelined(String user, String password,
+			String account) throws FTPException, ConnectionException {
+		boolean discover = capabilities == null;
+		String[] postLoginCommands = discover ? new String[0]
+				: getPostLoginCommands();
+		List<String> commands = new ArrayList<String>();
+		String[] setupCommands = controlConnection.takeDeferredCommands();
+		for (int i = 0; i < setupCommands.length; i++) {
+			commands.add(setupCommands[i]);
+		}
+		int userIndex = commands.size();
+		commands.add("USER " + user);
+		commands.add("PASS " + password);
+		int featIndex = -1;
+		if (discover) {
+			featIndex = commands.size();
+			commands.add("FEAT");
+			commands.add("SYST");
+		}
+		int optsIndex = -1;
+		if (!discover && isUTF8Wanted()) {
+			optsIndex = commands.size();
+			commands.add("OPTS UTF8 ON");
+		}
+		for (int i = 0; i < postLoginCommands.length; i++) {
+			commands.add(postLoginCommands[i]);
+		}
+		String[] array = new String[commands.size()];
+		FTPReply[] replies = controlConnection.executePipelined(commands
+				.toArray(array), userIndex + 1);
+		if (replies == null) {
+			return false;
+		}
+		FTPReply userReply = replies[userIndex];
+		FTPReply passReply = replies[userIndex + 1];
+		boolean accountNeeded = userReply.isPositiveIntermediate()
+				&& passReply.isPositiveIntermediate();
+		// A server that reads ahead of the reply it is working on answers the
+		// commands it does not expect yet with 503 (bad sequence) or 530 (not
+		// logged in), and one that mixes up the lines with 500. Replies after
+		// the first negative one are as the sequential login would see them.
+		for (int i = 0; i < replies.length; i++) {
+			int code = replies[i].getCode();
+			if (i == optsIndex || (featIndex >= 0 && i - featIndex <= 1)
+					|| (i == userIndex + 1 && userReply.isPositiveCompletion())
+					|| (i > userIndex + 1 && accountNeeded)) {
+				continue;
+			}
+			if (code == 500 || code == 503
+					|| (code == 530 && i > userIndex + 1)) {
+				return false;
+			}
+			if (replies[i].isNegative()) {
+				break;
+			}
+		}
+		for (int i = 0; i <= userIndex; i++) {
+			reply = replies[i];
+			if (reply.isNegative()) {
+				throw traced(new FTPException(reply));
+			}
+		}
+		if (userReply.isPositiveIntermediate()) {
+			reply = passReply;
+			if (reply.isNegative()) {
+				throw traced(new FTPException(reply));
+			}
+			if (accountNeeded) {
+				// The commands after PASS were rejected, as the login was
+				// not complete.
+				sendAccount(account);
+				if (discover) {
+					discovered(discoverCapabilities());
+				}
+				sendPostLoginCommands(getPostLoginCommands());
+				return true;
+			}
+		}
+		int postIndex = replies.length - postLoginCommands.length;
+		for (int i = userIndex + 2; i < replies.length; i++) {
+			reply = replies[i];
+			if (i >= postIndex && reply.isNegative()) {
+				throw traced(new FTPException(reply));
+			}
+		}
+		if (discover) {
+			discovered(new FTPCapabilities(replies[featIndex],
+					replies[featIndex + 1]));
+			sendPostLoginCommands(getPostLoginCommands());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the commands to send right after logging in, for setting up the
+	 * session on the remote host. A negative reply to any of these commands
+	 * fails the login. With fast login, the commands are pipelined with the
+	 * login commands. This implementation asks AS/400 systems, as detected by
+	 * SYST, for UNIX style listings and path names, and returns no commands
+	 * for other systems.
+	 * 
+	 * @return the commands to send after logging in.
+	 */
+	protected String[] getPostLoginCommands() {
+		if (capabilities != null && capabilities.isAS400()) {
+			return new String[] { "SITE LISTFMT 1", "SITE NAMEFMT 1" };
+		}
+		return new String[0];
+	}
+
+	public synchronized FTPCapabilities getCapabilities()
+			throws ConnectionException {
+		if (capabilities == null) {
+			FTPCapabilities discovered = discoverCapabilities();
+			if (!loggedIn) {
+				// Some servers answer SYST only after login, so the
+				// capabilities are discovered again then.
+				return discovered;
+			}
+			discovered(discovered);
+		}
+		return capabilities;
+	}
+
+	/**
+	 * Asks the remote host for its capabilities with FEAT and SYST.
+	 * 
+	 * @return the capabilities of the remote host.
+	 * @exception ConnectionException
+	 */
+	protected FTPCapabilities discoverCapabilities() throws ConnectionException {
+		FTPReply featReply = executeQuietly("FEAT");
+		FTPReply systemReply = executeQuietly("SYST");
+		return new FTPCapabilities(featReply, systemReply);
+	}
+
+	/**
+	 * Sets the capabilities of the remote host for this session.
+	 * 
+	 * @param capabilities
+	 *            the capabilities of the remote host.
+	 */
+	protected void setCapabilities(FTPCapabilities capabilities) {
+		this.capabilities = capabilities;
+		epsvSupported = capabilities.isSupported("EPSV");
+		eprtSupported = capabilities.isSupported("EPRT");
+	}
+
+	/**
+	 * Sets the capabilities just discovered for this session, and caches them
+	 * for later sessions to the same host.
+	 */
+	private void discovered(FTPCapabilities capabilities) {
+		setCapabilities(capabilities);
+		if (capabilityTTL > 0) {
+			CapabilityCache.put(getHostKey(), capabilities);
+		}
+	}
+
+	/**
+	 * Returns the key of the remote host in the caches shared by all clients.
+	 */
+	private String getHostKey() {
+		return controlConnection.getHostName() + ":"
+				+ controlConnection.getRemotePort();
+	}
+
+	public void setCapabilityTTL(int seconds) {
+		if (seconds < 0) {
+			throw new IllegalArgumentException("Invalid TTL: " + seconds);
+		}
+		this.capabilityTTL = seconds;
+	}
+
+	public int getCapabilityTTL() {
+		return capabilityTTL;
+	}
+
+	public boolean isLoggedIn() {
+		return loggedIn;
+	}
+
+	public synchronized RemoteFile setWorkingDirectory(RemoteFile dir)
+			throws FTPException, ConnectionException {
+		execute("CWD " + dir.getNormalizedPath());
+		return updateWorkingDirectory(dir.isLink() ? null : dir
+				.getNormalizedPath());
+	}
+
+	public synchronized RemoteFile setToParentDirectory() throws FTPException,
+			ConnectionException {
+		execute("CDUP");
+		return updateWorkingDirectory("..");
+	}
+
+	/**
+	 * Updates the working directory after a successful CWD or CDUP. If command
+	 * elision is enabled, the new path is taken from the reply if it is
+	 * quoted there, or computed on the client once the remote host is known to
+	 * resolve paths the UNIX way. Otherwise PWD is sent. The first PWD after
+	 * connecting checks whether the path computed on the client matches.
+	 * 
+	 * @param path
+	 *            the path that was changed to, relative to the previous
+	 *            working directory, or <code>null</code> if it can not be
+	 *            resolved on the client (e.g. a symbolic link).
+	 * @return the new working directory.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	protected RemoteFile updateWorkingDirectory(String path)
+			throws FTPException, ConnectionException {
+		String newPath = null;
+		String resolvedPath = null;
+		if (commandElisionEnabled) {
+			newPath = FTPUtil.parsePath(reply.getText());
+			if (newPath != null && !newPath.startsWith("/")) {
+				newPath = null;
+			}
+			if (newPath == null && path != null
+					&& !Boolean.FALSE.equals(pathResolvable)) {
+				resolvedPath = FTPUtil.resolvePath(workingDirectory == null ? null
+						: workingDirectory.getNormalizedPath(), path);
+				if (Boolean.TRUE.equals(pathResolvable)) {
+					newPath = resolvedPath;
+				}
+			}
+		}
+		if (newPath != null) {
+			commandsAvoided++;
+		} else {
+			// Though RFC 959 says that response to CWD command must include
+			// The new working directory name, some FTP servers like personal
+			// web server do not include the path. So execute PWD command to
+			// update the current working directory.
+			execute("PWD");
+			newPath = FTPUtil.parsePath(reply.getText());
+			if (resolvedPath != null) {
+				pathResolvable = Boolean.valueOf(resolvedPath.equals(newPath));
+			}
+		}
+		workingDirectory = listParser.createRemoteFile(newPath);
+		return workingDirectory;
+	}
+
+	public synchronized RemoteFile getWorkingDirectory() throws FTPException,
+			ConnectionException {
+		// This happens for the first time after login.
+		if (workingDirectory == null) {
+			execute("PWD");
+			workingDirectory = listParser.createRemoteFile(FTPUtil
+					.parsePath(reply.getText()));
+		}
+		// Otherwise, we always have the updated working directory.
+		return workingDirectory;
+	}
+
+	public synchronized void setType(int type) throws FTPException,
+			ConnectionException {
+		// Send TYPE command only if the current type is not same as
+		// the requested type. With command elision, the command is sent
+		// only when a transfer needs it.
+		if (this.type != type) {
+			this.type = type;
+			if (commandElisionEnabled) {
+				commandsAvoided++;
+			} else {
+				sendType();
+			}
+		}
+	}
+
+	/**
+	 * Sends the TYPE command, if the data representation type of the remote
+	 * host differs from the one set on this client. This is called before
+	 * every transfer and before commands executed with
+	 * <code>executeCommand</code>, which may depend on the type.
+	 * 
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	protected void sendType() throws FTPException, ConnectionException {
+		if (type != 0 && type != remoteType) {
+			execute("TYPE " + FTPUtil.getType(type));
+			if (commandElisionEnabled) {
+				// Counted as avoided by setType
+				commandsAvoided--;
+			}
+			remoteType = type;
+		}
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public synchronized void setStructure(int structure) throws FTPException,
+			ConnectionException {
+		if (this.structure != structure) {
+			execute("STRU " + FTPUtil.getStructure(structure));
+			this.structure = structure;
+		}
+	}
+
+	public int getStructure() {
+		return structure;
+	}
 
 	public synchronized void setMode(int mode) throws FTPException,
 			ConnectionException {
 		if (this.mode != mode) {
-			executeCommand("MODE " + FTPUtil.getMode(mode));
+			execute("MODE " + FTPUtil.getMode(mode));
 			this.mode = mode;
 		}
 	}
@@ -375,17 +1193,17 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 
 	public synchronized void createDirectory(RemoteFile dir)
 			throws FTPException, ConnectionException {
-		executeCommand("MKD " + dir.getPath());
+		execute("MKD " + dir.getPath());
 	}
 
 	public synchronized void deleteDirectory(RemoteFile dir)
 			throws FTPException, ConnectionException {
-		executeCommand("RMD " + dir.getPath());
+		execute("RMD " + dir.getPath());
 	}
 
 	public synchronized void deleteFile(RemoteFile file) throws FTPException,
 			ConnectionException {
-		executeCommand("DELE " + file.getPath());
+		execute("DELE " + file.getPath());
 	}
 
 	public synchronized void delete(RemoteFile path) throws FTPException,
@@ -399,23 +1217,43 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 
 	public synchronized void rename(RemoteFile from, RemoteFile to)
 			throws FTPException, ConnectionException {
-		executeCommand("RNFR " + from.getPath());
-		executeCommand("RNTO " + to.getPath());
+		execute("RNFR " + from.getPath());
+		execute("RNTO " + to.getPath());
 	}
 
 	public synchronized void noop() throws FTPException, ConnectionException {
-		executeCommand("NOOP");
+		execute("NOOP");
 	}
 
 	public void abort() throws FTPException, ConnectionException {
-		if (dataConnection != null) {
-			dataConnection.abort();
+		DataConnection connection = dataConnection;
+		if (connection != null) {
+			abort(connection);
+		}
+	}
+
+	/**
+	 * Aborts the transfer over the given data connection.
+	 */
+	private void abort(DataConnection connection) throws ConnectionException {
+		if (!connection.startAbort()) {
+			// Either the transfer command is not accepted yet, and the abort
+			// is carried out once it is, or its final reply is being read.
+			return;
+		}
+		try {
+			ControlConnection control = controlConnection;
+			if (control != null) {
+				control.sendAbort();
+			}
+		} finally {
+			connection.abort();
 		}
 	}
 
 	public synchronized void reinitialize() throws FTPException,
 			ConnectionException {
-		executeCommand("REIN");
+		execute("REIN");
 		loggedIn = false;
 	}
 
@@ -425,7 +1263,7 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 				dataConnection.abort();
 			}
 			if (controlConnection != null) {
-				executeCommand("QUIT");
+				execute("QUIT");
 				controlConnection.close();
 			}
 		} catch (Exception exp) {
@@ -462,44 +1300,129 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 
 	public synchronized void allocate(long bytes) throws FTPException,
 			ConnectionException {
-		executeCommand("ALLO " + bytes);
+		execute("ALLO " + bytes);
 	}
 
 	public synchronized void restart(long bytes) throws FTPException,
 			ConnectionException {
-		executeCommand("REST " + bytes);
+		execute("REST " + bytes);
+	}
+
+	public synchronized long getSize(RemoteFile file) throws FTPException,
+			ConnectionException {
+		// Servers may refuse SIZE, or count line separators, in ASCII mode.
+		// The type set on this client is left alone, sendType restores it
+		// before the next transfer.
+		if (remoteType != TYPE_BINARY) {
+			execute("TYPE " + FTPUtil.getType(TYPE_BINARY));
+			remoteType = TYPE_BINARY;
+		}
+		execute("SIZE " + file.getNormalizedPath());
+		try {
+			return Long.parseLong(reply.getMessage().trim());
+		} catch (NumberFormatException exp) {
+			throw traced(new FTPException("599 Invalid reply to SIZE: "
+					+ reply.getText()));
+		}
+	}
+
+	public RemoteFileChannel openChannel(RemoteFile file) {
+		return new RemoteFileChannel(this, file);
 	}
 
 	public synchronized String getSystemInfo() throws FTPException,
 			ConnectionException {
-		return executeCommand("SYST");
+		if (commandElisionEnabled && capabilities != null
+				&& capabilities.getSystemReply() != null) {
+			commandsAvoided++;
+			return capabilities.getSystemReply().getText();
+		}
+		return execute("SYST").getText();
 	}
 
 	public synchronized String getHelp() throws FTPException,
 			ConnectionException {
-		return executeCommand("HELP");
+		return execute("HELP").getText();
 	}
 
 	public synchronized void setSiteParameter(String param)
 			throws FTPException, ConnectionException {
-		executeCommand("SITE " + param);
+		execute("SITE " + param);
 	}
 
 	public synchronized void mountStructure(String path) throws FTPException,
 			ConnectionException {
-		executeCommand("SMNT " + path);
+		execute("SMNT " + path);
 	}
 
 	public synchronized String executeCommand(String command)
 			throws FTPException, ConnectionException {
+		if (command.toUpperCase().startsWith("TYPE")) {
+			// The type of the remote host is no longer known
+			remoteType = 0;
+		} else {
+			sendType();
+		}
+		return execute(command).getText();
+	}
+
+	public FTPReply getLastReply() {
+		return reply;
+	}
+
+	/**
+	 * Executes the given command and returns the reply. The reply is also
+	 * stored as the last reply of this client.
+	 * 
+	 * @param command
+	 *            Command to execute.
+	 * @return Reply to the command.
+	 * @exception FTPException
+	 *                if the remote host sent a negative reply.
+	 * @exception ConnectionException
+	 */
+	protected synchronized FTPReply execute(String command)
+			throws FTPException, ConnectionException {
+		if (controlConnection != null
+				&& controlConnection.hasDeferredCommands()) {
+			// Fast login was enabled, but the client did not log in with
+			// login, so send the setup commands now.
+			String[] commands = controlConnection.takeDeferredCommands();
+			for (int i = 0; i < commands.length; i++) {
+				executeQuietly(commands[i]);
+				if (reply.isNegative()) {
+					throw traced(new FTPException(reply));
+				}
+			}
+		}
+		executeQuietly(command);
+		if (reply.isNegative()) {
+			throw traced(new FTPException(reply));
+		}
+		return reply;
+	}
+
+	/**
+	 * Executes the given command and returns the reply, without checking
+	 * whether the reply is negative. The reply is also stored as the last
+	 * reply of this client.
+	 * 
+	 * @param command
+	 *            Command to execute.
+	 * @return Reply to the command.
+	 * @exception ConnectionException
+	 */
+	protected synchronized FTPReply executeQuietly(String command)
+			throws ConnectionException {
+		ControlConnection connection = controlConnection;
+		Watchdog.Timeout deadline = startDeadline(DEADLINE_COMMAND);
 		try {
-			reply = controlConnection.executeCommand(command);
+			reply = connection.execute(command);
 		} catch (ConnectionException exp) {
 			close();
-			throw exp;
-		}
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
-			throw new FTPException(reply);
+			throw traced(timedOut(connection, exp));
+		} finally {
+			cancel(deadline);
 		}
 		return reply;
 	}
@@ -538,52 +1461,195 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 
 	public synchronized RemoteFile[] list() throws FTPException,
 			ParseException, ConnectionException {
-		setType(TYPE_ASCII);
-		if (sslUsage == USE_NO_SSL || dataChannelUnencrypted) {
-			dataConnection = new DataConnection(this);
-		} else {
-			dataConnection = new SSLDataConnection(this);
-		}
-		if (passive) {
-			executeCommand("PASV");
-			String ip = FTPUtil.parseAddress(reply);
-			int port = FTPUtil.parsePort(reply);
-			dataConnection.connect(ip, port);
-			executeCommand("LIST");
-		} else {
-			int port = dataConnection.bind();
-			String portCommand = FTPUtil.getPortCommand(getLocalIPAddress(),
-					port);
-			executeCommand(portCommand);
-			executeCommand("LIST");
-			dataConnection.accept();
+		RemoteFile dir = getWorkingDirectory();
+		if (isStatListing(dir)) {
+			RemoteFile[] list = statList(dir);
+			if (list != null) {
+				return list;
+			}
+		}
+		return list(dir, "LIST");
+	}
+
+	public synchronized RemoteFile[] list(Filter filter) throws FTPException,
+			ParseException, ConnectionException {
+		return filter(list(), filter);
+	}
+
+	public synchronized RemoteFile[] list(RemoteFile dir) throws FTPException,
+			ParseException, ConnectionException {
+		if (isStatListing(dir)) {
+			RemoteFile[] list = statList(dir);
+			if (list != null) {
+				return list;
+			}
+		}
+		return list(dir, "LIST " + dir.getNormalizedPath());
+	}
+
+	public synchronized RemoteFile[] list(RemoteFile dir, Filter filter)
+			throws FTPException, ParseException, ConnectionException {
+		return filter(list(dir), filter);
+	}
+
+	public void setStatListingThreshold(int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("threshold cannot be negative");
 		}
+		this.statListingThreshold = threshold;
+	}
+
+	public int getStatListingThreshold() {
+		return statListingThreshold;
+	}
+
+	/**
+	 * Lists the given directory over a data connection.
+	 * 
+	 * @param dir
+	 *            the directory being listed.
+	 * @param command
+	 *            the LIST command to send.
+	 * @return children of the directory.
+	 * @exception FTPException
+	 * @exception ParseException
+	 * @exception ConnectionException
+	 */
+	protected RemoteFile[] list(RemoteFile dir, String command)
+			throws FTPException, ParseException, ConnectionException {
+		setType(TYPE_ASCII);
+		openDataConnection(command);
+		watchTransfer(DEADLINE_LIST);
 		try {
-			RemoteFile[] list = dataConnection.list(workingDirectory);
-			reply = controlConnection.getReply();
+			DataConnection connection = dataConnection;
+			RemoteFile[] list = connection.list(dir);
 			dataConnection = null;
-			if (reply.charAt(0) == '5' || reply.charAt(0) == 4) {
-				throw new FTPException(reply);
+			reply = readFinalReply(connection);
+			if (reply.isNegative()) {
+				throw traced(new FTPException(reply));
 			}
 			return list;
 		} catch (ParseException exp) {
+			DataConnection connection = dataConnection;
+			dataConnection = null;
 			if (controlConnection != null) {
-				reply = controlConnection.getReply();
+				reply = readFinalReply(connection);
 			}
-			dataConnection = null;
 			throw exp;
+		} catch (ConnectionException exp) {
+			DataConnection connection = dataConnection;
+			if (connection == null || !connection.isAborted()) {
+				throw exp;
+			}
+			// Closed by an abort, so the replies are still to be read
+			dataConnection = null;
+			reply = readFinalReply(connection);
+			throw traced(exp);
 		}
 	}
 
-	public synchronized RemoteFile[] list(Filter filter) throws FTPException,
-			ParseException, ConnectionException {
-		if (filter == null) {
-			return list();
+	/**
+	 * Tells whether the given directory should be listed using the STAT
+	 * command.
+	 * 
+	 * @param dir
+	 *            the directory to be listed.
+	 * @return <code>true</code>, if the directory should be listed using
+	 *         STAT.
+	 */
+	protected boolean isStatListing(RemoteFile dir) {
+		return statListingThreshold > 0 && statListingSupported
+				&& !largeDirectories.containsKey(dir.getNormalizedPath());
+	}
+
+	/**
+	 * Lists the given directory using the STAT command, so the listing is
+	 * received over the control connection and no data connection is needed.
+	 * If the remote host does not implement the command, or replies with
+	 * something the list parser does not understand, STAT listings are turned
+	 * off for the rest of the session. If it refuses the command for this
+	 * directory, or lists no entries, as some servers do for missing paths,
+	 * the directory is listed using LIST, which reports the error. Directories
+	 * with more entries than the STAT listing threshold are remembered and
+	 * are listed using LIST from then on.
+	 * 
+	 * @param dir
+	 *            the directory to list.
+	 * @return children of the directory, or <code>null</code> if the listing
+	 *         must be done using LIST.
+	 * @exception ParseException
+	 * @exception ConnectionException
+	 */
+	protected RemoteFile[] statList(RemoteFile dir) throws ParseException,
+			ConnectionException {
+		executeQuietly("STAT " + dir.getNormalizedPath());
+		int code = reply.getCode();
+		if (code == 500 || code == 502 || code == 504) {
+			statListingSupported = false;
+			return null;
+		}
+		if (code != 211 && code != 212 && code != 213) {
+			// Refused for this path only, LIST reports the error
+			return null;
+		}
+		int lineCount = reply.getLineCount();
+		if (lineCount < 2) {
+			return null;
+		}
+		// The listing is between the first and the last line. Some servers
+		// indent the lines or prefix them with the reply code.
+		String prefix = reply.getLine(0).substring(0, 3) + "-";
+		StringBuilder buffer = new StringBuilder();
+		for (int i = 1; i < lineCount - 1; i++) {
+			String line = reply.getLine(i);
+			if (line.startsWith(prefix)) {
+				line = line.substring(4);
+			}
+			// Trailing spaces may belong to a file name
+			int start = 0;
+			while (start < line.length() && line.charAt(start) <= ' ') {
+				start++;
+			}
+			buffer.append(line, start, line.length()).append('\n');
 		}
-		RemoteFile[] f = list();
-		if (f == null) {
+		RemoteFile[] files = null;
+		try {
+			files = listParser.parse(dir, new BufferedReader(new StringReader(
+					buffer.toString())));
+		} catch (ParseException exp) {
+			statListingSupported = false;
+			return null;
+		} catch (IOException exp) {
+			statListingSupported = false;
 			return null;
 		}
+		if (files.length == 0) {
+			// Some servers answer STAT of a missing path with an empty
+			// status, LIST reports the error
+			return null;
+		}
+		List<RemoteFile> list = new ArrayList<RemoteFile>(files.length);
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if (!name.equals(".") && !name.equals("..")) {
+				list.add(files[i]);
+			}
+		}
+		if (list.size() > statListingThreshold) {
+			largeDirectories.put(dir.getNormalizedPath(), Boolean.TRUE);
+		}
+		RemoteFile[] children = new RemoteFile[list.size()];
+		children = list.toArray(children);
+		return children;
+	}
+
+	/**
+	 * Returns the files accepted by the given filter.
+	 */
+	private static RemoteFile[] filter(RemoteFile[] f, Filter filter) {
+		if (filter == null || f == null) {
+			return f;
+		}
 		List<RemoteFile> list = new ArrayList<RemoteFile>(f.length);
 		for (int i = 0; i < f.length; i++) {
 			if (filter.accept(f[i])) {
@@ -595,82 +1661,32 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return children;
 	}
 
-	public synchronized RemoteFile[] list(RemoteFile dir) throws FTPException,
-			ParseException, ConnectionException {
-		return null;
-	}
-
-	public synchronized RemoteFile[] list(RemoteFile dir, Filter filter)
-			throws FTPException, ParseException, ConnectionException {
-		return null;
-	}
-
 	public synchronized void createFile(RemoteFile file) throws FTPException,
 			ConnectionException {
-		if (sslUsage == USE_NO_SSL || dataChannelUnencrypted) {
-			dataConnection = new DataConnection(this);
-		} else {
-			dataConnection = new SSLDataConnection(this);
-		}
-		// dataConnection = new DataConnection(this);
 		try {
-			if (passive) {
-				executeCommand("PASV");
-				String ip = FTPUtil.parseAddress(reply);
-				int port = FTPUtil.parsePort(reply);
-				dataConnection.connect(ip, port);
-				executeCommand("STOR " + file.getPath());
-			} else {
-				int port = dataConnection.bind();
-				String portCommand = FTPUtil.getPortCommand(
-						getLocalIPAddress(), port);
-				executeCommand(portCommand);
-				executeCommand("STOR " + file.getPath());
-				dataConnection.accept();
-			}
+			openDataConnection("STOR " + file.getPath());
 			dataConnection.close();
-			reply = controlConnection.getReply();
+			reply = readFinalReply(dataConnection);
 		} finally {
 			if (dataConnection != null) {
 				dataConnection.close();
 			}
 			dataConnection = null;
-			if (reply.charAt(0) == '5' || reply.charAt(0) == 4) {
-				throw new FTPException(reply);
-			}
+		}
+		if (reply.isNegative()) {
+			throw traced(new FTPException(reply));
 		}
 	}
 
 	public synchronized void download(RemoteFile source, File destination,
 			int type, boolean append) throws FTPException, ConnectionException {
 		setType(type);
-		if (sslUsage == USE_NO_SSL || dataChannelUnencrypted) {
-			dataConnection = new DataConnection(this);
-		} else {
-			dataConnection = new SSLDataConnection(this);
-		}
-		// dataConnection = new DataConnection(this);
-		// FTPException ftpException = null;
 		boolean ftpException = true;
 		String ioException = null;
 		try {
-			if (passive) {
-				executeCommand("PASV");
-				String ip = FTPUtil.parseAddress(reply);
-				int port = FTPUtil.parsePort(reply);
-				dataConnection.connect(ip, port);
-				// executeCommand("RETR " + source.getPath());
-				executeCommand("RETR " + source.getNormalizedPath());
-			} else {
-				int port = dataConnection.bind();
-				String portCommand = FTPUtil.getPortCommand(
-						getLocalIPAddress(), port);
-				executeCommand(portCommand);
-				// executeCommand("RETR " + source.getPath());
-				executeCommand("RETR " + source.getNormalizedPath());
-				dataConnection.accept();
-			}
+			openDataConnection("RETR " + source.getNormalizedPath());
 			ftpException = false;
+			watchTransfer(DEADLINE_TRANSFER);
 			try {
 				dataConnection.download(destination, append);
 			} catch (IOException exp) {
@@ -681,18 +1697,19 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 				ioException = exp.getMessage();
 			}
 		} finally {
+			DataConnection connection = dataConnection;
 			if (dataConnection != null) {
 				dataConnection.close();
 			}
 			dataConnection = null;
 			if (!ftpException) {
 				if (controlConnection != null) {
-					reply = controlConnection.getReply();
+					readTransferReply(connection);
 					if (ioException != null) {
-						throw new FTPException("599 " + ioException);
+						throw traced(new FTPException("599 " + ioException));
 					}
-					if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
-						throw new FTPException(reply);
+					if (reply.isNegative()) {
+						throw traced(new FTPException(reply));
 					}
 				}
 			}
@@ -703,32 +1720,13 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 			int type, boolean append, long skip) throws FTPException,
 			ConnectionException {
 		setType(type);
-		if (sslUsage == USE_NO_SSL || dataChannelUnencrypted) {
-			dataConnection = new DataConnection(this);
-		} else {
-			dataConnection = new SSLDataConnection(this);
-		}
-		// dataConnection = new DataConnection(this);
 		boolean ftpException = true;
 		String ioException = null;
 		try {
-			if (passive) {
-				reply = executeCommand("PASV");
-				String ip = FTPUtil.parseAddress(reply);
-				int port = FTPUtil.parsePort(reply);
-				dataConnection.connect(ip, port);
-				String command = append ? "APPE " : "STOR ";
-				executeCommand(command + destination.getPath());
-			} else {
-				int port = dataConnection.bind();
-				String portCommand = FTPUtil.getPortCommand(
-						getLocalIPAddress(), port);
-				executeCommand(portCommand);
-				String command = append ? "APPE " : "STOR ";
-				executeCommand(command + destination.getPath());
-				dataConnection.accept();
-			}
+			String command = append ? "APPE " : "STOR ";
+			openDataConnection(command + destination.getPath());
 			ftpException = false;
+			watchTransfer(DEADLINE_TRANSFER);
 			try {
 				dataConnection.upload(source, skip);
 			} catch (IOException exp) {
@@ -739,24 +1737,66 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 				ioException = exp.getMessage();
 			}
 		} finally {
+			DataConnection connection = dataConnection;
 			if (dataConnection != null) {
 				dataConnection.close();
 			}
 			dataConnection = null;
 			if (!ftpException) {
 				if (controlConnection != null) {
-					reply = controlConnection.getReply();
+					readTransferReply(connection);
 					if (ioException != null) {
-						throw new FTPException("599 " + ioException);
+						throw traced(new FTPException("599 " + ioException));
 					}
-					if (reply.charAt(0) == '5' || reply.charAt(1) == '4') {
-						throw new FTPException(reply);
+					if (reply.isNegative()) {
+						throw traced(new FTPException(reply));
 					}
 				}
 			}
 		}
 	}
 
+	public synchronized RemoteInputStream retrieve(RemoteFile source, int type)
+			throws FTPException, ConnectionException {
+		return retrieve(source, type, 0L);
+	}
+
+	public synchronized RemoteInputStream retrieve(RemoteFile source,
+			int type, long offset) throws FTPException, ConnectionException {
+		setType(type);
+		openDataConnection("RETR " + source.getNormalizedPath(), offset);
+		watchTransfer(DEADLINE_TRANSFER);
+		try {
+			return new RemoteInputStream(this, dataConnection,
+					dataConnection.getInputStream());
+		} catch (IOException exp) {
+			DataConnection connection = dataConnection;
+			connection.close();
+			dataConnection = null;
+			reply = readFinalReply(connection);
+			throw traced(new FTPException("599 " + exp.getMessage()));
+		}
+	}
+
+	public synchronized RemoteOutputStream store(RemoteFile destination,
+			int type, boolean append) throws FTPException,
+			ConnectionException {
+		setType(type);
+		String command = append ? "APPE " : "STOR ";
+		openDataConnection(command + destination.getPath());
+		watchTransfer(DEADLINE_TRANSFER);
+		try {
+			return new RemoteOutputStream(this, dataConnection,
+					dataConnection.getOutputStream());
+		} catch (IOException exp) {
+			DataConnection connection = dataConnection;
+			connection.close();
+			dataConnection = null;
+			reply = readFinalReply(connection);
+			throw traced(new FTPException("599 " + exp.getMessage()));
+		}
+	}
+
 	public void addControlConnectionListener(ControlConnectionListener l) {
 		listenerList.add(ControlConnectionListener.class, l);
 	}
@@ -773,7 +1813,7 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		listenerList.remove(DataConnectionListener.class, l);
 	}
 
-	public EventListenerList getListenerList() {
+	public ListenerList getListenerList() {
 		return listenerList;
 	}
 
@@ -793,6 +1833,19 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return passiveIPSubstitutionEnabled;
 	}
 
+	public void setExtendedMode(int mode) {
+		if (mode != EXTENDED_MODE_AUTO && mode != EXTENDED_MODE_NEVER
+				&& mode != EXTENDED_MODE_ONLY) {
+			throw new IllegalArgumentException("Invalid extended mode: "
+					+ mode);
+		}
+		this.extendedMode = mode;
+	}
+
+	public int getExtendedMode() {
+		return extendedMode;
+	}
+
 	public void setProxy(Proxy proxy) {
 		this.proxy = proxy;
 	}
@@ -801,6 +1854,464 @@ public class DefaultFTPClient implements FTPClient, FTPConstants {
 		return proxy;
 	}
 
+	/**
+	 * Creates a new <code>DataConnection</code> that matches the SSL settings
+	 * of this client.
+	 * 
+	 * @return a new, unconnected data connection.
+	 */
+	protected DataConnection createDataConnection() {
+		if (sslUsage == USE_NO_SSL || dataChannelUnencrypted) {
+			return new DataConnection(this);
+		}
+		if (SSLEngineChannel.isEnabled(this)) {
+			if (dataSessionReuseEnabled) {
+				return new SSLEngineDataConnection(this, controlConnection
+						.getHostName(), controlConnection.getRemotePort());
+			}
+			return new SSLEngineDataConnection(this);
+		}
+		if (dataSessionReuseEnabled) {
+			return new SSLDataConnection(this, controlConnection.getHostName(),
+					controlConnection.getRemotePort());
+		}
+		return new SSLDataConnection(this);
+	}
+
+	/**
+	 * Opens a data connection and sends the given transfer command (e.g. RETR,
+	 * STOR or LIST) over the control connection. In passive mode the data
+	 * connection is established before the command is sent, in active mode it
+	 * is accepted after the command is sent. On successful return, the
+	 * <code>dataConnection</code> is ready for transferring data. On failure,
+	 * the data connection is closed.
+	 * 
+	 * @param command
+	 *            the command that initiates the data transfer.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	protected void openDataConnection(String command) throws FTPException,
+			ConnectionException {
+		openDataConnection(command, 0L);
+	}
+
+	/**
+	 * Opens a data connection and sends the given transfer command, preceded
+	 * by REST with the given offset, if any. REST is sent right before the
+	 * transfer command, after PASV or PORT, as some servers forget the offset
+	 * when other commands intervene.
+	 * 
+	 * @param command
+	 *            the command that initiates the data transfer.
+	 * @param restart
+	 *            offset to restart the transfer at, 0 to start at the
+	 *            beginning.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	protected void openDataConnection(String command, long restart)
+			throws FTPException, ConnectionException {
+		sendType();
+		dataConnection = createDataConnection();
+		if (adaptiveSocketBufferEnabled) {
+			SocketBufferTuner tuner = new SocketBufferTuner(controlConnection
+					.getHostName(), controlConnection.getRoundTripTime(),
+					maxSocketBufferSize);
+			dataConnection.setSocketBufferSize(tuner.getSize(dataConnection
+					.getSocketBufferSize()));
+			dataConnection.setSocketBufferTuner(tuner);
+		}
+		boolean opened = false;
+		try {
+			long start = System.nanoTime();
+			long setup = 0L;
+			if (passive) {
+				InetSocketAddress address = enterPassiveMode();
+				setup = System.nanoTime();
+				dataConnection.connect(address.getAddress(), address
+						.getPort());
+				dataConnection.setSetupTimes(command, setup - start, System
+						.nanoTime() - setup);
+				if (restart > 0) {
+					execute("REST " + restart);
+				}
+				execute(command);
+			} else {
+				int port = dataConnection.bind();
+				sendPort(port);
+				setup = System.nanoTime();
+				if (restart > 0) {
+					execute("REST " + restart);
+				}
+				execute(command);
+				dataConnection.accept();
+				dataConnection.setSetupTimes(command, setup - start, System
+						.nanoTime() - setup);
+			}
+			if (dataConnection instanceof SSLDataConnection) {
+				SSLDataConnection sslDataConnection = (SSLDataConnection) dataConnection;
+				sslDataConnection.startHandshake();
+				dataHandshakeTime = sslDataConnection.getHandshakeTime();
+				dataSessionResumed = sslDataConnection.isSessionResumed();
+				if (dataHandshakeTime >= 0) {
+					metrics.dataHandshakeCompleted(dataSessionResumed,
+							dataHandshakeTime);
+				}
+			}
+			opened = true;
+		} finally {
+			if (opened && dataConnection.transferStarted()) {
+				abort();
+			}
+			if (!opened && dataConnection != null) {
+				dataConnection.close();
+				dataConnection = null;
+			}
+		}
+	}
+
+	/**
+	 * Asks the remote host to listen for a data connection, using EPSV or PASV
+	 * as per the extended mode.
+	 * 
+	 * @return the address to connect the data connection to.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	protected InetSocketAddress enterPassiveMode() throws FTPException,
+			ConnectionException {
+		InetAddress remoteAddress = controlConnection.getRemoteAddress();
+		if (isExtendedMode(true)) {
+			// In auto mode, fall back to PASV if the server turns out not to
+			// support EPSV, unless PASV can not work over IPv6.
+			if (extendedMode == EXTENDED_MODE_AUTO
+					&& !(remoteAddress instanceof Inet6Address)) {
+				executeQuietly("EPSV");
+			} else {
+				execute("EPSV");
+			}
+			if (reply.isPositiveCompletion()) {
+				int port = FTPUtil.parseExtendedPassivePort(reply.getText());
+				if (port < 0) {
+					throw traced(new FTPException("599 Invalid reply to EPSV: "
+							+ reply.getText()));
+				}
+				return new InetSocketAddress(remoteAddress, port);
+			}
+			epsvSupported = false;
+		}
+		execute("PASV");
+		InetSocketAddress address = FTPUtil.parsePassiveReply(reply.getText());
+		if (address == null) {
+			throw traced(new FTPException("599 Invalid reply to PASV: "
+					+ reply.getText()));
+		}
+		if (passiveIPSubstitutionEnabled) {
+			return new InetSocketAddress(remoteAddress, address.getPort());
+		}
+		return address;
+	}
+
+	/**
+	 * Tells the remote host where to connect the data connection to, using
+	 * EPRT or PORT as per the extended mode.
+	 * 
+	 * @param port
+	 *            the local port the data connection is accepted on.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	protected void sendPort(int port) throws FTPException, ConnectionException {
+		InetAddress localAddress = controlConnection.getLocalAddress();
+		if (isExtendedMode(false)) {
+			if (extendedMode == EXTENDED_MODE_AUTO
+					&& !(localAddress instanceof Inet6Address)) {
+				executeQuietly(FTPUtil.getExtendedPortCommand(localAddress,
+						port));
+			} else {
+				execute(FTPUtil.getExtendedPortCommand(localAddress, port));
+			}
+			if (reply.isPositiveCompletion()) {
+				return;
+			}
+			eprtSupported = false;
+		}
+		execute(FTPUtil.getPortCommand(localAddress.getHostAddress(), port));
+	}
+
+	/**
+	 * Tells whether EPSV or EPRT should be used. In auto mode, this depends on
+	 * the capabilities of the remote host.
+	 * 
+	 * @param passive
+	 *            <code>true</code> to check for EPSV, <code>false</code> to
+	 *            check for EPRT.
+	 * @return <code>true</code>, if the extended command should be used.
+	 * @exception ConnectionException
+	 */
+	protected boolean isExtendedMode(boolean passive)
+			throws ConnectionException {
+		if (extendedMode == EXTENDED_MODE_ONLY) {
+			return true;
+		}
+		if (extendedMode == EXTENDED_MODE_NEVER) {
+			return false;
+		}
+		if (controlConnection.getRemoteAddress() instanceof Inet6Address) {
+			return true;
+		}
+		FTPCapabilities caps = getCapabilities();
+		if (caps != capabilities) {
+			// Not logged in yet
+			return caps.isSupported(passive ? "EPSV" : "EPRT");
+		}
+		return passive ? epsvSupported : eprtSupported;
+	}
+
+	/**
+	 * Attaches the dump of the wire trace, if any, to the given exception.
+	 * 
+	 * @param exp
+	 *            the exception to be thrown.
+	 * @return the exception.
+	 */
+	protected FTPException traced(FTPException exp) {
+		if (wireTrace != null && exp.getWireTrace() == null) {
+			exp.setWireTrace(wireTrace.dump());
+		}
+		return exp;
+	}
+
+	/**
+	 * Attaches the dump of the wire trace, if any, to the given exception.
+	 * 
+	 * @param exp
+	 *            the exception to be thrown.
+	 * @return the exception.
+	 */
+	protected ConnectionException traced(ConnectionException exp) {
+		if (wireTrace != null && exp.getWireTrace() == null) {
+			exp.setWireTrace(wireTrace.dump());
+		}
+		return exp;
+	}
+
+	/**
+	 * Completes a transfer that was started by <code>retrieve</code> or
+	 * <code>store</code>. Closes the given data connection and reads the final
+	 * reply of the transfer command from the control connection.
+	 * 
+	 * @param connection
+	 *            the data connection used by the transfer.
+	 * @exception FTPException
+	 *                if the remote host reports that the transfer failed.
+	 * @exception ConnectionException
+	 */
+	protected synchronized void completeTransfer(DataConnection connection)
+			throws FTPException, ConnectionException {
+		connection.close();
+		if (dataConnection == connection) {
+			dataConnection = null;
+		}
+		if (controlConnection == null) {
+			throw traced(new ConnectionException("Connection Closed. "));
+		}
+		readTransferReply(connection);
+		if (reply.isNegative()) {
+			throw traced(new FTPException(reply));
+		}
+	}
+
+	/**
+	 * Reads the final reply of a transfer from the control connection, after
+	 * the given data connection was closed, and records the statistics of the
+	 * transfer in <code>lastTransferStats</code>.
+	 * 
+	 * @param connection
+	 *            the data connection used by the transfer.
+	 * @exception ConnectionException
+	 */
+	protected void readTransferReply(DataConnection connection)
+			throws ConnectionException {
+		long start = System.nanoTime();
+		reply = readFinalReply(connection);
+		lastTransferStats = connection.getTransferStats(System.nanoTime()
+				- start);
+	}
+
+	/**
+	 * Reads the final reply of the transfer over the given data connection.
+	 * If the transfer was aborted with ABOR, the reply to ABOR, which follows,
+	 * is read as well, so that the control connection is ready for the next
+	 * command.
+	 * 
+	 * @param connection
+	 *            the data connection used by the transfer.
+	 * @return the final reply of the transfer.
+	 * @exception ConnectionException
+	 */
+	private FTPReply readFinalReply(DataConnection connection)
+			throws ConnectionException {
+		FTPTimeoutException cause = connection.getTimeoutCause();
+		if (cause != null) {
+			// The watchdog only closed the data connection
+			try {
+				abort(connection);
+			} catch (ConnectionException exp) {
+				// Reading the replies fails too
+			}
+		}
+		boolean abortSent = connection.transferFinished();
+		if (cause == null) {
+			FTPReply transferReply = controlConnection.readReply();
+			if (abortSent) {
+				controlConnection.readReply();
+			}
+			return transferReply;
+		}
+		// The transfer was aborted because the remote host is too slow, so
+		// do not wait long for the replies either, and give up the
+		// connection if they do not come.
+		ControlConnection control = controlConnection;
+		control.setReadTimeout(timeout > 0 ? Math.min(timeout,
+				TIMED_OUT_REPLY_TIMEOUT) : TIMED_OUT_REPLY_TIMEOUT);
+		try {
+			reply = control.readReply();
+			if (abortSent) {
+				control.readReply();
+			}
+			control.setReadTimeout(timeout);
+		} catch (ConnectionException exp) {
+			close();
+		}
+		throw traced(cause);
+	}
+
+	/**
+	 * Starts the deadline of the given operation, if any, which shuts the
+	 * current control connection down when it expires.
+	 * 
+	 * @param operation
+	 *            one of the <code>DEADLINE_</code> constants.
+	 * @return the deadline, to be cancelled once the operation completes, or
+	 *         <code>null</code>.
+	 */
+	private Watchdog.Timeout startDeadline(final int operation) {
+		final ControlConnection connection = controlConnection;
+		if (deadlines[operation] <= 0 || connection == null) {
+			return null;
+		}
+		return Watchdog.getInstance().schedule(deadlines[operation],
+				new Runnable() {
+
+					public void run() {
+						connection.shutdown(deadlineExceeded(operation));
+					}
+				});
+	}
+
+	/**
+	 * Cancels the given deadline, if any.
+	 */
+	private static void cancel(Watchdog.Timeout deadline) {
+		if (deadline != null) {
+			deadline.cancel();
+		}
+	}
+
+	/**
+	 * Creates the exception for the given deadline that expired.
+	 */
+	private FTPTimeoutException deadlineExceeded(int operation) {
+		return new FTPTimeoutException(DEADLINE_NAMES[operation]
+				+ " deadline of " + deadlines[operation] + " ms exceeded",
+				operation, deadlines[operation]);
+	}
+
+	/**
+	 * Returns the timeout that shut the given control connection down, if
+	 * any, instead of the given exception, which it caused.
+	 */
+	private static ConnectionException timedOut(ControlConnection connection,
+			ConnectionException exp) {
+		if (connection != null && connection.getTimeoutCause() != null) {
+			return connection.getTimeoutCause();
+		}
+		return exp;
+	}
+
+	/**
+	 * Starts the deadline of the given operation and, for file transfers, the
+	 * throughput check, for the transfer over the current data connection.
+	 * If either expires, the transfer is aborted, and the timeout is thrown
+	 * once its replies are read, so the control connection stays usable.
+	 * 
+	 * @param operation
+	 *            <code>DEADLINE_LIST</code> or <code>DEADLINE_TRANSFER</code>.
+	 */
+	private void watchTransfer(final int operation) {
+		final DataConnection connection = dataConnection;
+		if (deadlines[operation] > 0) {
+			connection.setDeadline(Watchdog.getInstance().schedule(
+					deadlines[operation], new Runnable() {
+
+						public void run() {
+							expired(connection, deadlineExceeded(operation));
+						}
+					}));
+		}
+		if (operation == DEADLINE_TRANSFER && minThroughput > 0) {
+			checkThroughput(connection, minThroughput, 0L);
+		}
+	}
+
+	/**
+	 * Checks the throughput of the transfer over the given connection at the
+	 * end of the next window, and keeps checking until the transfer is
+	 * finished.
+	 * 
+	 * @param connection
+	 *            the data connection of the transfer.
+	 * @param floor
+	 *            minimum throughput, in bytes per second.
+	 * @param bytes
+	 *            number of bytes transferred at the start of the window.
+	 */
+	private void checkThroughput(final DataConnection connection,
+			final int floor, final long bytes) {
+		Watchdog.getInstance().schedule(THROUGHPUT_WINDOW, new Runnable() {
+
+			public void run() {
+				if (connection.isFinished()) {
+					return;
+				}
+				long total = connection.getBytesTransferred();
+				long rate = (total - bytes) * 1000L / THROUGHPUT_WINDOW;
+				if (rate < floor) {
+					expired(connection, new FTPTimeoutException("Throughput of "
+							+ rate + " bytes/s below the minimum of " + floor
+							+ " bytes/s", TIMEOUT_THROUGHPUT, floor));
+				} else {
+					checkThroughput(connection, floor, total);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Records the given timeout for the transfer over the given connection,
+	 * unless it is finished already, and shuts the connection down. Called by
+	 * the watchdog, so only the sockets are closed here; ABOR, which takes the
+	 * control connection, and closing the streams, which may block, are left
+	 * to the thread doing the transfer.
+	 */
+	private void expired(DataConnection connection, FTPTimeoutException cause) {
+		if (connection.timedOut(cause)) {
+			connection.shutdown();
+		}
+	}
+
 	/**
 	 * Fires the ConnectionOpened event to all registered listeners.
 	 * 
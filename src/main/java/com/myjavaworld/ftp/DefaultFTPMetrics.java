@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.myjavaworld.util.LatencyHistogram;
+
+/**
+ * Collects the measurements of FTP clients in latency histograms and
+ * counters. Recording is lock-free, so one instance can be shared by many
+ * clients.
+ */
+public class DefaultFTPMetrics implements FTPMetrics {
+
+	/**
+	 * Connect times.
+	 */
+	private final LatencyHistogram connectTime = new LatencyHistogram();
+	/**
+	 * SSL handshake times of control connections.
+	 */
+	private final LatencyHistogram controlHandshakeTime = new LatencyHistogram();
+	/**
+	 * Login times.
+	 */
+	private final LatencyHistogram loginTime = new LatencyHistogram();
+	/**
+	 * SSL handshake times of data connections.
+	 */
+	private final LatencyHistogram dataHandshakeTime = new LatencyHistogram();
+	/**
+	 * Number of data connections that resumed the control session.
+	 */
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+	/**
+	 * Times to the first byte of transfers.
+	 */
+	private final LatencyHistogram firstByteTime = new LatencyHistogram();
+	/**
+	 * Throughput of transfers, in bytes per second.
+	 */
+	private final LatencyHistogram throughput = new LatencyHistogram();
+	/**
+	 * Number of bytes received.
+	 */
+	private final AtomicLong bytesReceived = new AtomicLong();
+	/**
+	 * Number of bytes sent.
+	 */
+	private final AtomicLong bytesSent = new AtomicLong();
+	/**
+	 * Command latencies by command.
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> commandTimes = new ConcurrentHashMap<String, LatencyHistogram>();
+	/**
+	 * Number of negative and invalid replies by reply code.
+	 */
+	private final ConcurrentMap<Integer, AtomicLong> errors = new ConcurrentHashMap<Integer, AtomicLong>();
+
+	public void connected(InetAddress address, long time) {
+		connectTime.record(time);
+	}
+
+	public void controlHandshakeCompleted(long time) {
+		controlHandshakeTime.record(time);
+	}
+
+	public void loggedIn(long time) {
+		loginTime.record(time);
+	}
+
+	public void commandCompleted(String command, int replyCode, long time) {
+		LatencyHistogram histogram = commandTimes.get(command);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			LatencyHistogram existing = commandTimes.putIfAbsent(command,
+					histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		histogram.record(time);
+		if (replyCode < 400) {
+			return;
+		}
+		Integer code = Integer.valueOf(replyCode);
+		AtomicLong counter = errors.get(code);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong existing = errors.putIfAbsent(code, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	public void dataHandshakeCompleted(boolean resumed, long time) {
+		dataHandshakeTime.record(time);
+		if (resumed) {
+			resumedHandshakes.incrementAndGet();
+		}
+	}
+
+	public void firstByteTransferred(int direction, long time) {
+		firstByteTime.record(time);
+	}
+
+	public void transferCompleted(int direction, long bytes, long time) {
+		if (direction == DataConnectionEvent.SEND) {
+			bytesSent.addAndGet(bytes);
+		} else {
+			bytesReceived.addAndGet(bytes);
+		}
+		if (time > 0) {
+			throughput.record((long) (bytes * 1000000000.0 / time));
+		}
+	}
+
+	/**
+	 * Returns the histogram of connect times.
+	 * 
+	 * @return connect times in nanoseconds.
+	 */
+	public LatencyHistogram getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Returns the histogram of SSL handshake times of control connections.
+	 * 
+	 * @return handshake times in nanoseconds.
+	 */
+	public LatencyHistogram getControlHandshakeTime() {
+		return controlHandshakeTime;
+	}
+
+	/**
+	 * Returns the histogram of login times.
+	 * 
+	 * @return login times in nanoseconds.
+	 */
+	public LatencyHistogram getLoginTime() {
+		return loginTime;
+	}
+
+	/**
+	 * Returns the histogram of SSL handshake times of data connections.
+	 * 
+	 * @return handshake times in nanoseconds.
+	 */
+	public LatencyHistogram getDataHandshakeTime() {
+		return dataHandshakeTime;
+	}
+
+	/**
+	 * Returns the number of data connections that resumed the SSL session of
+	 * the control connection.
+	 * 
+	 * @return number of resumed handshakes.
+	 */
+	public long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+	/**
+	 * Returns the histogram of times to the first byte of transfers.
+	 * 
+	 * @return times to the first byte in nanoseconds.
+	 */
+	public LatencyHistogram getFirstByteTime() {
+		return firstByteTime;
+	}
+
+	/**
+	 * Returns the histogram of transfer throughput.
+	 * 
+	 * @return throughput of transfers in bytes per second.
+	 */
+	public LatencyHistogram getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * Returns the number of bytes received over data connections.
+	 * 
+	 * @return number of bytes received.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * Returns the number of bytes sent over data connections.
+	 * 
+	 * @return number of bytes sent.
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Returns the histogram of latencies of the given command.
+	 * 
+	 * @param command
+	 *            the command, without arguments, in upper case.
+	 * @return latencies in nanoseconds, or <code>null</code> if the command
+	 *         was never sent.
+	 */
+	public LatencyHistogram getCommandTime(String command) {
+		return commandTimes.get(command);
+	}
+
+	/**
+	 * Returns the histograms of command latencies by command.
+	 * 
+	 * @return an unmodifiable, sorted map of command to latencies in
+	 *         nanoseconds.
+	 */
+	public Map<String, LatencyHistogram> getCommandTimes() {
+		return Collections
+				.unmodifiableMap(new TreeMap<String, LatencyHistogram>(
+						commandTimes));
+	}
+
+	/**
+	 * Returns the number of negative (4xx and 5xx) replies by reply code.
+	 * 
+	 * @return an unmodifiable, sorted map of reply code to count.
+	 */
+	public Map<Integer, Long> getErrorCounts() {
+		Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, AtomicLong> entry : errors.entrySet()) {
+			counts.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("connect: ").append(connectTime).append('\n');
+		builder.append("login: ").append(loginTime).append('\n');
+		builder.append("control handshake: ").append(controlHandshakeTime)
+				.append('\n');
+		builder.append("data handshake: ").append(dataHandshakeTime).append(
+				", resumed=").append(resumedHandshakes).append('\n');
+		builder.append("first byte: ").append(firstByteTime).append('\n');
+		builder.append("throughput: ").append(throughput).append(
+				", received=").append(bytesReceived).append(", sent=")
+				.append(bytesSent).append('\n');
+		for (Map.Entry<String, LatencyHistogram> entry : getCommandTimes()
+				.entrySet()) {
+			builder.append(entry.getKey()).append(": ").append(
+					entry.getValue()).append('\n');
+		}
+		builder.append("errors: ").append(getErrorCounts());
+		return builder.toString();
+	}
+}
\ No newline at end of file
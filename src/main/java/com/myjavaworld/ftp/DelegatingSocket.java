@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A socket that delegates to a connected socket, but reports a different
+ * remote port. JSSE looks up the sessions to resume by the host and port the
+ * SSL socket reports for its peer. Layering SSL over this socket, with the
+ * port of the control connection, lets a data connection resume the SSL
+ * session of the control connection.
+ */
+class DelegatingSocket extends Socket {
+
+	/**
+	 * The connected socket.
+	 */
+	private Socket socket = null;
+	/**
+	 * The port to report as the remote port.
+	 */
+	private int port = 0;
+
+	/**
+	 * Creates a new instance of <code>DelegatingSocket</code>.
+	 * 
+	 * @param socket
+	 *            the connected socket to delegate to.
+	 * @param port
+	 *            the port to report as the remote port.
+	 */
+	DelegatingSocket(Socket socket, int port) {
+		this.socket = socket;
+		this.port = port;
+	}
+
+	@Override
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint) throws IOException {
+		socket.connect(endpoint);
+	}
+
+	@Override
+	public void connect(SocketAddress endpoint, int timeout)
+			throws IOException {
+		socket.connect(endpoint, timeout);
+	}
+
+	@Override
+	public void bind(SocketAddress bindpoint) throws IOException {
+		socket.bind(bindpoint);
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return socket.getLocalAddress();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public SocketAddress getRemoteSocketAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	@Override
+	public SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return socket.getChannel();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) throws SocketException {
+		socket.setTcpNoDelay(on);
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return socket.getTcpNoDelay();
+	}
+
+	@Override
+	public void setSoLinger(boolean on, int linger) throws SocketException {
+		socket.setSoLinger(on, linger);
+	}
+
+	@Override
+	public int getSoLinger() throws SocketException {
+		return socket.getSoLinger();
+	}
+
+	@Override
+	public void sendUrgentData(int data) throws IOException {
+		socket.sendUrgentData(data);
+	}
+
+	@Override
+	public void setOOBInline(boolean on) throws SocketException {
+		socket.setOOBInline(on);
+	}
+
+	@Override
+	public boolean getOOBInline() throws SocketException {
+		return socket.getOOBInline();
+	}
+
+	@Override
+	public synchronized void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
+	}
+
+	@Override
+	public synchronized int getSoTimeout() throws SocketException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public synchronized void setSendBufferSize(int size)
+			throws SocketException {
+		socket.setSendBufferSize(size);
+	}
+
+	@Override
+	public synchronized int getSendBufferSize() throws SocketException {
+		return socket.getSendBufferSize();
+	}
+
+	@Override
+	public synchronized void setReceiveBufferSize(int size)
+			throws SocketException {
+		socket.setReceiveBufferSize(size);
+	}
+
+	@Override
+	public synchronized int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public void setKeepAlive(boolean on) throws SocketException {
+		socket.setKeepAlive(on);
+	}
+
+	@Override
+	public boolean getKeepAlive() throws SocketException {
+		return socket.getKeepAlive();
+	}
+
+	@Override
+	public void setTrafficClass(int tc) throws SocketException {
+		socket.setTrafficClass(tc);
+	}
+
+	@Override
+	public int getTrafficClass() throws SocketException {
+		return socket.getTrafficClass();
+	}
+
+	@Override
+	public void setReuseAddress(boolean on) throws SocketException {
+		socket.setReuseAddress(on);
+	}
+
+	@Override
+	public boolean getReuseAddress() throws SocketException {
+		return socket.getReuseAddress();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		socket.close();
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		socket.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		socket.shutdownOutput();
+	}
+
+	@Override
+	public String toString() {
+		return socket.toString();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket.isConnected();
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return socket.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return socket.isOutputShutdown();
+	}
+}
\ No newline at end of file
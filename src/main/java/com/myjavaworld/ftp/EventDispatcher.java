@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.util.LinkedList;
+
+/**
+ * Delivers events to listeners in order on a separate thread. The thread is
+ * started when the first event is queued, and ends when no events were
+ * queued for a while.
+ */
+class EventDispatcher implements Runnable {
+
+	/**
+	 * Time the thread waits for events before it ends, in milliseconds.
+	 */
+	private static final long IDLE_TIMEOUT = 60000L;
+
+	/**
+	 * Events waiting to be delivered. Guarded by <code>this</code>.
+	 */
+	private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+	/**
+	 * Number of queued events above which droppable events are dropped.
+	 */
+	private final int capacity;
+	/**
+	 * The thread delivering the events, if running. Guarded by
+	 * <code>this</code>.
+	 */
+	private Thread thread = null;
+	/**
+	 * Number of dropped events. Guarded by <code>this</code>.
+	 */
+	private long droppedEvents = 0L;
+
+	/**
+	 * Creates a new dispatcher.
+	 * 
+	 * @param capacity
+	 *            size of the queue.
+	 */
+	EventDispatcher(int capacity) {
+		this.capacity = capacity;
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	synchronized long getDroppedEvents() {
+		return droppedEvents;
+	}
+
+	/**
+	 * Returns a listener that queues the events for the given listener, or
+	 * the listener itself if its type is not known.
+	 * 
+	 * @param t
+	 *            type of the listener.
+	 * @param l
+	 *            the listener.
+	 * @return the object to notify in place of the listener.
+	 */
+	Object wrap(Class<?> t, Object l) {
+		if (t == ControlConnectionListener.class) {
+			return new ControlConnectionAdapter((ControlConnectionListener) l);
+		}
+		if (t == DataConnectionListener.class) {
+			return new DataConnectionAdapter((DataConnectionListener) l);
+		}
+		if (t == FTPConnectionListener.class) {
+			return new FTPConnectionAdapter((FTPConnectionListener) l);
+		}
+		return l;
+	}
+
+	/**
+	 * Queues an event.
+	 * 
+	 * @param event
+	 *            delivers the event.
+	 * @param droppable
+	 *            whether or not the event is dropped if the queue is full.
+	 */
+	synchronized void dispatch(Runnable event, boolean droppable) {
+		if (droppable && queue.size() >= capacity) {
+			droppedEvents++;
+			return;
+		}
+		queue.add(event);
+		if (thread == null) {
+			thread = new Thread(this, "FTP Event Dispatcher");
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			notify();
+		}
+	}
+
+	public void run() {
+		while (true) {
+			Runnable event = null;
+			synchronized (this) {
+				if (queue.isEmpty()) {
+					try {
+						wait(IDLE_TIMEOUT);
+					} catch (InterruptedException exp) {
+						// End the thread, the next event starts another.
+					}
+					if (queue.isEmpty()) {
+						thread = null;
+						return;
+					}
+				}
+				event = queue.removeFirst();
+			}
+			try {
+				event.run();
+			} catch (RuntimeException exp) {
+				// A failing listener must not keep the others from being
+				// notified.
+			}
+		}
+	}
+
+	/**
+	 * Queues the events of a <code>ControlConnectionListener</code>.
+	 */
+	private class ControlConnectionAdapter implements
+			ControlConnectionListener {
+
+		private final ControlConnectionListener listener;
+
+		ControlConnectionAdapter(ControlConnectionListener listener) {
+			this.listener = listener;
+		}
+
+		public void commandSent(final ControlConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.commandSent(evt);
+				}
+			}, true);
+		}
+
+		public void replyReceived(final ControlConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.replyReceived(evt);
+				}
+			}, true);
+		}
+	}
+
+	/**
+	 * Queues the events of a <code>DataConnectionListener</code>. Progress
+	 * events are coalesced, so only the latest waiting one is delivered.
+	 */
+	private class DataConnectionAdapter implements DataConnectionListener,
+			Runnable {
+
+		private final DataConnectionListener listener;
+		/**
+		 * The latest progress event that was not delivered yet. Guarded by
+		 * the dispatcher.
+		 */
+		private DataConnectionEvent progress = null;
+
+		DataConnectionAdapter(DataConnectionListener listener) {
+			this.listener = listener;
+		}
+
+		public void dataTransferStarted(final DataConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.dataTransferStarted(evt);
+				}
+			}, false);
+		}
+
+		public void dataTransferFinished(final DataConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.dataTransferFinished(evt);
+				}
+			}, false);
+		}
+
+		public void dataTransferProgress(DataConnectionEvent evt) {
+			synchronized (EventDispatcher.this) {
+				boolean queued = progress != null;
+				progress = evt;
+				if (queued) {
+					return;
+				}
+				dispatch(this, false);
+			}
+		}
+
+		public void dataTransferAborted(final DataConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.dataTransferAborted(evt);
+				}
+			}, false);
+		}
+
+		public void dataTransferError(final DataConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.dataTransferError(evt);
+				}
+			}, false);
+		}
+
+		/**
+		 * Delivers the latest progress event.
+		 */
+		public void run() {
+			DataConnectionEvent evt = null;
+			synchronized (EventDispatcher.this) {
+				evt = progress;
+				progress = null;
+			}
+			listener.dataTransferProgress(evt);
+		}
+	}
+
+	/**
+	 * Queues the events of an <code>FTPConnectionListener</code>.
+	 */
+	private class FTPConnectionAdapter implements FTPConnectionListener {
+
+		private final FTPConnectionListener listener;
+
+		FTPConnectionAdapter(FTPConnectionListener listener) {
+			this.listener = listener;
+		}
+
+		public void connectionOpened(final FTPConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.connectionOpened(evt);
+				}
+			}, false);
+		}
+
+		public void connectionClosed(final FTPConnectionEvent evt) {
+			dispatch(new Runnable() {
+
+				public void run() {
+					listener.connectionClosed(evt);
+				}
+			}, false);
+		}
+	}
+}
\ No newline at end of file
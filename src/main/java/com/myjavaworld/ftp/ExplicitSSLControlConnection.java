@@ -15,10 +15,7 @@
  */
 package com.myjavaworld.ftp;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
@@ -67,63 +64,69 @@ public class ExplicitSSLControlConnection extends ControlConnection implements
 	private void sslConnect(String host, int port) throws ConnectionException,
 			FTPException {
 
-		String reply = executeCommand("AUTH " + client.getExplicitSSLProtocol());
-		if (reply.charAt(0) != '2') {
+		FTPReply reply = execute("AUTH " + client.getExplicitSSLProtocol());
+		if (!reply.isPositiveCompletion()) {
 			throw new FTPException(reply);
 		}
 
-		SSLContext ctx = client.getSSLContext();
-		SSLSocketFactory factory = ctx.getSocketFactory();
-		try {
-			socket = factory.createSocket(socket, host, port, true);
-			reader = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()));
-			writer = new PrintStream(socket.getOutputStream(), true);
-			((SSLSocket) socket).startHandshake();
-		} catch (IOException exp) {
-			throw new ConnectionException(exp.toString());
-		}
-
-		reply = executeCommand("PBSZ 0");
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
-			throw new FTPException(reply);
-		}
-		reply = executeCommand("PROT "
-				+ (client.isDataChannelUnencrypted() ? "C" : "P"));
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
-			throw new FTPException(reply);
-		}
+		layer(host, port);
+		protect();
 	}
 
 	private void sslConnectIfAvailable(String host, int port)
 			throws ConnectionException, FTPException {
 
-		String reply = executeCommand("AUTH " + client.getExplicitSSLProtocol());
-		if (reply.charAt(0) != '2') {
+		FTPReply reply = execute("AUTH " + client.getExplicitSSLProtocol());
+		if (!reply.isPositiveCompletion()) {
 			client.setDataChannelUnencrypted(true);
 			return;
 		}
 
-		SSLContext ctx = client.getSSLContext();
-		SSLSocketFactory factory = ctx.getSocketFactory();
+		layer(host, port);
+		protect();
+	}
+
+	/**
+	 * Sends the PBSZ and PROT commands that set up the protection of data
+	 * connections. With command pipelining, the commands are deferred to be
+	 * sent along with the login commands.
+	 */
+	private void protect() throws ConnectionException, FTPException {
+		String prot = "PROT " + (client.isDataChannelUnencrypted() ? "C" : "P");
+		if (isCommandPipelining()) {
+			deferCommand("PBSZ 0");
+			deferCommand(prot);
+			return;
+		}
+		FTPReply reply = execute("PBSZ 0");
+		if (reply.isNegative()) {
+			throw new FTPException(reply);
+		}
+		reply = execute(prot);
+		if (reply.isNegative()) {
+			throw new FTPException(reply);
+		}
+	}
+
+	/**
+	 * Layers SSL over the control connection, after the remote host accepted
+	 * the AUTH command, and performs the handshake.
+	 */
+	private void layer(String host, int port) throws ConnectionException {
 		try {
+			if (SSLEngineChannel.isEnabled(client)) {
+				startSSLEngine(host, port);
+				return;
+			}
+			SSLContext ctx = client.getSSLContext();
+			SSLSocketFactory factory = ctx.getSocketFactory();
 			socket = factory.createSocket(socket, host, port, true);
-			reader = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()));
-			writer = new PrintStream(socket.getOutputStream(), true);
+			openStreams();
+			long start = System.nanoTime();
 			((SSLSocket) socket).startHandshake();
+			handshakeTime = System.nanoTime() - start;
 		} catch (IOException exp) {
 			throw new ConnectionException(exp.toString());
 		}
-
-		reply = executeCommand("PBSZ 0");
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
-			throw new FTPException(reply);
-		}
-		reply = executeCommand("PROT "
-				+ (client.isDataChannelUnencrypted() ? "C" : "P"));
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
-			throw new FTPException(reply);
-		}
 	}
 }
\ No newline at end of file
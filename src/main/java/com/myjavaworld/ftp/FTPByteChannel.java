@@ -0,0 +1,457 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * A channel that streams a remote file with RETR, or writes one with STOR or
+ * APPE, over a session borrowed from an <code>FTPFileSystem</code>. The
+ * session is returned when the channel is closed.
+ * <p>
+ * Moving the position of a channel for reading a short distance forward
+ * skips the bytes in between, and any other move aborts the transfer; the
+ * next read then restarts it at the new position with REST. The position of
+ * a channel for writing cannot be moved.
+ */
+class FTPByteChannel implements SeekableByteChannel {
+
+	/**
+	 * Maximum distance, in bytes, the position is moved forward by skipping
+	 * bytes rather than restarting the transfer.
+	 */
+	private static final int SKIP_LIMIT = 64 * 1024;
+	private FTPFileSystem fileSystem = null;
+	/**
+	 * Absolute path of the file.
+	 */
+	private FTPPath path = null;
+	/**
+	 * The session the file is transferred over.
+	 */
+	private DefaultFTPClient client = null;
+	/**
+	 * Whether or not this channel is for writing.
+	 */
+	private boolean writable = false;
+	/**
+	 * Stream of the current download, <code>null</code> if none.
+	 */
+	private RemoteInputStream in = null;
+	/**
+	 * Stream of the upload.
+	 */
+	private RemoteOutputStream out = null;
+	private long position = 0L;
+	/**
+	 * Position the current download started at.
+	 */
+	private long start = 0L;
+	/**
+	 * Size of the file, -1 until known.
+	 */
+	private long size = -1L;
+	/**
+	 * Whether or not the session is in a known state.
+	 */
+	private boolean reusable = true;
+	private boolean open = true;
+
+	/**
+	 * Creates a new instance of <code>FTPByteChannel</code>, and starts the
+	 * transfer.
+	 * 
+	 * @param fileSystem
+	 *            the file system of the file.
+	 * @param path
+	 *            absolute path of the file.
+	 * @param writable
+	 *            whether or not the channel is for writing.
+	 * @param append
+	 *            whether or not to append to the file.
+	 * @param position
+	 *            position to start reading at, or size of the file being
+	 *            appended to.
+	 * @param client
+	 *            session the caller borrowed already, <code>null</code> to
+	 *            borrow one. It is returned when the channel is closed, or if
+	 *            starting the transfer fails.
+	 * @exception IOException
+	 *                if the transfer could not be started.
+	 * @exception NoSuchFileException
+	 *                if the remote host reports that the file to read is not
+	 *                available.
+	 */
+	FTPByteChannel(FTPFileSystem fileSystem, FTPPath path, boolean writable,
+			boolean append, long position, DefaultFTPClient client)
+			throws IOException {
+		this.fileSystem = fileSystem;
+		this.path = path;
+		this.writable = writable;
+		this.position = position;
+		this.client = client == null ? fileSystem.acquire() : client;
+		boolean started = false;
+		try {
+			if (writable) {
+				size = position;
+				store(append);
+			} else {
+				retrieve();
+			}
+			started = true;
+		} finally {
+			if (!started) {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Starts the upload.
+	 */
+	private void store(boolean append) throws IOException {
+		try {
+			out = client.store(fileSystem.toRemoteFile(path, false),
+					FTPConstants.TYPE_BINARY, append);
+		} catch (FTPException exp) {
+			throw fileSystem.toException(path, exp);
+		} catch (ConnectionException exp) {
+			reusable = false;
+			throw fileSystem.toException(path, exp);
+		}
+	}
+
+	/**
+	 * Looks up the size of the file with SIZE over the session of this
+	 * channel, or in the listing of its parent if the remote host refuses
+	 * SIZE. Must not be called during a download.
+	 */
+	private long findSize() throws IOException {
+		try {
+			return client.getSize(fileSystem.toRemoteFile(path, false));
+		} catch (FTPException exp) {
+			// Not supported, or not for this file
+		} catch (ConnectionException exp) {
+			reusable = false;
+			throw fileSystem.toException(path, exp);
+		}
+		try {
+			return fileSystem.getFile(path, client).getSize();
+		} catch (FileSystemException exp) {
+			throw exp;
+		} catch (IOException exp) {
+			reusable = false;
+			throw exp;
+		}
+	}
+
+	/**
+	 * Tells whether the position is at or past the end of the file, looking
+	 * up the size of the file. Must not be called during a download.
+	 * 
+	 * @return <code>true</code>, if the position is past the end of the file,
+	 *         or <code>false</code> if not, or if the size cannot be found.
+	 */
+	private boolean isPastEnd() {
+		try {
+			size = findSize();
+		} catch (IOException exp) {
+			return false;
+		}
+		return position >= size;
+	}
+
+	/**
+	 * Starts a download at the current position.
+	 */
+	private void retrieve() throws IOException {
+		start = position;
+		try {
+			in = client.retrieve(fileSystem.toRemoteFile(path, false),
+					FTPConstants.TYPE_BINARY, position);
+		} catch (FTPException exp) {
+			if ("550".equals(exp.getErrorCode())) {
+				NoSuchFileException exception = new NoSuchFileException(path
+						.toString(), null, exp.getMessage());
+				exception.initCause(exp);
+				throw exception;
+			}
+			throw fileSystem.toException(path, exp);
+		} catch (ConnectionException exp) {
+			reusable = false;
+			throw fileSystem.toException(path, exp);
+		}
+	}
+
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (writable) {
+			throw new NonReadableChannelException();
+		}
+		if (in == null) {
+			if (size >= 0 && position >= size) {
+				return -1;
+			}
+			try {
+				retrieve();
+			} catch (FileSystemException exp) {
+				if (position > 0 && isPastEnd()) {
+					// Some hosts refuse to restart past the end of the file
+					return -1;
+				}
+				throw exp;
+			}
+		}
+		int count = 0;
+		try {
+			count = in.getChannel().read(dst);
+		} catch (IOException exp) {
+			reusable = false;
+			throw exp;
+		}
+		if (count > 0) {
+			position += count;
+		} else if (count < 0) {
+			boolean empty = position == start && start > 0;
+			if (!empty) {
+				size = position;
+			}
+			finish();
+			if (empty) {
+				// Restarted past the end, the position is not the size
+				isPastEnd();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Completes the download, which reached the end of the file.
+	 */
+	private void finish() throws IOException {
+		RemoteInputStream stream = in;
+		in = null;
+		try {
+			stream.close();
+		} catch (IOException exp) {
+			if (!(exp.getCause() instanceof FTPException)) {
+				reusable = false;
+			}
+			throw fileSystem.toException(path, exp);
+		}
+	}
+
+	/**
+	 * Aborts the download, and reads its replies.
+	 */
+	private void abort() throws IOException {
+		RemoteInputStream stream = in;
+		in = null;
+		try {
+			client.abort();
+		} catch (FTPException exp) {
+			throw fileSystem.toException(path, exp);
+		} catch (ConnectionException exp) {
+			reusable = false;
+			throw fileSystem.toException(path, exp);
+		}
+		try {
+			stream.close();
+		} catch (IOException exp) {
+			if (!(exp.getCause() instanceof FTPException)) {
+				reusable = false;
+				throw exp;
+			}
+			// The remote host reports the transfer as aborted
+		}
+	}
+
+	public synchronized int write(ByteBuffer src) throws IOException {
+		checkOpen();
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		int count = 0;
+		try {
+			count = out.getChannel().write(src);
+		} catch (IOException exp) {
+			reusable = false;
+			throw exp;
+		}
+		position += count;
+		size = position;
+		return count;
+	}
+
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	/**
+	 * Moves the position of this channel for reading.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                if this channel is for writing and the position is
+	 *                moved.
+	 */
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Invalid position: "
+					+ newPosition);
+		}
+		if (newPosition == position) {
+			return this;
+		}
+		if (writable) {
+			throw new UnsupportedOperationException(
+					"Remote files are written sequentially");
+		}
+		if (in != null) {
+			long distance = newPosition - position;
+			if (distance > 0 && distance <= SKIP_LIMIT) {
+				skip((int) distance);
+			} else {
+				abort();
+			}
+		}
+		position = newPosition;
+		return this;
+	}
+
+	/**
+	 * Skips the given number of bytes of the download, or up to the end of
+	 * the file.
+	 */
+	private void skip(int count) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(count);
+		while (in != null && buffer.hasRemaining()) {
+			read(buffer);
+		}
+	}
+
+	/**
+	 * Returns the size of the file. While writing, this is the number of bytes
+	 * written, plus the size of the file being appended to. While reading, the
+	 * size is looked up with SIZE over the session of this channel the first
+	 * time it is needed, unless the end of the file was reached already. If
+	 * a download is in progress, it is aborted for that, and restarts at the
+	 * position on the next read.
+	 */
+	public synchronized long size() throws IOException {
+		checkOpen();
+		if (size < 0) {
+			if (in != null) {
+				abort();
+			}
+			size = findSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Remote files cannot be truncated.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                if this channel is for writing and <code>size</code> is
+	 *                less than the number of bytes written.
+	 */
+	public synchronized SeekableByteChannel truncate(long size)
+			throws IOException {
+		checkOpen();
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		if (size < 0) {
+			throw new IllegalArgumentException("Invalid size: " + size);
+		}
+		if (size < position) {
+			throw new UnsupportedOperationException(
+					"Remote files cannot be truncated");
+		}
+		return this;
+	}
+
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Completes or aborts the transfer, and returns the session to the file
+	 * system.
+	 * 
+	 * @exception IOException
+	 *                if the remote host reports that the upload failed.
+	 */
+	public synchronized void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		try {
+			if (out != null) {
+				boolean stored = false;
+				try {
+					out.close();
+					stored = true;
+				} catch (IOException exp) {
+					if (!(exp.getCause() instanceof FTPException)) {
+						reusable = false;
+					}
+					throw fileSystem.toException(path, exp);
+				} finally {
+					if (stored) {
+						fileSystem.update(path, new DefaultRemoteFile(path
+								.getParent().toString(), path.getFileName()
+								.toString(), false, position, System
+								.currentTimeMillis(), null));
+					} else {
+						fileSystem.invalidate(path);
+					}
+				}
+			} else if (in != null) {
+				abort();
+			}
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Returns the session to the file system.
+	 */
+	private void release() {
+		if (client != null) {
+			fileSystem.release(client, reusable);
+			client = null;
+		}
+	}
+
+	private void checkOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
\ No newline at end of file
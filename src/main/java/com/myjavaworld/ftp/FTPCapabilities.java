@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The capabilities of a remote host, as reported by the FEAT (RFC 2389) and
+ * SYST commands. The client discovers the capabilities at login and caches
+ * them per host, so that later sessions to the same host need not ask again.
+ * Operations use the capabilities to pick the fastest strategy the host
+ * supports, and callers can query them with
+ * <code>FTPClient.getCapabilities</code>.
+ */
+public class FTPCapabilities implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 2918675520419723305L;
+	/**
+	 * Parameters of the features, by upper case feature name, in the order
+	 * they were listed. Features listed more than once, such as AUTH, have
+	 * their parameters separated by semicolons.
+	 */
+	private final Map<String, String> features = new LinkedHashMap<String, String>();
+	/**
+	 * Whether or not the remote host understood FEAT.
+	 */
+	private boolean featSupported = false;
+	/**
+	 * Reply to SYST, or <code>null</code> if SYST was not understood.
+	 */
+	private FTPReply systemReply = null;
+	/**
+	 * Time the capabilities were discovered, from
+	 * <code>System.currentTimeMillis</code>.
+	 */
+	private long discoveryTime = 0L;
+
+	/**
+	 * Creates a new instance of <code>FTPCapabilities</code> from the replies
+	 * to FEAT and SYST.
+	 * 
+	 * @param featReply
+	 *            the reply to FEAT.
+	 * @param systemReply
+	 *            the reply to SYST.
+	 */
+	public FTPCapabilities(FTPReply featReply, FTPReply systemReply) {
+		this.discoveryTime = System.currentTimeMillis();
+		if (featReply.getCode() == 211) {
+			featSupported = true;
+			int lineCount = featReply.getLineCount();
+			for (int i = 1; i < lineCount - 1; i++) {
+				addFeature(featReply.getLine(i).trim());
+			}
+		}
+		if (systemReply.isPositiveCompletion()) {
+			this.systemReply = systemReply;
+		}
+	}
+
+	/**
+	 * Adds the feature in the given line of the FEAT reply.
+	 */
+	private void addFeature(String line) {
+		if (line.length() == 0) {
+			return;
+		}
+		int index = line.indexOf(' ');
+		String name = (index < 0 ? line : line.substring(0, index))
+				.toUpperCase();
+		String parameters = index < 0 ? "" : line.substring(index + 1).trim();
+		String previous = features.get(name);
+		if (previous != null && previous.length() > 0) {
+			parameters = parameters.length() == 0 ? previous : previous + ";"
+					+ parameters;
+		}
+		features.put(name, parameters);
+	}
+
+	/**
+	 * Tells whether the remote host understood FEAT. If it did not, no
+	 * feature is known to be supported, though the remote host may still
+	 * support some.
+	 * 
+	 * @return <code>true</code>, if the remote host listed its features.
+	 */
+	public boolean isFeatSupported() {
+		return featSupported;
+	}
+
+	/**
+	 * Tells whether the remote host listed the given feature. The feature is
+	 * either a name, such as <code>MLST</code> or <code>EPSV</code>, or a
+	 * name followed by a parameter, such as <code>REST STREAM</code> or
+	 * <code>AUTH TLS</code>. Names and parameters are compared ignoring case.
+	 * 
+	 * @param feature
+	 *            the feature.
+	 * @return <code>true</code>, if the feature is supported.
+	 */
+	public boolean isSupported(String feature) {
+		feature = feature.trim();
+		int index = feature.indexOf(' ');
+		if (index < 0) {
+			return features.containsKey(feature.toUpperCase());
+		}
+		String parameters = features.get(feature.substring(0, index)
+				.toUpperCase());
+		if (parameters == null) {
+			return false;
+		}
+		String parameter = feature.substring(index + 1).trim();
+		String[] values = parameters.split(";");
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].trim().equalsIgnoreCase(parameter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the parameters of the given feature, e.g.
+	 * <code>Type*;Size*;Modify*;</code> for <code>MLST</code>.
+	 * 
+	 * @param feature
+	 *            name of the feature.
+	 * @return the parameters, an empty string if the feature has none, or
+	 *         <code>null</code> if the feature is not supported.
+	 */
+	public String getParameters(String feature) {
+		return features.get(feature.trim().toUpperCase());
+	}
+
+	/**
+	 * Returns the names of the supported features, in upper case.
+	 * 
+	 * @return names of the features.
+	 */
+	public Set<String> getFeatures() {
+		return Collections.unmodifiableSet(features.keySet());
+	}
+
+	/**
+	 * Returns the system type reported by SYST, e.g.
+	 * <code>UNIX Type: L8</code>.
+	 * 
+	 * @return the system type, or <code>null</code> if SYST was not
+	 *         understood.
+	 */
+	public String getSystem() {
+		return systemReply == null ? null : systemReply.getMessage();
+	}
+
+	/**
+	 * Returns the reply to SYST.
+	 * 
+	 * @return the reply to SYST, or <code>null</code> if SYST was not
+	 *         understood.
+	 */
+	public FTPReply getSystemReply() {
+		return systemReply;
+	}
+
+	/**
+	 * Tells whether the remote host is an AS/400 (IBM i) system.
+	 * 
+	 * @return <code>true</code>, if SYST reports OS/400.
+	 */
+	public boolean isAS400() {
+		String system = getSystem();
+		return system != null && system.toUpperCase().startsWith("OS/400");
+	}
+
+	/**
+	 * Returns the time the capabilities were discovered.
+	 * 
+	 * @return the time, as from <code>System.currentTimeMillis</code>.
+	 */
+	public long getDiscoveryTime() {
+		return discoveryTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("System: ").append(getSystem()).append(", Features:");
+		for (Map.Entry<String, String> entry : features.entrySet()) {
+			sb.append(' ').append(entry.getKey());
+			if (entry.getValue().length() > 0) {
+				sb.append(' ').append(entry.getValue());
+			}
+			sb.append(',');
+		}
+		if (!features.isEmpty()) {
+			sb.setLength(sb.length() - 1);
+		}
+		return sb.toString();
+	}
+}
\ No newline at end of file
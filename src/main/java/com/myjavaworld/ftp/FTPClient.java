@@ -21,7 +21,7 @@ import java.net.Proxy;
 import java.text.ParseException;
 
 import javax.net.ssl.SSLContext;
-import javax.swing.event.EventListenerList;
+import javax.net.ssl.SSLSession;
 
 import com.myjavaworld.util.Filter;
 
@@ -54,6 +54,49 @@ public interface FTPClient {
 	 */
 	public int getTimeout();
 
+	/**
+	 * Sets the deadline of an operation. Unlike the timeout, which limits
+	 * every wait for the remote host, a deadline limits the time taken by the
+	 * operation as a whole, however it is spent. When a deadline expires, the
+	 * operation is aborted and fails with an <code>FTPTimeoutException</code>
+	 * . Listings and transfers are aborted with ABOR, so the connection can be
+	 * used afterwards, other operations close the connection. By default,
+	 * operations have no deadline.
+	 * 
+	 * @param operation
+	 *            one of the <code>FTPConstants.DEADLINE_</code> constants.
+	 * @param millis
+	 *            the deadline in milliseconds, 0 for no deadline.
+	 */
+	public void setDeadline(int operation, int millis);
+
+	/**
+	 * Returns the deadline of an operation.
+	 * 
+	 * @param operation
+	 *            one of the <code>FTPConstants.DEADLINE_</code> constants.
+	 * @return the deadline in milliseconds, 0 for no deadline.
+	 */
+	public int getDeadline(int operation);
+
+	/**
+	 * Sets the minimum throughput of transfers. The throughput is measured
+	 * over windows of 10 seconds, and a transfer that falls below the minimum,
+	 * whatever the cause, is aborted and fails with an
+	 * <code>FTPTimeoutException</code>. By default, there is no minimum.
+	 * 
+	 * @param bytesPerSecond
+	 *            the minimum throughput, 0 for no minimum.
+	 */
+	public void setMinThroughput(int bytesPerSecond);
+
+	/**
+	 * Returns the minimum throughput of transfers.
+	 * 
+	 * @return the minimum throughput in bytes per second, 0 for no minimum.
+	 */
+	public int getMinThroughput();
+
 	/**
 	 * Sets the buffer size to use for transferring data over the data
 	 * connection.
@@ -72,6 +115,122 @@ public interface FTPClient {
 	 */
 	public int getBufferSize();
 
+	/**
+	 * Sets the size of the socket send and receive buffers of data
+	 * connections. The socket buffers limit the TCP window, and with it the
+	 * throughput over links with a long round trip time, independent of the
+	 * buffer used for copying the data. The buffers are sized before the
+	 * connection is made, though the operating system may limit them.
+	 * 
+	 * @param socketBufferSize
+	 *            size of the socket buffers, or 0 to use the buffer size.
+	 */
+	public void setSocketBufferSize(int socketBufferSize);
+
+	/**
+	 * Returns the size of the socket send and receive buffers of data
+	 * connections.
+	 * 
+	 * @return size of the socket buffers, 0 if the buffer size is used.
+	 */
+	public int getSocketBufferSize();
+
+	/**
+	 * Sets whether the socket buffers of data connections adapt to the host.
+	 * If enabled, the round trip time is estimated from command exchanges on
+	 * the control connection, and when a transfer comes close to the limit
+	 * the socket buffers put on the throughput, the buffers are doubled for
+	 * later transfers to the same host, up to the maximum socket buffer size.
+	 * The learned sizes are remembered per host and shared by all clients.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to adapt the socket buffers.
+	 */
+	public void setAdaptiveSocketBufferEnabled(boolean enabled);
+
+	/**
+	 * Tells whether the socket buffers of data connections adapt to the host.
+	 * 
+	 * @return <code>true</code>, if the socket buffers adapt.
+	 */
+	public boolean isAdaptiveSocketBufferEnabled();
+
+	/**
+	 * Sets the largest size adaptive socket buffers grow to.
+	 * 
+	 * @param size
+	 *            maximum size of the socket buffers.
+	 */
+	public void setMaxSocketBufferSize(int size);
+
+	/**
+	 * Returns the largest size adaptive socket buffers grow to.
+	 * 
+	 * @return maximum size of the socket buffers.
+	 */
+	public int getMaxSocketBufferSize();
+
+	/**
+	 * Sets the metrics that receive the measurements of this client, such as
+	 * command latencies and transfer throughput.
+	 * 
+	 * @param metrics
+	 *            the metrics, or <code>null</code> to stop measuring.
+	 */
+	public void setMetrics(FTPMetrics metrics);
+
+	/**
+	 * Returns the metrics that receive the measurements of this client.
+	 * 
+	 * @return the metrics, <code>FTPMetrics.NONE</code> if none were set.
+	 */
+	public FTPMetrics getMetrics();
+
+	/**
+	 * Sets the size of the queue of events that are delivered to listeners on
+	 * a separate thread, so that slow listeners do not slow the transfers
+	 * down. When the queue is full, command and reply events are dropped, and
+	 * progress events are coalesced. The default is 0, which notifies the
+	 * listeners on the thread that does the work.
+	 * 
+	 * @param size
+	 *            size of the queue, or 0 to notify listeners synchronously.
+	 */
+	public void setEventQueueSize(int size);
+
+	/**
+	 * Returns the size of the queue of events that are delivered to listeners
+	 * on a separate thread.
+	 * 
+	 * @return size of the queue, 0 if listeners are notified synchronously.
+	 */
+	public int getEventQueueSize();
+
+	/**
+	 * Sets the number of commands and replies kept in the wire trace. The
+	 * trace is kept from the next connect on.
+	 * 
+	 * @param size
+	 *            number of entries, or 0 to turn tracing off.
+	 */
+	public void setWireTraceSize(int size);
+
+	/**
+	 * Returns the number of commands and replies kept in the wire trace.
+	 * 
+	 * @return number of entries, 0 if tracing is off.
+	 */
+	public int getWireTraceSize();
+
+	/**
+	 * Returns the trace of the latest commands and replies of the current or
+	 * last session.
+	 * 
+	 * @return the trace, or <code>null</code> if tracing is off or no
+	 *         connection was made yet.
+	 */
+	public WireTrace getWireTrace();
+
 	/**
 	 * Sets the <code>ListParser</code> to the specified <code>listParser</code>
 	 * .<code>ListParser</code> objects are used to parsre the contents of a
@@ -143,6 +302,29 @@ public interface FTPClient {
 	 */
 	public String getExplicitSSLProtocol();
 
+	/**
+	 * Sets the character encoding used for commands sent and replies received
+	 * over the control connection. If the encoding is UTF-8, the client asks
+	 * the remote host to use UTF-8 by sending <code>OPTS UTF8 ON</code> before
+	 * logging in. A change takes effect immediately, even if the client is
+	 * already connected.
+	 * 
+	 * @param encoding
+	 *            name of the character encoding, or <code>null</code> to use
+	 *            the platform's default encoding.
+	 * @exception IllegalArgumentException
+	 *                if the encoding is not supported.
+	 */
+	public void setControlEncoding(String encoding);
+
+	/**
+	 * Returns the character encoding used on the control connection.
+	 * 
+	 * @return name of the character encoding, or <code>null</code> if the
+	 *         platform's default encoding is in use.
+	 */
+	public String getControlEncoding();
+
 	/**
 	 * Sets the SSLContext of this FTPClient to the given context.
 	 * 
@@ -183,6 +365,256 @@ public interface FTPClient {
 	 */
 	public boolean isSecured();
 
+	/**
+	 * Returns the SSL session of the control connection.
+	 * 
+	 * @return the SSL session, or <code>null</code> if the control connection
+	 *         is not secured.
+	 */
+	public SSLSession getSSLSession();
+
+	/**
+	 * Sets the maximum number of SSL sessions cached by the SSL context of
+	 * this client for resumption. The setting is applied to the client
+	 * session context of the SSL context when connecting.
+	 * 
+	 * @param size
+	 *            maximum number of cached sessions, 0 for no limit, or -1 to
+	 *            leave the setting of the SSL context unchanged.
+	 */
+	public void setSSLSessionCacheSize(int size);
+
+	/**
+	 * Returns the maximum number of SSL sessions cached for resumption.
+	 * 
+	 * @return maximum number of cached sessions, or -1 if the setting of the
+	 *         SSL context is left unchanged.
+	 */
+	public int getSSLSessionCacheSize();
+
+	/**
+	 * Sets the time for which cached SSL sessions can be resumed. The setting
+	 * is applied to the client session context of the SSL context when
+	 * connecting.
+	 * 
+	 * @param seconds
+	 *            timeout in seconds, 0 for no limit, or -1 to leave the
+	 *            setting of the SSL context unchanged.
+	 */
+	public void setSSLSessionTimeout(int seconds);
+
+	/**
+	 * Returns the time for which cached SSL sessions can be resumed.
+	 * 
+	 * @return timeout in seconds, or -1 if the setting of the SSL context is
+	 *         left unchanged.
+	 */
+	public int getSSLSessionTimeout();
+
+	/**
+	 * Sets whether encrypted data connections resume the SSL session of the
+	 * control connection. Resuming the session replaces the full handshake of
+	 * each data connection with an abbreviated one, and is required by some
+	 * servers. This is enabled by default.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to resume the control session.
+	 */
+	public void setDataSessionReuseEnabled(boolean enabled);
+
+	/**
+	 * Tells whether encrypted data connections resume the SSL session of the
+	 * control connection.
+	 * 
+	 * @return <code>true</code>, if the control session is resumed.
+	 */
+	public boolean isDataSessionReuseEnabled();
+
+	/**
+	 * Returns the time taken by the SSL handshake of the last encrypted data
+	 * connection.
+	 * 
+	 * @return time taken by the handshake, in nanoseconds, or -1 if no
+	 *         encrypted data connection was made yet.
+	 */
+	public long getDataHandshakeTime();
+
+	/**
+	 * Tells whether the last encrypted data connection resumed the SSL session
+	 * of the control connection.
+	 * 
+	 * @return <code>true</code>, if the session was resumed.
+	 */
+	public boolean isDataSessionResumed();
+
+	/**
+	 * Returns the statistics of the last completed transfer, i.e. the last
+	 * <code>download</code> or <code>upload</code>, or the last stream
+	 * returned by <code>retrieve</code> or <code>store</code> that was closed.
+	 * The statistics break the transfer down into setup, connect, TLS
+	 * handshake, time to first byte, data transfer, stall and final reply
+	 * times.
+	 * 
+	 * @return statistics of the last transfer, or <code>null</code> if no
+	 *         transfer was completed yet.
+	 */
+	public TransferStats getLastTransferStats();
+
+	/**
+	 * Sets whether commands whose effect is already known are skipped, saving
+	 * a round trip each. If enabled, TYPE is deferred until a transfer or a
+	 * command executed with <code>executeCommand</code> needs it, so that e.g.
+	 * the ASCII type set at login is never sent if the first transfer is
+	 * binary. The PWD after CWD and CDUP is skipped if the reply quotes the new
+	 * path, or if the remote host resolves paths the UNIX way, which is
+	 * checked against the first PWD of the session. Command elision is enabled
+	 * by default.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to skip redundant commands.
+	 */
+	public void setCommandElisionEnabled(boolean enabled);
+
+	/**
+	 * Tells whether commands whose effect is already known are skipped.
+	 * 
+	 * @return <code>true</code>, if redundant commands are skipped.
+	 */
+	public boolean isCommandElisionEnabled();
+
+	/**
+	 * Returns the number of commands skipped by command elision since this
+	 * client connected.
+	 * 
+	 * @return number of commands avoided in this session.
+	 */
+	public int getCommandsAvoided();
+
+	/**
+	 * Sets whether the login commands are pipelined. If enabled, the commands
+	 * that follow the SSL handshake of explicit SSL (PBSZ and PROT), USER,
+	 * PASS, and the commands that set up the session after login are sent in
+	 * a single write, and the replies are checked in order, saving a round
+	 * trip per command. The setup commands are sent by <code>login</code>, so
+	 * <code>login</code> should be called right after <code>connect</code>.
+	 * If the replies show that the remote host does not tolerate pipelined
+	 * commands, the client connects again and logs in one command at a time,
+	 * and later connections to the host do not pipeline. Fast login is
+	 * disabled by default, and must be set before connecting.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to pipeline the login commands.
+	 */
+	public void setFastLoginEnabled(boolean enabled);
+
+	/**
+	 * Tells whether the login commands are pipelined.
+	 * 
+	 * @return <code>true</code>, if the login commands are pipelined.
+	 */
+	public boolean isFastLoginEnabled();
+
+	/**
+	 * Returns the capabilities of the remote host, as reported by FEAT and
+	 * SYST. The capabilities are discovered at login, or taken from a cache
+	 * shared by all clients if another session to the same host discovered
+	 * them recently. Operations use them to pick the fastest strategy, e.g.
+	 * EPSV and EPRT in the automatic extended mode, or skipping OPTS UTF8 ON
+	 * when the remote host does not support UTF-8.
+	 * 
+	 * @return capabilities of the remote host.
+	 * @exception ConnectionException
+	 */
+	public FTPCapabilities getCapabilities() throws ConnectionException;
+
+	/**
+	 * Sets the time to live of the capabilities of remote hosts cached for
+	 * later sessions. 0 disables the cache, so that the capabilities are
+	 * discovered in every session. The default is
+	 * <code>FTPConstants.DEFAULT_CAPABILITY_TTL</code>.
+	 * 
+	 * @param seconds
+	 *            time to live, in seconds.
+	 */
+	public void setCapabilityTTL(int seconds);
+
+	/**
+	 * Returns the time to live of cached capabilities of remote hosts.
+	 * 
+	 * @return time to live, in seconds.
+	 */
+	public int getCapabilityTTL();
+
+	/**
+	 * Sets the transport used for SSL connections. With
+	 * <code>SSL_TRANSPORT_ENGINE</code>, the control and data connections run
+	 * an <code>SSLEngine</code> over socket channels, with direct buffers
+	 * that are sized to the TLS record size and reused across connections.
+	 * Binary transfers then move data between the network and local files
+	 * without copying it to the Java heap. The engine transport connects
+	 * directly, so <code>SSL_TRANSPORT_SOCKET</code> is used when a proxy is
+	 * set. This setting takes effect on the next connection.
+	 * 
+	 * @param transport
+	 *            one of <code>SSL_TRANSPORT_SOCKET</code> or
+	 *            <code>SSL_TRANSPORT_ENGINE</code>.
+	 */
+	public void setSSLTransport(int transport);
+
+	/**
+	 * Sets the keepalive interval of the control connection. If the control
+	 * connection is silent for this many seconds, a NOOP command is sent, so
+	 * that firewalls do not drop it. This can be changed while connected.
+	 * 
+	 * @param seconds
+	 *            keepalive interval in seconds, 0 to disable keepalive.
+	 */
+	public void setKeepAliveInterval(int seconds);
+
+	/**
+	 * Returns the keepalive interval of the control connection.
+	 * 
+	 * @return keepalive interval in seconds, 0 if keepalive is disabled.
+	 */
+	public int getKeepAliveInterval();
+
+	/**
+	 * Sets whether keepalive commands are sent while a data transfer is in
+	 * progress. Not all servers answer commands during a transfer, so this is
+	 * disabled by default. Servers that answer them may do so before or after
+	 * the final reply of the transfer; the extra replies are skipped either
+	 * way.
+	 * <p>
+	 * Before the final reply, a reply is taken as a keepalive reply unless its
+	 * code is one that ends a transfer, such as 226, 250, 426 or 550. A server
+	 * that answers a keepalive command during a transfer with one of those
+	 * codes, or that sends the final reply of the transfer with any other
+	 * code, makes the client read the wrong reply for the transfer and for
+	 * every later command. Enable this only for servers known to answer NOOP
+	 * during transfers with 200, 202 or a refusal such as 500 or 502.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to send keepalive commands during
+	 *            transfers.
+	 */
+	public void setKeepAliveDuringTransfer(boolean enabled);
+
+	/**
+	 * Tells whether keepalive commands are sent while a data transfer is in
+	 * progress.
+	 * 
+	 * @return <code>true</code>, if keepalive commands are sent during
+	 *         transfers.
+	 */
+	public boolean isKeepAliveDuringTransfer();
+
+	/**
+	 * Returns the transport used for SSL connections.
+	 * 
+	 * @return the SSL transport.
+	 */
+	public int getSSLTransport();
+
 	/**
 	 * Connects to the specified remote host <code>host</code> on the default
 	 * FTP port.
@@ -269,7 +701,8 @@ public interface FTPClient {
 	 * Sets the remote working directory to the specified directory
 	 * <code>dir</code>. Clients must send a <code>PWD</code> command after
 	 * sending the <code>CWD</code> command to make sure that the working
-	 * directory has changed.
+	 * directory has changed, unless the new path is already known (see
+	 * <code>setCommandElisionEnabled</code>).
 	 * 
 	 * @param dir
 	 *            New remote working directory to set.
@@ -302,7 +735,9 @@ public interface FTPClient {
 			ConnectionException;
 
 	/**
-	 * Sets the data representation type to the given <code>type</code>.
+	 * Sets the data representation type to the given <code>type</code>. If
+	 * command elision is enabled, the TYPE command is sent only when a
+	 * transfer needs it.
 	 * 
 	 * @param type
 	 *            New data representation type to set. Possible types are -
@@ -478,7 +913,13 @@ public interface FTPClient {
 	public void noop() throws FTPException, ConnectionException;
 
 	/**
-	 * Sends an <code>abort</code> command to the remote host.
+	 * Aborts the transfer in progress, if any, by sending an
+	 * <code>abort</code> command to the remote host and closing the data
+	 * connection. This method is meant to be called from another thread than
+	 * the one doing the transfer, which fails right away rather than when the
+	 * transfer times out. The replies to the transfer command and to the abort
+	 * command are read by the thread doing the transfer, so the connection
+	 * can be used for the next command.
 	 * 
 	 * @exception FTPException
 	 * @exception ConnectionException
@@ -534,6 +975,20 @@ public interface FTPClient {
 	 */
 	public void restart(long bytes) throws FTPException, ConnectionException;
 
+	/**
+	 * Returns the size of the specified remote file, using the SIZE command.
+	 * 
+	 * @param file
+	 *            the remote file.
+	 * @return size of the file in bytes.
+	 * @exception FTPException
+	 *                if the remote host does not support SIZE, or the file
+	 *                does not exist.
+	 * @exception ConnectionException
+	 */
+	public long getSize(RemoteFile file) throws FTPException,
+			ConnectionException;
+
 	/**
 	 * Returns the remote host's information by executing the <code>SYST</code>
 	 * command.
@@ -589,6 +1044,14 @@ public interface FTPClient {
 	public String executeCommand(String command) throws FTPException,
 			ConnectionException;
 
+	/**
+	 * Returns the last reply received from the remote host.
+	 * 
+	 * @return the last reply, or <code>null</code> if no reply was received
+	 *         yet.
+	 */
+	public FTPReply getLastReply();
+
 	/**
 	 * Returns the Address of the remote host.
 	 * 
@@ -699,6 +1162,29 @@ public interface FTPClient {
 	public RemoteFile[] list(RemoteFile dir, Filter filter)
 			throws FTPException, ParseException, ConnectionException;
 
+	/**
+	 * Sets the threshold for listing directories using the STAT command. When
+	 * the threshold is greater than 0, directory listings are requested with
+	 * <code>STAT &lt;path&gt;</code> and received over the control connection,
+	 * which saves opening a data connection for each listing. A directory
+	 * found to have more entries than the threshold is listed using LIST from
+	 * then on. If the remote host does not support STAT listings, the client
+	 * falls back to LIST for the rest of the session. The default is 0, which
+	 * always uses LIST.
+	 * 
+	 * @param threshold
+	 *            maximum number of entries of directories to list using STAT,
+	 *            or 0 to disable STAT listings.
+	 */
+	public void setStatListingThreshold(int threshold);
+
+	/**
+	 * Returns the threshold for listing directories using the STAT command.
+	 * 
+	 * @return maximum number of entries of directories to list using STAT.
+	 */
+	public int getStatListingThreshold();
+
 	/**
 	 * Copies the contents of the <code>source</code> to the local file
 	 * <code>destination</code>.
@@ -739,6 +1225,82 @@ public interface FTPClient {
 	public void upload(File source, RemoteFile destination, int type,
 			boolean append, long skip) throws FTPException, ConnectionException;
 
+	/**
+	 * Starts downloading the specified remote file and returns a stream from
+	 * which its contents can be read. Closing the returned stream completes
+	 * the transfer and checks the final reply of the remote host; a negative
+	 * reply is reported as an <code>IOException</code> whose cause is an
+	 * <code>FTPException</code>. No other commands may be sent using this
+	 * client until the stream is closed.
+	 * 
+	 * @param source
+	 *            Remote file to be downloaded.
+	 * @param type
+	 *            Data representation type to use for data transfer.
+	 * @return a stream to read the contents of the remote file. The stream can
+	 *         also be used as a <code>ReadableByteChannel</code>.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	public RemoteInputStream retrieve(RemoteFile source, int type)
+			throws FTPException, ConnectionException;
+
+	/**
+	 * Starts downloading the specified remote file from the given offset, by
+	 * sending REST before RETR, and returns a stream from which the rest of
+	 * its contents can be read. Otherwise, the same as
+	 * <code>retrieve(source, type)</code>.
+	 * 
+	 * @param source
+	 *            Remote file to be downloaded.
+	 * @param type
+	 *            Data representation type to use for data transfer.
+	 * @param offset
+	 *            number of bytes to skip, 0 to start at the beginning.
+	 * @return a stream to read the contents of the remote file.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	public RemoteInputStream retrieve(RemoteFile source, int type, long offset)
+			throws FTPException, ConnectionException;
+
+	/**
+	 * Returns a channel for reading arbitrary ranges of the specified remote
+	 * file. Each read that misses the cache of the channel is served by a
+	 * short transfer starting at the position of the read. No data is
+	 * transferred until the first read. The channel uses this client for
+	 * every such transfer, and the client may be used for other commands in
+	 * between.
+	 * 
+	 * @param file
+	 *            the remote file to read.
+	 * @return a channel over the remote file.
+	 */
+	public RemoteFileChannel openChannel(RemoteFile file);
+
+	/**
+	 * Starts uploading to the specified remote file and returns a stream to
+	 * which its contents can be written. Closing the returned stream completes
+	 * the transfer and checks the final reply of the remote host; a negative
+	 * reply is reported as an <code>IOException</code> whose cause is an
+	 * <code>FTPException</code>. No other commands may be sent using this
+	 * client until the stream is closed.
+	 * 
+	 * @param destination
+	 *            Destination file on the remote system.
+	 * @param type
+	 *            Data representation type to use for data transfer.
+	 * @param append
+	 *            Whether or not the destination file is to be appended with the
+	 *            data written to the stream.
+	 * @return a stream to write the contents of the remote file. The stream
+	 *         can also be used as a <code>WritableByteChannel</code>.
+	 * @exception FTPException
+	 * @exception ConnectionException
+	 */
+	public RemoteOutputStream store(RemoteFile destination, int type,
+			boolean append) throws FTPException, ConnectionException;
+
 	/**
 	 * Adds a listener that will be notified about the activities of
 	 * <code>ControlConnection</code> associated with this <code>FTPClient
@@ -779,7 +1341,7 @@ public interface FTPClient {
 	 * 
 	 * @return List of registered listeners.
 	 */
-	public EventListenerList getListenerList();
+	public ListenerList getListenerList();
 
 	/**
 	 * Adds the given FTPConnectionListener to the list of registered listeners.
@@ -823,6 +1385,32 @@ public interface FTPClient {
 	 */
 	public boolean isPassiveIPSubstitutionEnabled();
 
+	/**
+	 * Sets whether the extended data connection commands EPSV and EPRT (RFC
+	 * 2428) are used instead of PASV and PORT. In
+	 * <code>EXTENDED_MODE_AUTO</code>, the remote host is asked for its
+	 * features (FEAT) the first time a data connection is opened, and the
+	 * extended commands are used if they are supported. They are always used
+	 * when the remote host has an IPv6 address. In
+	 * <code>EXTENDED_MODE_ONLY</code>, the extended commands are used without
+	 * asking the remote host. Since the reply to EPSV contains only a port
+	 * number, passive data connections are then made to the address of the
+	 * control connection without parsing any address.
+	 * 
+	 * @param mode
+	 *            one of <code>EXTENDED_MODE_AUTO</code>,
+	 *            <code>EXTENDED_MODE_NEVER</code> or
+	 *            <code>EXTENDED_MODE_ONLY</code>.
+	 */
+	public void setExtendedMode(int mode);
+
+	/**
+	 * Returns the extended mode in use.
+	 * 
+	 * @return the extended mode.
+	 */
+	public int getExtendedMode();
+
 	/**
 	 * Sets the proxy server to use when making the control/data connections.
 	 * 
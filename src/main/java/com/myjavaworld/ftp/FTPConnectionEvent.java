@@ -15,6 +15,8 @@
  */
 package com.myjavaworld.ftp;
 
+import java.net.InetAddress;
+
 /**
  * An event object to represent FTPconnection stats.
  * 
@@ -33,6 +35,16 @@ public class FTPConnectionEvent extends java.util.EventObject {
 	 */
 	private String message = null;
 
+	/**
+	 * Address the connection was made to.
+	 */
+	private InetAddress remoteAddress = null;
+
+	/**
+	 * Time taken to connect, in nanoseconds.
+	 */
+	private long connectTime = -1L;
+
 	/**
 	 * Creates an instance of <code>FTPConnectionEvent</code>.
 	 * 
@@ -46,6 +58,27 @@ public class FTPConnectionEvent extends java.util.EventObject {
 		this.message = message;
 	}
 
+	/**
+	 * Creates an instance of <code>FTPConnectionEvent</code> for an opened
+	 * connection.
+	 * 
+	 * @param source
+	 *            Object that produced this event.
+	 * @param message
+	 *            Message string describing the event.
+	 * @param remoteAddress
+	 *            address the connection was made to.
+	 * @param connectTime
+	 *            time taken to connect, in nanoseconds.
+	 */
+	public FTPConnectionEvent(Object source, String message,
+			InetAddress remoteAddress, long connectTime) {
+		super(source);
+		this.message = message;
+		this.remoteAddress = remoteAddress;
+		this.connectTime = connectTime;
+	}
+
 	/**
 	 * Returns the message string that describes this connection event.
 	 * 
@@ -54,4 +87,23 @@ public class FTPConnectionEvent extends java.util.EventObject {
 	public String getMessage() {
 		return message;
 	}
+
+	/**
+	 * Returns the address the connection was made to. If the host has several
+	 * addresses, this is the one that answered first.
+	 * 
+	 * @return the remote address, or <code>null</code> if not known.
+	 */
+	public InetAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * Returns the time taken to establish the TCP connection.
+	 * 
+	 * @return connect time in nanoseconds, or -1 if not known.
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
 }
\ No newline at end of file
@@ -120,4 +120,79 @@ public interface FTPConstants {
 	 * Default port number to connect to when making an implicit SSL connection.
 	 */
 	public static final int DEFAULT_IMPLICIT_SSL_PORT = 990;
+	/**
+	 * An extended mode constant to represent use EPSV and EPRT (RFC 2428) if
+	 * the remote host supports them, or if the remote host has an IPv6
+	 * address.
+	 */
+	public static final int EXTENDED_MODE_AUTO = 0;
+	/**
+	 * An extended mode constant to represent never use EPSV and EPRT.
+	 */
+	public static final int EXTENDED_MODE_NEVER = 1;
+	/**
+	 * An extended mode constant to represent always use EPSV and EPRT, without
+	 * checking whether the remote host supports them.
+	 */
+	public static final int EXTENDED_MODE_ONLY = 2;
+	/**
+	 * Default extended mode. Value is <code>EXTENDED_MODE_AUTO</code>.
+	 */
+	public static final int DEFAULT_EXTENDED_MODE = EXTENDED_MODE_AUTO;
+	/**
+	 * An SSL transport constant to represent SSL sockets.
+	 */
+	public static final int SSL_TRANSPORT_SOCKET = 0;
+	/**
+	 * An SSL transport constant to represent an <code>SSLEngine</code> over a
+	 * socket channel, with pooled direct buffers.
+	 */
+	public static final int SSL_TRANSPORT_ENGINE = 1;
+	/**
+	 * Default SSL transport. Value is <code>SSL_TRANSPORT_SOCKET</code>.
+	 */
+	public static final int DEFAULT_SSL_TRANSPORT = SSL_TRANSPORT_SOCKET;
+	/**
+	 * Default upper limit of adaptive socket buffers. Value is 8 MB.
+	 */
+	public static final int DEFAULT_MAX_SOCKET_BUFFER_SIZE = 8 * 1024 * 1024;
+	/**
+	 * Default number of commands and replies kept in the wire trace. Value is
+	 * 64.
+	 */
+	public static final int DEFAULT_WIRE_TRACE_SIZE = 64;
+	/**
+	 * Default time to live of cached host capabilities, in seconds. Value is
+	 * 600 (10 minutes).
+	 */
+	public static final int DEFAULT_CAPABILITY_TTL = 600;
+	/**
+	 * A deadline constant for connecting, including the greeting of the remote
+	 * host and, for SSL, the handshake.
+	 */
+	public static final int DEADLINE_CONNECT = 1;
+	/**
+	 * A deadline constant for logging in, including the commands that follow
+	 * login.
+	 */
+	public static final int DEADLINE_LOGIN = 2;
+	/**
+	 * A deadline constant for a single command and its reply.
+	 */
+	public static final int DEADLINE_COMMAND = 3;
+	/**
+	 * A deadline constant for a directory listing, from opening the data
+	 * connection to the final reply.
+	 */
+	public static final int DEADLINE_LIST = 4;
+	/**
+	 * A deadline constant for a file transfer, from opening the data
+	 * connection to the final reply.
+	 */
+	public static final int DEADLINE_TRANSFER = 5;
+	/**
+	 * The reason of a timeout when the throughput of a transfer fell below the
+	 * minimum of the client.
+	 */
+	public static final int TIMEOUT_THROUGHPUT = 6;
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A stream of the entries of a remote directory, read from a single listing.
+ * The attributes of the entries are served from the same listing, so
+ * reading them while iterating sends nothing to the remote host.
+ */
+class FTPDirectoryStream implements DirectoryStream<Path> {
+
+	/**
+	 * The directory, as given.
+	 */
+	private FTPPath dir = null;
+	/**
+	 * Entries of the directory.
+	 */
+	private Collection<RemoteFile> entries = null;
+	/**
+	 * Filter of the entries, may be <code>null</code>.
+	 */
+	private Filter<? super Path> filter = null;
+	private boolean open = true;
+	/**
+	 * Whether or not the iterator was returned.
+	 */
+	private boolean iterated = false;
+
+	/**
+	 * Creates a new instance of <code>FTPDirectoryStream</code>.
+	 * 
+	 * @param dir
+	 *            the directory, entries are resolved against.
+	 * @param entries
+	 *            entries of the directory.
+	 * @param filter
+	 *            filter of the entries, may be <code>null</code>.
+	 */
+	FTPDirectoryStream(FTPPath dir, Collection<RemoteFile> entries,
+			Filter<? super Path> filter) {
+		this.dir = dir;
+		this.entries = entries;
+		this.filter = filter;
+	}
+
+	public synchronized Iterator<Path> iterator() {
+		if (!open) {
+			throw new IllegalStateException("Directory stream is closed");
+		}
+		if (iterated) {
+			throw new IllegalStateException("Iterator already returned");
+		}
+		iterated = true;
+		final Iterator<RemoteFile> iterator = entries.iterator();
+		return new Iterator<Path>() {
+
+			private Path next = null;
+
+			public boolean hasNext() {
+				while (next == null && isOpen() && iterator.hasNext()) {
+					Path path = dir.resolve(iterator.next().getName());
+					try {
+						if (filter == null || filter.accept(path)) {
+							next = path;
+						}
+					} catch (IOException exp) {
+						throw new DirectoryIteratorException(exp);
+					}
+				}
+				return next != null;
+			}
+
+			public Path next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Path path = next;
+				next = null;
+				return path;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private synchronized boolean isOpen() {
+		return open;
+	}
+
+	public synchronized void close() {
+		open = false;
+	}
+}
\ No newline at end of file
@@ -36,6 +36,14 @@ public class FTPException extends Exception {
 	 * The error code or response code.
 	 */
 	private String errorCode = null;
+	/**
+	 * The reply that caused this exception, if any.
+	 */
+	private FTPReply reply = null;
+	/**
+	 * Dump of the wire trace of the session, if any.
+	 */
+	private String wireTrace = null;
 
 	/**
 	 * Constructs an <CODE>FTPException</code> object with "000" as the error
@@ -59,6 +67,29 @@ public class FTPException extends Exception {
 		this.errorCode = reply.substring(0, 3);
 	}
 
+	/**
+	 * Constructs an <code>FTPException</code> object with the reply received
+	 * from the remote FTP host.
+	 * 
+	 * @param reply
+	 *            a permenant or transient negative completion reply from the
+	 *            remote host.
+	 */
+	public FTPException(FTPReply reply) {
+		this(reply.getText());
+		this.reply = reply;
+	}
+
+	/**
+	 * Returns the reply that caused this exception.
+	 * 
+	 * @return the reply from the remote host, or <code>null</code> if this
+	 *         exception was not created from an <code>FTPReply</code>.
+	 */
+	public FTPReply getReply() {
+		return reply;
+	}
+
 	/**
 	 * Returns the error or reply code.
 	 * 
@@ -67,4 +98,25 @@ public class FTPException extends Exception {
 	public String getErrorCode() {
 		return errorCode;
 	}
+
+	/**
+	 * Returns the latest commands and replies of the session in which this
+	 * exception occurred.
+	 * 
+	 * @return dump of the wire trace, or <code>null</code> if tracing was off
+	 *         or the exception was not thrown by a client.
+	 */
+	public String getWireTrace() {
+		return wireTrace;
+	}
+
+	/**
+	 * Attaches the dump of the wire trace of the session.
+	 * 
+	 * @param wireTrace
+	 *            dump of the wire trace.
+	 */
+	void setWireTrace(String wireTrace) {
+		this.wireTrace = wireTrace;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Basic attributes of a remote file, from a directory listing. Listings only
+ * have the time a file was last modified, which is also reported as the last
+ * access and creation times.
+ */
+class FTPFileAttributes implements BasicFileAttributes {
+
+	/**
+	 * The remote file.
+	 */
+	private RemoteFile file = null;
+
+	/**
+	 * Creates a new instance of <code>FTPFileAttributes</code>.
+	 * 
+	 * @param file
+	 *            the remote file.
+	 */
+	FTPFileAttributes(RemoteFile file) {
+		this.file = file;
+	}
+
+	public FileTime lastModifiedTime() {
+		return FileTime.fromMillis(file.getLastModified());
+	}
+
+	public FileTime lastAccessTime() {
+		return lastModifiedTime();
+	}
+
+	public FileTime creationTime() {
+		return lastModifiedTime();
+	}
+
+	public boolean isRegularFile() {
+		return file.isFile() && !file.isLink();
+	}
+
+	public boolean isDirectory() {
+		return file.isDirectory();
+	}
+
+	public boolean isSymbolicLink() {
+		return file.isLink();
+	}
+
+	public boolean isOther() {
+		return false;
+	}
+
+	public long size() {
+		return file.getSize();
+	}
+
+	public Object fileKey() {
+		return null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,1177 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A file system on a remote host, for one user. Objects of this class are
+ * created by <code>FTPFileSystemProvider</code>, one for each URI authority.
+ * <p>
+ * Operations borrow a logged in session from a pool, which grows up to the
+ * maximum number of sessions, and return it when done. A channel or a stream
+ * keeps its session until it is closed. An operation never borrows a second
+ * session while holding one, and one that needs two borrows them at once,
+ * so that operations cannot wait on each other. Waiting for a session fails
+ * after a timeout. Sessions left idle for a while are checked with NOOP
+ * before they are used again.
+ * <p>
+ * Directory listings are cached for a short time, and the attributes of a
+ * file are read from the cached listing of its parent, so walking a tree
+ * takes one listing per directory. Changes made through this file system
+ * are applied to the cached listings.
+ */
+class FTPFileSystem extends FileSystem {
+
+	/**
+	 * Default maximum number of sessions.
+	 */
+	private static final int DEFAULT_MAX_SESSIONS = 4;
+	/**
+	 * Default time, in seconds, a listing is cached for.
+	 */
+	private static final int DEFAULT_ATTRIBUTE_CACHE_TTL = 10;
+	/**
+	 * Default time, in seconds, to wait for a session when all are in use.
+	 */
+	private static final int DEFAULT_SESSION_WAIT_TIMEOUT = 60;
+	/**
+	 * Number of directory entries up to which directories are listed with
+	 * STAT, without a data connection.
+	 */
+	private static final int STAT_LISTING_THRESHOLD = 200;
+	/**
+	 * Idle time, in milliseconds, after which a session is checked with NOOP
+	 * before it is used.
+	 */
+	private static final int IDLE_CHECK_INTERVAL = 30000;
+	/**
+	 * Maximum number of cached listings.
+	 */
+	private static final int MAX_LISTINGS = 256;
+	/**
+	 * User name used when none is given.
+	 */
+	private static final String ANONYMOUS = "anonymous";
+	/**
+	 * The provider that created this file system.
+	 */
+	private FTPFileSystemProvider provider = null;
+	/**
+	 * Key of this file system in the provider.
+	 */
+	private String key = null;
+	private String host = null;
+	private int port = 0;
+	private String user = null;
+	private String password = null;
+	private String account = null;
+	/**
+	 * Whether or not the sessions use explicit SSL.
+	 */
+	private boolean secure = false;
+	/**
+	 * SSL context of the sessions, <code>null</code> for the default one.
+	 */
+	private SSLContext sslContext = null;
+	private boolean passive = true;
+	private int maxSessions = DEFAULT_MAX_SESSIONS;
+	/**
+	 * Time, in milliseconds, a listing is cached for.
+	 */
+	private long attributeCacheTTL = DEFAULT_ATTRIBUTE_CACHE_TTL * 1000L;
+	/**
+	 * Time, in milliseconds, to wait for a session when all are in use.
+	 */
+	private long sessionWaitTimeout = DEFAULT_SESSION_WAIT_TIMEOUT * 1000L;
+	/**
+	 * Idle sessions, most recently used first.
+	 */
+	private LinkedList<Session> idle = new LinkedList<Session>();
+	/**
+	 * Number of sessions, idle or in use.
+	 */
+	private int sessionCount = 0;
+	/**
+	 * Whether or not this file system is open.
+	 */
+	private boolean open = true;
+	/**
+	 * Home directory of the user, found by the first session.
+	 */
+	private FTPPath homeDirectory = null;
+	/**
+	 * Cached listings, by directory path, least recently used first.
+	 */
+	private Map<String, Listing> listings = new LinkedHashMap<String, Listing>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = -2465316006154867152L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+			return size() > MAX_LISTINGS;
+		}
+	};
+	/**
+	 * Creates the remote files of paths.
+	 */
+	private ListParser listParser = new DefaultListParser();
+
+	/**
+	 * Creates a new instance of <code>FTPFileSystem</code>.
+	 * 
+	 * @param provider
+	 *            the provider creating this file system.
+	 * @param key
+	 *            key of this file system in the provider.
+	 * @param uri
+	 *            the URI of the file system.
+	 * @param env
+	 *            the environment, as described by
+	 *            <code>FTPFileSystemProvider</code>, may be <code>null</code>.
+	 */
+	FTPFileSystem(FTPFileSystemProvider provider, String key, URI uri,
+			Map<String, ?> env) {
+		this.provider = provider;
+		this.key = key;
+		host = uri.getHost();
+		port = uri.getPort() < 0 ? FTPConstants.DEFAULT_PORT : uri.getPort();
+		user = getUser(uri, env);
+		String userInfo = uri.getUserInfo();
+		if (get(env, "password") != null) {
+			password = get(env, "password").toString();
+		} else if (userInfo != null && userInfo.indexOf(':') >= 0) {
+			password = userInfo.substring(userInfo.indexOf(':') + 1);
+		} else {
+			password = ANONYMOUS + "@";
+		}
+		account = get(env, "account") == null ? "" : get(env, "account")
+				.toString();
+		secure = provider.getScheme().equals("ftps");
+		sslContext = (SSLContext) get(env, "sslContext");
+		if (get(env, "passive") != null) {
+			passive = Boolean.valueOf(get(env, "passive").toString())
+					.booleanValue();
+		}
+		if (get(env, "maxSessions") != null) {
+			maxSessions = Integer.parseInt(get(env, "maxSessions").toString());
+			if (maxSessions < 1) {
+				throw new IllegalArgumentException("Invalid maxSessions: "
+						+ maxSessions);
+			}
+		}
+		if (get(env, "attributeCacheTTL") != null) {
+			attributeCacheTTL = Integer.parseInt(get(env, "attributeCacheTTL")
+					.toString()) * 1000L;
+		}
+		if (get(env, "sessionWaitTimeout") != null) {
+			int seconds = Integer.parseInt(get(env, "sessionWaitTimeout")
+					.toString());
+			if (seconds < 1) {
+				throw new IllegalArgumentException(
+						"Invalid sessionWaitTimeout: " + seconds);
+			}
+			sessionWaitTimeout = seconds * 1000L;
+		}
+	}
+
+	/**
+	 * Returns the key of the file system for the given URI and environment,
+	 * which is the user, host and port.
+	 */
+	static String getKey(URI uri, Map<String, ?> env) {
+		int port = uri.getPort() < 0 ? FTPConstants.DEFAULT_PORT : uri
+				.getPort();
+		return getUser(uri, env) + "@" + uri.getHost().toLowerCase() + ":"
+				+ port;
+	}
+
+	/**
+	 * Returns the user of the given URI and environment.
+	 */
+	private static String getUser(URI uri, Map<String, ?> env) {
+		if (get(env, "username") != null) {
+			return get(env, "username").toString();
+		}
+		String userInfo = uri.getUserInfo();
+		if (userInfo == null || userInfo.length() == 0) {
+			return ANONYMOUS;
+		}
+		int index = userInfo.indexOf(':');
+		return index < 0 ? userInfo : userInfo.substring(0, index);
+	}
+
+	private static Object get(Map<String, ?> env, String name) {
+		return env == null ? null : env.get(name);
+	}
+
+	@Override
+	public FTPFileSystemProvider provider() {
+		return provider;
+	}
+
+	/**
+	 * Closes this file system, and disconnects the idle sessions. Sessions in
+	 * use are disconnected when they are released.
+	 */
+	@Override
+	public void close() throws IOException {
+		LinkedList<Session> sessions = null;
+		synchronized (this) {
+			if (!open) {
+				return;
+			}
+			open = false;
+			sessions = idle;
+			idle = new LinkedList<Session>();
+			sessionCount -= sessions.size();
+			notifyAll();
+		}
+		provider.removeFileSystem(key);
+		for (Session session : sessions) {
+			disconnect(session.client, true);
+		}
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.<Path> singletonList(new FTPPath(this, "/"));
+	}
+
+	/**
+	 * A remote host has no file stores that can be queried.
+	 * 
+	 * @return an empty list.
+	 */
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.<FileStore> emptyList();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return Collections.singleton("basic");
+	}
+
+	@Override
+	public Path getPath(String first, String... more) {
+		StringBuilder buffer = new StringBuilder(first);
+		for (int i = 0; i < more.length; i++) {
+			if (more[i].length() > 0) {
+				if (buffer.length() > 0) {
+					buffer.append('/');
+				}
+				buffer.append(more[i]);
+			}
+		}
+		return new FTPPath(this, buffer.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		int index = syntaxAndPattern.indexOf(':');
+		if (index <= 0) {
+			throw new IllegalArgumentException("Invalid pattern: "
+					+ syntaxAndPattern);
+		}
+		String syntax = syntaxAndPattern.substring(0, index);
+		String pattern = syntaxAndPattern.substring(index + 1);
+		String regex = null;
+		if (syntax.equalsIgnoreCase("glob")) {
+			regex = toRegex(pattern);
+		} else if (syntax.equalsIgnoreCase("regex")) {
+			regex = pattern;
+		} else {
+			throw new UnsupportedOperationException("Syntax not supported: "
+					+ syntax);
+		}
+		final Pattern compiled = Pattern.compile(regex);
+		return new PathMatcher() {
+
+			public boolean matches(Path path) {
+				return compiled.matcher(path.toString()).matches();
+			}
+		};
+	}
+
+	/**
+	 * Converts the given glob pattern to a regular expression.
+	 */
+	private static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		boolean group = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char ch = glob.charAt(i);
+			if (ch == '*') {
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if (ch == '?') {
+				regex.append("[^/]");
+			} else if (ch == '{' && !group) {
+				regex.append("(?:");
+				group = true;
+			} else if (ch == '}' && group) {
+				regex.append(')');
+				group = false;
+			} else if (ch == ',' && group) {
+				regex.append('|');
+			} else if (ch == '[') {
+				int end = glob.indexOf(']', i + 2);
+				if (end < 0) {
+					throw new IllegalArgumentException("Unclosed bracket in "
+							+ glob);
+				}
+				String chars = glob.substring(i + 1, end);
+				regex.append('[');
+				if (chars.startsWith("!")) {
+					regex.append('^');
+					chars = chars.substring(1);
+				}
+				regex.append(chars.replace("\\", "\\\\")
+						.replace("[", "\\["));
+				regex.append(']');
+				i = end;
+			} else {
+				if (ch == '\\' && i + 1 < glob.length()) {
+					ch = glob.charAt(++i);
+				}
+				if ("\\.^$|+()[]{}*?".indexOf(ch) >= 0) {
+					regex.append('\\');
+				}
+				regex.append(ch);
+			}
+		}
+		if (group) {
+			throw new IllegalArgumentException("Unclosed group in " + glob);
+		}
+		return regex.toString();
+	}
+
+	/**
+	 * Remote hosts have no user principals that can be looked up.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                always.
+	 */
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Remote paths cannot be watched.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                always.
+	 */
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the URI of the given absolute path.
+	 */
+	URI toUri(String path) {
+		try {
+			return new URI(provider.getScheme(), user.equals(ANONYMOUS) ? null
+					: user, host, port == FTPConstants.DEFAULT_PORT ? -1
+					: port, path, null, null);
+		} catch (URISyntaxException exp) {
+			throw new IllegalStateException(exp.getMessage(), exp);
+		}
+	}
+
+	/**
+	 * Returns the home directory of the user, connecting if no session did
+	 * so far.
+	 */
+	FTPPath getHomeDirectory() throws IOException {
+		synchronized (this) {
+			if (homeDirectory != null) {
+				return homeDirectory;
+			}
+		}
+		release(acquire(), true);
+		synchronized (this) {
+			return homeDirectory;
+		}
+	}
+
+	/**
+	 * Returns the given path as an absolute and normalized path.
+	 */
+	FTPPath resolve(FTPPath path) throws IOException {
+		if (!path.isAbsolute()) {
+			path = (FTPPath) getHomeDirectory().resolve(path);
+		}
+		return (FTPPath) path.normalize();
+	}
+
+	/**
+	 * Returns a remote file for the given absolute path.
+	 */
+	RemoteFile toRemoteFile(FTPPath path, boolean dir) {
+		return listParser.createRemoteFile(path.toString(), dir);
+	}
+
+	/**
+	 * Borrows a session from the pool, connecting a new one if none is idle
+	 * and the maximum number of sessions is not reached, or waiting for one
+	 * to be released otherwise.
+	 * 
+	 * @return a logged in session.
+	 * @exception IOException
+	 *                if connecting a new session failed, or no session was
+	 *                released in time.
+	 */
+	DefaultFTPClient acquire() throws IOException {
+		return acquire(1)[0];
+	}
+
+	/**
+	 * Borrows the given number of sessions from the pool at once, so that
+	 * callers needing more than one do not hold some while waiting for the
+	 * others.
+	 * 
+	 * @param count
+	 *            number of sessions.
+	 * @return the logged in sessions.
+	 * @exception IOException
+	 *                if connecting a new session failed, if no sessions were
+	 *                released in time, or if <code>count</code> is more than
+	 *                the maximum number of sessions.
+	 */
+	DefaultFTPClient[] acquire(int count) throws IOException {
+		if (count > maxSessions) {
+			throw new FileSystemException(null, null, count
+					+ " sessions needed, but maxSessions is " + maxSessions);
+		}
+		List<Session> sessions = reserve(count);
+		DefaultFTPClient[] clients = new DefaultFTPClient[count];
+		int acquired = 0;
+		try {
+			for (; acquired < count; acquired++) {
+				if (acquired < sessions.size()) {
+					Session session = sessions.get(acquired);
+					if (System.currentTimeMillis() - session.idleSince < IDLE_CHECK_INTERVAL
+							|| isAlive(session.client)) {
+						clients[acquired] = session.client;
+						continue;
+					}
+					// A new session takes its place
+					disconnect(session.client, false);
+				}
+				clients[acquired] = connect();
+			}
+		} finally {
+			if (acquired < count) {
+				// Connecting failed, and gave up its place already
+				int unused = 0;
+				for (int i = 0; i < count; i++) {
+					if (i < acquired) {
+						release(clients[i], true);
+					} else if (i > acquired && i < sessions.size()) {
+						release(sessions.get(i).client, true);
+					} else if (i > acquired) {
+						unused++;
+					}
+				}
+				synchronized (this) {
+					sessionCount -= unused;
+					notifyAll();
+				}
+			}
+		}
+		return clients;
+	}
+
+	/**
+	 * Borrows a session from each of the given file systems, in an order that
+	 * is the same for all callers, so that two callers borrowing from the same
+	 * file systems cannot wait on each other.
+	 * 
+	 * @return the session of <code>first</code>, then that of
+	 *         <code>second</code>.
+	 * @exception IOException
+	 *                if either session could not be borrowed.
+	 */
+	static DefaultFTPClient[] acquire(FTPFileSystem first, FTPFileSystem second)
+			throws IOException {
+		if (first == second) {
+			return first.acquire(2);
+		}
+		boolean reversed = first.getOrderKey().compareTo(
+				second.getOrderKey()) > 0;
+		FTPFileSystem former = reversed ? second : first;
+		FTPFileSystem latter = reversed ? first : second;
+		DefaultFTPClient[] clients = new DefaultFTPClient[2];
+		clients[0] = former.acquire();
+		boolean acquired = false;
+		try {
+			clients[1] = latter.acquire();
+			acquired = true;
+		} finally {
+			if (!acquired) {
+				former.release(clients[0], true);
+			}
+		}
+		if (reversed) {
+			return new DefaultFTPClient[] { clients[1], clients[0] };
+		}
+		return clients;
+	}
+
+	/**
+	 * Returns the key sessions of different file systems are borrowed in the
+	 * order of.
+	 */
+	private String getOrderKey() {
+		return provider.getScheme() + "://" + key;
+	}
+
+	/**
+	 * Waits until the given number of sessions is available, and takes them.
+	 * 
+	 * @return the idle sessions taken, at most <code>count</code>. New
+	 *         sessions are counted for the rest, and must be connected by the
+	 *         caller.
+	 */
+	private synchronized List<Session> reserve(int count) throws IOException {
+		long deadline = System.currentTimeMillis() + sessionWaitTimeout;
+		while (true) {
+			if (!open) {
+				throw new ClosedFileSystemException();
+			}
+			if (idle.size() + maxSessions - sessionCount >= count) {
+				break;
+			}
+			long delay = deadline - System.currentTimeMillis();
+			if (delay <= 0) {
+				throw new InterruptedIOException(
+						"Timed out waiting for a session");
+			}
+			try {
+				wait(delay);
+			} catch (InterruptedException exp) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for a session");
+			}
+		}
+		List<Session> sessions = new ArrayList<Session>(count);
+		while (sessions.size() < count && !idle.isEmpty()) {
+			sessions.add(idle.removeFirst());
+		}
+		sessionCount += count - sessions.size();
+		return sessions;
+	}
+
+	/**
+	 * Returns a session to the pool. Sessions that are not reusable, or that
+	 * are returned after this file system was closed, are disconnected.
+	 * 
+	 * @param client
+	 *            the session.
+	 * @param reusable
+	 *            whether or not the session is in a known state.
+	 */
+	void release(DefaultFTPClient client, boolean reusable) {
+		synchronized (this) {
+			if (open && reusable && client.isConnected()) {
+				idle.addFirst(new Session(client));
+				notifyAll();
+				return;
+			}
+			sessionCount--;
+			notifyAll();
+		}
+		disconnect(client, reusable);
+	}
+
+	/**
+	 * Connects and logs in a new session. The session is counted already.
+	 */
+	private DefaultFTPClient connect() throws IOException {
+		DefaultFTPClient client = new DefaultFTPClient();
+		boolean connected = false;
+		try {
+			client.setListParser(new DefaultListParser());
+			client.setPassive(passive);
+			client.setStatListingThreshold(STAT_LISTING_THRESHOLD);
+			if (secure) {
+				client.setSSLContext(sslContext == null ? SSLContext
+						.getDefault() : sslContext);
+				client.setSSLUsage(FTPConstants.USE_EXPLICIT_SSL);
+				client.setExplicitSSLProtocol("TLS");
+			}
+			client.connect(host, port);
+			client.login(user, password, account);
+			synchronized (this) {
+				if (homeDirectory == null) {
+					homeDirectory = new FTPPath(this, client
+							.getWorkingDirectory().getPath());
+				}
+			}
+			connected = true;
+			return client;
+		} catch (NoSuchAlgorithmException exp) {
+			throw FTPUtil.toIOException(exp);
+		} catch (FTPException exp) {
+			throw FTPUtil.toIOException(exp);
+		} catch (ConnectionException exp) {
+			throw FTPUtil.toIOException(exp);
+		} finally {
+			if (!connected) {
+				client.close();
+				synchronized (this) {
+					sessionCount--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells whether the given idle session still works.
+	 */
+	private static boolean isAlive(DefaultFTPClient client) {
+		try {
+			client.noop();
+			return true;
+		} catch (Exception exp) {
+			return false;
+		}
+	}
+
+	/**
+	 * Disconnects the given session, sending QUIT if it is in a known state.
+	 */
+	private static void disconnect(DefaultFTPClient client, boolean quit) {
+		if (quit) {
+			try {
+				client.disconnect();
+				return;
+			} catch (Exception exp) {
+				// Closed below
+			}
+		}
+		client.close();
+	}
+
+	/**
+	 * Runs the given operation with a session from the pool.
+	 * 
+	 * @param path
+	 *            the path the operation is on, for reporting errors.
+	 * @param operation
+	 *            the operation.
+	 * @return the result of the operation.
+	 * @exception IOException
+	 *                if the operation fails. If the remote host reports an
+	 *                error, the exception is a
+	 *                <code>FileSystemException</code> whose cause is an
+	 *                <code>FTPException</code>.
+	 */
+	<T> T execute(FTPPath path, Operation<T> operation) throws IOException {
+		DefaultFTPClient client = acquire();
+		boolean reusable = false;
+		try {
+			T result = operation.run(client);
+			reusable = true;
+			return result;
+		} catch (FTPException exp) {
+			reusable = true;
+			throw toException(path, exp);
+		} catch (ParseException exp) {
+			reusable = true;
+			throw toException(path, exp);
+		} catch (ConnectionException exp) {
+			throw toException(path, exp);
+		} finally {
+			release(client, reusable);
+		}
+	}
+
+	/**
+	 * Runs the given operation with the given session, which the caller
+	 * borrowed already, or with a session from the pool if it is
+	 * <code>null</code>.
+	 */
+	private <T> T execute(FTPPath path, Operation<T> operation,
+			DefaultFTPClient client) throws IOException {
+		if (client == null) {
+			return execute(path, operation);
+		}
+		try {
+			return operation.run(client);
+		} catch (FTPException exp) {
+			throw toException(path, exp);
+		} catch (ParseException exp) {
+			throw toException(path, exp);
+		} catch (ConnectionException exp) {
+			throw toException(path, exp);
+		}
+	}
+
+	/**
+	 * Converts the given exception to an <code>IOException</code>. Errors
+	 * reported by the remote host, directly or as the cause of an
+	 * <code>IOException</code>, become <code>FileSystemException</code>s for
+	 * the given path.
+	 */
+	IOException toException(FTPPath path, Exception exp) {
+		Exception cause = exp;
+		if (exp instanceof IOException) {
+			if (!(exp.getCause() instanceof FTPException)) {
+				return (IOException) exp;
+			}
+			cause = (FTPException) exp.getCause();
+		}
+		if (!(cause instanceof FTPException)) {
+			return FTPUtil.toIOException(cause);
+		}
+		FileSystemException exception = new FileSystemException(path
+				.toString(), null, cause.getMessage());
+		exception.initCause(cause);
+		return exception;
+	}
+
+	/**
+	 * Returns the entries of the given directory, from the cached listing if
+	 * it is recent enough.
+	 * 
+	 * @param dir
+	 *            absolute path of the directory.
+	 * @return the entries, by name.
+	 * @exception IOException
+	 *                if listing the directory failed.
+	 */
+	Map<String, RemoteFile> list(FTPPath dir) throws IOException {
+		return list(dir, null);
+	}
+
+	/**
+	 * Returns the entries of the given directory, from the cached listing if
+	 * it is recent enough, or listing it with the given session.
+	 * 
+	 * @param dir
+	 *            absolute path of the directory.
+	 * @param client
+	 *            session the caller borrowed already, or <code>null</code>
+	 *            to borrow one from the pool.
+	 * @return the entries, by name.
+	 * @exception IOException
+	 *                if listing the directory failed.
+	 */
+	Map<String, RemoteFile> list(final FTPPath dir, DefaultFTPClient client)
+			throws IOException {
+		synchronized (listings) {
+			Listing listing = listings.get(dir.toString());
+			if (listing != null
+					&& System.currentTimeMillis() - listing.time < attributeCacheTTL) {
+				return listing.entries;
+			}
+		}
+		RemoteFile[] files = execute(dir, new Operation<RemoteFile[]>() {
+
+			@Override
+			RemoteFile[] run(DefaultFTPClient client) throws FTPException,
+					ParseException, ConnectionException {
+				return client.list(toRemoteFile(dir, true));
+			}
+		}, client);
+		Map<String, RemoteFile> entries = new LinkedHashMap<String, RemoteFile>();
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if (!name.equals(".") && !name.equals("..")) {
+				entries.put(name, files[i]);
+			}
+		}
+		entries = Collections.unmodifiableMap(entries);
+		synchronized (listings) {
+			listings.put(dir.toString(), new Listing(entries));
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the remote file of the given path, from the listing of its
+	 * parent.
+	 * 
+	 * @param path
+	 *            the path.
+	 * @return the remote file, or <code>null</code> if it does not exist.
+	 * @exception IOException
+	 *                if listing the parent failed other than being refused.
+	 */
+	RemoteFile lookup(FTPPath path) throws IOException {
+		return lookup(path, null);
+	}
+
+	/**
+	 * Returns the remote file of the given path, listing its parent with the
+	 * given session if needed.
+	 * 
+	 * @param path
+	 *            the path.
+	 * @param client
+	 *            session the caller borrowed already, or <code>null</code>
+	 *            to borrow one from the pool.
+	 * @return the remote file, or <code>null</code> if it does not exist.
+	 * @exception IOException
+	 *                if listing the parent failed other than being refused.
+	 */
+	RemoteFile lookup(FTPPath path, DefaultFTPClient client)
+			throws IOException {
+		FTPPath file = resolve(path);
+		FTPPath parent = (FTPPath) file.getParent();
+		if (parent == null) {
+			return toRemoteFile(file, true);
+		}
+		try {
+			return list(parent, client).get(file.getFileName().toString());
+		} catch (FileSystemException exp) {
+			if (exp.getCause() instanceof FTPException) {
+				// No such directory, or no access to it
+				return null;
+			}
+			throw exp;
+		}
+	}
+
+	/**
+	 * Returns the remote file of the given path, which must exist.
+	 * 
+	 * @exception NoSuchFileException
+	 *                if the file does not exist.
+	 */
+	RemoteFile getFile(FTPPath path) throws IOException {
+		return getFile(path, null);
+	}
+
+	/**
+	 * Returns the remote file of the given path, which must exist, listing
+	 * its parent with the given session if needed.
+	 * 
+	 * @param client
+	 *            session the caller borrowed already, or <code>null</code>
+	 *            to borrow one from the pool.
+	 * @exception NoSuchFileException
+	 *                if the file does not exist.
+	 */
+	RemoteFile getFile(FTPPath path, DefaultFTPClient client)
+			throws IOException {
+		RemoteFile file = lookup(path, client);
+		if (file == null) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return file;
+	}
+
+	/**
+	 * Applies a change to the cached listing of the parent of the given path,
+	 * if any.
+	 * 
+	 * @param path
+	 *            absolute path of the changed file.
+	 * @param file
+	 *            the new remote file, <code>null</code> if it was deleted.
+	 */
+	void update(FTPPath path, RemoteFile file) {
+		FTPPath parent = (FTPPath) path.getParent();
+		if (parent == null) {
+			return;
+		}
+		synchronized (listings) {
+			if (file == null) {
+				listings.remove(path.toString());
+			}
+			Listing listing = listings.get(parent.toString());
+			if (listing == null) {
+				return;
+			}
+			Map<String, RemoteFile> entries = new LinkedHashMap<String, RemoteFile>(
+					listing.entries);
+			String name = path.getFileName().toString();
+			if (file == null) {
+				entries.remove(name);
+			} else {
+				entries.put(name, file);
+			}
+			listing.entries = Collections.unmodifiableMap(entries);
+		}
+	}
+
+	/**
+	 * Drops the cached listing of the parent of the given path, when the
+	 * outcome of a change is not known.
+	 */
+	void invalidate(FTPPath path) {
+		FTPPath parent = (FTPPath) path.getParent();
+		synchronized (listings) {
+			listings.remove(path.toString());
+			if (parent != null) {
+				listings.remove(parent.toString());
+			}
+		}
+	}
+
+	/**
+	 * Opens a channel to read or write the given file. Reading and writing
+	 * the same channel is not supported. A channel for writing replaces the
+	 * file, unless it is opened for appending.
+	 */
+	SeekableByteChannel newByteChannel(FTPPath path,
+			Set<? extends OpenOption> options) throws IOException {
+		return newByteChannel(path, options, null);
+	}
+
+	/**
+	 * Opens a channel to read or write the given file over the given session,
+	 * which the caller borrowed already. The session is returned to the pool
+	 * when the channel is closed, or if opening it fails.
+	 * 
+	 * @param client
+	 *            the session, or <code>null</code> to borrow one from the
+	 *            pool.
+	 */
+	SeekableByteChannel newByteChannel(FTPPath path,
+			Set<? extends OpenOption> options, DefaultFTPClient client)
+			throws IOException {
+		FTPPath file = null;
+		boolean append = options.contains(StandardOpenOption.APPEND);
+		boolean writable = append
+				|| options.contains(StandardOpenOption.WRITE);
+		long size = 0L;
+		boolean checked = false;
+		try {
+			file = resolve(path);
+			if (writable) {
+				if (options.contains(StandardOpenOption.READ)) {
+					throw new UnsupportedOperationException(
+							"Reading and writing the same channel is not supported");
+				}
+				boolean createNew = options
+						.contains(StandardOpenOption.CREATE_NEW);
+				boolean create = options.contains(StandardOpenOption.CREATE);
+				if (createNew || !create || append) {
+					RemoteFile existing = lookup(file, client);
+					if (existing != null && createNew) {
+						throw new FileAlreadyExistsException(path.toString());
+					}
+					if (existing == null && !create && !createNew) {
+						throw new NoSuchFileException(path.toString());
+					}
+					if (existing != null && append) {
+						size = existing.getSize();
+					}
+				}
+			}
+			checked = true;
+		} finally {
+			if (!checked && client != null) {
+				release(client, false);
+			}
+		}
+		// The channel returns the session from now on
+		return new FTPByteChannel(this, file, writable, append, size, client);
+	}
+
+	/**
+	 * Opens a stream of the entries of the given directory.
+	 */
+	DirectoryStream<Path> newDirectoryStream(FTPPath dir,
+			DirectoryStream.Filter<? super Path> filter) throws IOException {
+		RemoteFile file = getFile(dir);
+		if (!file.isDirectory() && !file.isLink()) {
+			throw new NotDirectoryException(dir.toString());
+		}
+		return new FTPDirectoryStream(dir, list(resolve(dir)).values(), filter);
+	}
+
+	/**
+	 * Creates the given directory.
+	 */
+	void createDirectory(FTPPath dir) throws IOException {
+		final FTPPath file = resolve(dir);
+		if (lookup(file) != null) {
+			throw new FileAlreadyExistsException(dir.toString());
+		}
+		execute(dir, new Operation<Object>() {
+
+			@Override
+			Object run(DefaultFTPClient client) throws FTPException,
+					ConnectionException {
+				client.createDirectory(toRemoteFile(file, true));
+				return null;
+			}
+		});
+		update(file, new DefaultRemoteFile(file.getParent().toString(), file
+				.getFileName().toString(), true, 0L,
+				System.currentTimeMillis(), null));
+	}
+
+	/**
+	 * Deletes the given file or empty directory.
+	 */
+	void delete(FTPPath path) throws IOException {
+		final FTPPath file = resolve(path);
+		final boolean dir = getFile(file).isDirectory();
+		execute(path, new Operation<Object>() {
+
+			@Override
+			Object run(DefaultFTPClient client) throws FTPException,
+					ConnectionException {
+				client.delete(toRemoteFile(file, dir));
+				return null;
+			}
+		});
+		update(file, null);
+	}
+
+	/**
+	 * Renames the given file.
+	 */
+	void rename(FTPPath source, FTPPath target, boolean replace)
+			throws IOException {
+		final FTPPath from = resolve(source);
+		final FTPPath to = resolve(target);
+		final boolean dir = getFile(from).isDirectory();
+		if (from.equals(to)) {
+			return;
+		}
+		RemoteFile existing = lookup(to);
+		if (existing != null) {
+			if (!replace) {
+				throw new FileAlreadyExistsException(target.toString());
+			}
+			delete(to);
+		}
+		try {
+			execute(source, new Operation<Object>() {
+
+				@Override
+				Object run(DefaultFTPClient client) throws FTPException,
+						ConnectionException {
+					client.rename(toRemoteFile(from, dir), toRemoteFile(to,
+							dir));
+					return null;
+				}
+			});
+		} finally {
+			invalidate(from);
+			invalidate(to);
+		}
+	}
+
+	/**
+	 * An operation run with a session from the pool.
+	 */
+	abstract static class Operation<T> {
+
+		abstract T run(DefaultFTPClient client) throws FTPException,
+				ParseException, ConnectionException;
+	}
+
+	/**
+	 * An idle session.
+	 */
+	private static class Session {
+
+		private DefaultFTPClient client = null;
+		/**
+		 * Time the session was released.
+		 */
+		private long idleSince = 0L;
+
+		Session(DefaultFTPClient client) {
+			this.client = client;
+			idleSince = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * A cached directory listing.
+	 */
+	private static class Listing {
+
+		/**
+		 * Time the directory was listed.
+		 */
+		private long time = 0L;
+		/**
+		 * Entries of the directory, by name. Changes replace the map, so a
+		 * map once returned does not change.
+		 */
+		private Map<String, RemoteFile> entries = null;
+
+		Listing(Map<String, RemoteFile> entries) {
+			this.entries = entries;
+			time = System.currentTimeMillis();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.net.InetAddress;
+
+/**
+ * Receives measurements from FTP clients. An implementation is set on a
+ * client with <code>FTPClient.setMetrics</code>, and may be shared by many
+ * clients, so its methods may be called by several threads at once. The
+ * methods are called on the thread doing the work and should return quickly.
+ * <p>
+ * Times are in nanoseconds. The default, <code>NONE</code>, does nothing.
+ * <code>DefaultFTPMetrics</code> collects the measurements in histograms and
+ * counters.
+ */
+public interface FTPMetrics {
+
+	/**
+	 * Metrics that ignore all measurements.
+	 */
+	public static final FTPMetrics NONE = new FTPMetrics() {
+
+		public void connected(InetAddress address, long time) {
+		}
+
+		public void controlHandshakeCompleted(long time) {
+		}
+
+		public void loggedIn(long time) {
+		}
+
+		public void commandCompleted(String command, int replyCode, long time) {
+		}
+
+		public void dataHandshakeCompleted(boolean resumed, long time) {
+		}
+
+		public void firstByteTransferred(int direction, long time) {
+		}
+
+		public void transferCompleted(int direction, long bytes, long time) {
+		}
+	};
+
+	/**
+	 * Called when the TCP connection of a control connection is made.
+	 * 
+	 * @param address
+	 *            address the connection was made to.
+	 * @param time
+	 *            time taken to connect.
+	 */
+	public void connected(InetAddress address, long time);
+
+	/**
+	 * Called when the SSL handshake of a control connection is done.
+	 * 
+	 * @param time
+	 *            time taken by the handshake.
+	 */
+	public void controlHandshakeCompleted(long time);
+
+	/**
+	 * Called when a client logged in.
+	 * 
+	 * @param time
+	 *            time taken from sending USER to the final reply of the login.
+	 */
+	public void loggedIn(long time);
+
+	/**
+	 * Called when the final reply to a command is received.
+	 * 
+	 * @param command
+	 *            the command, without arguments, in upper case.
+	 * @param replyCode
+	 *            code of the final reply, 0 if the reply was invalid.
+	 * @param time
+	 *            time from sending the command to receiving the final reply.
+	 *            For transfer commands, this includes the transfer.
+	 */
+	public void commandCompleted(String command, int replyCode, long time);
+
+	/**
+	 * Called when the SSL handshake of a data connection is done.
+	 * 
+	 * @param resumed
+	 *            whether the session of the control connection was resumed.
+	 * @param time
+	 *            time taken by the handshake.
+	 */
+	public void dataHandshakeCompleted(boolean resumed, long time);
+
+	/**
+	 * Called when the first data of a transfer is received, or is handed to
+	 * the data connection to be sent.
+	 * 
+	 * @param direction
+	 *            <code>DataConnectionEvent.RECEIVE</code> or
+	 *            <code>DataConnectionEvent.SEND</code>.
+	 * @param time
+	 *            time from opening the data connection to the first data.
+	 */
+	public void firstByteTransferred(int direction, long time);
+
+	/**
+	 * Called when a transfer is finished, whether or not it succeeded.
+	 * 
+	 * @param direction
+	 *            <code>DataConnectionEvent.RECEIVE</code> or
+	 *            <code>DataConnectionEvent.SEND</code>.
+	 * @param bytes
+	 *            number of bytes transferred.
+	 * @param time
+	 *            time taken by the transfer.
+	 */
+	public void transferCompleted(int direction, long bytes, long time);
+}
\ No newline at end of file
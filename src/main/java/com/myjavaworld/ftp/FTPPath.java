@@ -0,0 +1,436 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path on a remote host, in an <code>FTPFileSystem</code>. Names are
+ * separated by a slash, and a path starting with a slash is absolute. Paths
+ * are only strings; nothing is sent to the remote host, except to find the
+ * home directory that relative paths are resolved against.
+ */
+class FTPPath implements Path {
+
+	/**
+	 * The file system of this path.
+	 */
+	private FTPFileSystem fileSystem = null;
+	/**
+	 * The path, without repeated or trailing slashes.
+	 */
+	private String path = null;
+	/**
+	 * Names of this path, computed when first needed.
+	 */
+	private String[] names = null;
+
+	/**
+	 * Creates a new instance of <code>FTPPath</code>.
+	 * 
+	 * @param fileSystem
+	 *            the file system of the path.
+	 * @param path
+	 *            the path.
+	 */
+	FTPPath(FTPFileSystem fileSystem, String path) {
+		this.fileSystem = fileSystem;
+		this.path = clean(path);
+	}
+
+	/**
+	 * Removes repeated and trailing slashes from the given path.
+	 */
+	private static String clean(String path) {
+		StringBuilder buffer = new StringBuilder(path.length());
+		char previous = 0;
+		for (int i = 0; i < path.length(); i++) {
+			char ch = path.charAt(i);
+			if (ch == '\u0000') {
+				throw new InvalidPathException(path,
+						"Nul character not allowed", i);
+			}
+			if (ch != '/' || previous != '/') {
+				buffer.append(ch);
+			}
+			previous = ch;
+		}
+		int length = buffer.length();
+		if (length > 1 && buffer.charAt(length - 1) == '/') {
+			buffer.setLength(length - 1);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns the names of this path. The empty path has one empty name, and
+	 * the root has none.
+	 */
+	private String[] getNames() {
+		if (names == null) {
+			List<String> list = new ArrayList<String>();
+			int start = isAbsolute() ? 1 : 0;
+			if (start < path.length() || path.length() == 0) {
+				while (true) {
+					int end = path.indexOf('/', start);
+					if (end < 0) {
+						list.add(path.substring(start));
+						break;
+					}
+					list.add(path.substring(start, end));
+					start = end + 1;
+				}
+			}
+			names = list.toArray(new String[list.size()]);
+		}
+		return names;
+	}
+
+	/**
+	 * Creates a path from the given names.
+	 */
+	private FTPPath join(boolean absolute, String[] names, int from, int to) {
+		StringBuilder buffer = new StringBuilder();
+		if (absolute) {
+			buffer.append('/');
+		}
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				buffer.append('/');
+			}
+			buffer.append(names[i]);
+		}
+		return new FTPPath(fileSystem, buffer.toString());
+	}
+
+	/**
+	 * Returns the given path as an <code>FTPPath</code> of the same file
+	 * system as this path.
+	 */
+	private FTPPath check(Path other) {
+		if (!(other instanceof FTPPath)
+				|| ((FTPPath) other).fileSystem != fileSystem) {
+			throw new ProviderMismatchException();
+		}
+		return (FTPPath) other;
+	}
+
+	public FTPFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	public boolean isAbsolute() {
+		return path.startsWith("/");
+	}
+
+	public Path getRoot() {
+		return isAbsolute() ? new FTPPath(fileSystem, "/") : null;
+	}
+
+	public Path getFileName() {
+		String[] names = getNames();
+		if (names.length == 0) {
+			return null;
+		}
+		if (names.length == 1 && !isAbsolute()) {
+			return this;
+		}
+		return new FTPPath(fileSystem, names[names.length - 1]);
+	}
+
+	public Path getParent() {
+		String[] names = getNames();
+		if (names.length == 0) {
+			return null;
+		}
+		if (names.length == 1) {
+			return getRoot();
+		}
+		return join(isAbsolute(), names, 0, names.length - 1);
+	}
+
+	public int getNameCount() {
+		return getNames().length;
+	}
+
+	public Path getName(int index) {
+		String[] names = getNames();
+		if (index < 0 || index >= names.length) {
+			throw new IllegalArgumentException("Invalid index: " + index);
+		}
+		return new FTPPath(fileSystem, names[index]);
+	}
+
+	public Path subpath(int beginIndex, int endIndex) {
+		String[] names = getNames();
+		if (beginIndex < 0 || endIndex > names.length
+				|| beginIndex >= endIndex) {
+			throw new IllegalArgumentException("Invalid range: " + beginIndex
+					+ " to " + endIndex);
+		}
+		return join(false, names, beginIndex, endIndex);
+	}
+
+	public boolean startsWith(Path other) {
+		if (!(other instanceof FTPPath)
+				|| ((FTPPath) other).fileSystem != fileSystem) {
+			return false;
+		}
+		FTPPath that = (FTPPath) other;
+		if (that.isAbsolute() != isAbsolute()) {
+			return false;
+		}
+		if (that.path.length() == 0) {
+			return path.length() == 0;
+		}
+		String[] names = getNames();
+		String[] prefix = that.getNames();
+		if (prefix.length > names.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (!prefix[i].equals(names[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean startsWith(String other) {
+		return startsWith(fileSystem.getPath(other));
+	}
+
+	public boolean endsWith(Path other) {
+		if (!(other instanceof FTPPath)
+				|| ((FTPPath) other).fileSystem != fileSystem) {
+			return false;
+		}
+		FTPPath that = (FTPPath) other;
+		if (that.isAbsolute()) {
+			return equals(that);
+		}
+		if (that.path.length() == 0) {
+			return path.length() == 0;
+		}
+		String[] names = getNames();
+		String[] suffix = that.getNames();
+		int offset = names.length - suffix.length;
+		if (offset < 0) {
+			return false;
+		}
+		for (int i = 0; i < suffix.length; i++) {
+			if (!suffix[i].equals(names[offset + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean endsWith(String other) {
+		return endsWith(fileSystem.getPath(other));
+	}
+
+	public Path normalize() {
+		String[] names = getNames();
+		boolean absolute = isAbsolute();
+		List<String> list = new ArrayList<String>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (name.equals(".")) {
+				continue;
+			}
+			if (name.equals("..")) {
+				int last = list.size() - 1;
+				if (last >= 0 && !list.get(last).equals("..")) {
+					list.remove(last);
+					continue;
+				}
+				if (absolute) {
+					// The parent of the root is the root
+					continue;
+				}
+			}
+			list.add(name);
+		}
+		if (list.size() == names.length) {
+			return this;
+		}
+		return join(absolute, list.toArray(new String[list.size()]), 0, list
+				.size());
+	}
+
+	public Path resolve(Path other) {
+		FTPPath that = check(other);
+		if (that.isAbsolute() || path.length() == 0) {
+			return that;
+		}
+		if (that.path.length() == 0) {
+			return this;
+		}
+		return new FTPPath(fileSystem, path + "/" + that.path);
+	}
+
+	public Path resolve(String other) {
+		return resolve(fileSystem.getPath(other));
+	}
+
+	public Path resolveSibling(Path other) {
+		Path parent = getParent();
+		return parent == null ? check(other) : parent.resolve(other);
+	}
+
+	public Path resolveSibling(String other) {
+		return resolveSibling(fileSystem.getPath(other));
+	}
+
+	public Path relativize(Path other) {
+		FTPPath that = check(other);
+		if (that.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException(
+					"Only paths of the same type can be relativized");
+		}
+		if (equals(that)) {
+			return new FTPPath(fileSystem, "");
+		}
+		String[] names = path.length() == 0 ? new String[0] : getNames();
+		String[] others = that.path.length() == 0 ? new String[0] : that
+				.getNames();
+		int common = 0;
+		while (common < names.length && common < others.length
+				&& names[common].equals(others[common])) {
+			common++;
+		}
+		StringBuilder buffer = new StringBuilder();
+		for (int i = common; i < names.length; i++) {
+			if (buffer.length() > 0) {
+				buffer.append('/');
+			}
+			buffer.append("..");
+		}
+		for (int i = common; i < others.length; i++) {
+			if (buffer.length() > 0) {
+				buffer.append('/');
+			}
+			buffer.append(others[i]);
+		}
+		return new FTPPath(fileSystem, buffer.toString());
+	}
+
+	public URI toUri() {
+		return fileSystem.toUri(((FTPPath) toAbsolutePath().normalize()).path);
+	}
+
+	/**
+	 * Resolves this path against the home directory of the user, which is
+	 * found when the first session logs in.
+	 * 
+	 * @exception IOError
+	 *                if the file system could not connect to find the home
+	 *                directory.
+	 */
+	public Path toAbsolutePath() {
+		if (isAbsolute()) {
+			return this;
+		}
+		try {
+			return fileSystem.getHomeDirectory().resolve(this);
+		} catch (IOException exp) {
+			throw new IOError(exp);
+		}
+	}
+
+	public Path toRealPath(LinkOption... options) throws IOException {
+		Path realPath = toAbsolutePath().normalize();
+		fileSystem.provider().checkAccess(realPath);
+		return realPath;
+	}
+
+	/**
+	 * Remote paths have no <code>File</code> representation.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                always.
+	 */
+	public File toFile() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Remote paths cannot be watched.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                always.
+	 */
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events,
+			WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Remote paths cannot be watched.
+	 * 
+	 * @exception UnsupportedOperationException
+	 *                always.
+	 */
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+		throw new UnsupportedOperationException();
+	}
+
+	public Iterator<Path> iterator() {
+		String[] names = getNames();
+		List<Path> list = new ArrayList<Path>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			list.add(new FTPPath(fileSystem, names[i]));
+		}
+		return list.iterator();
+	}
+
+	public int compareTo(Path other) {
+		return path.compareTo(((FTPPath) other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FTPPath)) {
+			return false;
+		}
+		FTPPath that = (FTPPath) obj;
+		return that.fileSystem == fileSystem && that.path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A reply received from the remote host over the control connection. The reply
+ * code is decoded as soon as the reply is read, while the text of the reply is
+ * kept in its raw form and is only converted to a <code>String</code> when it
+ * is asked for. For multi-line replies, each line can be retrieved separately
+ * using the <code>getLine</code> method.
+ */
+public class FTPReply implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 4511409326520823817L;
+	/**
+	 * The reply code.
+	 */
+	private int code = 0;
+	/**
+	 * Raw bytes of the reply, lines separated by the Telnet end of line.
+	 */
+	private byte[] data = null;
+	/**
+	 * Number of valid bytes in <code>data</code>.
+	 */
+	private int length = 0;
+	/**
+	 * Offsets at which each line starts in <code>data</code>.
+	 */
+	private int[] lineStarts = null;
+	/**
+	 * Character encoding used to decode the reply.
+	 */
+	private String encoding = null;
+	/**
+	 * Text of the reply, decoded on demand.
+	 */
+	private String text = null;
+	/**
+	 * Lines of the reply, decoded on demand.
+	 */
+	private String[] lines = null;
+
+	/**
+	 * Creates a new instance of <code>FTPReply</code> with the given code and
+	 * text.
+	 * 
+	 * @param code
+	 *            the reply code.
+	 * @param text
+	 *            full text of the reply, including the reply code. Lines of a
+	 *            multi-line reply are separated by the Telnet end of line.
+	 */
+	public FTPReply(int code, String text) {
+		this.code = code;
+		this.text = text;
+	}
+
+	/**
+	 * Creates a new instance of <code>FTPReply</code> from the raw bytes read
+	 * off the control connection.
+	 * 
+	 * @param code
+	 *            the reply code.
+	 * @param data
+	 *            raw bytes of the reply. The array is owned by the new reply.
+	 * @param length
+	 *            number of valid bytes in <code>data</code>.
+	 * @param lineStarts
+	 *            offsets at which each line starts. The array is owned by the
+	 *            new reply and its length is the number of lines.
+	 * @param encoding
+	 *            character encoding of the reply, or <code>null</code> to use
+	 *            the platform default.
+	 */
+	FTPReply(int code, byte[] data, int length, int[] lineStarts,
+			String encoding) {
+		this.code = code;
+		this.data = data;
+		this.length = length;
+		this.lineStarts = lineStarts;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Returns the reply code.
+	 * 
+	 * @return the reply code. Returns 0 if the remote host sent a reply that
+	 *         could not be understood.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the full text of this reply, including the reply code. Lines of
+	 * a multi-line reply are separated by the Telnet end of line.
+	 * 
+	 * @return text of this reply.
+	 */
+	public synchronized String getText() {
+		if (text == null) {
+			text = decode(0, length);
+		}
+		return text;
+	}
+
+	/**
+	 * Returns the text of this reply without the leading reply code.
+	 * 
+	 * @return message of this reply.
+	 */
+	public String getMessage() {
+		String text = getText();
+		return text.length() >= 4 ? text.substring(4) : text;
+	}
+
+	/**
+	 * Returns the number of lines in this reply.
+	 * 
+	 * @return number of lines.
+	 */
+	public int getLineCount() {
+		if (lineStarts != null) {
+			return lineStarts.length;
+		}
+		return getLines().length;
+	}
+
+	/**
+	 * Returns the line at the given index. The first and the last line of a
+	 * multi-line reply start with the reply code.
+	 * 
+	 * @param index
+	 *            index of the line.
+	 * @return the line at the given index.
+	 */
+	public String getLine(int index) {
+		return getLines()[index];
+	}
+
+	/**
+	 * Returns all lines of this reply.
+	 * 
+	 * @return lines of this reply.
+	 */
+	public synchronized String[] getLines() {
+		if (lines == null) {
+			if (lineStarts == null) {
+				lines = getText().split(FTPConstants.EOL, -1);
+			} else {
+				lines = new String[lineStarts.length];
+				for (int i = 0; i < lines.length; i++) {
+					int end = i + 1 < lines.length ? lineStarts[i + 1] - 2
+							: length;
+					lines[i] = decode(lineStarts[i], end);
+				}
+			}
+		}
+		return lines.clone();
+	}
+
+	/**
+	 * Tells whether or not this is a positive preliminary (1yz) reply.
+	 * 
+	 * @return <code>true</code>, if this is a positive preliminary reply.
+	 */
+	public boolean isPositivePreliminary() {
+		return code / 100 == 1;
+	}
+
+	/**
+	 * Tells whether or not this is a positive completion (2yz) reply.
+	 * 
+	 * @return <code>true</code>, if this is a positive completion reply.
+	 */
+	public boolean isPositiveCompletion() {
+		return code / 100 == 2;
+	}
+
+	/**
+	 * Tells whether or not this is a positive intermediate (3yz) reply.
+	 * 
+	 * @return <code>true</code>, if this is a positive intermediate reply.
+	 */
+	public boolean isPositiveIntermediate() {
+		return code / 100 == 3;
+	}
+
+	/**
+	 * Tells whether or not this is a transient negative completion (4yz)
+	 * reply.
+	 * 
+	 * @return <code>true</code>, if this is a transient negative reply.
+	 */
+	public boolean isTransientNegative() {
+		return code / 100 == 4;
+	}
+
+	/**
+	 * Tells whether or not this is a permanent negative completion (5yz)
+	 * reply.
+	 * 
+	 * @return <code>true</code>, if this is a permanent negative reply.
+	 */
+	public boolean isPermanentNegative() {
+		return code / 100 == 5;
+	}
+
+	/**
+	 * Tells whether or not this is a negative (4yz or 5yz) reply.
+	 * 
+	 * @return <code>true</code>, if this is a negative reply.
+	 */
+	public boolean isNegative() {
+		return isTransientNegative() || isPermanentNegative();
+	}
+
+	/**
+	 * Returns the text of this reply.
+	 * 
+	 * @return text of this reply.
+	 */
+	@Override
+	public String toString() {
+		return getText();
+	}
+
+	/**
+	 * Decodes the given range of the raw reply.
+	 */
+	private String decode(int start, int end) {
+		if (encoding != null) {
+			try {
+				return new String(data, start, end - start, encoding);
+			} catch (UnsupportedEncodingException exp) {
+				// The encoding is checked when it is set, fall through to the
+				// default.
+			}
+		}
+		return new String(data, start, end - start);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+/**
+ * A <code>FileSystemProvider</code> for <code>ftps</code> URIs. It works as
+ * <code>FTPFileSystemProvider</code>, except that sessions are secured with
+ * explicit SSL (AUTH TLS), and so are the data connections.
+ */
+public class FTPSFileSystemProvider extends FTPFileSystemProvider {
+
+	/**
+	 * Creates a new instance of <code>FTPSFileSystemProvider</code>. Called by
+	 * the <code>ServiceLoader</code>.
+	 */
+	public FTPSFileSystemProvider() {
+		super();
+	}
+
+	@Override
+	public String getScheme() {
+		return "ftps";
+	}
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+/**
+ * Thrown when an operation exceeded a deadline of the client, or a transfer
+ * fell below the minimum throughput of the client. The connection, or the
+ * transfer, is aborted by the time this exception is thrown. If a transfer
+ * was aborted, the control connection can still be used, otherwise the client
+ * is disconnected.
+ */
+public class FTPTimeoutException extends ConnectionException {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = -4263357215479520813L;
+	/**
+	 * What timed out.
+	 */
+	private int reason = 0;
+	/**
+	 * The limit that was exceeded.
+	 */
+	private long limit = 0L;
+
+	/**
+	 * Constructs a <code>FTPTimeoutException</code> object.
+	 * 
+	 * @param message
+	 *            reason string.
+	 * @param reason
+	 *            one of the <code>FTPConstants.DEADLINE_</code> constants, or
+	 *            <code>FTPConstants.TIMEOUT_THROUGHPUT</code>.
+	 * @param limit
+	 *            the deadline in milliseconds, or the minimum throughput in
+	 *            bytes per second.
+	 */
+	public FTPTimeoutException(String message, int reason, long limit) {
+		super(message);
+		this.reason = reason;
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns what timed out.
+	 * 
+	 * @return one of the <code>FTPConstants.DEADLINE_</code> constants, or
+	 *         <code>FTPConstants.TIMEOUT_THROUGHPUT</code>.
+	 */
+	public int getReason() {
+		return reason;
+	}
+
+	/**
+	 * Returns the limit that was exceeded.
+	 * 
+	 * @return the deadline in milliseconds, or the minimum throughput in bytes
+	 *         per second.
+	 */
+	public long getLimit() {
+		return limit;
+	}
+}
\ No newline at end of file
@@ -17,8 +17,14 @@ package com.myjavaworld.ftp;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.LinkedList;
+import java.util.StringTokenizer;
 
 /**
  * An utility class
@@ -94,6 +100,52 @@ public class FTPUtil {
 		return path;
 	}
 
+	/**
+	 * Resolves the given path against the given directory the way a UNIX
+	 * style FTP server does, removing the <code>.</code> and <code>..</code>
+	 * names.
+	 * 
+	 * @param dir
+	 *            absolute path of the directory, may be <code>null</code> if
+	 *            <code>path</code> is absolute.
+	 * @param path
+	 *            the path to resolve.
+	 * @return the absolute path, or <code>null</code> if the result can not be
+	 *         computed on the client, e.g. because the paths are not UNIX
+	 *         style paths.
+	 */
+	public static String resolvePath(String dir, String path) {
+		if (path == null || path.indexOf('\\') >= 0 || path.startsWith("~")) {
+			return null;
+		}
+		if (!path.startsWith("/")) {
+			if (dir == null || !dir.startsWith("/") || dir.indexOf('\\') >= 0) {
+				return null;
+			}
+			path = dir + "/" + path;
+		}
+		LinkedList<String> names = new LinkedList<String>();
+		StringTokenizer tokenizer = new StringTokenizer(path, "/");
+		while (tokenizer.hasMoreTokens()) {
+			String name = tokenizer.nextToken();
+			if (name.equals("..")) {
+				if (!names.isEmpty()) {
+					names.removeLast();
+				}
+			} else if (!name.equals(".")) {
+				names.add(name);
+			}
+		}
+		if (names.isEmpty()) {
+			return "/";
+		}
+		StringBuilder sb = new StringBuilder(path.length());
+		for (String name : names) {
+			sb.append('/').append(name);
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Extracts the host address from the reply of a PASV command.
 	 * 
@@ -102,29 +154,111 @@ public class FTPUtil {
 	 * @return Address
 	 */
 	public static String parseAddress(String reply) {
-		String[] tokens = parsePassiveCommandReply(reply);
-		return tokens[0] + "." + tokens[1] + "." + tokens[2] + "." + tokens[3];
+		return parsePassiveReply(reply).getAddress().getHostAddress();
 	}
 
 	/**
+	 * Extracts the port number from the reply of a PASV command.
+	 * 
 	 * @param reply
-	 * @return
+	 *            Reply of the PASV command
+	 * @return Port number
 	 */
 	public static int parsePort(String reply) {
-		String[] tokens = parsePassiveCommandReply(reply);
-		int port = (Integer.parseInt(tokens[4]) << 8)
-				+ Integer.parseInt(tokens[5]);
-		return port;
+		return parsePassiveReply(reply).getPort();
 	}
 
-	private static String[] parsePassiveCommandReply(String reply) {
-		int index1 = reply.indexOf("(");
-		int index2 = reply.indexOf(")", index1 + 1);
-		if (index1 < 0 || index2 < 0) {
+	/**
+	 * Extracts the host address and port number from the reply of a PASV
+	 * command in a single pass. The address is built from its bytes, so no
+	 * name lookup is done.
+	 * 
+	 * @param reply
+	 *            Reply of the PASV command
+	 * @return Address and port, or <code>null</code> if the reply does not
+	 *         contain them.
+	 */
+	public static InetSocketAddress parsePassiveReply(String reply) {
+		byte[] address = new byte[4];
+		int port = 0;
+		int count = 0;
+		int value = -1;
+		int length = reply.length();
+		// Look for six comma separated numbers after the reply code. Some
+		// servers do not enclose them in parentheses.
+		for (int i = 4; i <= length && count < 6; i++) {
+			char ch = i < length ? reply.charAt(i) : ' ';
+			if (ch >= '0' && ch <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (ch - '0');
+				if (value > 255) {
+					count = 0;
+					port = 0;
+					value = -1;
+				}
+			} else if (value >= 0 && (ch == ',' || count == 5)) {
+				if (count < 4) {
+					address[count] = (byte) value;
+				} else {
+					port = (port << 8) | value;
+				}
+				count++;
+				value = -1;
+			} else {
+				count = 0;
+				port = 0;
+				value = -1;
+			}
+		}
+		if (count < 6) {
+			return null;
+		}
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(address),
+					port);
+		} catch (UnknownHostException exp) {
+			// Not thrown for an address of valid length
 			return null;
 		}
-		reply = reply.substring(index1 + 1, index2);
-		return reply.split(",");
+	}
+
+	/**
+	 * Extracts the port number from the reply of an EPSV command, for example
+	 * <code>229 Entering Extended Passive Mode (|||6446|)</code>.
+	 * 
+	 * @param reply
+	 *            Reply of the EPSV command
+	 * @return Port number, or -1 if the reply does not contain a port number.
+	 */
+	public static int parseExtendedPassivePort(String reply) {
+		int index = reply.indexOf('(');
+		int length = reply.length();
+		if (index < 0 || index + 4 >= length) {
+			return -1;
+		}
+		char delimiter = reply.charAt(index + 1);
+		if (reply.charAt(index + 2) != delimiter
+				|| reply.charAt(index + 3) != delimiter) {
+			return -1;
+		}
+		int port = 0;
+		int i = index + 4;
+		for (; i < length; i++) {
+			char ch = reply.charAt(i);
+			if (ch == delimiter) {
+				break;
+			}
+			if (ch < '0' || ch > '9') {
+				return -1;
+			}
+			port = port * 10 + (ch - '0');
+			if (port > 65535) {
+				return -1;
+			}
+		}
+		if (i == index + 4 || i == length) {
+			return -1;
+		}
+		return port;
 	}
 
 	/**
@@ -138,6 +272,28 @@ public class FTPUtil {
 		return command;
 	}
 
+	/**
+	 * Returns the EPRT command for the given local address and port.
+	 * 
+	 * @param address
+	 *            local address to receive the data connection on.
+	 * @param port
+	 *            local port to receive the data connection on.
+	 * @return the EPRT command.
+	 */
+	public static String getExtendedPortCommand(InetAddress address, int port) {
+		String host = address.getHostAddress();
+		int index = host.indexOf('%');
+		if (index >= 0) {
+			host = host.substring(0, index);
+		}
+		StringBuilder command = new StringBuilder(64);
+		command.append("EPRT |").append(
+				address instanceof Inet6Address ? '2' : '1').append('|')
+				.append(host).append('|').append(port).append('|');
+		return command.toString();
+	}
+
 	/**
 	 * @param attributes
 	 * @return
@@ -163,6 +319,20 @@ public class FTPUtil {
 				+ String.valueOf(publicPermissions);
 	}
 
+	/**
+	 * Converts the given exception to an <code>IOException</code>. Used by the
+	 * stream based transfers that can only report <code>IOException</code>s.
+	 * 
+	 * @param exp
+	 *            the exception to convert.
+	 * @return an <code>IOException</code> whose cause is <code>exp</code>.
+	 */
+	static IOException toIOException(Exception exp) {
+		IOException ioException = new IOException(exp.getMessage());
+		ioException.initCause(exp);
+		return ioException;
+	}
+
 	public static void close(Closeable closeable) {
 		if (closeable != null) {
 			try {
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Copies files directly between two remote hosts (FXP). One host is put in
+ * passive mode, the other is told with PORT to connect to it, and the
+ * transfer commands are sent to both, so that the data flows between the
+ * hosts and never passes through the client, which only exchanges commands
+ * over the two control connections.
+ * <p>
+ * If the data connections of both clients are protected (PROT P), one host
+ * must act as the SSL client on the data connection. The host that connects
+ * is asked to with SSCN ON if it supports it, and set back with SSCN OFF
+ * after the transfer. Otherwise the listening host is put in passive mode
+ * with CPSV instead of PASV.
+ * <p>
+ * Many servers refuse data connections from, or PORT commands naming, an
+ * address other than the one of the client, so FXP must be allowed on both
+ * hosts.
+ */
+public class FXPTransfer implements FTPConstants {
+
+	/**
+	 * Client logged in to the host the files are copied from.
+	 */
+	private DefaultFTPClient source = null;
+	/**
+	 * Client logged in to the host the files are copied to.
+	 */
+	private DefaultFTPClient target = null;
+	/**
+	 * Whether the source host listens for the data connection, or the target
+	 * host.
+	 */
+	private boolean sourcePassive = true;
+	/**
+	 * Time to wait for the hosts to complete a transfer, in milliseconds, or
+	 * -1 to use the timeout of the clients.
+	 */
+	private int timeout = -1;
+
+	/**
+	 * Creates a new instance of <code>FXPTransfer</code>.
+	 * 
+	 * @param source
+	 *            client logged in to the host the files are copied from.
+	 * @param target
+	 *            client logged in to the host the files are copied to.
+	 */
+	public FXPTransfer(DefaultFTPClient source, DefaultFTPClient target) {
+		if (source == target) {
+			throw new IllegalArgumentException(
+					"Source and target must be different clients");
+		}
+		this.source = source;
+		this.target = target;
+	}
+
+	/**
+	 * Sets which host listens for the data connection. By default, the
+	 * source host is put in passive mode and the target host connects to it.
+	 * 
+	 * @param sourcePassive
+	 *            <code>true</code> to put the source host in passive mode,
+	 *            <code>false</code> to put the target host in passive mode.
+	 */
+	public void setSourcePassive(boolean sourcePassive) {
+		this.sourcePassive = sourcePassive;
+	}
+
+	/**
+	 * Tells whether the source host listens for the data connection.
+	 * 
+	 * @return <code>true</code>, if the source host is put in passive mode.
+	 */
+	public boolean isSourcePassive() {
+		return sourcePassive;
+	}
+
+	/**
+	 * Sets the time to wait for the hosts to complete a transfer, after they
+	 * started it. As no data passes through the client, the control
+	 * connections are silent for the whole transfer. By default, the larger
+	 * of the timeouts of the two clients is used, or none if either client
+	 * has none, which may be too short for large files.
+	 * 
+	 * @param timeout
+	 *            timeout in milliseconds, 0 to wait as long as it takes, or
+	 *            -1 to use the timeout of the clients.
+	 */
+	public void setTimeout(int timeout) {
+		if (timeout < -1) {
+			throw new IllegalArgumentException("Invalid timeout: " + timeout);
+		}
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns the time to wait for the hosts to complete a transfer.
+	 * 
+	 * @return timeout in milliseconds, 0 to wait as long as it takes, or -1
+	 *         if the timeout of the clients is used.
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Copies the given file of the source host to the given file of the
+	 * target host. Both clients must be logged in, and are not available for
+	 * other operations until the transfer completes.
+	 * 
+	 * @param sourceFile
+	 *            the file to copy.
+	 * @param targetFile
+	 *            the file to copy to.
+	 * @param type
+	 *            data representation type, e.g.
+	 *            <code>FTPConstants.TYPE_BINARY</code>.
+	 * @param append
+	 *            whether to append to the target file (APPE) rather than
+	 *            replace it (STOR).
+	 * @exception FTPException
+	 *                if either host reports an error.
+	 * @exception ConnectionException
+	 */
+	public void transfer(RemoteFile sourceFile, RemoteFile targetFile,
+			int type, boolean append) throws FTPException, ConnectionException {
+		// Lock the clients in a fixed order, so that concurrent transfers
+		// between the same clients in opposite directions can not deadlock.
+		Object first = source;
+		Object second = target;
+		if (System.identityHashCode(first) > System.identityHashCode(second)) {
+			first = target;
+			second = source;
+		}
+		synchronized (first) {
+			synchronized (second) {
+				doTransfer(sourceFile, targetFile, type, append);
+			}
+		}
+	}
+
+	/**
+	 * Performs the transfer, with both clients locked.
+	 */
+	private void doTransfer(RemoteFile sourceFile, RemoteFile targetFile,
+			int type, boolean append) throws FTPException, ConnectionException {
+		DefaultFTPClient passiveClient = sourcePassive ? source : target;
+		DefaultFTPClient activeClient = sourcePassive ? target : source;
+		String retrieve = "RETR " + sourceFile.getNormalizedPath();
+		String store = (append ? "APPE " : "STOR ") + targetFile.getPath();
+		source.setType(type);
+		source.sendType();
+		target.setType(type);
+		target.sendType();
+		boolean secure = isProtected(source);
+		if (secure != isProtected(target)) {
+			throw source.traced(new FTPException(
+					"599 Data connections of both hosts must be protected alike"));
+		}
+		boolean sscn = false;
+		boolean cpsv = false;
+		if (secure) {
+			if (activeClient.getCapabilities().isSupported("SSCN")) {
+				activeClient.execute("SSCN ON");
+				sscn = true;
+			} else if (passiveClient.getCapabilities().isSupported("CPSV")) {
+				cpsv = true;
+			} else {
+				// Not every host lists SSCN in its features
+				activeClient.executeQuietly("SSCN ON");
+				sscn = activeClient.reply.isPositiveCompletion();
+				cpsv = !sscn;
+			}
+		}
+		try {
+			InetSocketAddress address = listen(passiveClient, cpsv);
+			if (address.getAddress() instanceof Inet6Address) {
+				activeClient.execute(FTPUtil.getExtendedPortCommand(address
+						.getAddress(), address.getPort()));
+			} else {
+				activeClient.execute(FTPUtil.getPortCommand(address
+						.getAddress().getHostAddress(), address.getPort()));
+			}
+			// The listening host gets its command first, so that it is
+			// waiting for the data connection when the other host connects.
+			passiveClient.controlConnection
+					.sendCommand(sourcePassive ? retrieve : store);
+			activeClient.controlConnection.sendCommand(sourcePassive ? store
+					: retrieve);
+			FTPReply passiveReply = passiveClient.controlConnection
+					.readReply();
+			FTPReply activeReply = activeClient.controlConnection.readReply();
+			// The host that refused to start the transfer is the one to
+			// blame, rather than the one whose transfer was cut short.
+			DefaultFTPClient failed = firstFailed(passiveClient, passiveReply,
+					activeClient, activeReply);
+			FTPReply failure = failed == passiveClient ? passiveReply
+					: activeReply;
+			if (passiveReply.isPositivePreliminary()) {
+				if (failed != null) {
+					// The host waits for a data connection that will never
+					// come, and many hosts do not read ABOR before it does.
+					// Connecting and closing right away fails the transfer.
+					release(address);
+				}
+				passiveReply = awaitCompletion(passiveClient);
+			}
+			if (activeReply.isPositivePreliminary()) {
+				// If the other host failed, the connection to it is refused
+				// or closed, so the transfer fails on its own.
+				activeReply = awaitCompletion(activeClient);
+			}
+			passiveClient.reply = passiveReply;
+			activeClient.reply = activeReply;
+			if (failed == null) {
+				failed = firstFailed(passiveClient, passiveReply,
+						activeClient, activeReply);
+				failure = failed == passiveClient ? passiveReply
+						: activeReply;
+			}
+			if (failed != null) {
+				throw failed.traced(new FTPException(failure));
+			}
+		} finally {
+			if (sscn && activeClient.controlConnection != null) {
+				try {
+					activeClient.executeQuietly("SSCN OFF");
+				} catch (ConnectionException exp) {
+					// Ignore, the connection is closed anyway
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the client that got the given negative reply, checking the
+	 * source host first, or <code>null</code> if neither reply is negative.
+	 */
+	private DefaultFTPClient firstFailed(DefaultFTPClient passiveClient,
+			FTPReply passiveReply, DefaultFTPClient activeClient,
+			FTPReply activeReply) {
+		if (passiveReply.isNegative()
+				&& (sourcePassive || !activeReply.isNegative())) {
+			return passiveClient;
+		}
+		if (activeReply.isNegative()) {
+			return activeClient;
+		}
+		return null;
+	}
+
+	/**
+	 * Tells whether the data connections of the given client are protected.
+	 */
+	private static boolean isProtected(DefaultFTPClient client) {
+		return client.isSecured() && !client.isDataChannelUnencrypted();
+	}
+
+	/**
+	 * Puts the host of the given client in passive mode, with EPSV over IPv6,
+	 * CPSV if requested, or PASV otherwise.
+	 * 
+	 * @return the address the host listens on.
+	 */
+	private static InetSocketAddress listen(DefaultFTPClient client,
+			boolean cpsv) throws FTPException, ConnectionException {
+		InetAddress remoteAddress = client.controlConnection
+				.getRemoteAddress();
+		if (remoteAddress instanceof Inet6Address) {
+			if (cpsv) {
+				throw client.traced(new FTPException(
+						"599 Protected FXP over IPv6 requires SSCN"));
+			}
+			client.execute("EPSV");
+			int port = FTPUtil.parseExtendedPassivePort(client.reply.getText());
+			if (port < 0) {
+				throw client.traced(new FTPException(
+						"599 Invalid reply to EPSV: " + client.reply.getText()));
+			}
+			return new InetSocketAddress(remoteAddress, port);
+		}
+		String command = cpsv ? "CPSV" : "PASV";
+		client.execute(command);
+		InetSocketAddress address = FTPUtil.parsePassiveReply(client.reply
+				.getText());
+		if (address == null) {
+			throw client.traced(new FTPException("599 Invalid reply to "
+					+ command + ": " + client.reply.getText()));
+		}
+		if (client.isPassiveIPSubstitutionEnabled()) {
+			return new InetSocketAddress(remoteAddress, address.getPort());
+		}
+		return address;
+	}
+
+	/**
+	 * Returns the timeout of this transfer, or the larger of the timeouts of
+	 * the clients if none is set. If either client waits as long as it takes,
+	 * so does the transfer.
+	 */
+	private int effectiveTimeout() {
+		if (timeout >= 0) {
+			return timeout;
+		}
+		if (source.getTimeout() == 0 || target.getTimeout() == 0) {
+			return 0;
+		}
+		return Math.max(source.getTimeout(), target.getTimeout());
+	}
+
+	/**
+	 * Reads the final reply of the transfer from the given client, waiting no
+	 * longer than the timeout of this transfer.
+	 */
+	private FTPReply awaitCompletion(DefaultFTPClient client)
+			throws ConnectionException {
+		ControlConnection connection = client.controlConnection;
+		connection.setReadTimeout(effectiveTimeout());
+		try {
+			return connection.readReply();
+		} finally {
+			connection.setReadTimeout(client.getTimeout());
+		}
+	}
+
+	/**
+	 * Connects to the given address the passive host listens on, and closes
+	 * the connection right away.
+	 */
+	private void release(InetSocketAddress address) {
+		Socket socket = new Socket();
+		try {
+			socket.connect(address, effectiveTimeout());
+		} catch (IOException exp) {
+			// The host stopped listening already
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException exp) {
+				// Ignore
+			}
+		}
+	}
+}
\ No newline at end of file
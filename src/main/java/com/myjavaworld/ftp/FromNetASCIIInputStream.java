@@ -157,6 +157,83 @@ public final class FromNetASCIIInputStream extends PushbackInputStream {
 			return 0;
 		}
 
+		if (_lineSeparatorBytes.length != 1) {
+			return __readSlowly(buffer, offset, length);
+		}
+
+		int count = super.read(buffer, offset, length);
+		if (count == -1) {
+			return -1;
+		}
+		return __convert(buffer, offset, count);
+	}
+
+	/***
+	 * Converts the NETASCII line separators in the given region of the buffer
+	 * in place. The whole region is scanned for carriage returns and the bytes
+	 * in between are moved down in bulk. A carriage return at the end of the
+	 * region is resolved by looking at the next byte of the stream, which is
+	 * pushed back if it is not a linefeed. This method must only be used when
+	 * the local line separator is a single byte, so that the converted data
+	 * never grows.
+	 * <p>
+	 * 
+	 * @return The number of bytes in the region after conversion.
+	 ***/
+	private int __convert(byte buffer[], int offset, int count)
+			throws IOException {
+		final int end = offset + count;
+		final byte separator = _lineSeparatorBytes[0];
+		int read = offset;
+
+		// Nothing needs to move until the first carriage return
+		while (read < end && buffer[read] != '\r') {
+			read++;
+		}
+
+		int write = read;
+		while (read < end) {
+			int start = read;
+			while (read < end && buffer[read] != '\r') {
+				read++;
+			}
+			int run = read - start;
+			if (run > 0) {
+				if (write != start) {
+					System.arraycopy(buffer, start, buffer, write, run);
+				}
+				write += run;
+			}
+			if (read == end) {
+				break;
+			}
+
+			// buffer[read] is a carriage return
+			read++;
+			int next;
+			if (read < end) {
+				next = buffer[read];
+				if (next == '\n') {
+					read++;
+				}
+			} else {
+				next = super.read();
+				if (next != '\n' && next != -1) {
+					unread(next);
+				}
+			}
+			buffer[write++] = (next == '\n') ? separator : (byte) '\r';
+		}
+
+		return write - offset;
+	}
+
+	/***
+	 * Reads and converts one byte at a time. Used only for local line
+	 * separators that are longer than a single byte.
+	 ***/
+	private int __readSlowly(byte buffer[], int offset, int length)
+			throws IOException {
 		int ch, off;
 
 		ch = available();
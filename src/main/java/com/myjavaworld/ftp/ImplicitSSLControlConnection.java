@@ -15,10 +15,7 @@
  */
 package com.myjavaworld.ftp;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.net.NoRouteToHostException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
@@ -61,14 +58,20 @@ public class ImplicitSSLControlConnection extends ControlConnection implements
 	@Override
 	public void connect(String host, int port) throws ConnectionException,
 			FTPException {
+		this.host = host;
 		try {
-			SSLContext ctx = client.getSSLContext();
-			SSLSocketFactory factory = ctx.getSocketFactory();
-			socket = factory.createSocket(host, port);
-			reader = new BufferedReader(new InputStreamReader(
-					socket.getInputStream()));
-			writer = new PrintStream(socket.getOutputStream(), true);
-			((SSLSocket) socket).startHandshake();
+			socket = createSocket(host, port);
+			if (SSLEngineChannel.isEnabled(client)) {
+				startSSLEngine(host, port);
+			} else {
+				SSLContext ctx = client.getSSLContext();
+				SSLSocketFactory factory = ctx.getSocketFactory();
+				socket = factory.createSocket(socket, host, port, true);
+				openStreams();
+				long start = System.nanoTime();
+				((SSLSocket) socket).startHandshake();
+				handshakeTime = System.nanoTime() - start;
+			}
 		} catch (UnknownHostException exp) {
 			throw new ConnectionException(exp.toString());
 		} catch (NoRouteToHostException exp) {
@@ -89,18 +92,18 @@ public class ImplicitSSLControlConnection extends ControlConnection implements
 			stderr("Could not set timeout for the socket. Original exception "
 					+ "below. \n" + exp.getMessage());
 		}
-		String reply = getReply();
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
+		FTPReply reply = readReply();
+		if (reply.isNegative()) {
 			throw new FTPException(reply);
 		}
 
-		reply = executeCommand("PBSZ 0");
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
+		reply = execute("PBSZ 0");
+		if (reply.isNegative()) {
 			throw new FTPException(reply);
 		}
-		reply = executeCommand("PROT "
+		reply = execute("PROT "
 				+ (client.isDataChannelUnencrypted() ? "C" : "P"));
-		if (reply.charAt(0) == '5' || reply.charAt(0) == '4') {
+		if (reply.isNegative()) {
 			throw new FTPException(reply);
 		}
 	}
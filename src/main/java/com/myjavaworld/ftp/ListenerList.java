@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.lang.reflect.Array;
+import java.util.EventListener;
+
+/**
+ * A list of event listeners, which replaces
+ * <code>javax.swing.event.EventListenerList</code> with the same methods.
+ * Listeners are kept in copy-on-write arrays, so notifying them takes no lock
+ * and allocates nothing, and listeners may be added or removed while events
+ * are fired.
+ * <p>
+ * By default, listeners are notified on the thread that does the work, so a
+ * slow listener slows the transfer down. If a queue size is set, the
+ * <code>ControlConnectionListener</code>, <code>DataConnectionListener</code>
+ * and <code>FTPConnectionListener</code> objects are notified in order on a
+ * separate thread instead. When the queue is full, command and reply events
+ * are dropped, and transfer progress events are always coalesced, so that at
+ * most one of them waits per listener. Other events are never dropped.
+ * <p>
+ * Events are fired like this:
+ * 
+ * <pre>
+ * Object[] listeners = listenerList.getListenerList();
+ * for (int i = listeners.length - 2; i &gt;= 0; i -= 2) {
+ * 	if (listeners[i] == FooListener.class) {
+ * 		((FooListener) listeners[i + 1]).fooChanged(evt);
+ * 	}
+ * }
+ * </pre>
+ */
+public class ListenerList {
+
+	/**
+	 * An empty list.
+	 */
+	private static final Object[] EMPTY = new Object[0];
+
+	/**
+	 * Pairs of listener type and listener, as they were added.
+	 */
+	private volatile Object[] listeners = EMPTY;
+	/**
+	 * Pairs of listener type and the object to notify, which is the listener
+	 * itself, or an adapter that queues the events for it.
+	 */
+	private volatile Object[] targets = EMPTY;
+	/**
+	 * Queue of events to be delivered, if listeners are notified
+	 * asynchronously. Guarded by <code>this</code>.
+	 */
+	private EventDispatcher dispatcher = null;
+	/**
+	 * Number of events dropped by previous dispatchers. Guarded by
+	 * <code>this</code>.
+	 */
+	private long droppedEvents = 0L;
+
+	/**
+	 * Returns the listeners to notify, as pairs of listener type and
+	 * listener. The returned array must not be modified. When listeners are
+	 * notified asynchronously, the listeners in the array queue the events
+	 * for the registered listeners.
+	 * 
+	 * @return pairs of listener type and listener.
+	 */
+	public Object[] getListenerList() {
+		return targets;
+	}
+
+	/**
+	 * Returns the registered listeners of the given type.
+	 * 
+	 * @param t
+	 *            type of the listeners.
+	 * @return the listeners, in the order they were added.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends EventListener> T[] getListeners(Class<T> t) {
+		Object[] list = listeners;
+		T[] result = (T[]) Array.newInstance(t, getListenerCount(list, t));
+		int j = 0;
+		for (int i = 0; i < list.length; i += 2) {
+			if (list[i] == t) {
+				result[j++] = (T) list[i + 1];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of registered listeners.
+	 * 
+	 * @return number of listeners of all types.
+	 */
+	public int getListenerCount() {
+		return listeners.length / 2;
+	}
+
+	/**
+	 * Returns the number of registered listeners of the given type.
+	 * 
+	 * @param t
+	 *            type of the listeners.
+	 * @return number of listeners of the type.
+	 */
+	public int getListenerCount(Class<?> t) {
+		return getListenerCount(listeners, t);
+	}
+
+	/**
+	 * Adds a listener of the given type.
+	 * 
+	 * @param t
+	 *            type of the listener.
+	 * @param l
+	 *            the listener, ignored if <code>null</code>.
+	 * @exception IllegalArgumentException
+	 *                if the listener is not of the given type.
+	 */
+	public synchronized <T extends EventListener> void add(Class<T> t, T l) {
+		if (l == null) {
+			return;
+		}
+		if (!t.isInstance(l)) {
+			throw new IllegalArgumentException("Listener " + l
+					+ " is not of type " + t);
+		}
+		listeners = append(listeners, t, l);
+		targets = append(targets, t, wrap(t, l));
+	}
+
+	/**
+	 * Removes a listener of the given type. If the listener was added more
+	 * than once, the last one added is removed.
+	 * 
+	 * @param t
+	 *            type of the listener.
+	 * @param l
+	 *            the listener.
+	 */
+	public synchronized <T extends EventListener> void remove(Class<T> t, T l) {
+		Object[] list = listeners;
+		for (int i = list.length - 2; i >= 0; i -= 2) {
+			if (list[i] == t && list[i + 1].equals(l)) {
+				listeners = removeAt(list, i);
+				targets = removeAt(targets, i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Sets the size of the queue of events that are delivered on a separate
+	 * thread, or 0 to notify listeners on the thread that fires the events.
+	 * Events already queued are still delivered.
+	 * 
+	 * @param size
+	 *            size of the queue.
+	 */
+	public synchronized void setQueueSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Invalid queue size: " + size);
+		}
+		if (dispatcher != null) {
+			if (dispatcher.getCapacity() == size) {
+				return;
+			}
+			droppedEvents += dispatcher.getDroppedEvents();
+		}
+		dispatcher = size == 0 ? null : new EventDispatcher(size);
+		Object[] list = listeners;
+		Object[] newTargets = new Object[list.length];
+		for (int i = 0; i < list.length; i += 2) {
+			newTargets[i] = list[i];
+			newTargets[i + 1] = wrap((Class<?>) list[i], list[i + 1]);
+		}
+		targets = newTargets;
+	}
+
+	/**
+	 * Returns the size of the queue of events that are delivered on a
+	 * separate thread.
+	 * 
+	 * @return size of the queue, 0 if listeners are notified on the thread
+	 *         that fires the events.
+	 */
+	public synchronized int getQueueSize() {
+		return dispatcher == null ? 0 : dispatcher.getCapacity();
+	}
+
+	/**
+	 * Returns the number of events that were dropped because the queue was
+	 * full.
+	 * 
+	 * @return number of dropped events.
+	 */
+	public synchronized long getDroppedEventCount() {
+		return droppedEvents
+				+ (dispatcher == null ? 0L : dispatcher.getDroppedEvents());
+	}
+
+	@Override
+	public String toString() {
+		Object[] list = listeners;
+		StringBuilder builder = new StringBuilder("ListenerList: ");
+		builder.append(list.length / 2).append(" listeners:");
+		for (int i = 0; i < list.length; i += 2) {
+			builder.append(" type ").append(((Class<?>) list[i]).getName());
+			builder.append(" listener ").append(list[i + 1]);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the object to notify in place of the given listener.
+	 */
+	private Object wrap(Class<?> t, Object l) {
+		return dispatcher == null ? l : dispatcher.wrap(t, l);
+	}
+
+	private static int getListenerCount(Object[] list, Class<?> t) {
+		int count = 0;
+		for (int i = 0; i < list.length; i += 2) {
+			if (list[i] == t) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static Object[] append(Object[] list, Object t, Object l) {
+		Object[] result = new Object[list.length + 2];
+		System.arraycopy(list, 0, result, 0, list.length);
+		result[list.length] = t;
+		result[list.length + 1] = l;
+		return result;
+	}
+
+	private static Object[] removeAt(Object[] list, int index) {
+		if (list.length == 2) {
+			return EMPTY;
+		}
+		Object[] result = new Object[list.length - 2];
+		System.arraycopy(list, 0, result, 0, index);
+		System.arraycopy(list, index + 2, result, index, list.length - index
+				- 2);
+		return result;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only channel over a remote file that serves reads at any position,
+ * without downloading the whole file. Objects of this class are returned by
+ * <code>FTPClient.openChannel</code>.
+ * <p>
+ * The file is read in blocks, which are kept in a least recently used cache.
+ * A read that misses the cache starts a transfer at the block of the read
+ * with REST and RETR, and aborts it once the block and the blocks to read
+ * ahead are received. Nothing is read ahead of a random read, and the read
+ * ahead doubles with every read that continues where the previous transfer
+ * stopped, so that sequential reads take few transfers. For example, reading
+ * the last kilobyte of a large file takes a single transfer of one block.
+ * <p>
+ * The size of the file is only asked for with SIZE if it is needed, that is
+ * by <code>size</code> or by a read past the end of the file, unless the end
+ * of the file was reached already.
+ */
+public class RemoteFileChannel implements SeekableByteChannel {
+
+	/**
+	 * Size of a block, in bytes.
+	 */
+	private static final int BLOCK_SIZE = 64 * 1024;
+	/**
+	 * Number of blocks kept in the cache.
+	 */
+	private static final int CACHE_BLOCKS = 128;
+	/**
+	 * Maximum number of blocks fetched by a transfer.
+	 */
+	private static final int MAX_READ_AHEAD = 32;
+	/**
+	 * The client used for the transfers.
+	 */
+	private FTPClient client = null;
+	/**
+	 * The file to read.
+	 */
+	private RemoteFile file = null;
+	/**
+	 * Cached blocks, by block number, least recently used first. Only the
+	 * last block of the file may be shorter than <code>BLOCK_SIZE</code>.
+	 */
+	private Map<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(16,
+			0.75f, true) {
+
+		private static final long serialVersionUID = 8716296845226351287L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+			return size() > CACHE_BLOCKS;
+		}
+	};
+	/**
+	 * Position of the next read.
+	 */
+	private long position = 0L;
+	/**
+	 * Size of the file, -1 until known.
+	 */
+	private long size = -1L;
+	/**
+	 * Number of blocks the next sequential transfer fetches.
+	 */
+	private int readAhead = 1;
+	/**
+	 * Block after the last block fetched by the previous transfer.
+	 */
+	private long nextBlock = -1L;
+	/**
+	 * Number of transfers made.
+	 */
+	private int transferCount = 0;
+	/**
+	 * Number of bytes received by the transfers.
+	 */
+	private long bytesFetched = 0L;
+	/**
+	 * Whether or not this channel is open.
+	 */
+	private boolean open = true;
+
+	/**
+	 * Creates a new instance of <code>RemoteFileChannel</code>.
+	 * 
+	 * @param client
+	 *            the client used for the transfers.
+	 * @param file
+	 *            the file to read.
+	 */
+	RemoteFileChannel(FTPClient client, RemoteFile file) {
+		this.client = client;
+		this.file = file;
+	}
+
+	/**
+	 * Reads bytes from the current position of this channel into the given
+	 * buffer. Bytes already in the cache are read without a transfer,
+	 * otherwise a single transfer is made.
+	 * 
+	 * @param dst
+	 *            the buffer to read into.
+	 * @return number of bytes read, or -1 at the end of the file.
+	 * @exception IOException
+	 *                if an IO error occurs, or if the remote host reports an
+	 *                error. In the latter case, the cause of the exception is
+	 *                an <code>FTPException</code>.
+	 */
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (size >= 0 && position >= size) {
+			return -1;
+		}
+		int total = 0;
+		boolean fetched = false;
+		while (dst.hasRemaining()) {
+			long block = position / BLOCK_SIZE;
+			byte[] data = cache.get(Long.valueOf(block));
+			if (data == null) {
+				if (fetched || total > 0) {
+					break;
+				}
+				data = fetch(block);
+				fetched = true;
+			}
+			int offset = (int) (position - block * BLOCK_SIZE);
+			if (offset >= data.length) {
+				break;
+			}
+			int count = Math.min(dst.remaining(), data.length - offset);
+			dst.put(data, offset, count);
+			position += count;
+			total += count;
+			if (data.length < BLOCK_SIZE) {
+				// The last block
+				break;
+			}
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	/**
+	 * Fetches the given block and the blocks to read ahead with a single
+	 * transfer, and caches them.
+	 * 
+	 * @return the given block, empty if it is past the end of the file.
+	 */
+	private byte[] fetch(long block) throws IOException {
+		if (block == nextBlock) {
+			readAhead = Math.min(readAhead * 2, MAX_READ_AHEAD);
+		} else {
+			readAhead = 1;
+		}
+		int count = 1;
+		while (count < readAhead
+				&& !cache.containsKey(Long.valueOf(block + count))) {
+			count++;
+		}
+		if (size >= 0) {
+			long lastBlock = (size - 1) / BLOCK_SIZE;
+			if (block + count == lastBlock) {
+				// Reading to the end is cheaper than aborting
+				count++;
+			}
+		}
+		RemoteInputStream in = null;
+		try {
+			in = client.retrieve(file, FTPConstants.TYPE_BINARY, block
+					* BLOCK_SIZE);
+		} catch (FTPException exp) {
+			if (block > 0 && isPastEnd(block)) {
+				// Some hosts refuse to restart past the end of the file
+				return new byte[0];
+			}
+			throw FTPUtil.toIOException(exp);
+		} catch (ConnectionException exp) {
+			throw FTPUtil.toIOException(exp);
+		}
+		transferCount++;
+		byte[] first = null;
+		boolean end = false;
+		try {
+			for (int i = 0; i < count && !end; i++) {
+				byte[] data = new byte[BLOCK_SIZE];
+				int length = 0;
+				while (length < data.length) {
+					int bytesRead = in.read(data, length, data.length - length);
+					if (bytesRead == -1) {
+						end = true;
+						break;
+					}
+					length += bytesRead;
+				}
+				bytesFetched += length;
+				if (end && (i > 0 || length > 0 || block == 0)) {
+					// Not from an empty transfer restarted past the end
+					size = (block + i) * BLOCK_SIZE + length;
+				}
+				if (end) {
+					byte[] last = new byte[length];
+					System.arraycopy(data, 0, last, 0, length);
+					data = last;
+				}
+				if (length > 0) {
+					cache.put(Long.valueOf(block + i), data);
+				}
+				if (i == 0) {
+					first = data;
+				}
+			}
+			if (!end && size >= 0 && (block + count) * BLOCK_SIZE >= size) {
+				// All of the file was received, let the transfer complete
+				end = in.read() == -1;
+			}
+		} finally {
+			if (end) {
+				in.close();
+			} else {
+				abort(in);
+			}
+		}
+		nextBlock = block + count;
+		if (first.length == 0 && size < 0) {
+			// Restarted past the end, learn the size with SIZE instead
+			isPastEnd(block);
+		}
+		return first;
+	}
+
+	/**
+	 * Tells whether the given block starts at or past the end of the file,
+	 * asking for the size of the file with SIZE if it is not known.
+	 * 
+	 * @return <code>true</code>, if the block is past the end of the file, or
+	 *         <code>false</code> if not, or if the size cannot be found.
+	 */
+	private boolean isPastEnd(long block) {
+		try {
+			return block * BLOCK_SIZE >= size();
+		} catch (IOException exp) {
+			return false;
+		}
+	}
+
+	/**
+	 * Aborts the transfer of the given stream, and reads its replies.
+	 */
+	private void abort(RemoteInputStream in) throws IOException {
+		try {
+			client.abort();
+		} catch (FTPException exp) {
+			throw FTPUtil.toIOException(exp);
+		} catch (ConnectionException exp) {
+			throw FTPUtil.toIOException(exp);
+		}
+		try {
+			in.close();
+		} catch (IOException exp) {
+			if (!(exp.getCause() instanceof FTPException)) {
+				throw exp;
+			}
+			// The remote host reports the transfer as aborted
+		}
+	}
+
+	/**
+	 * This channel is read-only.
+	 * 
+	 * @exception NonWritableChannelException
+	 *                always.
+	 */
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	public synchronized SeekableByteChannel position(long newPosition)
+			throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Invalid position: "
+					+ newPosition);
+		}
+		position = newPosition;
+		return this;
+	}
+
+	/**
+	 * Returns the size of the file, sending SIZE if it is not known yet.
+	 * 
+	 * @return size of the file in bytes.
+	 * @exception IOException
+	 *                if an IO error occurs, or if the remote host reports an
+	 *                error.
+	 */
+	public synchronized long size() throws IOException {
+		checkOpen();
+		if (size < 0) {
+			try {
+				size = client.getSize(file);
+			} catch (FTPException exp) {
+				throw FTPUtil.toIOException(exp);
+			} catch (ConnectionException exp) {
+				throw FTPUtil.toIOException(exp);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * This channel is read-only.
+	 * 
+	 * @exception NonWritableChannelException
+	 *                always.
+	 */
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	/**
+	 * Returns the number of transfers made so far.
+	 * 
+	 * @return number of transfers.
+	 */
+	public synchronized int getTransferCount() {
+		return transferCount;
+	}
+
+	/**
+	 * Returns the number of bytes received by the transfers so far.
+	 * 
+	 * @return number of bytes received.
+	 */
+	public synchronized long getBytesFetched() {
+		return bytesFetched;
+	}
+
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Closes this channel and drops its cache. The client is left connected.
+	 */
+	public synchronized void close() {
+		open = false;
+		cache.clear();
+	}
+
+	/**
+	 * Throws an exception if this channel is closed.
+	 */
+	private void checkOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
\ No newline at end of file
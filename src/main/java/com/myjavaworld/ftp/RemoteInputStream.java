@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A stream for reading the contents of a remote file. Objects of this class are
+ * returned by <code>FTPClient.retrieve</code>. The data is read directly off
+ * the data connection, so no temporary files are needed. Closing this stream
+ * completes the transfer and checks the final reply of the remote host.
+ */
+public class RemoteInputStream extends FilterInputStream {
+
+	/**
+	 * The client that started the transfer.
+	 */
+	private DefaultFTPClient client = null;
+	/**
+	 * The data connection over which the data is received.
+	 */
+	private DataConnection dataConnection = null;
+	/**
+	 * Channel view of this stream, created on demand.
+	 */
+	private ReadableByteChannel channel = null;
+	/**
+	 * Number of bytes read so far.
+	 */
+	private long totalBytes = 0L;
+	/**
+	 * Whether or not this stream was closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates a new instance of <code>RemoteInputStream</code>.
+	 * 
+	 * @param client
+	 *            the client that started the transfer.
+	 * @param dataConnection
+	 *            the data connection over which the data is received.
+	 * @param in
+	 *            input stream of the data connection.
+	 */
+	RemoteInputStream(DefaultFTPClient client, DataConnection dataConnection,
+			InputStream in) {
+		super(in);
+		this.client = client;
+		this.dataConnection = dataConnection;
+		dataConnection.fireDataTransferStarted(new DataConnectionEvent(client,
+				DataConnectionEvent.RECEIVE, totalBytes));
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b != -1) {
+			totalBytes++;
+			dataConnection.dataTransferred(DataConnectionEvent.RECEIVE,
+					totalBytes);
+		} else {
+			checkAborted();
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int bytesRead = in.read(b, off, len);
+		if (bytesRead > 0) {
+			totalBytes += bytesRead;
+			dataConnection.dataTransferred(DataConnectionEvent.RECEIVE,
+					totalBytes);
+		} else if (bytesRead == -1) {
+			checkAborted();
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Throws an exception if the transfer was aborted, as the end of the
+	 * stream is then caused by closing the data connection.
+	 */
+	private void checkAborted() throws IOException {
+		if (dataConnection.isAborted()) {
+			throw new InterruptedIOException("Transfer aborted");
+		}
+	}
+
+	/**
+	 * Returns a <code>ReadableByteChannel</code> that reads from this stream.
+	 * Closing the channel closes this stream.
+	 * 
+	 * @return a channel that reads from this stream.
+	 */
+	public synchronized ReadableByteChannel getChannel() {
+		if (channel == null) {
+			channel = Channels.newChannel(this);
+		}
+		return channel;
+	}
+
+	/**
+	 * Returns the number of bytes read from this stream so far.
+	 * 
+	 * @return number of bytes read.
+	 */
+	public long getBytesTransferred() {
+		return totalBytes;
+	}
+
+	/**
+	 * Closes this stream and the underlying data connection, and reads the
+	 * final reply of the transfer.
+	 * 
+	 * @exception IOException
+	 *                if an IO error occurs, or if the remote host reports that
+	 *                the transfer failed. In the latter case, the cause of the
+	 *                exception is an <code>FTPException</code>.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		dataConnection.fireDataTransferFinished(new DataConnectionEvent(
+				client, DataConnectionEvent.RECEIVE, totalBytes));
+		try {
+			client.completeTransfer(dataConnection);
+		} catch (FTPException exp) {
+			throw FTPUtil.toIOException(exp);
+		} catch (ConnectionException exp) {
+			throw FTPUtil.toIOException(exp);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A stream for writing the contents of a remote file. Objects of this class
+ * are returned by <code>FTPClient.store</code>. The data is written directly to
+ * the data connection, so no temporary files are needed. Closing this stream
+ * completes the transfer and checks the final reply of the remote host.
+ */
+public class RemoteOutputStream extends FilterOutputStream {
+
+	/**
+	 * The client that started the transfer.
+	 */
+	private DefaultFTPClient client = null;
+	/**
+	 * The data connection over which the data is sent.
+	 */
+	private DataConnection dataConnection = null;
+	/**
+	 * Channel view of this stream, created on demand.
+	 */
+	private WritableByteChannel channel = null;
+	/**
+	 * Number of bytes written so far.
+	 */
+	private long totalBytes = 0L;
+	/**
+	 * Whether or not this stream was closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates a new instance of <code>RemoteOutputStream</code>.
+	 * 
+	 * @param client
+	 *            the client that started the transfer.
+	 * @param dataConnection
+	 *            the data connection over which the data is sent.
+	 * @param out
+	 *            output stream of the data connection.
+	 */
+	RemoteOutputStream(DefaultFTPClient client,
+			DataConnection dataConnection, OutputStream out) {
+		super(out);
+		this.client = client;
+		this.dataConnection = dataConnection;
+		dataConnection.fireDataTransferStarted(new DataConnectionEvent(client,
+				DataConnectionEvent.SEND, totalBytes));
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkAborted();
+		dataConnection.dataTransferred(DataConnectionEvent.SEND,
+				totalBytes + 1);
+		out.write(b);
+		totalBytes++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkAborted();
+		if (len > 0) {
+			dataConnection.dataTransferred(DataConnectionEvent.SEND,
+					totalBytes + len);
+		}
+		out.write(b, off, len);
+		totalBytes += len;
+	}
+
+	/**
+	 * Throws an exception if the transfer was aborted.
+	 */
+	private void checkAborted() throws IOException {
+		if (dataConnection.isAborted()) {
+			throw new InterruptedIOException("Transfer aborted");
+		}
+	}
+
+	/**
+	 * Returns a <code>WritableByteChannel</code> that writes to this stream.
+	 * Closing the channel closes this stream.
+	 * 
+	 * @return a channel that writes to this stream.
+	 */
+	public synchronized WritableByteChannel getChannel() {
+		if (channel == null) {
+			channel = Channels.newChannel(this);
+		}
+		return channel;
+	}
+
+	/**
+	 * Returns the number of bytes written to this stream so far.
+	 * 
+	 * @return number of bytes written.
+	 */
+	public long getBytesTransferred() {
+		return totalBytes;
+	}
+
+	/**
+	 * Flushes and closes this stream and the underlying data connection, and
+	 * reads the final reply of the transfer.
+	 * 
+	 * @exception IOException
+	 *                if an IO error occurs, or if the remote host reports that
+	 *                the transfer failed. In the latter case, the cause of the
+	 *                exception is an <code>FTPException</code>.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		IOException flushException = null;
+		try {
+			out.flush();
+		} catch (IOException exp) {
+			flushException = exp;
+		}
+		dataConnection.fireDataTransferFinished(new DataConnectionEvent(
+				client, DataConnectionEvent.SEND, totalBytes));
+		try {
+			client.completeTransfer(dataConnection);
+		} catch (FTPException exp) {
+			throw FTPUtil.toIOException(exp);
+		} catch (ConnectionException exp) {
+			throw FTPUtil.toIOException(exp);
+		}
+		if (flushException != null) {
+			throw flushException;
+		}
+	}
+}
\ No newline at end of file
@@ -17,14 +17,12 @@ package com.myjavaworld.ftp;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.NoRouteToHostException;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.Socket;
+import java.util.Arrays;
 
-import javax.net.SocketFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * A <code>DataConnection</code> object is used to transfer data over the data
@@ -32,9 +30,38 @@ import javax.net.ssl.SSLServerSocketFactory;
  * <code>DataConnection</code> based on the commands the send to the remote
  * host. For more details about data connection, refer to the FTP protocol
  * specification (RFC 959).
+ * <p>
+ * The data connection is first established as a plain TCP connection, in
+ * either passive or active mode, and SSL is then layered over it in client
+ * mode. If the host and port of the control connection are given, the SSL
+ * session of the control connection is resumed, which replaces the full
+ * handshake with an abbreviated one. Some servers require this.
  */
 public class SSLDataConnection extends DataConnection {
 
+	/**
+	 * Host name the control connection was made to, used to find the SSL
+	 * session to resume.
+	 */
+	protected String sessionHost = null;
+	/**
+	 * Port the control connection was made to, used to find the SSL session
+	 * to resume.
+	 */
+	protected int sessionPort = 0;
+	/**
+	 * Time taken by the SSL handshake, in nanoseconds.
+	 */
+	protected long handshakeTime = -1L;
+	/**
+	 * Whether or not the SSL session of the control connection was resumed.
+	 */
+	protected boolean sessionResumed = false;
+	/**
+	 * The plain socket SSL is layered over.
+	 */
+	protected Socket plainSocket = null;
+
 	/**
 	 * Constructs a <code>DataConnection</code> object.
 	 * 
@@ -42,129 +69,159 @@ public class SSLDataConnection extends DataConnection {
 	 *            <code>FTPClient</code> that created this data connection.
 	 */
 	public SSLDataConnection(FTPClient client) {
-		super(client);
+		this(client, null, 0);
 	}
 
 	/**
-	 * Binds a server socket on the local host on a free port. This server
-	 * socket is used for transmitting data in active mode.
+	 * Constructs a <code>DataConnection</code> object that resumes the SSL
+	 * session of the control connection.
 	 * 
-	 * @exception ConnectionException
-	 *                If could not bind a server.
+	 * @param client
+	 *            <code>FTPClient</code> that created this data connection.
+	 * @param sessionHost
+	 *            host name the control connection was made to, exactly as it
+	 *            was given when connecting.
+	 * @param sessionPort
+	 *            port the control connection was made to.
 	 */
-	@Override
-	public synchronized int bind() throws ConnectionException {
-		try {
-			SSLContext ctx = client.getSSLContext();
-			SSLServerSocketFactory factory = ctx.getServerSocketFactory();
-			// server = new ServerSocket(0, 0, client.getLocalAddress());
-			server = factory.createServerSocket(0, 0, client.getLocalAddress());
-			((SSLServerSocket) server).setUseClientMode(true);
-			return server.getLocalPort();
-		} catch (IOException exp) {
-			throw new ConnectionException(exp.toString());
-		}
+	public SSLDataConnection(FTPClient client, String sessionHost,
+			int sessionPort) {
+		super(client);
+		this.sessionHost = sessionHost;
+		this.sessionPort = sessionPort;
 	}
 
 	/**
 	 * Listenes for connections. This method blocks until a connection is made
-	 * or a timeout occurs.
+	 * or a timeout occurs. SSL is then layered over the accepted connection.
 	 * 
 	 * @exception ConnectionException
 	 *                If a network or IO error occurs.
 	 */
 	@Override
 	public synchronized void accept() throws ConnectionException {
-		try {
-			server.setSoTimeout(client.getTimeout());
-		} catch (SocketException exp) {
-			// Let's ignore this.
-		}
-		try {
-			socket = server.accept();
-			// ((SSLSocket) socket).setUseClientMode(true);
-			// ((SSLSocket) socket).startHandshake();
-		} catch (IOException exp) {
-			throw new ConnectionException(exp.toString());
-		}
-		try {
-			socket.setSoTimeout(client.getTimeout());
-		} catch (SocketException exp) {
-			// Let's ignore this.
-		}
-		try {
-			socket.setSendBufferSize(client.getBufferSize());
-			socket.setReceiveBufferSize(client.getBufferSize());
-		} catch (SocketException exp) {
-			// Let's ignore this.
-		}
+		super.accept();
+		plainSocket = socket;
+		socket = layer(socket);
 	}
 
 	/**
-	 * Connects to the specified IP address to the specified port number. This
-	 * method is called by the FTPClients if they prefer to transfer data in
-	 * passive mode.
+	 * Connects to the specified <code>InetAddress</code> to the specified port
+	 * number, and layers SSL over the connection. This method is called by the
+	 * FTPClients if they prefer to transfer data in passive mode.
 	 * 
-	 * @param ipAddress
-	 *            IP address of the remote host in xxx.xxx.xxx.xxx format.
+	 * @param address
+	 *            Ineternet address of the remote host.
 	 * @param port
 	 *            Port number to connect to.
 	 * @exception ConnectionException
 	 *                if a network or IO error occurs.
 	 */
 	@Override
-	public synchronized void connect(String ipAddress, int port)
+	public synchronized void connect(InetAddress address, int port)
 			throws ConnectionException {
+		super.connect(address, port);
+		plainSocket = socket;
+		socket = layer(socket);
+	}
+
+	/**
+	 * Performs the SSL handshake of this data connection, if it was not done
+	 * yet. Servers start the handshake only after they received the transfer
+	 * command, so this method must not be called before sending it. If this
+	 * method is not called, the handshake is done on the first read or write.
+	 * 
+	 * @exception ConnectionException
+	 *                if the handshake fails.
+	 */
+	public synchronized void startHandshake() throws ConnectionException {
+		if (handshakeTime >= 0 || !(socket instanceof SSLSocket)) {
+			return;
+		}
+		SSLSocket ssl = (SSLSocket) socket;
 		try {
-			if (client.isPassiveIPSubstitutionEnabled()) {
-				connect(client.getRemoteAddress(), port);
-			} else {
-				connect(InetAddress.getByName(ipAddress), port);
-			}
-		} catch (UnknownHostException exp) {
+			long start = System.nanoTime();
+			ssl.startHandshake();
+			handshakeTime = System.nanoTime() - start;
+		} catch (IOException exp) {
 			throw new ConnectionException(exp.toString());
 		}
+		sessionResumed = isResumed(ssl.getSession(), client.getSSLSession());
 	}
 
 	/**
-	 * Connects to the specified <code>InetAddress</code> to the specified port
-	 * number. This method is called by the FTPClients if they prefer to
-	 * transfer data in passive mode.
+	 * Returns the time taken by the SSL handshake of this data connection.
 	 * 
-	 * @param address
-	 *            Ineternet address of the remote host.
-	 * @param port
-	 *            Port number to connect to.
-	 * @exception ConnectionException
-	 *                if a network or IO error occurs.
+	 * @return time taken by the handshake, in nanoseconds, or -1 if the
+	 *         handshake was not done by <code>startHandshake</code>.
+	 */
+	public long getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	/**
+	 * Tells whether the SSL session of the control connection was resumed by
+	 * this data connection.
+	 * 
+	 * @return <code>true</code>, if the session was resumed.
+	 */
+	public boolean isSessionResumed() {
+		return sessionResumed;
+	}
+
+	/**
+	 * Closes the plain socket rather than the SSL socket, which would send
+	 * the close notification and may block.
 	 */
 	@Override
-	public synchronized void connect(InetAddress address, int port)
-			throws ConnectionException {
+	void shutdown() {
+		this.abort = true;
+		FTPUtil.close(plainSocket == null ? socket : plainSocket);
+		FTPUtil.close(server);
+	}
+
+	/**
+	 * Layers SSL over the given plain socket. The handshake is not started.
+	 * 
+	 * @param plain
+	 *            a connected socket.
+	 * @return the SSL socket.
+	 * @exception ConnectionException
+	 *                if an IO error occurs.
+	 */
+	protected Socket layer(Socket plain) throws ConnectionException {
+		SSLSocketFactory factory = client.getSSLContext().getSocketFactory();
 		try {
-			SSLContext ctx = client.getSSLContext();
-			SocketFactory factory = ctx.getSocketFactory();
-			socket = factory.createSocket(address, port);
-			// socket = new Socket(address, port);
-			try {
-				socket.setSoTimeout(client.getTimeout());
-			} catch (SocketException exp) {
-				// Let's ignore this.
-			}
-			try {
-				socket.setSendBufferSize(client.getBufferSize());
-				socket.setReceiveBufferSize(client.getBufferSize());
-			} catch (SocketException exp) {
-				// Let's ignore this.
+			SSLSocket ssl = null;
+			if (sessionHost == null) {
+				ssl = (SSLSocket) factory.createSocket(plain, plain
+						.getInetAddress().getHostAddress(), plain.getPort(),
+						true);
+			} else {
+				ssl = (SSLSocket) factory.createSocket(new DelegatingSocket(
+						plain, sessionPort), sessionHost, sessionPort, true);
 			}
-		} catch (UnknownHostException exp) {
-			throw new ConnectionException(exp.toString());
-		} catch (NoRouteToHostException exp) {
-			throw new ConnectionException(exp.toString());
-		} catch (SocketException exp) {
-			throw new ConnectionException(exp.toString());
+			return ssl;
 		} catch (IOException exp) {
+			FTPUtil.close(plain);
 			throw new ConnectionException(exp.toString());
 		}
 	}
+
+	/**
+	 * Tells whether the data session is a resumption of the control session.
+	 * Resumed sessions share the session ID, or, in TLS 1.3 where a new ID is
+	 * given, the creation time of the original session.
+	 */
+	static boolean isResumed(SSLSession data, SSLSession control) {
+		if (data == null || control == null) {
+			return false;
+		}
+		byte[] id = data.getId();
+		if (id != null && id.length > 0
+				&& Arrays.equals(id, control.getId())) {
+			return true;
+		}
+		return data.getCreationTime() == control.getCreationTime();
+	}
 }
\ No newline at end of file
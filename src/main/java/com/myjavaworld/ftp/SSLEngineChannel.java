@@ -0,0 +1,680 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import com.myjavaworld.util.BufferPool;
+
+/**
+ * A <code>ByteChannel</code> that runs TLS over a <code>SocketChannel</code>
+ * using an <code>SSLEngine</code>. The network buffers are direct buffers
+ * taken from a <code>BufferPool</code> and sized to the TLS record size of the
+ * session, so they are reused across connections. When the caller's buffer
+ * can hold a whole record, records are decrypted straight into it.
+ * <p>
+ * The socket channel is put in non-blocking mode, and selectors are used to
+ * wait for it, so that the timeout of the client applies to every read and
+ * write. Reads and writes are locked separately, so a command can be sent
+ * while another thread waits for a reply.
+ */
+class SSLEngineChannel implements ByteChannel {
+
+	/**
+	 * Empty buffer used to drive handshake and close wraps.
+	 */
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	/**
+	 * Length of a TLS record header.
+	 */
+	private static final int RECORD_HEADER_LENGTH = 5;
+
+	/**
+	 * The underlying socket channel.
+	 */
+	private SocketChannel channel = null;
+	/**
+	 * The engine that encrypts and decrypts the data.
+	 */
+	private SSLEngine engine = null;
+	/**
+	 * Selector used to wait for the socket channel to become readable.
+	 */
+	private Selector readSelector = null;
+	/**
+	 * Selector used to wait for the socket channel to become writable.
+	 */
+	private Selector writeSelector = null;
+	/**
+	 * Lock held while reading.
+	 */
+	private final Object readLock = new Object();
+	/**
+	 * Lock held while writing. When both locks are needed, the read lock is
+	 * taken first.
+	 */
+	private final Object writeLock = new Object();
+	/**
+	 * Read and write timeout in milliseconds, 0 for no timeout.
+	 */
+	private int timeout = 0;
+	/**
+	 * Pool of the network buffers.
+	 */
+	private BufferPool netPool = null;
+	/**
+	 * Pool of the application buffer.
+	 */
+	private BufferPool appPool = null;
+	/**
+	 * Encrypted data received from the network, kept ready for filling.
+	 */
+	private ByteBuffer netIn = null;
+	/**
+	 * Encrypted data to be sent to the network, kept ready for filling and
+	 * empty between operations.
+	 */
+	private ByteBuffer netOut = null;
+	/**
+	 * Decrypted data not yet given to the caller, kept ready for draining.
+	 */
+	private ByteBuffer appIn = null;
+	/**
+	 * Time taken by the handshake, in nanoseconds.
+	 */
+	private long handshakeTime = -1L;
+	/**
+	 * Whether or not the peer closed the TLS session or the connection.
+	 */
+	private boolean inboundDone = false;
+	/**
+	 * Whether or not this channel was closed.
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * Whether or not this channel was shut down by an abort, in which case the
+	 * TLS close notification is not sent.
+	 */
+	private volatile boolean aborted = false;
+	/**
+	 * Whether or not a write to the network failed, which may have cut a
+	 * record short, so that the close notification cannot be sent.
+	 */
+	private boolean writeFailed = false;
+	/**
+	 * Thread closing this channel, if any. Other threads waiting on the
+	 * channel give up.
+	 */
+	private volatile Thread closer = null;
+
+	/**
+	 * Creates a new instance of <code>SSLEngineChannel</code>. The handshake
+	 * is not started until <code>handshake</code> is called.
+	 * 
+	 * @param channel
+	 *            a connected socket channel.
+	 * @param engine
+	 *            the engine to use, set to client mode.
+	 * @param timeout
+	 *            read and write timeout in milliseconds, 0 for no timeout.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	SSLEngineChannel(SocketChannel channel, SSLEngine engine, int timeout)
+			throws IOException {
+		this.channel = channel;
+		this.engine = engine;
+		this.timeout = timeout;
+		SSLSession session = engine.getSession();
+		netPool = BufferPool.getPool(session.getPacketBufferSize(), true);
+		appPool = BufferPool.getPool(session.getApplicationBufferSize(), true);
+		ByteBuffer[] buffers = BufferPool.acquire(new BufferPool[] { netPool,
+				netPool, appPool });
+		netIn = buffers[0];
+		netOut = buffers[1];
+		appIn = buffers[2];
+		appIn.flip();
+		channel.configureBlocking(false);
+		readSelector = Selector.open();
+		writeSelector = Selector.open();
+		channel.register(readSelector, SelectionKey.OP_READ);
+		channel.register(writeSelector, SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Tells whether the given client may use the <code>SSLEngine</code>
+	 * transport. The transport connects directly, so it is not used when a
+	 * proxy is set.
+	 * 
+	 * @param client
+	 *            the client.
+	 * @return <code>true</code>, if the <code>SSLEngine</code> transport is
+	 *         to be used.
+	 */
+	static boolean isEnabled(FTPClient client) {
+		if (client.getSSLTransport() != FTPConstants.SSL_TRANSPORT_ENGINE) {
+			return false;
+		}
+		Proxy proxy = client.getProxy();
+		return proxy == null || proxy.type() == Proxy.Type.DIRECT;
+	}
+
+	/**
+	 * Performs the TLS handshake.
+	 * 
+	 * @exception IOException
+	 *                if the handshake fails.
+	 */
+	void handshake() throws IOException {
+		synchronized (readLock) {
+			synchronized (writeLock) {
+				long start = System.nanoTime();
+				engine.beginHandshake();
+				finishHandshake(engine.getHandshakeStatus(), true);
+				handshakeTime = System.nanoTime() - start;
+			}
+		}
+	}
+
+	/**
+	 * Returns the time taken by the handshake.
+	 * 
+	 * @return time taken by the handshake in nanoseconds, or -1 if the
+	 *         handshake was not done.
+	 */
+	long getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	/**
+	 * Sets the read and write timeout.
+	 * 
+	 * @param timeout
+	 *            timeout in milliseconds, 0 for no timeout.
+	 */
+	void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns the read and write timeout.
+	 * 
+	 * @return timeout in milliseconds, 0 for no timeout.
+	 */
+	int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns the TLS session of this channel.
+	 * 
+	 * @return the TLS session.
+	 */
+	SSLSession getSession() {
+		return engine.getSession();
+	}
+
+	/**
+	 * Returns the underlying socket channel.
+	 * 
+	 * @return the socket channel.
+	 */
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	public int read(ByteBuffer dst) throws IOException {
+		synchronized (readLock) {
+			ensureOpen();
+			return doRead(dst);
+		}
+	}
+
+	public int write(ByteBuffer src) throws IOException {
+		synchronized (writeLock) {
+			ensureOpen();
+			return doWrite(src);
+		}
+	}
+
+	public boolean isOpen() {
+		return !closed && channel.isOpen();
+	}
+
+	/**
+	 * Sends the TLS close notification, if possible, and closes the socket
+	 * channel. Threads blocked in <code>read</code>, <code>write</code> or
+	 * the handshake are woken up before any lock is taken, and fail. The close
+	 * notification is not sent if the channel was shut down or a write
+	 * failed. The buffers are returned to their pools.
+	 * 
+	 * @exception IOException
+	 *                if an IO error occurs while closing the channel.
+	 */
+	public void close() throws IOException {
+		if (closed || closer != null) {
+			return;
+		}
+		closer = Thread.currentThread();
+		readSelector.wakeup();
+		writeSelector.wakeup();
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (!aborted && !writeFailed) {
+					engine.closeOutbound();
+					while (!engine.isOutboundDone()) {
+						SSLEngineResult result = engine.wrap(EMPTY, netOut);
+						flush();
+						if (result.bytesProduced() == 0) {
+							break;
+						}
+					}
+					discardInput();
+				}
+			} catch (IOException exp) {
+				// The peer may have gone already.
+			} finally {
+				try {
+					readSelector.close();
+					writeSelector.close();
+				} finally {
+					channel.close();
+					release(netPool, netOut);
+				}
+			}
+		}
+		synchronized (readLock) {
+			release(netPool, netIn);
+			release(appPool, appIn);
+		}
+	}
+
+	/**
+	 * Shuts this channel down without taking any lock, so that a thread
+	 * blocked on it fails right away. The selectors are woken up and the
+	 * socket channel is closed, but the TLS close notification is not sent.
+	 * This method may be called from any thread, and <code>close</code> must
+	 * still be called to return the buffers.
+	 */
+	void shutdown() {
+		aborted = true;
+		try {
+			channel.close();
+		} catch (IOException exp) {
+			// Nothing to do.
+		} finally {
+			readSelector.wakeup();
+			writeSelector.wakeup();
+		}
+	}
+
+	/**
+	 * Reads and discards what the peer sent and was not read, such as the
+	 * session tickets sent after a TLS 1.3 handshake on a connection that is
+	 * only written to. Closing a socket with unread data resets the
+	 * connection, and the peer may lose the data it has not read yet.
+	 */
+	private void discardInput() throws IOException {
+		ByteBuffer scratch = ByteBuffer.allocate(4096);
+		while (channel.read(scratch) > 0) {
+			scratch.clear();
+		}
+	}
+
+	private int doRead(ByteBuffer dst) throws IOException {
+		if (appIn.hasRemaining()) {
+			return transfer(appIn, dst);
+		}
+		if (inboundDone) {
+			return -1;
+		}
+		int start = dst.position();
+		while (true) {
+			boolean direct = dst.remaining() >= appIn.capacity();
+			ByteBuffer target = dst;
+			if (!direct) {
+				appIn.clear();
+				target = appIn;
+			}
+			SSLEngineResult result = unwrap(target, dst.position() == start);
+			if (!direct) {
+				appIn.flip();
+			}
+			if (result == null) {
+				// Nothing more without blocking, or end of stream.
+				break;
+			}
+			switch (result.getStatus()) {
+			case CLOSED:
+				inboundDone = true;
+				break;
+			case BUFFER_OVERFLOW:
+				// appIn holds no unread bytes here, compacting keeps the ones
+				// already delivered out of the larger buffer.
+				appIn.compact();
+				appIn = enlarge(appIn, appPool, engine.getSession()
+						.getApplicationBufferSize());
+				appIn.flip();
+				continue;
+			default:
+				finishHandshake(result.getHandshakeStatus(), true);
+				break;
+			}
+			if (!direct && appIn.hasRemaining()) {
+				int count = dst.position() - start;
+				return count + transfer(appIn, dst);
+			}
+			if (inboundDone || !dst.hasRemaining()) {
+				break;
+			}
+		}
+		int count = dst.position() - start;
+		if (count == 0 && inboundDone) {
+			return -1;
+		}
+		return count;
+	}
+
+	private int doWrite(ByteBuffer src) throws IOException {
+		int count = 0;
+		while (src.hasRemaining()) {
+			SSLEngineResult result = engine.wrap(src, netOut);
+			switch (result.getStatus()) {
+			case CLOSED:
+				throw new SSLException("SSL engine is closed");
+			case BUFFER_OVERFLOW:
+				flush();
+				netOut = enlarge(netOut, netPool, engine.getSession()
+						.getPacketBufferSize());
+				continue;
+			default:
+				count += result.bytesConsumed();
+				flush();
+				finishHandshake(result.getHandshakeStatus(), false);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Runs the handshake from the given status until it is done. Handshake
+	 * messages are read only if <code>unwrap</code> is <code>true</code>,
+	 * otherwise that is left to the next read. The caller holds the read
+	 * lock, the write lock, or both.
+	 */
+	private void finishHandshake(SSLEngineResult.HandshakeStatus status,
+			boolean unwrap) throws IOException {
+		while (true) {
+			switch (status) {
+			case NEED_TASK:
+				Runnable task = null;
+				while ((task = engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				status = engine.getHandshakeStatus();
+				break;
+			case NEED_WRAP:
+				SSLEngineResult result = null;
+				synchronized (writeLock) {
+					result = engine.wrap(EMPTY, netOut);
+					if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+						flush();
+						netOut = enlarge(netOut, netPool, engine.getSession()
+								.getPacketBufferSize());
+						continue;
+					}
+					flush();
+				}
+				if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					throw new SSLException("SSL engine closed during handshake");
+				}
+				status = result.getHandshakeStatus();
+				break;
+			case NEED_UNWRAP:
+				if (!unwrap) {
+					return;
+				}
+				appIn.compact();
+				try {
+					result = unwrap(appIn, true);
+				} finally {
+					appIn.flip();
+				}
+				if (result == null) {
+					throw new EOFException("Connection closed during handshake");
+				}
+				if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					throw new SSLException("SSL engine closed during handshake");
+				}
+				if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					appIn.compact();
+					appIn = enlarge(appIn, appPool, engine.getSession()
+							.getApplicationBufferSize());
+					appIn.flip();
+				}
+				status = result.getHandshakeStatus();
+				break;
+			default:
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decrypts the next record into <code>dst</code>, reading from the
+	 * network as needed. If <code>block</code> is <code>false</code>, only
+	 * records that are already received are decrypted.
+	 * 
+	 * @return the result of the unwrap, or <code>null</code> if the end of
+	 *         the stream was reached, or no complete record was received and
+	 *         <code>block</code> is <code>false</code>.
+	 */
+	private SSLEngineResult unwrap(ByteBuffer dst, boolean block)
+			throws IOException {
+		while (true) {
+			if (netIn.position() > 0) {
+				netIn.flip();
+				SSLEngineResult result = null;
+				try {
+					result = engine.unwrap(netIn, dst);
+				} finally {
+					netIn.compact();
+				}
+				if (result.getStatus() != SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+					return result;
+				}
+				if (!netIn.hasRemaining()) {
+					netIn = enlarge(netIn, netPool, engine.getSession()
+							.getPacketBufferSize());
+				}
+			}
+			if (!block && !hasRecord()) {
+				return null;
+			}
+			if (fill() < 0) {
+				inboundDone = true;
+				try {
+					engine.closeInbound();
+				} catch (SSLException exp) {
+					// The peer did not send a close notification. This is
+					// common with FTP servers, which end the data by closing
+					// the connection.
+				}
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Tells whether a complete record is waiting in <code>netIn</code>.
+	 */
+	private boolean hasRecord() {
+		if (netIn.position() < RECORD_HEADER_LENGTH) {
+			return false;
+		}
+		int length = ((netIn.get(3) & 0xff) << 8) | (netIn.get(4) & 0xff);
+		return netIn.position() >= RECORD_HEADER_LENGTH + length;
+	}
+
+	/**
+	 * Reads at least one byte from the network into <code>netIn</code>.
+	 * 
+	 * @return number of bytes read, or -1 at the end of the stream.
+	 */
+	private int fill() throws IOException {
+		int count = channel.read(netIn);
+		while (count == 0) {
+			await(readSelector);
+			count = channel.read(netIn);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the contents of <code>netOut</code> to the network, and clears
+	 * it.
+	 */
+	private void flush() throws IOException {
+		netOut.flip();
+		try {
+			while (netOut.hasRemaining()) {
+				if (channel.write(netOut) == 0) {
+					await(writeSelector);
+				}
+			}
+		} catch (IOException exp) {
+			writeFailed = true;
+			throw exp;
+		} finally {
+			netOut.clear();
+		}
+	}
+
+	/**
+	 * Waits until the socket channel is ready for the operation of the given
+	 * selector.
+	 * 
+	 * @exception SocketTimeoutException
+	 *                if the timeout elapses first.
+	 * @exception AsynchronousCloseException
+	 *                if this channel is shut down, or closed by another
+	 *                thread, while waiting.
+	 */
+	private void await(Selector selector) throws IOException {
+		int ready = 0;
+		try {
+			checkClosing();
+			ready = selector.select(timeout);
+			selector.selectedKeys().clear();
+		} catch (ClosedSelectorException exp) {
+			throw new AsynchronousCloseException();
+		} catch (CancelledKeyException exp) {
+			throw new AsynchronousCloseException();
+		}
+		if (!selector.isOpen()) {
+			throw new AsynchronousCloseException();
+		}
+		checkClosing();
+		if (ready == 0 && timeout > 0) {
+			throw new SocketTimeoutException("Timed out");
+		}
+	}
+
+	/**
+	 * Fails if this channel was shut down, or is being closed by a thread
+	 * other than the current one. The closing thread itself may still wait
+	 * for the close notification to be sent.
+	 */
+	private void checkClosing() throws AsynchronousCloseException {
+		Thread thread = closer;
+		if (aborted || (thread != null && thread != Thread.currentThread())) {
+			throw new AsynchronousCloseException();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed || aborted) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * Copies as much as fits from <code>src</code> to <code>dst</code>.
+	 * 
+	 * @return number of bytes copied.
+	 */
+	private static int transfer(ByteBuffer src, ByteBuffer dst) {
+		int count = Math.min(src.remaining(), dst.remaining());
+		if (count == src.remaining()) {
+			dst.put(src);
+		} else {
+			int limit = src.limit();
+			src.limit(src.position() + count);
+			dst.put(src);
+			src.limit(limit);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a buffer to its pool, unless it was enlarged, in which case it
+	 * no longer belongs to the pool.
+	 */
+	private static void release(BufferPool pool, ByteBuffer buffer) {
+		if (buffer.capacity() == pool.getBufferSize()) {
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Replaces a buffer that is too small for the session with a larger one,
+	 * keeping its contents. The buffer must be ready for filling, so that its
+	 * contents are the bytes before its position. The old buffer goes back to
+	 * its pool, unless it was enlarged before.
+	 * 
+	 * @return the new buffer, ready for filling.
+	 */
+	private static ByteBuffer enlarge(ByteBuffer buffer, BufferPool pool,
+			int size) {
+		ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(size, buffer
+				.capacity() * 2));
+		buffer.flip();
+		larger.put(buffer);
+		release(pool, buffer);
+		return larger;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import com.myjavaworld.util.BufferPool;
+
+/**
+ * An encrypted data connection that runs an <code>SSLEngine</code> over a
+ * socket channel instead of using an SSL socket. The TLS records are read into
+ * and written from pooled direct buffers, and binary transfers move the data
+ * between the network and the local file through a direct buffer, so the data
+ * is never copied to the Java heap.
+ * <p>
+ * As with <code>SSLDataConnection</code>, the connection is first established
+ * as a plain TCP connection, and the SSL session of the control connection is
+ * resumed if its host and port are given.
+ */
+public class SSLEngineDataConnection extends SSLDataConnection {
+
+	/**
+	 * The encrypted channel, created by the handshake.
+	 */
+	private volatile SSLEngineChannel sslChannel = null;
+
+	/**
+	 * Constructs a <code>SSLEngineDataConnection</code> object.
+	 * 
+	 * @param client
+	 *            <code>FTPClient</code> that created this data connection.
+	 */
+	public SSLEngineDataConnection(FTPClient client) {
+		super(client);
+	}
+
+	/**
+	 * Constructs a <code>SSLEngineDataConnection</code> object that resumes
+	 * the SSL session of the control connection.
+	 * 
+	 * @param client
+	 *            <code>FTPClient</code> that created this data connection.
+	 * @param sessionHost
+	 *            host name the control connection was made to, exactly as it
+	 *            was given when connecting.
+	 * @param sessionPort
+	 *            port the control connection was made to.
+	 */
+	public SSLEngineDataConnection(FTPClient client, String sessionHost,
+			int sessionPort) {
+		super(client, sessionHost, sessionPort);
+	}
+
+	/**
+	 * Binds a server socket channel on the local host on a free port. This
+	 * server socket is used for transmitting data in active mode.
+	 * 
+	 * @return the port number to which this server is bound to.
+	 * @exception ConnectionException
+	 *                If could not bind a server.
+	 */
+	@Override
+	public synchronized int bind() throws ConnectionException {
+		try {
+			server = ServerSocketChannel.open().socket();
+			if (socketBufferSize > 0) {
+				server.setReceiveBufferSize(socketBufferSize);
+			}
+			server.bind(new InetSocketAddress(client.getLocalAddress(), 0));
+			return server.getLocalPort();
+		} catch (IOException exp) {
+			FTPUtil.close(server);
+			throw new ConnectionException(exp.toString());
+		}
+	}
+
+	/**
+	 * Performs the SSL handshake of this data connection, if it was not done
+	 * yet. Servers start the handshake only after they received the transfer
+	 * command, so this method must not be called before sending it. If this
+	 * method is not called, the handshake is done when the data is first
+	 * read or written.
+	 * 
+	 * @exception ConnectionException
+	 *                if the handshake fails.
+	 */
+	@Override
+	public synchronized void startHandshake() throws ConnectionException {
+		try {
+			getSSLChannel();
+		} catch (IOException exp) {
+			throw new ConnectionException(exp.toString());
+		}
+	}
+
+	/**
+	 * Reads the data over this data connection and saves it in the specified
+	 * local file <code>destination</code>. In binary mode, the data is
+	 * decrypted into a direct buffer and written to the file from there.
+	 * 
+	 * @param destination
+	 *            The local file to which the data is to be stored.
+	 * @param append
+	 *            Whether or not to append the data to the local file.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	@Override
+	public void download(File destination, boolean append) throws IOException {
+		if (client.getType() == TYPE_ASCII) {
+			super.download(destination, append);
+			return;
+		}
+		long totalBytes = 0L;
+		BufferPool pool = BufferPool.getPool(client.getBufferSize(), true);
+		ByteBuffer buffer = pool.acquire();
+		try {
+			SSLEngineChannel channel = getSSLChannel();
+			FileOutputStream file = new FileOutputStream(destination
+					.getAbsolutePath(), append);
+			out = file;
+			FileChannel fileChannel = file.getChannel();
+			fireDataTransferStarted(new DataConnectionEvent(client,
+					DataConnectionEvent.RECEIVE, totalBytes));
+			while (channel.read(buffer) != -1) {
+				if (abort) {
+					throw new InterruptedIOException("Transfer aborted");
+				}
+				buffer.flip();
+				int count = buffer.remaining();
+				while (buffer.hasRemaining()) {
+					fileChannel.write(buffer);
+				}
+				buffer.clear();
+				totalBytes += count;
+				fireDataTransferProgress(new DataConnectionEvent(client,
+						DataConnectionEvent.RECEIVE, totalBytes));
+			}
+		} catch (IOException exp) {
+			throw transferFailed(exp, DataConnectionEvent.RECEIVE, totalBytes);
+		} finally {
+			fireDataTransferFinished(new DataConnectionEvent(client,
+					DataConnectionEvent.RECEIVE, totalBytes));
+			close();
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Sends the contents of the specified local file <code>source</code> to
+	 * the remote host. In binary mode, the file is read into a direct buffer
+	 * and encrypted from there.
+	 * 
+	 * @param source
+	 *            The source for whose contents are to be sent to the remote
+	 *            host.
+	 * @param skip
+	 *            If the value of this parameter is greater than zero, these
+	 *            many bytes will be skipped before sending the data.
+	 * @exception IOException
+	 *                if an IO error occurs.
+	 */
+	@Override
+	public void upload(File source, long skip) throws IOException {
+		if (client.getType() == TYPE_ASCII) {
+			super.upload(source, skip);
+			return;
+		}
+		long totalBytes = 0L;
+		BufferPool pool = BufferPool.getPool(client.getBufferSize(), true);
+		ByteBuffer buffer = pool.acquire();
+		try {
+			SSLEngineChannel channel = getSSLChannel();
+			FileInputStream file = new FileInputStream(source);
+			in = file;
+			FileChannel fileChannel = file.getChannel();
+			if (skip > 0) {
+				fileChannel.position(skip);
+			}
+			fireDataTransferStarted(new DataConnectionEvent(client,
+					DataConnectionEvent.SEND, totalBytes));
+			while (fileChannel.read(buffer) != -1) {
+				if (abort) {
+					throw new InterruptedIOException("Transfer aborted");
+				}
+				buffer.flip();
+				int count = buffer.remaining();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+				totalBytes += count;
+				fireDataTransferProgress(new DataConnectionEvent(client,
+						DataConnectionEvent.SEND, totalBytes));
+			}
+		} catch (IOException exp) {
+			throw transferFailed(exp, DataConnectionEvent.SEND, totalBytes);
+		} finally {
+			fireDataTransferFinished(new DataConnectionEvent(client,
+					DataConnectionEvent.SEND, totalBytes));
+			close();
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Closes this data connection and open streams, if any. The TLS close
+	 * notification is sent after the streams are flushed.
+	 */
+	@Override
+	public void close() {
+		FTPUtil.close(in);
+		FTPUtil.close(out);
+		FTPUtil.close(sslChannel);
+		super.close();
+	}
+
+	/**
+	 * Shuts the encrypted channel down, which wakes up its selectors, so that
+	 * a blocked read, write or handshake fails right away and no close
+	 * notification is sent.
+	 */
+	@Override
+	void shutdown() {
+		SSLEngineChannel channel = sslChannel;
+		if (channel != null) {
+			channel.shutdown();
+		}
+		super.shutdown();
+	}
+
+	/**
+	 * Connects a socket channel, so that the engine can be run over it.
+	 */
+	@Override
+	protected Socket createSocket(InetAddress address, int port)
+			throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			if (socketBufferSize > 0) {
+				channel.socket().setReceiveBufferSize(socketBufferSize);
+				channel.socket().setSendBufferSize(socketBufferSize);
+			}
+			channel.socket().connect(new InetSocketAddress(address, port),
+					client.getTimeout());
+		} catch (IOException exp) {
+			FTPUtil.close(channel);
+			throw exp;
+		}
+		return channel.socket();
+	}
+
+	/**
+	 * Returns the plain socket, as SSL is added by the handshake.
+	 */
+	@Override
+	protected Socket layer(Socket plain) throws ConnectionException {
+		return plain;
+	}
+
+	@Override
+	protected InputStream getSocketInputStream() throws IOException {
+		return Channels.newInputStream(getSSLChannel());
+	}
+
+	@Override
+	protected OutputStream getSocketOutputStream() throws IOException {
+		return Channels.newOutputStream(getSSLChannel());
+	}
+
+	/**
+	 * Returns the encrypted channel, doing the handshake if it was not done
+	 * yet.
+	 */
+	private synchronized SSLEngineChannel getSSLChannel() throws IOException {
+		if (sslChannel != null) {
+			return sslChannel;
+		}
+		SSLContext ctx = client.getSSLContext();
+		SSLEngine engine = null;
+		if (sessionHost == null) {
+			engine = ctx.createSSLEngine(socket.getInetAddress()
+					.getHostAddress(), socket.getPort());
+		} else {
+			engine = ctx.createSSLEngine(sessionHost, sessionPort);
+		}
+		engine.setUseClientMode(true);
+		SSLEngineChannel channel = new SSLEngineChannel(socket.getChannel(),
+				engine, client.getTimeout());
+		sslChannel = channel;
+		try {
+			channel.handshake();
+		} catch (IOException exp) {
+			sslChannel = null;
+			FTPUtil.close(channel);
+			throw exp;
+		}
+		handshakeTime = sslChannel.getHandshakeTime();
+		sessionResumed = isResumed(sslChannel.getSession(), client
+				.getSSLSession());
+		return sslChannel;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns the socket buffer size of data connections to a host. A TCP
+ * connection can not move more than one window per round trip, so when a
+ * transfer reaches about half of <code>buffer size / round trip time</code>,
+ * the buffer is taken to be the limit and is doubled for the next transfers
+ * to the host, up to a cap. The round trip time is estimated from the fastest
+ * command exchange on the control connection. The learned sizes are shared
+ * by all clients.
+ */
+class SocketBufferTuner {
+
+	/**
+	 * Maximum number of hosts to remember.
+	 */
+	private static final int MAX_HOSTS = 256;
+	/**
+	 * Learned buffer sizes by host, least recently used first.
+	 */
+	private static final Map<String, Integer> sizes = new LinkedHashMap<String, Integer>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 4392716045182390547L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_HOSTS;
+		}
+	};
+
+	/**
+	 * Host the data connections are made to.
+	 */
+	private String host = null;
+	/**
+	 * Round trip time to the host in nanoseconds.
+	 */
+	private long roundTripTime = 0L;
+	/**
+	 * Largest buffer size to use.
+	 */
+	private int maxSize = 0;
+
+	/**
+	 * Creates a new instance of <code>SocketBufferTuner</code>.
+	 * 
+	 * @param host
+	 *            host the data connections are made to.
+	 * @param roundTripTime
+	 *            round trip time to the host in nanoseconds, 0 if not known.
+	 * @param maxSize
+	 *            largest buffer size to use.
+	 */
+	SocketBufferTuner(String host, long roundTripTime, int maxSize) {
+		this.host = host;
+		this.roundTripTime = roundTripTime;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the buffer size to use for the next data connection.
+	 * 
+	 * @param initialSize
+	 *            size to use if nothing was learned about the host yet.
+	 * @return the buffer size.
+	 */
+	int getSize(int initialSize) {
+		synchronized (sizes) {
+			Integer size = sizes.get(host);
+			if (size == null || size.intValue() < initialSize) {
+				return Math.min(initialSize, maxSize);
+			}
+			return Math.min(size.intValue(), maxSize);
+		}
+	}
+
+	/**
+	 * Learns from a finished transfer.
+	 * 
+	 * @param size
+	 *            buffer size the transfer was made with.
+	 * @param bytes
+	 *            number of bytes transferred.
+	 * @param time
+	 *            time taken by the transfer in nanoseconds.
+	 */
+	void update(int size, long bytes, long time) {
+		if (roundTripTime <= 0 || time <= 0 || size <= 0 || size >= maxSize) {
+			return;
+		}
+		// Short transfers end before the window opens up.
+		if (bytes < 8L * size || time < 4 * roundTripTime) {
+			return;
+		}
+		double throughput = (double) bytes / time;
+		double limit = (double) size / roundTripTime;
+		if (throughput < limit / 2) {
+			return;
+		}
+		int grown = (int) Math.min((long) size * 2, maxSize);
+		synchronized (sizes) {
+			Integer learned = sizes.get(host);
+			if (learned == null || learned.intValue() < grown) {
+				sizes.put(host, Integer.valueOf(grown));
+			}
+		}
+	}
+}
\ No newline at end of file
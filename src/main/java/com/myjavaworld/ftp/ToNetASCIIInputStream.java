@@ -133,28 +133,78 @@ public final class ToNetASCIIInputStream extends FilterInputStream {
 			return 0;
 		}
 
-		ch = available();
+		off = offset;
 
-		if (length > ch) {
-			length = ch;
+		if (__status == __LAST_WAS_NL) {
+			__status = __NOTHING_SPECIAL;
+			buffer[offset++] = '\n';
+			--length;
+			// Do not block for more once something can be returned
+			if (length < 2 || in.available() < 1) {
+				return 1;
+			}
 		}
 
-		// If nothing is available, block to read only one character
-		if (length < 1) {
-			length = 1;
+		// Every raw byte expands to at most two, so fewer than two free
+		// slots leave no room for a bulk read.
+		if (length < 2) {
+			if ((ch = read()) == -1) {
+				return -1;
+			}
+			buffer[offset] = (byte) ch;
+			return 1;
 		}
 
-		if ((ch = read()) == -1) {
-			return -1;
+		ch = in.read(buffer, offset + length - (length >> 1), length >> 1);
+
+		if (ch == -1) {
+			return (offset > off) ? (offset - off) : -1;
 		}
 
-		off = offset;
+		return (__expand(buffer, offset, offset + length - (length >> 1), ch) - off);
+	}
+
+	/***
+	 * Expands the <code>count</code> raw bytes stored at <code>from</code> to
+	 * NETASCII, writing the result to the same array starting at
+	 * <code>to</code>. The raw bytes must sit in the upper half of the
+	 * destination region so that the output never overtakes the input.
+	 * Returns the offset just past the last byte written.
+	 ***/
+	private int __expand(byte buffer[], int to, int from, int count) {
+		int end, run;
+		boolean lastWasCR;
+
+		end = from + count;
+		lastWasCR = (__status == __LAST_WAS_CR);
+
+		while (from < end) {
+			run = from;
+			while (run < end && buffer[run] != '\n') {
+				++run;
+			}
+
+			if (run > from) {
+				lastWasCR = (buffer[run - 1] == '\r');
+				System.arraycopy(buffer, from, buffer, to, run - from);
+				to += run - from;
+			}
+
+			if (run < end) {
+				if (!lastWasCR) {
+					buffer[to++] = '\r';
+				}
+				buffer[to++] = '\n';
+				lastWasCR = false;
+				++run;
+			}
+
+			from = run;
+		}
 
-		do {
-			buffer[offset++] = (byte) ch;
-		} while (--length > 0 && (ch = read()) != -1);
+		__status = lastWasCR ? __LAST_WAS_CR : __NOTHING_SPECIAL;
 
-		return (offset - off);
+		return to;
 	}
 
 	/*** Returns false. Mark is not supported. ***/
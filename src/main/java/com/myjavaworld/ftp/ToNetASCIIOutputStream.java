@@ -109,8 +109,26 @@ public final class ToNetASCIIOutputStream extends FilterOutputStream {
 	@Override
 	public synchronized void write(byte buffer[], int offset, int length)
 			throws IOException {
-		while (length-- > 0) {
-			write(buffer[offset++]);
+		int start, end;
+
+		start = offset;
+		end = offset + length;
+
+		// Write the runs between naked newlines as they are, inserting a
+		// carriage return in front of each such newline.
+		for (; offset < end; offset++) {
+			if (buffer[offset] == '\n' && !__lastWasCR) {
+				if (offset > start) {
+					out.write(buffer, start, offset - start);
+				}
+				out.write('\r');
+				start = offset;
+			}
+			__lastWasCR = (buffer[offset] == '\r');
+		}
+
+		if (end > start) {
+			out.write(buffer, start, end - start);
 		}
 	}
 
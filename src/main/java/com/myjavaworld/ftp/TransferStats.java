@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.io.Serializable;
+
+/**
+ * Timing breakdown of a single data transfer. An instance is created when the
+ * final reply of a transfer is read, and is available from
+ * <code>FTPClient.getLastTransferStats</code>. All times are in nanoseconds; a
+ * time of <code>-1</code> indicates that the phase did not take place, e.g.
+ * the TLS handshake of a clear data connection or the first byte of an empty
+ * file.
+ * <p>
+ * The phases are, in order:
+ * <ol>
+ * <li>setup - PASV/EPSV, or binding the local port and sending PORT/EPRT</li>
+ * <li>connect - establishing the data connection, including the reply to the
+ * transfer command in active mode</li>
+ * <li>handshake - the TLS handshake on the data connection</li>
+ * <li>first byte - from the start of the setup to the first byte of data</li>
+ * <li>transfer - from the start to the end of the data transfer, of which
+ * stall time is the sum of the gaps of more than 100 milliseconds between
+ * consecutive reads or writes</li>
+ * <li>reply - from closing the data connection to reading the final reply</li>
+ * </ol>
+ * Comparing these tells apart a slow server (setup, reply), a slow network
+ * (connect, handshake, first byte) and a slow consumer or producer on the
+ * local side (stall).
+ */
+public class TransferStats implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = -3094162717381024316L;
+	/**
+	 * The command that started the transfer.
+	 */
+	private final String command;
+	/**
+	 * Direction of the transfer.
+	 */
+	private final int direction;
+	/**
+	 * Number of bytes transferred.
+	 */
+	private final long bytesTransferred;
+	/**
+	 * Time taken by PASV/EPSV or PORT/EPRT.
+	 */
+	private final long setupTime;
+	/**
+	 * Time taken to establish the data connection.
+	 */
+	private final long connectTime;
+	/**
+	 * Time taken by the TLS handshake.
+	 */
+	private final long handshakeTime;
+	/**
+	 * Time to the first byte of data.
+	 */
+	private final long firstByteTime;
+	/**
+	 * Time taken by the data transfer.
+	 */
+	private final long transferTime;
+	/**
+	 * Time during which no data was transferred.
+	 */
+	private final long stallTime;
+	/**
+	 * Time taken to read the final reply.
+	 */
+	private final long replyTime;
+	/**
+	 * Time taken by the whole transfer.
+	 */
+	private final long totalTime;
+
+	/**
+	 * Creates a new instance of <code>TransferStats</code>.
+	 * 
+	 * @param command
+	 *            the command that started the transfer.
+	 * @param direction
+	 *            <code>DataConnectionEvent.SEND</code> or
+	 *            <code>DataConnectionEvent.RECEIVE</code>.
+	 * @param bytesTransferred
+	 *            number of bytes transferred.
+	 * @param setupTime
+	 *            time taken by PASV/EPSV or PORT/EPRT.
+	 * @param connectTime
+	 *            time taken to establish the data connection.
+	 * @param handshakeTime
+	 *            time taken by the TLS handshake.
+	 * @param firstByteTime
+	 *            time to the first byte of data.
+	 * @param transferTime
+	 *            time taken by the data transfer.
+	 * @param stallTime
+	 *            time during which no data was transferred.
+	 * @param replyTime
+	 *            time taken to read the final reply.
+	 * @param totalTime
+	 *            time taken by the whole transfer.
+	 */
+	public TransferStats(String command, int direction, long bytesTransferred,
+			long setupTime, long connectTime, long handshakeTime,
+			long firstByteTime, long transferTime, long stallTime,
+			long replyTime, long totalTime) {
+		this.command = command;
+		this.direction = direction;
+		this.bytesTransferred = bytesTransferred;
+		this.setupTime = setupTime;
+		this.connectTime = connectTime;
+		this.handshakeTime = handshakeTime;
+		this.firstByteTime = firstByteTime;
+		this.transferTime = transferTime;
+		this.stallTime = stallTime;
+		this.replyTime = replyTime;
+		this.totalTime = totalTime;
+	}
+
+	/**
+	 * Returns the command that started the transfer, e.g.
+	 * <code>RETR /pub/file.zip</code>.
+	 * 
+	 * @return the transfer command.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * Returns the direction of the transfer.
+	 * 
+	 * @return <code>DataConnectionEvent.SEND</code> or
+	 *         <code>DataConnectionEvent.RECEIVE</code>.
+	 */
+	public int getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Returns the number of bytes transferred.
+	 * 
+	 * @return number of bytes transferred.
+	 */
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+
+	/**
+	 * Returns the time taken by PASV/EPSV in passive mode, or by binding the
+	 * local port and PORT/EPRT in active mode.
+	 * 
+	 * @return setup time, in nanoseconds.
+	 */
+	public long getSetupTime() {
+		return setupTime;
+	}
+
+	/**
+	 * Returns the time taken to establish the data connection. In active mode
+	 * this includes the reply to the transfer command, since the remote host
+	 * connects only after receiving it.
+	 * 
+	 * @return connect time, in nanoseconds.
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Returns the time taken by the TLS handshake on the data connection.
+	 * 
+	 * @return handshake time, in nanoseconds, or <code>-1</code> if the data
+	 *         connection was not secured.
+	 */
+	public long getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	/**
+	 * Returns the time from the start of the setup to the first byte of data.
+	 * 
+	 * @return time to first byte, in nanoseconds, or <code>-1</code> if no
+	 *         data was transferred.
+	 */
+	public long getFirstByteTime() {
+		return firstByteTime;
+	}
+
+	/**
+	 * Returns the time taken by the data transfer.
+	 * 
+	 * @return transfer time, in nanoseconds, or <code>-1</code> if the
+	 *         transfer did not start.
+	 */
+	public long getTransferTime() {
+		return transferTime;
+	}
+
+	/**
+	 * Returns the sum of the gaps of more than 100 milliseconds between
+	 * consecutive reads or writes during the transfer.
+	 * 
+	 * @return stall time, in nanoseconds.
+	 */
+	public long getStallTime() {
+		return stallTime;
+	}
+
+	/**
+	 * Returns the time from closing the data connection to reading the final
+	 * reply of the transfer.
+	 * 
+	 * @return reply time, in nanoseconds.
+	 */
+	public long getReplyTime() {
+		return replyTime;
+	}
+
+	/**
+	 * Returns the time from the start of the setup to reading the final
+	 * reply.
+	 * 
+	 * @return total time, in nanoseconds.
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	/**
+	 * Returns the throughput of the data transfer.
+	 * 
+	 * @return throughput, in bytes per second, or <code>0</code> if the
+	 *         transfer time is not known.
+	 */
+	public double getThroughput() {
+		if (transferTime <= 0) {
+			return 0;
+		}
+		return bytesTransferred * 1000000000D / transferTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(200);
+		sb.append(command).append(": ").append(bytesTransferred).append(
+				" bytes");
+		append(sb, "setup", setupTime);
+		append(sb, "connect", connectTime);
+		append(sb, "handshake", handshakeTime);
+		append(sb, "first byte", firstByteTime);
+		append(sb, "transfer", transferTime);
+		append(sb, "stall", stallTime);
+		append(sb, "reply", replyTime);
+		append(sb, "total", totalTime);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the given time in milliseconds to the given buffer, unless the
+	 * time is not known.
+	 */
+	private static void append(StringBuilder sb, String name, long time) {
+		if (time >= 0) {
+			sb.append(", ").append(name).append(' ').append(time / 1000000L)
+					.append('.').append(time / 100000L % 10).append(" ms");
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs tasks after a delay, on a single daemon thread shared by all clients.
+ * The tasks are kept in a hashed timer wheel, so that scheduling and
+ * cancelling a task take constant time however many tasks are pending, as a
+ * task is scheduled, and almost always cancelled, for every command. Tasks
+ * run on the timer thread, at a resolution of <code>TICK</code>, and must be
+ * short.
+ */
+class Watchdog implements Runnable {
+
+	/**
+	 * Length of a tick of the wheel, in milliseconds.
+	 */
+	static final long TICK = 100L;
+	/**
+	 * Number of slots of the wheel. Tasks due further out than a turn of the
+	 * wheel share slots with nearer ones, and are skipped until they are due.
+	 */
+	private static final int WHEEL_SIZE = 512;
+	/**
+	 * The shared instance, created on demand.
+	 */
+	private static Watchdog instance = null;
+	/**
+	 * The first task of each slot.
+	 */
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	/**
+	 * Number of ticks elapsed.
+	 */
+	private long tick = 0L;
+	/**
+	 * Number of pending tasks.
+	 */
+	private int pending = 0;
+	/**
+	 * The timer thread, started with the first task.
+	 */
+	private Thread thread = null;
+
+	/**
+	 * Returns the shared instance.
+	 * 
+	 * @return the watchdog.
+	 */
+	static synchronized Watchdog getInstance() {
+		if (instance == null) {
+			instance = new Watchdog();
+		}
+		return instance;
+	}
+
+	/**
+	 * Schedules the given task to run after the given delay.
+	 * 
+	 * @param delay
+	 *            delay in milliseconds.
+	 * @param task
+	 *            the task to run.
+	 * @return a handle for cancelling the task.
+	 */
+	synchronized Timeout schedule(long delay, Runnable task) {
+		long ticks = Math.max(1L, (delay + TICK - 1) / TICK);
+		Timeout timeout = new Timeout(task, tick + ticks);
+		int slot = (int) (timeout.due % WHEEL_SIZE);
+		timeout.slot = slot;
+		timeout.next = wheel[slot];
+		if (wheel[slot] != null) {
+			wheel[slot].previous = timeout;
+		}
+		wheel[slot] = timeout;
+		pending++;
+		if (thread == null) {
+			thread = new Thread(this, "FTP Watchdog");
+			thread.setDaemon(true);
+			thread.start();
+		} else if (pending == 1) {
+			notifyAll();
+		}
+		return timeout;
+	}
+
+	/**
+	 * Removes the given task from the wheel, if it is still there.
+	 */
+	private synchronized boolean remove(Timeout timeout) {
+		if (timeout.slot < 0) {
+			return false;
+		}
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			wheel[timeout.slot] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.slot = -1;
+		timeout.next = null;
+		timeout.previous = null;
+		pending--;
+		return true;
+	}
+
+	/**
+	 * Advances the wheel a tick at a time and runs the tasks that are due.
+	 */
+	public void run() {
+		long base = System.nanoTime();
+		while (true) {
+			List<Timeout> expired = new ArrayList<Timeout>();
+			try {
+				synchronized (this) {
+					if (pending == 0) {
+						while (pending == 0) {
+							wait();
+						}
+						// Time does not advance for the wheel while idle
+						base = System.nanoTime() - tick * TICK * 1000000L;
+					}
+				}
+				long sleep = (base + (tick + 1) * TICK * 1000000L - System
+						.nanoTime()) / 1000000L;
+				if (sleep > 0) {
+					Thread.sleep(sleep);
+				}
+			} catch (InterruptedException exp) {
+				// Keep going, the thread is shared
+			}
+			synchronized (this) {
+				tick++;
+				Timeout timeout = wheel[(int) (tick % WHEEL_SIZE)];
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					if (timeout.due <= tick) {
+						remove(timeout);
+						expired.add(timeout);
+					}
+					timeout = next;
+				}
+			}
+			for (int i = 0; i < expired.size(); i++) {
+				try {
+					expired.get(i).task.run();
+				} catch (RuntimeException exp) {
+					System.err.println("Watchdog task failed. " + exp);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A task scheduled with the watchdog.
+	 */
+	class Timeout {
+
+		/**
+		 * The task to run.
+		 */
+		final Runnable task;
+		/**
+		 * Tick at which the task is due.
+		 */
+		final long due;
+		/**
+		 * Slot of the wheel the task is in, -1 once it ran or was cancelled.
+		 */
+		int slot = -1;
+		/**
+		 * Next task in the slot.
+		 */
+		Timeout next = null;
+		/**
+		 * Previous task in the slot.
+		 */
+		Timeout previous = null;
+
+		Timeout(Runnable task, long due) {
+			this.task = task;
+			this.due = due;
+		}
+
+		/**
+		 * Cancels the task, unless it ran already.
+		 * 
+		 * @return <code>true</code>, if the task was cancelled.
+		 */
+		boolean cancel() {
+			return remove(this);
+		}
+	}
+}
\ No newline at end of file
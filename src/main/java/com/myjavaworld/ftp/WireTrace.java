@@ -0,0 +1,272 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.ftp;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size ring buffer of the latest commands and replies of a control
+ * connection, for diagnosing failed sessions. Each entry holds the time, the
+ * direction, the reply code and the first bytes of the command or reply. The
+ * entries are kept in a direct buffer and recording one allocates nothing,
+ * so tracing can stay on at all times. Passwords and account information are
+ * not recorded.
+ * <p>
+ * The trace of a client is returned by <code>FTPClient.getWireTrace</code>.
+ * Its dump is also attached to the <code>FTPException</code> and
+ * <code>ConnectionException</code> objects thrown by the client.
+ */
+public class WireTrace {
+
+	/**
+	 * Direction of a command sent to the remote host.
+	 */
+	public static final int SENT = 0;
+	/**
+	 * Direction of a reply received from the remote host.
+	 */
+	public static final int RECEIVED = 1;
+	/**
+	 * Size of an entry in bytes.
+	 */
+	private static final int ENTRY_SIZE = 128;
+	/**
+	 * Offsets of the fields of an entry.
+	 */
+	private static final int TIME = 0;
+	private static final int DIRECTION = 8;
+	private static final int MASKED = 9;
+	private static final int CODE = 10;
+	private static final int LENGTH = 12;
+	private static final int STORED = 16;
+	private static final int DATA = 20;
+	/**
+	 * Sequence number of an entry that is being written.
+	 */
+	private static final long WRITING = -1L;
+	/**
+	 * Number of bytes of a command or reply that are recorded.
+	 */
+	private static final int MAX_DATA = ENTRY_SIZE - DATA;
+
+	/**
+	 * The entries.
+	 */
+	private final ByteBuffer buffer;
+	/**
+	 * Sequence number plus one of the entry in each slot, 0 if the slot is
+	 * empty, or <code>WRITING</code>. A writer claims a slot before writing
+	 * it, and a dump reads the sequence number before and after copying an
+	 * entry, so that it skips an entry that is being overwritten.
+	 */
+	private final AtomicLongArray sequences;
+	/**
+	 * Number of entries.
+	 */
+	private final int capacity;
+	/**
+	 * Sequence number of the next entry.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+	/**
+	 * Wall clock time, in milliseconds, at <code>baseNanos</code>.
+	 */
+	private final long baseMillis;
+	/**
+	 * Value of <code>System.nanoTime</code> when this trace was created.
+	 */
+	private final long baseNanos;
+
+	/**
+	 * Creates a new trace.
+	 * 
+	 * @param capacity
+	 *            number of entries to keep.
+	 */
+	public WireTrace(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.buffer = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+		this.sequences = new AtomicLongArray(capacity);
+		this.baseMillis = System.currentTimeMillis();
+		this.baseNanos = System.nanoTime();
+	}
+
+	/**
+	 * Returns the number of entries this trace keeps.
+	 * 
+	 * @return capacity of this trace.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of entries recorded since this trace was created or
+	 * cleared, including the ones that were overwritten.
+	 * 
+	 * @return number of recorded entries.
+	 */
+	public long getRecordCount() {
+		return sequence.get();
+	}
+
+	/**
+	 * Records a command or reply.
+	 * 
+	 * @param direction
+	 *            <code>SENT</code> or <code>RECEIVED</code>.
+	 * @param code
+	 *            the reply code, 0 for commands.
+	 * @param data
+	 *            the encoded command or reply.
+	 * @param offset
+	 *            offset of the command or reply in <code>data</code>.
+	 * @param length
+	 *            length of the command or reply.
+	 */
+	public void record(int direction, int code, byte[] data, int offset,
+			int length) {
+		long seq = sequence.getAndIncrement();
+		int slot = (int) (seq % capacity);
+		int base = slot * ENTRY_SIZE;
+		boolean masked = direction == SENT && isSecret(data, offset, length);
+		int stored = masked ? 5 : Math.min(length, MAX_DATA);
+		while (true) {
+			long current = sequences.get(slot);
+			if (current > seq) {
+				// A later entry took the slot after the ring wrapped around
+				return;
+			}
+			if (current != WRITING
+					&& sequences.compareAndSet(slot, current, WRITING)) {
+				break;
+			}
+			// Another writer is still on the slot, for a few instructions
+			Thread.yield();
+		}
+		buffer.putLong(base + TIME, System.nanoTime());
+		buffer.put(base + DIRECTION, (byte) direction);
+		buffer.put(base + MASKED, (byte) (masked ? 1 : 0));
+		buffer.putShort(base + CODE, (short) code);
+		buffer.putInt(base + LENGTH, length);
+		buffer.putInt(base + STORED, stored);
+		for (int i = 0; i < stored; i++) {
+			buffer.put(base + DATA + i, data[offset + i]);
+		}
+		sequences.set(slot, seq + 1);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		sequence.set(0L);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, 0L);
+		}
+	}
+
+	/**
+	 * Returns the entries, oldest first, one per line. Each line has the time,
+	 * <code>&gt;</code> for commands or <code>&lt;</code> for replies, and the
+	 * recorded bytes of the command or reply. Lines of multi-line replies are
+	 * separated by <code>" | "</code>.
+	 * 
+	 * @return the entries.
+	 */
+	public String dump() {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd HH:mm:ss.SSS");
+		StringBuilder builder = new StringBuilder();
+		byte[] data = new byte[MAX_DATA];
+		long end = sequence.get();
+		for (long seq = Math.max(0L, end - capacity); seq < end; seq++) {
+			int slot = (int) (seq % capacity);
+			int base = slot * ENTRY_SIZE;
+			if (sequences.get(slot) != seq + 1) {
+				// Overwritten or still being written.
+				continue;
+			}
+			long nanos = buffer.getLong(base + TIME);
+			byte direction = buffer.get(base + DIRECTION);
+			byte masked = buffer.get(base + MASKED);
+			int length = buffer.getInt(base + LENGTH);
+			int stored = Math.max(0, Math.min(buffer.getInt(base + STORED),
+					MAX_DATA));
+			for (int i = 0; i < stored; i++) {
+				data[i] = buffer.get(base + DATA + i);
+			}
+			if (sequences.get(slot) != seq + 1) {
+				// Overwritten while it was copied.
+				continue;
+			}
+			long time = baseMillis + (nanos - baseNanos) / 1000000L;
+			builder.append(format.format(new Date(time)));
+			builder.append(direction == SENT ? " > " : " < ");
+			for (int i = 0; i < stored; i++) {
+				char ch = (char) (data[i] & 0xFF);
+				if (ch == '\r') {
+					continue;
+				}
+				if (ch == '\n') {
+					builder.append(" | ");
+				} else if (ch < ' ') {
+					builder.append('?');
+				} else {
+					builder.append(ch);
+				}
+			}
+			if (masked != 0) {
+				builder.append("**********");
+			} else if (stored < length) {
+				builder.append("... (").append(length).append(" bytes)");
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return dump();
+	}
+
+	/**
+	 * Tells whether the given command is PASS or ACCT, whose argument must
+	 * not be recorded.
+	 */
+	private static boolean isSecret(byte[] data, int offset, int length) {
+		if (length < 5 || data[offset + 4] != ' ') {
+			return false;
+		}
+		return matches(data, offset, 'P', 'A', 'S', 'S')
+				|| matches(data, offset, 'A', 'C', 'C', 'T');
+	}
+
+	private static boolean matches(byte[] data, int offset, char c0, char c1,
+			char c2, char c3) {
+		return (data[offset] & 0xDF) == c0 && (data[offset + 1] & 0xDF) == c1
+				&& (data[offset + 2] & 0xDF) == c2
+				&& (data[offset + 3] & 0xDF) == c3;
+	}
+}
\ No newline at end of file
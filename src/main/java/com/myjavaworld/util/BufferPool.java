@@ -0,0 +1,589 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.util;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of reusable, fixed size <code>ByteBuffer</code>s. Pools are shared and
+ * are obtained using <code>getPool</code>, one pool per buffer size and kind
+ * (heap or direct). All pools draw from a single, global memory budget, which
+ * counts the buffers checked out and the idle buffers kept for reuse. When
+ * the budget is short, idle buffers of all shared pools are freed first. If
+ * that is not enough, <code>acquire</code> blocks until another thread
+ * releases a buffer, which applies backpressure to the callers instead of
+ * letting the heap grow, and fails once the maximum wait has passed.
+ * <p>
+ * Callers that need several buffers at once acquire them with the static
+ * <code>acquire</code> method, which reserves all of them in a single step,
+ * so that two callers each holding part of what they need cannot wait on
+ * each other.
+ * <p>
+ * Buffers must be returned to the pool they were acquired from by calling
+ * <code>release</code>. Heap buffers are always backed by an accessible array.
+ */
+public class BufferPool {
+
+	/**
+	 * Default number of idle buffers retained by each pool.
+	 */
+	public static final int DEFAULT_MAX_IDLE_BUFFERS = 32;
+	/**
+	 * Default maximum time, in milliseconds, to wait for the memory budget.
+	 */
+	public static final long DEFAULT_MAX_WAIT = 30000L;
+	/**
+	 * Lock that guards the global memory budget.
+	 */
+	private static final Object budgetLock = new Object();
+	/**
+	 * Registry of shared pools, keyed by size and kind.
+	 */
+	private static final Map<String, BufferPool> pools = new HashMap<String, BufferPool>();
+	/**
+	 * Maximum number of bytes that may be held, checked out or idle, across
+	 * all pools at any given time.
+	 */
+	private static long memoryBudget = Long.MAX_VALUE;
+	/**
+	 * Number of bytes currently acquired across all pools.
+	 */
+	private static long memoryInUse = 0L;
+	/**
+	 * Number of bytes held by idle buffers across all pools.
+	 */
+	private static long idleMemory = 0L;
+	/**
+	 * Maximum time, in milliseconds, to wait for the memory budget, 0 to wait
+	 * indefinitely.
+	 */
+	private static long maxWait = DEFAULT_MAX_WAIT;
+
+	/**
+	 * Size of the buffers in this pool.
+	 */
+	private final int bufferSize;
+	/**
+	 * Whether this pool holds direct buffers.
+	 */
+	private final boolean direct;
+	/**
+	 * Idle buffers ready for reuse.
+	 */
+	private final List<ByteBuffer> idle = new ArrayList<ByteBuffer>();
+	/**
+	 * Maximum number of idle buffers to retain.
+	 */
+	private int maxIdleBuffers = DEFAULT_MAX_IDLE_BUFFERS;
+	/**
+	 * Number of successful acquisitions.
+	 */
+	private long acquireCount = 0L;
+	/**
+	 * Number of buffers allocated because no idle buffer was available.
+	 */
+	private long allocationCount = 0L;
+	/**
+	 * Number of acquisitions that had to wait for the memory budget.
+	 */
+	private long waitCount = 0L;
+	/**
+	 * Total time spent waiting for the memory budget, in milli seconds.
+	 */
+	private long waitTime = 0L;
+	/**
+	 * Number of buffers currently checked out.
+	 */
+	private int buffersInUse = 0;
+	/**
+	 * Highest number of buffers checked out at the same time.
+	 */
+	private int peakBuffersInUse = 0;
+
+	/**
+	 * Creates a new instance of <code>BufferPool</code>. Applications should
+	 * normally use the shared pools returned by <code>getPool</code>.
+	 * 
+	 * @param bufferSize
+	 *            size of the buffers in this pool.
+	 * @param direct
+	 *            whether to allocate direct buffers.
+	 */
+	public BufferPool(int bufferSize, boolean direct) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive");
+		}
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+	}
+
+	/**
+	 * Returns the shared pool for the given buffer size and kind.
+	 * 
+	 * @param bufferSize
+	 *            size of the buffers.
+	 * @param direct
+	 *            <code>true</code> for direct buffers, <code>false</code> for
+	 *            heap buffers.
+	 * @return the shared pool.
+	 */
+	public static BufferPool getPool(int bufferSize, boolean direct) {
+		String key = (direct ? "D" : "H") + bufferSize;
+		synchronized (pools) {
+			BufferPool pool = pools.get(key);
+			if (pool == null) {
+				pool = new BufferPool(bufferSize, direct);
+				pools.put(key, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Returns all shared pools created so far.
+	 * 
+	 * @return the shared pools.
+	 */
+	public static BufferPool[] getPools() {
+		synchronized (pools) {
+			return pools.values().toArray(new BufferPool[pools.size()]);
+		}
+	}
+
+	/**
+	 * Sets the global memory budget, that is, the maximum number of bytes that
+	 * may be held by all pools at the same time, in buffers checked out or
+	 * idle. Idle buffers beyond a lower budget are freed. A request is always
+	 * granted when no buffer is checked out, even if it is larger than the
+	 * budget.
+	 * 
+	 * @param bytes
+	 *            the memory budget in bytes.
+	 */
+	public static void setMemoryBudget(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("budget must be positive");
+		}
+		synchronized (budgetLock) {
+			memoryBudget = bytes;
+			trim(0L);
+			budgetLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Sets the maximum time <code>acquire</code> waits for the memory budget
+	 * before it fails.
+	 * 
+	 * @param millis
+	 *            maximum wait in milliseconds, 0 to wait indefinitely.
+	 */
+	public static void setMaxWait(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("maxWait must not be negative");
+		}
+		synchronized (budgetLock) {
+			maxWait = millis;
+		}
+	}
+
+	/**
+	 * Returns the maximum time <code>acquire</code> waits for the memory
+	 * budget.
+	 * 
+	 * @return maximum wait in milliseconds, 0 for no limit.
+	 */
+	public static long getMaxWait() {
+		synchronized (budgetLock) {
+			return maxWait;
+		}
+	}
+
+	/**
+	 * Returns the global memory budget.
+	 * 
+	 * @return the global memory budget in bytes.
+	 */
+	public static long getMemoryBudget() {
+		synchronized (budgetLock) {
+			return memoryBudget;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes currently checked out of all pools.
+	 * 
+	 * @return bytes in use.
+	 */
+	public static long getMemoryInUse() {
+		synchronized (budgetLock) {
+			return memoryInUse;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes held by idle buffers of all pools.
+	 * 
+	 * @return idle bytes.
+	 */
+	public static long getIdleMemory() {
+		synchronized (budgetLock) {
+			return idleMemory;
+		}
+	}
+
+	/**
+	 * Acquires a buffer from this pool. The returned buffer is cleared. If the
+	 * global memory budget is exhausted, this method blocks until enough
+	 * buffers are released, or until the maximum wait has passed.
+	 * 
+	 * @return a buffer of <code>getBufferSize()</code> bytes.
+	 * @exception InterruptedIOException
+	 *                if the calling thread is interrupted while waiting, or if
+	 *                the maximum wait has passed.
+	 */
+	public ByteBuffer acquire() throws InterruptedIOException {
+		return acquire(new BufferPool[] { this })[0];
+	}
+
+	/**
+	 * Acquires one buffer from each of the given pools, reserving the memory
+	 * for all of them in a single step. A pool may be given more than once.
+	 * The returned buffers are cleared.
+	 * 
+	 * @param pools
+	 *            the pools to acquire the buffers from.
+	 * @return the buffers, in the order of the pools.
+	 * @exception InterruptedIOException
+	 *                if the calling thread is interrupted while waiting, or if
+	 *                the maximum wait has passed. No buffer is acquired then.
+	 */
+	public static ByteBuffer[] acquire(BufferPool[] pools)
+			throws InterruptedIOException {
+		ByteBuffer[] buffers = new ByteBuffer[pools.length];
+		synchronized (budgetLock) {
+			long bytes = 0L;
+			for (int i = 0; i < pools.length; i++) {
+				buffers[i] = pools[i].takeIdle();
+				if (buffers[i] == null) {
+					bytes += pools[i].bufferSize;
+				}
+			}
+			try {
+				reserve(pools[0], bytes);
+			} catch (InterruptedIOException exp) {
+				for (int i = 0; i < pools.length; i++) {
+					if (buffers[i] != null) {
+						pools[i].restoreIdle(buffers[i]);
+					}
+				}
+				throw exp;
+			}
+		}
+		for (int i = 0; i < pools.length; i++) {
+			BufferPool pool = pools[i];
+			synchronized (pool) {
+				pool.acquireCount++;
+				pool.buffersInUse++;
+				if (pool.buffersInUse > pool.peakBuffersInUse) {
+					pool.peakBuffersInUse = pool.buffersInUse;
+				}
+				if (buffers[i] == null) {
+					pool.allocationCount++;
+				}
+			}
+			if (buffers[i] == null) {
+				buffers[i] = pool.direct ? ByteBuffer
+						.allocateDirect(pool.bufferSize) : ByteBuffer
+						.allocate(pool.bufferSize);
+			}
+			buffers[i].clear();
+		}
+		return buffers;
+	}
+
+	/**
+	 * Takes an idle buffer of this pool and counts it as in use. Called with
+	 * the budget lock held.
+	 * 
+	 * @return an idle buffer, or <code>null</code> if there is none.
+	 */
+	private ByteBuffer takeIdle() {
+		ByteBuffer buffer = null;
+		synchronized (this) {
+			if (idle.isEmpty()) {
+				return null;
+			}
+			buffer = idle.remove(idle.size() - 1);
+		}
+		idleMemory -= bufferSize;
+		memoryInUse += bufferSize;
+		return buffer;
+	}
+
+	/**
+	 * Puts back an idle buffer taken with <code>takeIdle</code> but never
+	 * handed out, leaving the statistics of this pool alone. Called with the
+	 * budget lock held.
+	 */
+	private void restoreIdle(ByteBuffer buffer) {
+		synchronized (this) {
+			idle.add(buffer);
+		}
+		memoryInUse -= bufferSize;
+		idleMemory += bufferSize;
+	}
+
+	/**
+	 * Returns the given buffer to this pool. The buffer is kept for reuse if
+	 * the pool has room for it and the memory budget allows it, and is left
+	 * to the garbage collector otherwise.
+	 * 
+	 * @param buffer
+	 *            a buffer that was acquired from this pool. <code>null</code>
+	 *            is ignored.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+			throw new IllegalArgumentException(
+					"buffer does not belong to this pool");
+		}
+		synchronized (budgetLock) {
+			memoryInUse -= bufferSize;
+			boolean keep = memoryInUse + idleMemory + bufferSize <= memoryBudget;
+			synchronized (this) {
+				buffersInUse--;
+				keep = keep && idle.size() < maxIdleBuffers;
+				if (keep) {
+					idle.add(buffer);
+				}
+			}
+			if (keep) {
+				idleMemory += bufferSize;
+			}
+			budgetLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until the global budget can accommodate the given number of bytes
+	 * and reserves them. Idle buffers are freed first if the budget is short.
+	 * Called with the budget lock held.
+	 * 
+	 * @param pool
+	 *            the pool the wait is recorded in.
+	 * @param bytes
+	 *            the number of bytes to reserve.
+	 */
+	private static void reserve(BufferPool pool, long bytes)
+			throws InterruptedIOException {
+		if (bytes == 0) {
+			return;
+		}
+		trim(bytes);
+		if (memoryInUse > 0 && memoryInUse + idleMemory + bytes > memoryBudget) {
+			long start = System.currentTimeMillis();
+			try {
+				while (memoryInUse > 0
+						&& memoryInUse + idleMemory + bytes > memoryBudget) {
+					long timeout = 0L;
+					if (maxWait > 0) {
+						timeout = start + maxWait - System.currentTimeMillis();
+						if (timeout <= 0) {
+							throw new InterruptedIOException(
+									"Timed out waiting for buffer memory");
+						}
+					}
+					budgetLock.wait(timeout);
+					trim(bytes);
+				}
+			} catch (InterruptedException exp) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for a buffer");
+			} finally {
+				long elapsed = System.currentTimeMillis() - start;
+				synchronized (pool) {
+					pool.waitCount++;
+					pool.waitTime += elapsed;
+				}
+			}
+		}
+		memoryInUse += bytes;
+	}
+
+	/**
+	 * Frees idle buffers of the shared pools until the given number of bytes
+	 * fits in the budget, or no idle buffer is left. Called with the budget
+	 * lock held.
+	 */
+	private static void trim(long bytes) {
+		long excess = memoryInUse + idleMemory + bytes - memoryBudget;
+		if (excess <= 0 || idleMemory == 0) {
+			return;
+		}
+		synchronized (pools) {
+			for (BufferPool pool : pools.values()) {
+				synchronized (pool) {
+					while (excess > 0 && !pool.idle.isEmpty()) {
+						pool.idle.remove(pool.idle.size() - 1);
+						idleMemory -= pool.bufferSize;
+						excess -= pool.bufferSize;
+					}
+				}
+				if (excess <= 0) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the size of the buffers in this pool.
+	 * 
+	 * @return buffer size in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Tells whether this pool holds direct buffers.
+	 * 
+	 * @return <code>true</code>, if this pool holds direct buffers;
+	 *         <code>false</code>, otherwise.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Sets the maximum number of idle buffers this pool retains for reuse.
+	 * Buffers released beyond this limit are discarded.
+	 * 
+	 * @param maxIdleBuffers
+	 *            maximum number of idle buffers.
+	 */
+	public void setMaxIdleBuffers(int maxIdleBuffers) {
+		synchronized (budgetLock) {
+			synchronized (this) {
+				this.maxIdleBuffers = maxIdleBuffers;
+				while (idle.size() > maxIdleBuffers) {
+					idle.remove(idle.size() - 1);
+					idleMemory -= bufferSize;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the maximum number of idle buffers this pool retains.
+	 * 
+	 * @return maximum number of idle buffers.
+	 */
+	public synchronized int getMaxIdleBuffers() {
+		return maxIdleBuffers;
+	}
+
+	/**
+	 * Returns the number of times a buffer was acquired from this pool.
+	 * 
+	 * @return number of acquisitions.
+	 */
+	public synchronized long getAcquireCount() {
+		return acquireCount;
+	}
+
+	/**
+	 * Returns the number of buffers this pool had to allocate because no idle
+	 * buffer was available.
+	 * 
+	 * @return number of allocations.
+	 */
+	public synchronized long getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * Returns the number of acquisitions that were blocked by the global
+	 * memory budget.
+	 * 
+	 * @return number of blocked acquisitions.
+	 */
+	public synchronized long getWaitCount() {
+		return waitCount;
+	}
+
+	/**
+	 * Returns the total time acquisitions were blocked by the global memory
+	 * budget.
+	 * 
+	 * @return wait time in milli seconds.
+	 */
+	public synchronized long getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * Returns the number of buffers currently checked out of this pool.
+	 * 
+	 * @return buffers in use.
+	 */
+	public synchronized int getBuffersInUse() {
+		return buffersInUse;
+	}
+
+	/**
+	 * Returns the highest number of buffers that were checked out of this pool
+	 * at the same time.
+	 * 
+	 * @return peak number of buffers in use.
+	 */
+	public synchronized int getPeakBuffersInUse() {
+		return peakBuffersInUse;
+	}
+
+	/**
+	 * Returns the number of idle buffers in this pool.
+	 * 
+	 * @return idle buffers.
+	 */
+	public synchronized int getIdleBuffers() {
+		return idle.size();
+	}
+
+	/**
+	 * Returns a string representation of this pool and its statistics.
+	 * 
+	 * @return String representation.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "BufferPool[size=" + bufferSize + ", direct=" + direct
+				+ ", acquired=" + acquireCount + ", allocated="
+				+ allocationCount + ", waits=" + waitCount + ", waitTime="
+				+ waitTime + "ms, inUse=" + buffersInUse + ", peak="
+				+ peakBuffersInUse + ", idle=" + idle.size() + "]";
+	}
+}
\ No newline at end of file
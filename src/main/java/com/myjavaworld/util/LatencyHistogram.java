@@ -0,0 +1,215 @@
+/*
+ * Copyright 2012 jMethods, Inc. 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.myjavaworld.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative <code>long</code> values, such as latencies in
+ * nanoseconds, with a bounded relative error. Values below 32 are counted
+ * exactly. Larger values are counted in buckets that split each power of two
+ * into 32 parts, so a reported value is within about 3% of the recorded one.
+ * The whole range of <code>long</code> takes under 2,000 counters.
+ * <p>
+ * Recording is lock-free and may be done by many threads at once. Reading is
+ * not synchronized with recording, so values read while recording is going
+ * on may be slightly inconsistent with each other.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of bits of precision within each power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+	/**
+	 * Number of sub buckets within each power of two.
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	/**
+	 * Total number of buckets.
+	 */
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS)
+			* SUB_BUCKET_COUNT;
+
+	/**
+	 * Counts by bucket.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	/**
+	 * Number of recorded values.
+	 */
+	private final AtomicLong count = new AtomicLong();
+	/**
+	 * Sum of the recorded values.
+	 */
+	private final AtomicLong sum = new AtomicLong();
+	/**
+	 * Smallest recorded value.
+	 */
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	/**
+	 * Largest recorded value.
+	 */
+	private final AtomicLong max = new AtomicLong(-1L);
+
+	/**
+	 * Records the given value. Negative values are recorded as 0.
+	 * 
+	 * @param value
+	 *            the value to record.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = min.get();
+		while (value < current && !min.compareAndSet(current, value)) {
+			current = min.get();
+		}
+		current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 * 
+	 * @return number of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of the recorded values.
+	 * 
+	 * @return sum of the recorded values.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Returns the smallest recorded value.
+	 * 
+	 * @return smallest recorded value, or 0 if none was recorded.
+	 */
+	public long getMin() {
+		return count.get() == 0 ? 0L : min.get();
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 * 
+	 * @return largest recorded value, or 0 if none was recorded.
+	 */
+	public long getMax() {
+		return count.get() == 0 ? 0L : max.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 * 
+	 * @return mean of the recorded values, or 0 if none was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the value at the given percentile. The value returned is the
+	 * highest value that falls in the same bucket as the value at the
+	 * percentile, but not more than the largest recorded value.
+	 * 
+	 * @param percentile
+	 *            percentile between 0 and 100.
+	 * @return value at the percentile, or 0 if none was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile: "
+					+ percentile);
+		}
+		long total = count.get();
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * total);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clears the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0L);
+		}
+		count.set(0L);
+		sum.set(0L);
+		min.set(Long.MAX_VALUE);
+		max.set(-1L);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", min=" + getMin() + ", p50="
+				+ getValueAtPercentile(50) + ", p90="
+				+ getValueAtPercentile(90) + ", p99="
+				+ getValueAtPercentile(99) + ", max=" + getMax();
+	}
+
+	/**
+	 * Returns the bucket of the given non-negative value.
+	 */
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> (bucket - 1)) - SUB_BUCKET_COUNT;
+		return (bucket << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * Returns the highest value that falls in the given bucket.
+	 */
+	private static long highestValueOf(int index) {
+		int bucket = index >>> SUB_BUCKET_BITS;
+		long subBucket = index & (SUB_BUCKET_COUNT - 1);
+		if (bucket == 0) {
+			return subBucket;
+		}
+		long lowest = (SUB_BUCKET_COUNT + subBucket) << (bucket - 1);
+		return lowest + (1L << (bucket - 1)) - 1;
+	}
+}
\ No newline at end of file